@@ -22,6 +22,7 @@ import java.util.Map;
 import org.nuxeo.ecm.core.api.DocumentModel.DocumentModelRefresh;
 import org.nuxeo.ecm.core.api.event.DocumentEventTypes;
 import org.nuxeo.ecm.core.api.impl.DocsQueryProviderDef;
+import org.nuxeo.ecm.core.api.impl.DocumentModelListImpl;
 import org.nuxeo.ecm.core.api.operation.Operation;
 import org.nuxeo.ecm.core.api.operation.ProgressMonitor;
 import org.nuxeo.ecm.core.api.security.ACP;
@@ -343,6 +344,35 @@ public interface CoreSession {
     DocumentModelList getChildren(DocumentRef parent, String type, String perm,
             Filter filter, Sorter sorter) throws ClientException;
 
+    /**
+     * Gets a page of the children of the given parent, filtered according to
+     * the given document type and permission, and sorted.
+     * <p>
+     * When the repository supports it, the security checks, the type
+     * filtering, the ordering and the pagination are done by a query in the
+     * database, without loading the other children. In that case the session
+     * is saved first, like by {@link #save}, so that the query sees the
+     * changes not yet saved.
+     *
+     * @param parent the parent reference
+     * @param type the wanted type, or {@code null} for all types
+     * @param perm the permission to check for, if {@code null} defaults to
+     *            READ
+     * @param filter the filter to use if any, {@code null} otherwise
+     * @param orderBy the NXQL ORDER BY clause without the {@code ORDER BY}
+     *            keywords, like {@code "dc:title DESC"}, or {@code null} for
+     *            the order of the children in the parent
+     * @param limit the maximum number of children to return, or 0 for all
+     * @param offset the number of children to skip
+     * @return the list of the children
+     * @throws ClientException
+     * @since 5.7
+     */
+    @NoRollbackOnException
+    DocumentModelList getChildren(DocumentRef parent, String type, String perm,
+            Filter filter, String orderBy, long limit, long offset)
+            throws ClientException;
+
     /**
      * Gets the references of the children. No permission is checked if perm is
      * null.
@@ -1271,6 +1301,32 @@ public interface CoreSession {
     DocumentModelList query(String query, String queryType, Filter filter,
             long limit, long offset, long countUpTo) throws ClientException;
 
+    /**
+     * Executes the given NXQL query and returns the page of documents
+     * following the given keyset cursor in the query order.
+     * <p>
+     * Unlike an offset, the cursor lets the database seek directly to the
+     * start of the page, so deep pages are as fast as the first one. The
+     * document id is added as a last ORDER BY criterion, and the ORDER BY
+     * properties must not be {@code null} on the returned documents.
+     * {@code ecm:path} cannot be used in the ORDER BY clause.
+     *
+     * @param query the query to execute
+     * @param filter the filter to apply to result
+     * @param limit the maximum number of documents to retrieve
+     * @param cursor the cursor of the previous page, or {@code null} for the
+     *            first page
+     * @return the query result, a {@link DocumentModelListImpl} whose
+     *         {@link DocumentModelListImpl#getNextCursor} is the cursor of the
+     *         next page, or {@code null} if less than {@code limit} documents
+     *         were returned
+     * @throws ClientException
+     *
+     * @since 5.7
+     */
+    DocumentModelList query(String query, Filter filter, long limit,
+            KeysetCursor cursor) throws ClientException;
+
     /**
      *
      * @throws ClientException
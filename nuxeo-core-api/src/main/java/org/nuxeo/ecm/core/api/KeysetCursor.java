@@ -0,0 +1,218 @@
+/*
+ * Copyright (c) 2006-2011 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Florent Guillaume
+ */
+package org.nuxeo.ecm.core.api;
+
+import java.io.Serializable;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.TimeZone;
+
+/**
+ * A keyset pagination cursor: the ORDER BY values and the id of the last
+ * document of a page of query results.
+ * <p>
+ * Passed to {@link CoreSession#query(String, Filter, long, KeysetCursor)}, it
+ * makes the query return the documents following that last document in the
+ * query order, which the database finds with an index seek whatever the depth
+ * of the page, where an offset has to skip all the preceding rows.
+ * <p>
+ * The ORDER BY values are those of the ORDER BY clause of the query, in
+ * order. The document id is always used as a last ORDER BY criterion, to
+ * break ties between documents having the same values.
+ * <p>
+ * A cursor can be turned into an opaque URL-safe token with {@link #toToken}
+ * and read back with {@link #fromToken}, to be handed to remote clients.
+ *
+ * @since 5.7
+ */
+public class KeysetCursor implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final String ENCODING = "UTF-8";
+
+    private static final char SEP = ',';
+
+    private static final char TYPE_STRING = 's';
+
+    private static final char TYPE_LONG = 'l';
+
+    private static final char TYPE_DOUBLE = 'd';
+
+    private static final char TYPE_BOOLEAN = 'b';
+
+    private static final char TYPE_CALENDAR = 't';
+
+    protected final List<Serializable> values;
+
+    protected final String id;
+
+    /**
+     * Constructs a cursor.
+     *
+     * @param values the ORDER BY values of the last document, which must not
+     *            be {@code null}
+     * @param id the id of the last document
+     */
+    public KeysetCursor(List<Serializable> values, String id) {
+        if (id == null) {
+            throw new IllegalArgumentException("Null id");
+        }
+        for (Serializable value : values) {
+            if (value == null) {
+                throw new IllegalArgumentException(
+                        "Keyset cursor values cannot be null");
+            }
+        }
+        this.values = Collections.unmodifiableList(new ArrayList<Serializable>(
+                values));
+        this.id = id;
+    }
+
+    public List<Serializable> getValues() {
+        return values;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * Gets an opaque URL-safe token for this cursor.
+     */
+    public String toToken() {
+        StringBuilder buf = new StringBuilder();
+        for (Serializable value : values) {
+            if (value instanceof String) {
+                buf.append(TYPE_STRING).append(encode((String) value));
+            } else if (value instanceof Double || value instanceof Float) {
+                buf.append(TYPE_DOUBLE).append(value);
+            } else if (value instanceof Number) {
+                buf.append(TYPE_LONG).append(((Number) value).longValue());
+            } else if (value instanceof Boolean) {
+                buf.append(TYPE_BOOLEAN).append(value);
+            } else if (value instanceof Calendar) {
+                buf.append(TYPE_CALENDAR).append(
+                        ((Calendar) value).getTimeInMillis());
+            } else if (value instanceof Date) {
+                buf.append(TYPE_CALENDAR).append(((Date) value).getTime());
+            } else {
+                throw new ClientRuntimeException(
+                        "Unsupported keyset cursor value: " + value.getClass());
+            }
+            buf.append(SEP);
+        }
+        buf.append(TYPE_STRING).append(encode(id));
+        return buf.toString();
+    }
+
+    /**
+     * Reads a cursor from a token returned by {@link #toToken}.
+     *
+     * @param token the token
+     * @return the cursor
+     * @throws IllegalArgumentException if the token is invalid
+     */
+    public static KeysetCursor fromToken(String token) {
+        List<String> parts = Arrays.asList(token.split(String.valueOf(SEP)));
+        List<Serializable> values = new ArrayList<Serializable>(
+                parts.size() - 1);
+        try {
+            for (String part : parts) {
+                if (part.length() == 0) {
+                    throw new IllegalArgumentException("Invalid token: "
+                            + token);
+                }
+                String s = part.substring(1);
+                Serializable value;
+                switch (part.charAt(0)) {
+                case TYPE_STRING:
+                    value = decode(s);
+                    break;
+                case TYPE_LONG:
+                    value = Long.valueOf(s);
+                    break;
+                case TYPE_DOUBLE:
+                    value = Double.valueOf(s);
+                    break;
+                case TYPE_BOOLEAN:
+                    value = Boolean.valueOf(s);
+                    break;
+                case TYPE_CALENDAR:
+                    Calendar cal = new GregorianCalendar(
+                            TimeZone.getTimeZone("UTC"));
+                    cal.setTimeInMillis(Long.parseLong(s));
+                    value = cal;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Invalid token: "
+                            + token);
+                }
+                values.add(value);
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid token: " + token, e);
+        }
+        Serializable id = values.remove(values.size() - 1);
+        if (!(id instanceof String)) {
+            throw new IllegalArgumentException("Invalid token: " + token);
+        }
+        return new KeysetCursor(values, (String) id);
+    }
+
+    private static String encode(String s) {
+        try {
+            return URLEncoder.encode(s, ENCODING);
+        } catch (UnsupportedEncodingException e) {
+            throw new ClientRuntimeException(e);
+        }
+    }
+
+    private static String decode(String s) {
+        try {
+            return URLDecoder.decode(s, ENCODING);
+        } catch (UnsupportedEncodingException e) {
+            throw new ClientRuntimeException(e);
+        }
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == this) {
+            return true;
+        }
+        if (!(obj instanceof KeysetCursor)) {
+            return false;
+        }
+        KeysetCursor other = (KeysetCursor) obj;
+        return id.equals(other.id) && values.equals(other.values);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * values.hashCode() + id.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + '(' + values + ", " + id + ')';
+    }
+
+}
@@ -18,6 +18,7 @@ import java.util.List;
 
 import org.nuxeo.ecm.core.api.DocumentModel;
 import org.nuxeo.ecm.core.api.DocumentModelList;
+import org.nuxeo.ecm.core.api.KeysetCursor;
 
 /**
  * @author Bogdan Stefanescu
@@ -30,6 +31,9 @@ public class DocumentModelListImpl extends ArrayList<DocumentModel> implements
 
     protected long totalSize = -1;
 
+    /** @since 5.7 */
+    protected KeysetCursor nextCursor;
+
     public DocumentModelListImpl() {
     }
 
@@ -69,4 +73,24 @@ public class DocumentModelListImpl extends ArrayList<DocumentModel> implements
         return totalSize;
     }
 
+    /**
+     * Sets the keyset cursor to use to get the page following this list.
+     *
+     * @since 5.7
+     */
+    public void setNextCursor(KeysetCursor nextCursor) {
+        this.nextCursor = nextCursor;
+    }
+
+    /**
+     * Gets the keyset cursor to use to get the page following this list, or
+     * {@code null} if this list is the last page or was not returned by a
+     * keyset query.
+     *
+     * @since 5.7
+     */
+    public KeysetCursor getNextCursor() {
+        return nextCursor;
+    }
+
 }
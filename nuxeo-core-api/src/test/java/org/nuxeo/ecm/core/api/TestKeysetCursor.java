@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2006-2011 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Florent Guillaume
+ */
+package org.nuxeo.ecm.core.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.List;
+
+import org.junit.Test;
+
+public class TestKeysetCursor {
+
+    @Test
+    public void testToken() throws Exception {
+        Calendar cal = new GregorianCalendar(2012, 11, 21, 12, 34, 56);
+        List<Serializable> values = new ArrayList<Serializable>();
+        values.add("a, b:c%d");
+        values.add("");
+        values.add(Long.valueOf(-123));
+        values.add(Double.valueOf(1.5));
+        values.add(Boolean.TRUE);
+        values.add(cal);
+        KeysetCursor cursor = new KeysetCursor(values, "some-id,1");
+        String token = cursor.toToken();
+        assertFalse(token.contains(" "));
+
+        KeysetCursor read = KeysetCursor.fromToken(token);
+        assertEquals("some-id,1", read.getId());
+        List<Serializable> readValues = read.getValues();
+        assertEquals(6, readValues.size());
+        assertEquals("a, b:c%d", readValues.get(0));
+        assertEquals("", readValues.get(1));
+        assertEquals(Long.valueOf(-123), readValues.get(2));
+        assertEquals(Double.valueOf(1.5), readValues.get(3));
+        assertEquals(Boolean.TRUE, readValues.get(4));
+        assertEquals(cal.getTimeInMillis(),
+                ((Calendar) readValues.get(5)).getTimeInMillis());
+        assertEquals(token, read.toToken());
+    }
+
+    @Test
+    public void testInvalid() throws Exception {
+        List<Serializable> values = new ArrayList<Serializable>();
+        values.add(null);
+        try {
+            new KeysetCursor(values, "id");
+            fail("null value should be refused");
+        } catch (IllegalArgumentException e) {
+            // ok
+        }
+        try {
+            KeysetCursor.fromToken("x12,sid");
+            fail("invalid token should be refused");
+        } catch (IllegalArgumentException e) {
+            // ok
+        }
+        try {
+            KeysetCursor.fromToken("lfoo,sid");
+            fail("invalid token should be refused");
+        } catch (IllegalArgumentException e) {
+            // ok
+        }
+    }
+
+}
@@ -15,11 +15,16 @@ package org.nuxeo.ecm.core.event.impl;
 
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -33,6 +38,7 @@ import org.nuxeo.ecm.core.event.PostCommitEventListener;
 import org.nuxeo.ecm.core.event.PostCommitFilteringEventListener;
 import org.nuxeo.ecm.core.event.ReconnectedEventBundle;
 import org.nuxeo.ecm.core.work.AbstractWork;
+import org.nuxeo.ecm.core.work.LatencyHistogram;
 import org.nuxeo.ecm.core.work.api.WorkManager;
 import org.nuxeo.ecm.core.work.api.Work.State;
 import org.nuxeo.runtime.api.Framework;
@@ -44,6 +50,14 @@ public class AsyncEventExecutor {
 
     private static final Log log = LogFactory.getLog(AsyncEventExecutor.class);
 
+    /**
+     * The open batches of batching listeners, by listener and event source.
+     * Also used as a lock for the batches contents.
+     */
+    protected final Map<String, BatchListenerWork> batches = new HashMap<String, BatchListenerWork>();
+
+    protected final ConcurrentMap<String, BatchStats> batchStats = new ConcurrentHashMap<String, BatchStats>();
+
     public AsyncEventExecutor() {
     }
 
@@ -90,10 +104,63 @@ public class AsyncEventExecutor {
             if (filtered.isEmpty()) {
                 continue;
             }
-            getWorkManager().schedule(new ListenerWork(listener, filtered));
+            int batchSize = listener.getBatchSize();
+            if (batchSize > 0) {
+                scheduleBatched(listener, bundle, filtered, batchSize);
+            } else {
+                getWorkManager().schedule(new ListenerWork(listener, filtered));
+            }
         }
     }
 
+    /**
+     * Adds the events to the open batch of the listener if it has not
+     * started yet and has room for them, otherwise schedules a new batch.
+     *
+     * @since 5.7
+     */
+    protected void scheduleBatched(EventListenerDescriptor listener,
+            EventBundle bundle, EventBundle filtered, int batchSize) {
+        // a reconnected bundle is tied to a single repository
+        String key = listener.getName() + '/' + bundle.getName() + '/'
+                + bundle.getSourceVMID();
+        BatchListenerWork work;
+        synchronized (batches) {
+            work = batches.get(key);
+            if (work != null && work.add(filtered, batchSize)) {
+                return;
+            }
+            work = new BatchListenerWork(listener, new EventBundleImpl(
+                    bundle.getSourceVMID()), filtered, key, batches,
+                    getBatchStats(listener.getName()));
+            if (work.size() < batchSize) {
+                batches.put(key, work);
+            } else {
+                batches.remove(key);
+            }
+        }
+        getWorkManager().schedule(work);
+    }
+
+    /**
+     * Gets the batching statistics of a listener.
+     *
+     * @param listenerName the listener name
+     * @return the statistics
+     * @since 5.7
+     */
+    public BatchStats getBatchStats(String listenerName) {
+        BatchStats stats = batchStats.get(listenerName);
+        if (stats == null) {
+            BatchStats newStats = new BatchStats();
+            stats = batchStats.putIfAbsent(listenerName, newStats);
+            if (stats == null) {
+                stats = newStats;
+            }
+        }
+        return stats;
+    }
+
     public int getUnfinishedCount() {
         WorkManager workManager = getWorkManager();
         int n = 0;
@@ -180,6 +247,143 @@ public class AsyncEventExecutor {
         }
     }
 
+    /**
+     * Statistics about the batches of a batching listener.
+     *
+     * @since 5.7
+     */
+    public static class BatchStats {
+
+        protected final AtomicLong batchCount = new AtomicLong();
+
+        protected final AtomicLong eventCount = new AtomicLong();
+
+        protected final AtomicLong maxBatchSize = new AtomicLong();
+
+        /** Time from the event creation to the end of its processing. */
+        protected final LatencyHistogram eventLag = new LatencyHistogram();
+
+        protected void record(EventBundle bundle) {
+            long now = System.currentTimeMillis();
+            int size = 0;
+            for (Event event : bundle) {
+                eventLag.record(now - event.getTime());
+                size++;
+            }
+            batchCount.incrementAndGet();
+            eventCount.addAndGet(size);
+            for (;;) {
+                long max = maxBatchSize.get();
+                if (size <= max || maxBatchSize.compareAndSet(max, size)) {
+                    break;
+                }
+            }
+        }
+
+        public long getBatchCount() {
+            return batchCount.get();
+        }
+
+        public long getEventCount() {
+            return eventCount.get();
+        }
+
+        public long getMaxBatchSize() {
+            return maxBatchSize.get();
+        }
+
+        public LatencyHistogram getEventLag() {
+            return eventLag;
+        }
+
+        @Override
+        public String toString() {
+            return "batches=" + batchCount + " events=" + eventCount
+                    + " maxBatchSize=" + maxBatchSize + " lag: " + eventLag;
+        }
+    }
+
+    /**
+     * Work for a batching listener, to which events of later bundles are
+     * added until it starts.
+     *
+     * @since 5.7
+     */
+    protected static class BatchListenerWork extends ListenerWork {
+
+        /** The merged events, guarded by the batches lock. */
+        protected final EventBundle merged;
+
+        protected final String key;
+
+        protected final Map<String, BatchListenerWork> batches;
+
+        protected final BatchStats stats;
+
+        protected volatile int size;
+
+        protected boolean closed;
+
+        public BatchListenerWork(EventListenerDescriptor listener,
+                EventBundle merged, EventBundle bundle, String key,
+                Map<String, BatchListenerWork> batches, BatchStats stats) {
+            super(listener, merged);
+            this.merged = merged;
+            this.key = key;
+            this.batches = batches;
+            this.stats = stats;
+            for (Event event : bundle) {
+                merged.push(event);
+            }
+            size = merged.size();
+        }
+
+        /**
+         * Adds the events of a bundle to this batch, if it is still open and
+         * has room for them. Called with the batches lock held.
+         */
+        protected boolean add(EventBundle bundle, int batchSize) {
+            if (closed || getState() != State.SCHEDULED
+                    || size + bundle.size() > batchSize) {
+                return false;
+            }
+            for (Event event : bundle) {
+                merged.push(event);
+            }
+            size = merged.size();
+            return true;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public String getTitle() {
+            return "Listener " + listener.getName() + " batch of " + size
+                    + " events";
+        }
+
+        @Override
+        public void work() throws Exception {
+            synchronized (batches) {
+                closed = true;
+                if (batches.get(key) == this) {
+                    batches.remove(key);
+                }
+            }
+            super.work();
+        }
+
+        @Override
+        public void cleanUp(boolean ok, Exception e) {
+            if (ok) {
+                stats.record(merged);
+            }
+            super.cleanUp(ok, e);
+        }
+    }
+
     // TODO still used by quota and video
     /**
      * Creates non-daemon threads at normal priority.
@@ -80,6 +80,16 @@ public class EventListenerDescriptor {
     @XNode("@singlethread")
     protected boolean singleThreaded = false;
 
+    /**
+     * Applies only for async listeners: the maximum number of events, from
+     * several bundles, that are merged into a single bundle to invoke the
+     * listener once. No batching if not specified.
+     *
+     * @since 5.7
+     */
+    @XNode("@batchSize")
+    protected Integer batchSize;
+
     protected Set<String> events;
 
     protected RuntimeContext rc;
@@ -209,6 +219,10 @@ public class EventListenerDescriptor {
         if (other.priority != null) {
             other.priority = this.priority;
         }
+
+        if (other.batchSize != null) {
+            this.batchSize = other.batchSize;
+        }
     }
 
     public final boolean acceptEvent(String eventName) {
@@ -227,4 +241,15 @@ public class EventListenerDescriptor {
         return singleThreaded;
     }
 
+    /**
+     * Gets the maximum number of events merged into a single invocation of
+     * this async listener.
+     *
+     * @return the batch size, or {@code 0} for no batching
+     * @since 5.7
+     */
+    public int getBatchSize() {
+        return batchSize == null ? 0 : batchSize.intValue();
+    }
+
 }
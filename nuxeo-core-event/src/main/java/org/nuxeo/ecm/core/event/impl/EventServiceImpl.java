@@ -132,6 +132,15 @@ public class EventServiceImpl implements EventService, EventServiceAdmin {
         return asyncExec.getUnfinishedCount();
     }
 
+    /**
+     * Gets the batching statistics of an async listener.
+     *
+     * @since 5.7
+     */
+    public AsyncEventExecutor.BatchStats getBatchStats(String listenerName) {
+        return asyncExec.getBatchStats(listenerName);
+    }
+
     @Override
     public void waitForAsyncCompletion() {
         waitForAsyncCompletion(Long.MAX_VALUE);
@@ -73,6 +73,10 @@ public abstract class AbstractWork implements Work {
 
     protected long schedulingTime;
 
+    protected volatile Priority priority;
+
+    protected volatile long deadline;
+
     protected volatile long startTime;
 
     protected volatile long completionTime;
@@ -328,6 +332,39 @@ public abstract class AbstractWork implements Work {
         return schedulingTime;
     }
 
+    @Override
+    public Priority getPriority() {
+        return priority;
+    }
+
+    /**
+     * Sets the priority of this work instance. Must be called before it is
+     * scheduled.
+     *
+     * @param priority the priority, or {@code null} for the default
+     * @since 5.7
+     */
+    public void setPriority(Priority priority) {
+        this.priority = priority;
+    }
+
+    @Override
+    public long getDeadline() {
+        return deadline;
+    }
+
+    /**
+     * Sets the time before which this work instance should be started. Must
+     * be called before it is scheduled.
+     *
+     * @param deadline the deadline (milliseconds since epoch), or {@code 0}
+     *            for none
+     * @since 5.7
+     */
+    public void setDeadline(long deadline) {
+        this.deadline = deadline;
+    }
+
     @Override
     public long getStartTime() {
         return startTime;
@@ -0,0 +1,373 @@
+/*
+ * (C) Copyright 2012 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Florent Guillaume
+ */
+package org.nuxeo.ecm.core.work;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.nuxeo.common.Environment;
+import org.nuxeo.ecm.core.work.api.Work;
+import org.nuxeo.ecm.core.work.api.WorkJournal;
+import org.nuxeo.ecm.core.work.api.WorkQueueDescriptor;
+
+/**
+ * A {@link WorkJournal} stored in an append-only local file per queue.
+ * <p>
+ * Each scheduled work instance is appended as a record holding the serialized
+ * work and its saved state data, and a removal record is appended when it is
+ * done. When the journal is opened, a partially written last record (from a
+ * crash) is ignored, and the file is compacted to the records still live. The
+ * file is also compacted when the number of dead records gets large.
+ *
+ * @since 5.7
+ */
+public class FileWorkJournal implements WorkJournal {
+
+    private static final Log log = LogFactory.getLog(FileWorkJournal.class);
+
+    public static final String DEFAULT_PATH = "workjournal";
+
+    public static final String SUFFIX = ".journal";
+
+    protected static final int ADD = 'A';
+
+    protected static final int REMOVE = 'R';
+
+    /**
+     * Compaction is done when the dead records are more numerous than this,
+     * and than the live ones.
+     */
+    protected static final int COMPACT_THRESHOLD = 10000;
+
+    protected File file;
+
+    protected boolean fsync;
+
+    protected FileOutputStream fos;
+
+    protected DataOutputStream out;
+
+    /** Journal keys of the live work instances. */
+    protected final Map<Work, Long> keys = new IdentityHashMap<Work, Long>();
+
+    protected long lastKey;
+
+    protected int dead;
+
+    protected List<Work> replayed;
+
+    @Override
+    public void open(WorkQueueDescriptor descriptor) throws IOException {
+        String path = descriptor.journalPath;
+        if (path == null || path.trim().length() == 0) {
+            path = DEFAULT_PATH;
+        }
+        File dir = new File(path.trim());
+        if (!dir.isAbsolute()) {
+            dir = new File(Environment.getDefault().getData(), path.trim());
+        }
+        open(new File(dir, descriptor.id + SUFFIX), descriptor.journalFsync);
+    }
+
+    /**
+     * Opens the journal on the given file.
+     *
+     * @param file the journal file
+     * @param fsync whether writes are forced to disk
+     */
+    public synchronized void open(File file, boolean fsync) throws IOException {
+        this.file = file;
+        this.fsync = fsync;
+        file.getParentFile().mkdirs();
+        long t0 = System.currentTimeMillis();
+        Map<Long, byte[]> live = read();
+        replayed = new ArrayList<Work>(live.size());
+        for (Entry<Long, byte[]> es : live.entrySet()) {
+            Long key = es.getKey();
+            lastKey = Math.max(lastKey, key.longValue());
+            Work work;
+            try {
+                work = deserialize(es.getValue());
+            } catch (Exception e) {
+                log.error("Cannot restore work from journal: " + file, e);
+                continue;
+            }
+            keys.put(work, key);
+            replayed.add(work);
+        }
+        live.keySet().retainAll(new HashSet<Long>(keys.values()));
+        rewrite(live);
+        if (!replayed.isEmpty()) {
+            long t = System.currentTimeMillis() - t0;
+            log.info("Restored " + replayed.size()
+                    + " work instances from journal " + file + " in " + t
+                    + " ms (" + (replayed.size() * 1000L / Math.max(t, 1))
+                    + " works/s)");
+        }
+    }
+
+    @Override
+    public synchronized List<Work> replay() {
+        List<Work> list = replayed;
+        replayed = null;
+        if (list == null) {
+            list = new ArrayList<Work>(0);
+        }
+        return list;
+    }
+
+    @Override
+    public synchronized void scheduled(Work work) {
+        if (out == null || !(work instanceof Serializable)
+                || keys.containsKey(work)) {
+            return;
+        }
+        byte[] bytes;
+        try {
+            bytes = serialize(work);
+        } catch (IOException e) {
+            log.warn("Cannot journal work of class " + work.getClass().getName()
+                    + ": " + e);
+            return;
+        }
+        Long key = Long.valueOf(++lastKey);
+        keys.put(work, key);
+        append(ADD, key.longValue(), bytes);
+    }
+
+    @Override
+    public synchronized void suspended(Work work) {
+        Long key = keys.get(work);
+        if (out == null || key == null) {
+            return;
+        }
+        byte[] bytes;
+        try {
+            bytes = serialize(work);
+        } catch (IOException e) {
+            log.warn("Cannot journal work of class " + work.getClass().getName()
+                    + ": " + e);
+            return;
+        }
+        // supersedes the previous record
+        dead++;
+        append(ADD, key.longValue(), bytes);
+    }
+
+    @Override
+    public synchronized void done(Work work) {
+        Long key = keys.remove(work);
+        if (out == null || key == null) {
+            return;
+        }
+        dead += 2;
+        append(REMOVE, key.longValue(), null);
+        if (dead > COMPACT_THRESHOLD && dead > keys.size()) {
+            try {
+                out.flush();
+                Map<Long, byte[]> live = read();
+                live.keySet().retainAll(new HashSet<Long>(keys.values()));
+                rewrite(live);
+            } catch (IOException e) {
+                log.error("Cannot compact work journal: " + file, e);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (out == null) {
+            return;
+        }
+        try {
+            out.close();
+        } catch (IOException e) {
+            log.error("Cannot close work journal: " + file, e);
+        }
+        out = null;
+        fos = null;
+        keys.clear();
+    }
+
+    protected void append(int type, long key, byte[] bytes) {
+        try {
+            write(type, key, bytes);
+            out.flush();
+            if (fsync) {
+                fos.getFD().sync();
+            }
+        } catch (IOException e) {
+            log.error("Cannot write to work journal: " + file, e);
+        }
+    }
+
+    protected void write(int type, long key, byte[] bytes) throws IOException {
+        out.writeByte(type);
+        out.writeLong(key);
+        if (bytes != null) {
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * Reads the live records of the journal file, in order.
+     */
+    protected Map<Long, byte[]> read() throws IOException {
+        Map<Long, byte[]> live = new LinkedHashMap<Long, byte[]>();
+        if (!file.exists()) {
+            return live;
+        }
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(file)));
+        try {
+            for (;;) {
+                int type = in.read();
+                if (type == -1) {
+                    break;
+                }
+                Long key = Long.valueOf(in.readLong());
+                if (type == ADD) {
+                    int length = in.readInt();
+                    if (length < 0) {
+                        throw new EOFException();
+                    }
+                    byte[] bytes = new byte[length];
+                    in.readFully(bytes);
+                    live.put(key, bytes);
+                } else if (type == REMOVE) {
+                    live.remove(key);
+                } else {
+                    log.error("Corrupted work journal, ignoring the rest of "
+                            + file);
+                    break;
+                }
+            }
+        } catch (EOFException e) {
+            log.warn("Ignoring incomplete last record in work journal: "
+                    + file);
+        } finally {
+            in.close();
+        }
+        return live;
+    }
+
+    /**
+     * Rewrites the journal file with the given records, and opens it for
+     * appending.
+     */
+    protected void rewrite(Map<Long, byte[]> live) throws IOException {
+        if (out != null) {
+            out.close();
+        }
+        File tmp = new File(file.getPath() + ".tmp");
+        fos = new FileOutputStream(tmp);
+        out = new DataOutputStream(new BufferedOutputStream(fos));
+        for (Entry<Long, byte[]> es : live.entrySet()) {
+            write(ADD, es.getKey().longValue(), es.getValue());
+        }
+        out.flush();
+        fos.getFD().sync();
+        out.close();
+        if (!tmp.renameTo(file)) {
+            file.delete();
+            if (!tmp.renameTo(file)) {
+                throw new IOException("Cannot rename " + tmp + " to " + file);
+            }
+        }
+        fos = new FileOutputStream(file, true);
+        out = new DataOutputStream(new BufferedOutputStream(fos));
+        dead = 0;
+    }
+
+    protected static byte[] serialize(Work work) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(baos);
+        oos.writeObject(work);
+        oos.writeObject(work.getData());
+        oos.close();
+        return baos.toByteArray();
+    }
+
+    @SuppressWarnings("unchecked")
+    protected static Work deserialize(byte[] bytes) throws IOException,
+            ClassNotFoundException {
+        ObjectInputStream ois = new ContextClassLoaderObjectInputStream(
+                new ByteArrayInputStream(bytes));
+        try {
+            Work work = (Work) ois.readObject();
+            Map<String, Serializable> data = (Map<String, Serializable>) ois.readObject();
+            if (data != null) {
+                work.setData(data);
+            }
+            return work;
+        } finally {
+            ois.close();
+        }
+    }
+
+    /**
+     * Resolves classes from the thread context class loader, as work classes
+     * come from other bundles.
+     */
+    protected static class ContextClassLoaderObjectInputStream extends
+            ObjectInputStream {
+
+        public ContextClassLoaderObjectInputStream(InputStream in)
+                throws IOException {
+            super(in);
+        }
+
+        @Override
+        protected Class<?> resolveClass(ObjectStreamClass desc)
+                throws IOException, ClassNotFoundException {
+            ClassLoader cl = Thread.currentThread().getContextClassLoader();
+            if (cl != null) {
+                try {
+                    return Class.forName(desc.getName(), false, cl);
+                } catch (ClassNotFoundException e) {
+                    // fall through
+                }
+            }
+            return super.resolveClass(desc);
+        }
+    }
+
+}
@@ -0,0 +1,104 @@
+/*
+ * (C) Copyright 2012 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Florent Guillaume
+ */
+package org.nuxeo.ecm.core.work;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of latencies, with buckets of increasing powers of ten.
+ *
+ * @since 5.7
+ */
+public class LatencyHistogram {
+
+    /** Upper bounds of the buckets, in milliseconds; the last one is open. */
+    public static final long[] BOUNDS = { 10, 100, 1000, 10000, 100000 };
+
+    protected final AtomicLongArray counts = new AtomicLongArray(
+            BOUNDS.length + 1);
+
+    protected final AtomicLong count = new AtomicLong();
+
+    protected final AtomicLong totalMillis = new AtomicLong();
+
+    protected final AtomicLong maxMillis = new AtomicLong();
+
+    /**
+     * Records a latency.
+     *
+     * @param millis the latency in milliseconds
+     */
+    public void record(long millis) {
+        if (millis < 0) {
+            millis = 0;
+        }
+        int i = 0;
+        while (i < BOUNDS.length && millis >= BOUNDS[i]) {
+            i++;
+        }
+        counts.incrementAndGet(i);
+        count.incrementAndGet();
+        totalMillis.addAndGet(millis);
+        for (;;) {
+            long max = maxMillis.get();
+            if (millis <= max || maxMillis.compareAndSet(max, millis)) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Gets the number of latencies in each bucket.
+     */
+    public long[] getCounts() {
+        long[] res = new long[counts.length()];
+        for (int i = 0; i < res.length; i++) {
+            res[i] = counts.get(i);
+        }
+        return res;
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getTotalMillis() {
+        return totalMillis.get();
+    }
+
+    public long getMaxMillis() {
+        return maxMillis.get();
+    }
+
+    @Override
+    public String toString() {
+        long n = count.get();
+        StringBuilder buf = new StringBuilder();
+        buf.append("count=").append(n);
+        buf.append(" avg=").append(n == 0 ? 0 : totalMillis.get() / n);
+        buf.append("ms max=").append(maxMillis.get()).append("ms");
+        long[] c = getCounts();
+        for (int i = 0; i < c.length; i++) {
+            buf.append(i < BOUNDS.length ? " <" + BOUNDS[i] : " >="
+                    + BOUNDS[BOUNDS.length - 1]);
+            buf.append("ms:").append(c[i]);
+        }
+        return buf.toString();
+    }
+
+}
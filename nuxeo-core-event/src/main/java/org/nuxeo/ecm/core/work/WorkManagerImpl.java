@@ -16,28 +16,34 @@
  */
 package org.nuxeo.ecm.core.work;
 
-import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
 import java.util.HashMap;
-import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.PriorityBlockingQueue;
 import java.util.concurrent.RejectedExecutionHandler;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.nuxeo.ecm.core.api.DocumentLocation;
 import org.nuxeo.ecm.core.work.api.Work;
+import org.nuxeo.ecm.core.work.api.Work.Priority;
 import org.nuxeo.ecm.core.work.api.Work.State;
+import org.nuxeo.ecm.core.work.api.WorkJournal;
 import org.nuxeo.ecm.core.work.api.WorkManager;
 import org.nuxeo.ecm.core.work.api.WorkQueueDescriptor;
 import org.nuxeo.runtime.model.ComponentContext;
@@ -75,6 +81,16 @@ public class WorkManagerImpl extends DefaultComponent implements WorkManager {
         super.deactivate(context);
     }
 
+    @Override
+    public void applicationStarted(ComponentContext context) throws Exception {
+        // restore the work journaled by a previous run
+        for (String queueId : getWorkQueueIds()) {
+            if (workQueueDescriptors.get(queueId).journalEnabled) {
+                getExecutor(queueId);
+            }
+        }
+    }
+
     @Override
     public void registerContribution(Object contribution,
             String extensionPoint, ComponentInstance contributor)
@@ -162,36 +178,147 @@ public class WorkManagerImpl extends DefaultComponent implements WorkManager {
         }
     }
 
+    /**
+     * Orders work by priority and deadline, aging waiting work so that lower
+     * priority work is not starved.
+     * <p>
+     * Each work instance gets a fixed rank: its scheduling time, delayed by
+     * the aging delay once for {@link Priority#NORMAL NORMAL} and twice for
+     * {@link Priority#LOW LOW} priority, and advanced to its deadline if that
+     * is earlier. Work waiting for longer than the aging delay is therefore
+     * taken before newer work of the next higher priority.
+     *
+     * @since 5.7
+     */
+    public static class PriorityComparator implements Comparator<Runnable> {
+
+        protected final long agingMillis;
+
+        protected final Map<String, Priority> categoryPriorities = new HashMap<String, Priority>();
+
+        public PriorityComparator(WorkQueueDescriptor workQueueDescriptor) {
+            agingMillis = workQueueDescriptor.priorityAgingSeconds * 1000L;
+            for (Entry<String, String> es : workQueueDescriptor.categoryPriorities.entrySet()) {
+                String value = es.getValue().trim().toUpperCase();
+                try {
+                    categoryPriorities.put(es.getKey(),
+                            Priority.valueOf(value));
+                } catch (IllegalArgumentException e) {
+                    log.error("Invalid priority '" + value + "' for category "
+                            + es.getKey() + " in work queue "
+                            + workQueueDescriptor.id);
+                }
+            }
+        }
+
+        /**
+         * Gets the priority of a work instance, or the default for its
+         * category.
+         */
+        public Priority getPriority(Work work) {
+            Priority priority = work.getPriority();
+            if (priority == null) {
+                priority = categoryPriorities.get(work.getCategory());
+            }
+            return priority == null ? Priority.NORMAL : priority;
+        }
+
+        protected long getRank(Work work) {
+            long rank = work.getSchedulingTime() + getPriority(work).ordinal()
+                    * agingMillis;
+            long deadline = work.getDeadline();
+            if (deadline > 0 && deadline < rank) {
+                rank = deadline;
+            }
+            return rank;
+        }
+
+        @Override
+        public int compare(Runnable r1, Runnable r2) {
+            long rank1 = getRank((Work) r1);
+            long rank2 = getRank((Work) r2);
+            return rank1 < rank2 ? -1 : rank1 == rank2 ? 0 : 1;
+        }
+    }
+
     /**
      * A {@link ThreadPoolExecutor} that keeps available the list of scheduled,
      * running and completed tasks and provides other methods.
      * <p>
      * The methods checking the sizes are sure not to lose tasks in transit
-     * between the various queues.
+     * between the various queues: a task is always added to its new queue
+     * before being removed from the previous one.
+     * <p>
+     * The queues are {@link WorkSet}s, so that finding a task, or moving it
+     * between queues, does not serialize all the threads of the pool on a
+     * single lock nor scan the queues.
      *
      * @since 5.6
      */
     public static class WorkThreadPoolExecutor extends ThreadPoolExecutor {
 
-        protected Object monitor = new Object();
+        protected final WorkSet scheduled;
+
+        protected final WorkSet running;
 
-        protected List<Work> scheduled;
+        protected final WorkSet completed;
 
-        protected List<Work> running;
+        protected final WorkSet suspended;
 
-        protected List<Work> completed;
+        /** The durable journal, or {@code null}. */
+        protected final WorkJournal journal;
 
-        protected List<Work> suspended;
+        /** Scheduled work that can be coalesced, by coalescing key. */
+        protected final ConcurrentMap<String, Work> coalescing = new ConcurrentHashMap<String, Work>();
+
+        protected final AtomicLong coalescedCount = new AtomicLong();
+
+        protected final AtomicLong executedCount = new AtomicLong();
+
+        protected final PriorityComparator priorities;
+
+        /**
+         * Lock making the conditional schedulings atomic, for a given queue.
+         *
+         * @since 5.7
+         */
+        protected final Object scheduleLock = new Object();
+
+        /** Time spent waiting in the queue, by priority. */
+        protected final Map<Priority, LatencyHistogram> latencies = new EnumMap<Priority, LatencyHistogram>(
+                Priority.class);
 
         public WorkThreadPoolExecutor(int corePoolSize, int maximumPoolSize,
                 long keepAliveTime, TimeUnit unit,
                 BlockingQueue<Runnable> queue, ThreadFactory threadFactory) {
+            this(corePoolSize, maximumPoolSize, keepAliveTime, unit, queue,
+                    threadFactory, 0, null, null);
+        }
+
+        /**
+         * @param maxCompleted the maximum number of completed tasks kept, or
+         *            {@code 0} for unbounded
+         * @param journal the durable journal, or {@code null}
+         * @param priorities the priorities of the work instances, or
+         *            {@code null} for the work's own ones
+         * @since 5.7
+         */
+        public WorkThreadPoolExecutor(int corePoolSize, int maximumPoolSize,
+                long keepAliveTime, TimeUnit unit,
+                BlockingQueue<Runnable> queue, ThreadFactory threadFactory,
+                int maxCompleted, WorkJournal journal,
+                PriorityComparator priorities) {
             super(corePoolSize, maximumPoolSize, keepAliveTime, unit, queue,
                     threadFactory);
-            scheduled = new LinkedList<Work>();
-            running = new LinkedList<Work>();
-            completed = new LinkedList<Work>();
-            suspended = new LinkedList<Work>();
+            scheduled = new WorkSet();
+            running = new WorkSet();
+            completed = new WorkSet(maxCompleted);
+            suspended = new WorkSet();
+            this.journal = journal;
+            this.priorities = priorities;
+            for (Priority priority : Priority.values()) {
+                latencies.put(priority, new LatencyHistogram());
+            }
         }
 
         /**
@@ -202,24 +329,92 @@ public class WorkManagerImpl extends DefaultComponent implements WorkManager {
          * @return {@code true} if there was work to cancel
          */
         public boolean cancelScheduled(Work work) {
+            if (scheduled.find(work, true, null) == null) {
+                // avoid scanning the executor queue
+                return false;
+            }
             boolean removed = false;
             while (getQueue().remove(work)) {
                 removed = true;
             }
             if (removed) {
-                synchronized (monitor) {
-                    for (Iterator<Work> it = scheduled.iterator(); it.hasNext();) {
-                        Work w = it.next();
-                        if (work.equals(w)) {
-                            it.remove();
-                            w.setCanceled();
-                        }
+                for (Work w : scheduled.removeEquals(work)) {
+                    uncoalesce(w);
+                    w.setCanceled();
+                    if (journal != null) {
+                        journal.done(w);
                     }
                 }
             }
             return removed;
         }
 
+        /**
+         * Cancels this work instance if a scheduled one of the same category
+         * impacts the same documents, otherwise records it as the one to
+         * coalesce with. It must then be {@linkplain #execute executed}.
+         *
+         * @param work the work to coalesce
+         * @return {@code true} if the work was coalesced and canceled
+         * @since 5.7
+         */
+        public boolean coalesce(Work work) {
+            String key = getCoalescingKey(work);
+            if (key == null) {
+                return false;
+            }
+            for (;;) {
+                Work existing = coalescing.putIfAbsent(key, work);
+                if (existing == null) {
+                    return false;
+                }
+                if (existing.getState() == State.SCHEDULED) {
+                    work.setCanceled();
+                    coalescedCount.incrementAndGet();
+                    return true;
+                }
+                // stale, the existing work is not scheduled anymore
+                coalescing.remove(key, existing);
+            }
+        }
+
+        protected void uncoalesce(Work work) {
+            if (coalescing.isEmpty()) {
+                return;
+            }
+            String key = getCoalescingKey(work);
+            if (key != null) {
+                coalescing.remove(key, work);
+            }
+        }
+
+        /**
+         * Computes the key under which work instances are coalesced, from
+         * their category and documents.
+         *
+         * @return the key, or {@code null} if the work has no documents
+         * @since 5.7
+         */
+        protected String getCoalescingKey(Work work) {
+            Collection<DocumentLocation> docs = work.getDocuments();
+            if (docs == null || docs.isEmpty()) {
+                return null;
+            }
+            List<String> refs = new ArrayList<String>(docs.size());
+            for (DocumentLocation doc : docs) {
+                refs.add(doc.getServerName() + ':' + doc.getDocRef());
+            }
+            if (refs.size() > 1) {
+                Collections.sort(refs);
+            }
+            StringBuilder buf = new StringBuilder(work.getCategory());
+            for (String ref : refs) {
+                buf.append('|');
+                buf.append(ref);
+            }
+            return buf.toString();
+        }
+
         /**
          * Finds a work instance in the scheduled or running queue.
          *
@@ -235,10 +430,12 @@ public class WorkManagerImpl extends DefaultComponent implements WorkManager {
          * @return the found work instance
          */
         public Work find(Work work, State state, boolean useEquals, int[] pos) {
-            List<List<Work>> queues = new LinkedList<List<Work>>();
+            List<WorkSet> queues = new ArrayList<WorkSet>(2);
             if (state == null) {
-                queues.add(running);
+                // work is added to running before being removed from
+                // scheduled, so in this order it can't be missed in between
                 queues.add(scheduled);
+                queues.add(running);
             } else if (state == State.RUNNING) {
                 queues.add(running);
             } else if (state == State.SCHEDULED) {
@@ -248,57 +445,51 @@ public class WorkManagerImpl extends DefaultComponent implements WorkManager {
             } else {
                 throw new IllegalArgumentException(String.valueOf(state));
             }
-            synchronized (monitor) {
-                for (List<Work> queue : queues) {
-                    int i = -1;
-                    for (Work w : queue) {
-                        i++;
-                        boolean found = useEquals ? w.equals(work) : w == work;
-                        if (found) {
-                            if (pos != null) {
-                                pos[0] = i;
-                            }
-                            return w;
-                        }
-                    }
+            for (WorkSet queue : queues) {
+                Work w = queue.find(work, useEquals, pos);
+                if (w != null) {
+                    return w;
                 }
             }
-            if (pos != null) {
-                pos[0] = -1;
-            }
             return null;
         }
 
         @Override
         public void execute(Runnable r) {
-            synchronized (monitor) {
-                scheduled.add((Work) r);
+            Work work = (Work) r;
+            scheduled.add(work);
+            if (journal != null) {
+                journal.scheduled(work);
             }
             super.execute(r);
         }
 
         @Override
         protected void beforeExecute(Thread t, Runnable r) {
-            synchronized (monitor) {
-                Work work = (Work) r;
-                scheduled.remove(work);
-                running.add(work);
-                work.beforeRun(); // change state
-            }
+            Work work = (Work) r;
+            running.add(work);
+            scheduled.remove(work);
+            // later work must not be coalesced with running work
+            uncoalesce(work);
+            latencies.get(getPriority(work)).record(
+                    System.currentTimeMillis() - work.getSchedulingTime());
+            work.beforeRun(); // change state
         }
 
         @Override
         protected void afterExecute(Runnable r, Throwable t) {
-            synchronized (monitor) {
-                Work work = (Work) r;
-                work.afterRun(t == null); // change state
-                running.remove(work);
-                if (work.getState() == State.SUSPENDED) {
-                    suspended.add(work);
-                } else {
-                    completed.add(work);
+            Work work = (Work) r;
+            work.afterRun(t == null); // change state
+            if (work.getState() == State.SUSPENDED) {
+                suspended.add(work);
+            } else {
+                completed.add(work);
+                executedCount.incrementAndGet();
+                if (journal != null) {
+                    journal.done(work);
                 }
             }
+            running.remove(work);
         }
 
         // called during shutdown
@@ -312,12 +503,10 @@ public class WorkManagerImpl extends DefaultComponent implements WorkManager {
                         + work);
                 return;
             }
-            synchronized (monitor) {
-                scheduled.remove(work);
-                suspended.add(work);
-            }
+            suspended.add(work);
+            scheduled.remove(work);
+            uncoalesce(work);
         }
-
         /**
          * Initiates a shutdown of this executor and asks for work instances to
          * suspend themselves.
@@ -350,21 +539,21 @@ public class WorkManagerImpl extends DefaultComponent implements WorkManager {
                     suspendFromQueue(r);
                 }
             }
-            // this sync would only block work scheduled after the shutdown
-            List<Work> toSave;
-            synchronized (monitor) {
-                toSave = new ArrayList<Work>(suspended);
-                suspended.clear();
-            }
+            List<Work> toSave = suspended.list();
             for (Work work : toSave) {
+                suspended.remove(work);
                 if (work.getState() != State.SUSPENDED) {
                     log.error("Work in suspended queue but not suspended: "
                             + work);
                     continue;
                 }
-                @SuppressWarnings("unused")
-                Map<String, Serializable> data = work.getData();
-                // TODO save data
+                if (journal != null) {
+                    // saved with its data, restored on next startup
+                    journal.suspended(work);
+                }
+            }
+            if (journal != null) {
+                journal.close();
             }
             // some work still remaining after timeout
             return terminated;
@@ -374,13 +563,11 @@ public class WorkManagerImpl extends DefaultComponent implements WorkManager {
          * Requests all running and scheduled work instances to suspend.
          */
         public void suspend() {
-            synchronized (monitor) {
-                for (Work work : running) {
-                    work.suspend();
-                }
-                for (Work work : scheduled) {
-                    work.suspend();
-                }
+            for (Work work : running.list()) {
+                work.suspend();
+            }
+            for (Work work : scheduled.list()) {
+                work.suspend();
             }
         }
 
@@ -388,58 +575,83 @@ public class WorkManagerImpl extends DefaultComponent implements WorkManager {
          * Gets the scheduled tasks. Returns a copy.
          */
         public List<Work> getScheduled() {
-            synchronized (monitor) {
-                return new ArrayList<Work>(scheduled);
-            }
+            return scheduled.list();
         }
 
         /**
          * Gets the running tasks. Returns a copy.
          */
         public List<Work> getRunning() {
-            synchronized (monitor) {
-                return new ArrayList<Work>(running);
-            }
+            return running.list();
         }
 
         /**
          * Gets the completed tasks. Returns a copy.
          */
         public List<Work> getCompleted() {
-            synchronized (monitor) {
-                return new ArrayList<Work>(completed);
-            }
+            return completed.list();
         }
 
         /**
          * Gets the non-completed tasks. Returns a copy.
          */
         public List<Work> getNonCompleted() {
-            synchronized (monitor) {
-                List<Work> list = new ArrayList<Work>(running.size()
-                        + scheduled.size());
-                list.addAll(running);
-                list.addAll(scheduled);
-                return list;
-            }
+            List<Work> list = running.list();
+            list.addAll(scheduled.list());
+            return list;
         }
 
         /**
          * Gets the number of non-completed tasks.
          */
         public int getNonCompletedWorkSize() {
-            synchronized (monitor) {
-                return scheduled.size() + running.size();
+            // scheduled must be read first, a task in transit is added to
+            // running before being removed from scheduled
+            int size = scheduled.size();
+            return size + running.size();
+        }
+
+        protected Priority getPriority(Work work) {
+            if (priorities != null) {
+                return priorities.getPriority(work);
             }
+            Priority priority = work.getPriority();
+            return priority == null ? Priority.NORMAL : priority;
+        }
+
+        /**
+         * Gets the histograms of the time spent by tasks waiting in the
+         * queue, by priority.
+         *
+         * @since 5.7
+         */
+        public Map<Priority, LatencyHistogram> getLatencies() {
+            return Collections.unmodifiableMap(latencies);
+        }
+
+        /**
+         * Gets the number of tasks not scheduled because coalesced.
+         *
+         * @since 5.7
+         */
+        public long getCoalescedCount() {
+            return coalescedCount.get();
+        }
+
+        /**
+         * Gets the number of tasks executed (completed or failed).
+         *
+         * @since 5.7
+         */
+        public long getExecutedCount() {
+            return executedCount.get();
         }
 
         /**
          * Clears the completed tasks.
          */
         public void clearCompleted() {
-            synchronized (monitor) {
-                completed.clear();
-            }
+            completed.clear();
         }
 
         /**
@@ -450,14 +662,7 @@ public class WorkManagerImpl extends DefaultComponent implements WorkManager {
                 clearCompleted();
                 return;
             }
-            synchronized (monitor) {
-                for (Iterator<Work> it = completed.iterator(); it.hasNext();) {
-                    Work work = it.next();
-                    if (work.getCompletionTime() < completionTime) {
-                        it.remove();
-                    }
-                }
-            }
+            completed.clearCompletedBefore(completionTime);
         }
     }
 
@@ -493,17 +698,66 @@ public class WorkManagerImpl extends DefaultComponent implements WorkManager {
                 maxPoolSize = DEFAULT_MAX_POOL_SIZE;
                 workQueueDescriptor.maxThreads = maxPoolSize;
             }
+            WorkJournal journal = newJournal(workQueueDescriptor);
+            PriorityComparator priorities = new PriorityComparator(
+                    workQueueDescriptor);
+            BlockingQueue<Runnable> queue;
+            if (workQueueDescriptor.prioritiesEnabled) {
+                queue = newPriorityBlockingQueue(priorities);
+            } else {
+                queue = newBlockingQueue();
+            }
             executor = new WorkThreadPoolExecutor(maxPoolSize, maxPoolSize, 0,
-                    TimeUnit.SECONDS, newBlockingQueue(), threadFactory);
+                    TimeUnit.SECONDS, queue, threadFactory,
+                    workQueueDescriptor.maxCompleted, journal, priorities);
             executors.put(queueId, executor);
+            if (journal != null) {
+                // reschedule work left by a previous run
+                for (Work work : journal.replay()) {
+                    executor.execute(work);
+                }
+            }
         }
         return executor;
     }
 
+    /**
+     * Opens the durable journal for a queue, if configured.
+     *
+     * @return the journal, or {@code null}
+     * @since 5.7
+     */
+    protected WorkJournal newJournal(WorkQueueDescriptor workQueueDescriptor) {
+        if (!workQueueDescriptor.journalEnabled) {
+            return null;
+        }
+        Class<? extends WorkJournal> klass = workQueueDescriptor.journalClass;
+        if (klass == null) {
+            klass = FileWorkJournal.class;
+        }
+        try {
+            WorkJournal journal = klass.newInstance();
+            journal.open(workQueueDescriptor);
+            return journal;
+        } catch (Exception e) {
+            log.error("Cannot open journal for work queue "
+                    + workQueueDescriptor.id + ", using memory only", e);
+            return null;
+        }
+    }
+
     protected BlockingQueue<Runnable> newBlockingQueue() {
         return new LinkedBlockingQueue<Runnable>();
     }
 
+    /**
+     * @since 5.7
+     */
+    protected BlockingQueue<Runnable> newPriorityBlockingQueue(
+            PriorityComparator priorities) {
+        return new PriorityBlockingQueue<Runnable>(11, priorities);
+    }
+
     @Override
     public boolean shutdownQueue(String queueId, long timeout, TimeUnit unit)
             throws InterruptedException {
@@ -581,8 +835,17 @@ public class WorkManagerImpl extends DefaultComponent implements WorkManager {
         case IF_NOT_SCHEDULED:
         case IF_NOT_RUNNING:
         case IF_NOT_RUNNING_OR_SCHEDULED:
-            if (executor.find(work, scheduling.state, true, null) != null) {
-                work.setCanceled();
+            // atomic, so that concurrent calls don't both enqueue the work
+            synchronized (executor.scheduleLock) {
+                if (executor.find(work, scheduling.state, true, null) != null) {
+                    work.setCanceled();
+                    return;
+                }
+                executor.execute(work);
+            }
+            return;
+        case COALESCE:
+            if (executor.coalesce(work)) {
                 return;
             }
             break;
@@ -618,6 +881,28 @@ public class WorkManagerImpl extends DefaultComponent implements WorkManager {
         return getExecutor(queueId).getNonCompletedWorkSize();
     }
 
+    @Override
+    public long getCoalescedWorkCount(String queueId) {
+        return getExecutor(queueId).getCoalescedCount();
+    }
+
+    @Override
+    public long getExecutedWorkCount(String queueId) {
+        return getExecutor(queueId).getExecutedCount();
+    }
+
+    /**
+     * Gets the histograms of the time spent by work waiting in a queue, by
+     * priority.
+     *
+     * @param queueId the queue id
+     * @return the latency histograms
+     * @since 5.7
+     */
+    public Map<Priority, LatencyHistogram> getLatencies(String queueId) {
+        return getExecutor(queueId).getLatencies();
+    }
+
     @Override
     public boolean awaitCompletion(String queueId, long timeout, TimeUnit unit)
             throws InterruptedException {
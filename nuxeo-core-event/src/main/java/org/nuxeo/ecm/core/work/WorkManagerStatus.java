@@ -0,0 +1,70 @@
+/*
+ * (C) Copyright 2012 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Florent Guillaume
+ */
+package org.nuxeo.ecm.core.work;
+
+import java.util.Map.Entry;
+
+import org.nuxeo.ecm.core.work.api.Work.Priority;
+import org.nuxeo.ecm.core.work.api.WorkManager;
+import org.nuxeo.runtime.api.Framework;
+
+/**
+ * Management of the {@link WorkManagerImpl} queues.
+ *
+ * @since 5.7
+ */
+public class WorkManagerStatus implements WorkManagerStatusMBean {
+
+    protected WorkManagerImpl getWorkManager() {
+        return (WorkManagerImpl) Framework.getLocalService(WorkManager.class);
+    }
+
+    @Override
+    public String listQueueLatencies() {
+        WorkManagerImpl workManager = getWorkManager();
+        StringBuilder buf = new StringBuilder();
+        for (String queueId : workManager.getWorkQueueIds()) {
+            for (Entry<Priority, LatencyHistogram> es : workManager.getLatencies(
+                    queueId).entrySet()) {
+                if (es.getValue().getCount() == 0) {
+                    continue;
+                }
+                buf.append(queueId).append(' ').append(es.getKey());
+                buf.append(": ").append(es.getValue()).append('\n');
+            }
+        }
+        return buf.toString();
+    }
+
+    @Override
+    public String listQueueStatistics() {
+        WorkManagerImpl workManager = getWorkManager();
+        StringBuilder buf = new StringBuilder();
+        for (String queueId : workManager.getWorkQueueIds()) {
+            buf.append(queueId);
+            buf.append(": nonCompleted=").append(
+                    workManager.getNonCompletedWorkSize(queueId));
+            buf.append(" executed=").append(
+                    workManager.getExecutedWorkCount(queueId));
+            buf.append(" coalesced=").append(
+                    workManager.getCoalescedWorkCount(queueId));
+            buf.append('\n');
+        }
+        return buf.toString();
+    }
+
+}
@@ -0,0 +1,36 @@
+/*
+ * (C) Copyright 2012 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Florent Guillaume
+ */
+package org.nuxeo.ecm.core.work;
+
+import org.nuxeo.runtime.management.AbstractResourceFactory;
+import org.nuxeo.runtime.management.ObjectNameFactory;
+
+/**
+ * Registers the {@link WorkManagerStatus} MBean.
+ *
+ * @since 5.7
+ */
+public class WorkManagerStatusFactory extends AbstractResourceFactory {
+
+    @Override
+    public void registerResources() {
+        service.registerResource("WorkManagerStatus",
+                ObjectNameFactory.formatQualifiedName("WorkManager"),
+                WorkManagerStatusMBean.class, new WorkManagerStatus());
+    }
+
+}
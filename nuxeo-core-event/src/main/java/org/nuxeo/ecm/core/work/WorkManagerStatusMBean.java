@@ -0,0 +1,38 @@
+/*
+ * (C) Copyright 2012 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Florent Guillaume
+ */
+package org.nuxeo.ecm.core.work;
+
+/**
+ * Management interface for the {@link WorkManagerImpl} queues.
+ *
+ * @since 5.7
+ */
+public interface WorkManagerStatusMBean {
+
+    /**
+     * Lists, for each queue and priority, the histogram of the time spent by
+     * work waiting in the queue.
+     */
+    String listQueueLatencies();
+
+    /**
+     * Lists, for each queue, the number of scheduled and running work, and
+     * the number of executed and coalesced work.
+     */
+    String listQueueStatistics();
+
+}
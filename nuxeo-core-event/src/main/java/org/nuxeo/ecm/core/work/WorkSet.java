@@ -0,0 +1,343 @@
+/*
+ * (C) Copyright 2012 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Florent Guillaume
+ */
+package org.nuxeo.ecm.core.work;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.nuxeo.ecm.core.work.api.Work;
+
+/**
+ * A concurrent collection of {@link Work} instances, indexed to find them in
+ * constant time either by identity or using {@link Work#equals}, and keeping
+ * their insertion order.
+ * <p>
+ * The collection is split into stripes according to the work hash code, each
+ * guarded by its own lock, so that threads adding and removing different work
+ * instances seldom contend. The hash code of a work instance must therefore
+ * not change while it is in the collection.
+ * <p>
+ * If a maximum size is given, the oldest work instances are evicted when it
+ * is exceeded.
+ *
+ * @since 5.7
+ */
+public class WorkSet {
+
+    protected static final int STRIPES = 16;
+
+    protected static final Comparator<Entry> SEQUENCE_COMPARATOR = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry e1, Entry e2) {
+            return e1.seq < e2.seq ? -1 : e1.seq == e2.seq ? 0 : 1;
+        }
+    };
+
+    protected static final class Entry {
+
+        protected final Work work;
+
+        protected final long seq;
+
+        protected Entry(Work work, long seq) {
+            this.work = work;
+            this.seq = seq;
+        }
+    }
+
+    protected static final class Stripe {
+
+        protected final ReentrantLock lock = new ReentrantLock();
+
+        /** Keyed by {@link Work#equals}, values are distinct instances. */
+        protected final Map<Work, List<Entry>> map = new HashMap<Work, List<Entry>>();
+    }
+
+    protected final Stripe[] stripes;
+
+    protected final AtomicInteger size = new AtomicInteger();
+
+    protected final AtomicLong sequence = new AtomicLong();
+
+    protected final int maxSize;
+
+    /** Insertion order, only kept if bounded, to evict the oldest entries. */
+    protected final ConcurrentLinkedQueue<Entry> order;
+
+    /**
+     * Creates an unbounded collection.
+     */
+    public WorkSet() {
+        this(0);
+    }
+
+    /**
+     * Creates a collection.
+     *
+     * @param maxSize the maximum size, or {@code 0} for unbounded
+     */
+    public WorkSet(int maxSize) {
+        this.maxSize = maxSize;
+        order = maxSize > 0 ? new ConcurrentLinkedQueue<Entry>() : null;
+        stripes = new Stripe[STRIPES];
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    protected Stripe stripeFor(Work work) {
+        int h = work.hashCode();
+        h ^= (h >>> 20) ^ (h >>> 12);
+        h ^= (h >>> 7) ^ (h >>> 4);
+        return stripes[h & (STRIPES - 1)];
+    }
+
+    /**
+     * Adds a work instance.
+     */
+    public void add(Work work) {
+        Entry entry = new Entry(work, sequence.incrementAndGet());
+        Stripe stripe = stripeFor(work);
+        stripe.lock.lock();
+        try {
+            List<Entry> entries = stripe.map.get(work);
+            if (entries == null) {
+                entries = new ArrayList<Entry>(1);
+                stripe.map.put(work, entries);
+            }
+            entries.add(entry);
+        } finally {
+            stripe.lock.unlock();
+        }
+        size.incrementAndGet();
+        if (order != null) {
+            order.add(entry);
+            // serialize evictions so that concurrent adds don't over-evict
+            synchronized (order) {
+                while (size.get() > maxSize) {
+                    Entry eldest = order.poll();
+                    if (eldest == null) {
+                        break;
+                    }
+                    remove(eldest.work);
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes a work instance, compared by identity.
+     *
+     * @return {@code true} if it was removed
+     */
+    public boolean remove(Work work) {
+        Stripe stripe = stripeFor(work);
+        stripe.lock.lock();
+        try {
+            List<Entry> entries = stripe.map.get(work);
+            if (entries == null) {
+                return false;
+            }
+            for (Iterator<Entry> it = entries.iterator(); it.hasNext();) {
+                if (it.next().work == work) {
+                    it.remove();
+                    if (entries.isEmpty()) {
+                        stripe.map.remove(work);
+                    }
+                    size.decrementAndGet();
+                    return true;
+                }
+            }
+            return false;
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    /**
+     * Removes all the work instances equal to the given one.
+     *
+     * @return the removed work instances
+     */
+    public List<Work> removeEquals(Work work) {
+        Stripe stripe = stripeFor(work);
+        List<Entry> entries;
+        stripe.lock.lock();
+        try {
+            entries = stripe.map.remove(work);
+        } finally {
+            stripe.lock.unlock();
+        }
+        if (entries == null) {
+            return Collections.emptyList();
+        }
+        size.addAndGet(-entries.size());
+        List<Work> removed = new ArrayList<Work>(entries.size());
+        for (Entry entry : entries) {
+            removed.add(entry.work);
+        }
+        return removed;
+    }
+
+    /**
+     * Finds a work instance.
+     *
+     * @param work the work to find
+     * @param useEquals if {@code true} then use {@link Work#equals} to find
+     *            the work instance, otherwise use object identity
+     * @param pos a 1-element array to return the position in insertion order,
+     *            or {@code null}; computing it is not done in constant time
+     * @return the found work instance, or {@code null}
+     */
+    public Work find(Work work, boolean useEquals, int[] pos) {
+        Entry found = null;
+        Stripe stripe = stripeFor(work);
+        stripe.lock.lock();
+        try {
+            List<Entry> entries = stripe.map.get(work);
+            if (entries != null) {
+                for (Entry entry : entries) {
+                    if (useEquals || entry.work == work) {
+                        found = entry;
+                        break;
+                    }
+                }
+            }
+        } finally {
+            stripe.lock.unlock();
+        }
+        if (pos != null) {
+            pos[0] = found == null ? -1 : countBefore(found.seq);
+        }
+        return found == null ? null : found.work;
+    }
+
+    protected int countBefore(long seq) {
+        int n = 0;
+        for (Stripe stripe : stripes) {
+            stripe.lock.lock();
+            try {
+                for (List<Entry> entries : stripe.map.values()) {
+                    for (Entry entry : entries) {
+                        if (entry.seq < seq) {
+                            n++;
+                        }
+                    }
+                }
+            } finally {
+                stripe.lock.unlock();
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Gets the number of work instances.
+     */
+    public int size() {
+        return size.get();
+    }
+
+    /**
+     * Gets the work instances, in insertion order. Returns a copy.
+     */
+    public List<Work> list() {
+        List<Entry> all = new ArrayList<Entry>(size.get());
+        for (Stripe stripe : stripes) {
+            stripe.lock.lock();
+            try {
+                for (List<Entry> entries : stripe.map.values()) {
+                    all.addAll(entries);
+                }
+            } finally {
+                stripe.lock.unlock();
+            }
+        }
+        Collections.sort(all, SEQUENCE_COMPARATOR);
+        List<Work> list = new ArrayList<Work>(all.size());
+        for (Entry entry : all) {
+            list.add(entry.work);
+        }
+        return list;
+    }
+
+    /**
+     * Removes all the work instances.
+     */
+    public void clear() {
+        for (Stripe stripe : stripes) {
+            stripe.lock.lock();
+            try {
+                int n = 0;
+                for (List<Entry> entries : stripe.map.values()) {
+                    n += entries.size();
+                }
+                stripe.map.clear();
+                size.addAndGet(-n);
+            } finally {
+                stripe.lock.unlock();
+            }
+        }
+        if (order != null) {
+            order.clear();
+        }
+    }
+
+    /**
+     * Removes the work instances completed before the given time.
+     *
+     * @param completionTime the completion time (milliseconds since epoch)
+     */
+    public void clearCompletedBefore(long completionTime) {
+        List<Work> toRemove = new LinkedList<Work>();
+        for (Stripe stripe : stripes) {
+            stripe.lock.lock();
+            try {
+                for (List<Entry> entries : stripe.map.values()) {
+                    for (Entry entry : entries) {
+                        if (entry.work.getCompletionTime() < completionTime) {
+                            toRemove.add(entry.work);
+                        }
+                    }
+                }
+            } finally {
+                stripe.lock.unlock();
+            }
+        }
+        for (Work work : toRemove) {
+            remove(work);
+        }
+        if (order != null) {
+            for (Iterator<Entry> it = order.iterator(); it.hasNext();) {
+                if (it.next().work.getCompletionTime() < completionTime) {
+                    it.remove();
+                }
+            }
+        }
+    }
+
+}
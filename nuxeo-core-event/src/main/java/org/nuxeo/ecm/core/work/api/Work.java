@@ -59,6 +59,21 @@ public interface Work extends Runnable {
         CANCELED
     }
 
+    /**
+     * The priority of a {@link Work} instance, for queues configured with
+     * priorities.
+     *
+     * @since 5.7
+     */
+    enum Priority {
+        /** Interactive work, for instance that a user is waiting on. */
+        HIGH,
+        /** Normal work. */
+        NORMAL,
+        /** Bulk background work. */
+        LOW
+    }
+
     /**
      * A progress report about a work instance.
      * <p>
@@ -198,6 +213,28 @@ public interface Work extends Runnable {
      */
     long getSchedulingTime();
 
+    /**
+     * Gets the priority of this work instance.
+     * <p>
+     * It must not change once the work is scheduled.
+     *
+     * @return the priority, or {@code null} for the default priority of its
+     *         category
+     * @since 5.7
+     */
+    Priority getPriority();
+
+    /**
+     * Gets the time before which this work instance should be started, for
+     * queues configured with priorities.
+     * <p>
+     * It must not change once the work is scheduled.
+     *
+     * @return the deadline (milliseconds since epoch), or {@code 0} for none
+     * @since 5.7
+     */
+    long getDeadline();
+
     /**
      * Gets the time at which this work instance was started.
      *
@@ -280,7 +317,8 @@ public interface Work extends Runnable {
     /**
      * Gets the documents impacted by the work.
      * <p>
-     * This is informative only.
+     * This is informative, and also used to coalesce work scheduled with
+     * {@link WorkManager.Scheduling#COALESCE COALESCE}.
      *
      * @return the documents
      */
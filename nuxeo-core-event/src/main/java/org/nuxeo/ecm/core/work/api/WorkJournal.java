@@ -0,0 +1,74 @@
+/*
+ * (C) Copyright 2012 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Florent Guillaume
+ */
+package org.nuxeo.ecm.core.work.api;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * A durable journal of the work instances of a queue, so that scheduled and
+ * suspended work survives a restart or a crash of the server.
+ * <p>
+ * Only work instances that are {@link java.io.Serializable Serializable} are
+ * journaled, the others are ignored and only live in memory.
+ * <p>
+ * Journal errors are logged and never prevent the work from being executed.
+ *
+ * @since 5.7
+ */
+public interface WorkJournal {
+
+    /**
+     * Opens the journal for a queue.
+     *
+     * @param descriptor the queue descriptor
+     */
+    void open(WorkQueueDescriptor descriptor) throws IOException;
+
+    /**
+     * Gets the work instances left scheduled or suspended by a previous run,
+     * in scheduling order.
+     * <p>
+     * The returned work instances are still journaled, and are meant to be
+     * scheduled again.
+     *
+     * @return the work instances to reschedule
+     */
+    List<Work> replay();
+
+    /**
+     * Records that a work instance is scheduled.
+     */
+    void scheduled(Work work);
+
+    /**
+     * Records that a work instance is suspended, with its saved state data.
+     */
+    void suspended(Work work);
+
+    /**
+     * Records that a work instance is done (completed, failed or canceled)
+     * and does not need to be rescheduled.
+     */
+    void done(Work work);
+
+    /**
+     * Closes the journal.
+     */
+    void close();
+
+}
@@ -61,7 +61,16 @@ public interface WorkManager {
          * If there is a running or scheduled work equals to this one, then
          * don't schedule the work.
          */
-        IF_NOT_RUNNING_OR_SCHEDULED;
+        IF_NOT_RUNNING_OR_SCHEDULED,
+        /**
+         * If there is a scheduled work of the same category for the same
+         * documents (as returned by {@link Work#getDocuments}), then don't
+         * schedule the work, as the scheduled one will process the documents
+         * in their latest state. Work without documents is always scheduled.
+         *
+         * @since 5.7
+         */
+        COALESCE;
 
         public final State state;
 
@@ -191,6 +200,27 @@ public interface WorkManager {
      */
     int getNonCompletedWorkSize(String queueId);
 
+    /**
+     * Gets the number of work instances not scheduled for a given queue
+     * because they were coalesced with an already scheduled one.
+     *
+     * @param queueId the queue id
+     * @return the number of coalesced work instances
+     * @see Scheduling#COALESCE
+     * @since 5.7
+     */
+    long getCoalescedWorkCount(String queueId);
+
+    /**
+     * Gets the number of work instances executed (completed or failed) for a
+     * given queue.
+     *
+     * @param queueId the queue id
+     * @return the number of executed work instances
+     * @since 5.7
+     */
+    long getExecutedWorkCount(String queueId);
+
     /**
      * Waits for completion of work in a given queue.
      *
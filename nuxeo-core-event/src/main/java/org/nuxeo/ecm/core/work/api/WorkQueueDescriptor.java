@@ -16,11 +16,14 @@
  */
 package org.nuxeo.ecm.core.work.api;
 
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 
 import org.nuxeo.common.xmap.annotation.XNode;
 import org.nuxeo.common.xmap.annotation.XNodeList;
+import org.nuxeo.common.xmap.annotation.XNodeMap;
 import org.nuxeo.common.xmap.annotation.XObject;
 
 /**
@@ -43,6 +46,76 @@ public class WorkQueueDescriptor {
     @XNode("clearCompletedAfterSeconds")
     public int clearCompletedAfterSeconds = 3600;
 
+    /**
+     * Maximum number of completed work instances kept, the oldest ones being
+     * forgotten first; {@code 0} for unbounded, the default.
+     *
+     * @since 5.7
+     */
+    @XNode("maxCompleted")
+    public int maxCompleted;
+
+    /**
+     * Whether scheduled and suspended work is kept in a durable journal.
+     *
+     * @since 5.7
+     */
+    @XNode("journal@enabled")
+    public boolean journalEnabled;
+
+    /**
+     * The journal implementation, or {@code null} for the default file-based
+     * one.
+     *
+     * @since 5.7
+     */
+    @XNode("journal@class")
+    public Class<? extends WorkJournal> journalClass;
+
+    /**
+     * The journal directory, relative to the data directory if not absolute.
+     *
+     * @since 5.7
+     */
+    @XNode("journal@path")
+    public String journalPath;
+
+    /**
+     * Whether journal writes are forced to disk, to survive a system crash and
+     * not only a process crash.
+     *
+     * @since 5.7
+     */
+    @XNode("journal@fsync")
+    public boolean journalFsync;
+
+    /**
+     * Whether work is taken from the queue by priority and deadline, rather
+     * than in scheduling order.
+     *
+     * @since 5.7
+     */
+    @XNode("priorities@enabled")
+    public boolean prioritiesEnabled;
+
+    /**
+     * Delay after which waiting work is taken as if it had the next higher
+     * priority, so that lower priority work is not starved.
+     *
+     * @since 5.7
+     */
+    @XNode("priorities@agingSeconds")
+    public int priorityAgingSeconds = 60;
+
+    /**
+     * The priority (HIGH, NORMAL, LOW) of work instances not specifying one,
+     * by category.
+     *
+     * @since 5.7
+     */
+    @XNodeMap(value = "priorities/category", key = "@name", type = HashMap.class, componentType = String.class)
+    public Map<String, String> categoryPriorities = new HashMap<String, String>();
+
     @XNodeList(value = "category", type = HashSet.class, componentType = String.class)
     public Set<String> categories;
 
@@ -53,6 +126,14 @@ public class WorkQueueDescriptor {
         o.name = name;
         o.maxThreads = maxThreads;
         o.clearCompletedAfterSeconds = clearCompletedAfterSeconds;
+        o.maxCompleted = maxCompleted;
+        o.journalEnabled = journalEnabled;
+        o.journalClass = journalClass;
+        o.journalPath = journalPath;
+        o.journalFsync = journalFsync;
+        o.prioritiesEnabled = prioritiesEnabled;
+        o.priorityAgingSeconds = priorityAgingSeconds;
+        o.categoryPriorities = new HashMap<String, String>(categoryPriorities);
         o.categories = new HashSet<String>(categories);
         return o;
     }
@@ -61,6 +142,18 @@ public class WorkQueueDescriptor {
         name = other.name;
         maxThreads = other.maxThreads;
         clearCompletedAfterSeconds = other.clearCompletedAfterSeconds;
+        maxCompleted = other.maxCompleted;
+        journalEnabled = other.journalEnabled;
+        if (other.journalClass != null) {
+            journalClass = other.journalClass;
+        }
+        if (other.journalPath != null) {
+            journalPath = other.journalPath;
+        }
+        journalFsync = other.journalFsync;
+        prioritiesEnabled = other.prioritiesEnabled;
+        priorityAgingSeconds = other.priorityAgingSeconds;
+        categoryPriorities.putAll(other.categoryPriorities);
         categories.addAll(other.categories);
     }
 
@@ -24,10 +24,13 @@ import static org.junit.Assert.*;
 
 import org.nuxeo.ecm.core.event.Event;
 import org.nuxeo.ecm.core.event.EventService;
+import org.nuxeo.ecm.core.event.impl.AsyncEventExecutor.BatchStats;
 import org.nuxeo.ecm.core.event.impl.EventContextImpl;
 import org.nuxeo.ecm.core.event.impl.EventImpl;
 import org.nuxeo.ecm.core.event.impl.EventListenerDescriptor;
 import org.nuxeo.ecm.core.event.impl.EventServiceImpl;
+import org.nuxeo.ecm.core.work.SleepWork;
+import org.nuxeo.ecm.core.work.api.WorkManager;
 import org.nuxeo.runtime.api.Framework;
 import org.nuxeo.runtime.test.NXRuntimeTestCase;
 
@@ -104,6 +107,45 @@ public class TestEventServiceComponent extends NXRuntimeTestCase {
         assertEquals(1, DummyPostCommitEventListener.eventCount);
     }
 
+    @Test
+    public void testAsyncBatch() throws Exception {
+        URL url = getClass().getClassLoader().getResource(
+                "test-async-batch-listeners.xml");
+        deployTestContrib("org.nuxeo.ecm.core.event", url);
+        EventService service = Framework.getService(EventService.class);
+        WorkManager workManager = Framework.getLocalService(WorkManager.class);
+
+        DummyPostCommitEventListener.handledCount = 0;
+        DummyPostCommitEventListener.eventCount = 0;
+
+        // keep the listener queue busy while the bundles are sent
+        SleepWork blocker = new SleepWork(10, "testBatch", true);
+        workManager.schedule(blocker);
+        blocker.debugWaitReady();
+
+        // send five bundles of one event each
+        for (int i = 0; i < 5; i++) {
+            service.fireEvent(new EventImpl("testasync", new EventContextImpl()));
+            Event commit = new EventImpl("testnotmached", new EventContextImpl());
+            commit.setIsCommitEvent(true);
+            service.fireEvent(commit);
+        }
+        assertEquals(0, DummyPostCommitEventListener.handledCount);
+
+        blocker.debugStart();
+        blocker.debugFinish();
+        service.waitForAsyncCompletion();
+
+        // the listener got batches of at most 3 events
+        assertEquals(2, DummyPostCommitEventListener.handledCount);
+        assertEquals(5, DummyPostCommitEventListener.eventCount);
+        BatchStats stats = ((EventServiceImpl) service).getBatchStats("testBatch");
+        assertEquals(2, stats.getBatchCount());
+        assertEquals(5, stats.getEventCount());
+        assertEquals(3, stats.getMaxBatchSize());
+        assertEquals(5, stats.getEventLag().getCount());
+    }
+
     /**
      * Test that when the event service component is deactivated, the threads of
      * the async event executor are shut down.
@@ -0,0 +1,190 @@
+/*
+ * (C) Copyright 2012 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Florent Guillaume
+ */
+package org.nuxeo.ecm.core.work;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.nuxeo.ecm.core.work.api.Work.State.SCHEDULED;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.nuxeo.ecm.core.work.api.Work;
+
+public class FileWorkJournalTest {
+
+    private static final Log log = LogFactory.getLog(FileWorkJournalTest.class);
+
+    protected File file;
+
+    protected FileWorkJournal journal;
+
+    public static class SerializableWork extends AbstractWork implements
+            Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        protected final String name;
+
+        public SerializableWork(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String getTitle() {
+            return name;
+        }
+
+        @Override
+        public void work() {
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("workjournal-", FileWorkJournal.SUFFIX);
+        journal = open();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        journal.close();
+        file.delete();
+    }
+
+    protected FileWorkJournal open() throws Exception {
+        FileWorkJournal j = new FileWorkJournal();
+        j.open(file, false);
+        return j;
+    }
+
+    protected static String name(Work work) {
+        return ((SerializableWork) work).name;
+    }
+
+    @Test
+    public void testReplayAfterCrash() throws Exception {
+        Work work1 = new SerializableWork("1");
+        Work work2 = new SerializableWork("2");
+        Work work3 = new SerializableWork("3");
+        journal.scheduled(work1);
+        journal.scheduled(work2);
+        journal.scheduled(work3);
+        journal.done(work2);
+        Map<String, Serializable> data = Collections.<String, Serializable> singletonMap(
+                "foo", "bar");
+        work3.setData(data);
+        journal.suspended(work3);
+
+        // no close, as in a crash
+        FileWorkJournal journal2 = open();
+        try {
+            List<Work> works = journal2.replay();
+            assertEquals(2, works.size());
+            assertEquals("1", name(works.get(0)));
+            assertEquals(SCHEDULED, works.get(0).getState());
+            assertNull(works.get(0).getData());
+            assertEquals("3", name(works.get(1)));
+            assertEquals(SCHEDULED, works.get(1).getState());
+            assertEquals(data, works.get(1).getData());
+            // replayed work is still journaled until done
+            journal2.done(works.get(0));
+        } finally {
+            journal2.close();
+        }
+        FileWorkJournal journal3 = open();
+        try {
+            List<Work> works = journal3.replay();
+            assertEquals(1, works.size());
+            assertEquals("3", name(works.get(0)));
+        } finally {
+            journal3.close();
+        }
+    }
+
+    @Test
+    public void testIncompleteLastRecord() throws Exception {
+        journal.scheduled(new SerializableWork("1"));
+        journal.close();
+        // partially written record
+        FileOutputStream out = new FileOutputStream(file, true);
+        out.write(new byte[] { 'A', 0, 0, 0 });
+        out.close();
+
+        journal = open();
+        List<Work> works = journal.replay();
+        assertEquals(1, works.size());
+        assertEquals("1", name(works.get(0)));
+    }
+
+    @Test
+    public void testNonSerializableNotJournaled() throws Exception {
+        journal.scheduled(new SleepWork(1));
+        journal.close();
+        journal = open();
+        assertEquals(0, journal.replay().size());
+    }
+
+    @Test
+    public void testCompaction() throws Exception {
+        // compaction happens about halfway
+        int n = FileWorkJournal.COMPACT_THRESHOLD * 3 / 4;
+        long maxSize = 0;
+        for (int i = 0; i < n; i++) {
+            Work work = new SerializableWork(String.valueOf(i));
+            journal.scheduled(work);
+            journal.done(work);
+            maxSize = Math.max(maxSize, file.length());
+        }
+        assertTrue(file.length() < maxSize);
+        journal.scheduled(new SerializableWork("last"));
+        journal.close();
+        journal = open();
+        List<Work> works = journal.replay();
+        assertEquals(1, works.size());
+        assertEquals("last", name(works.get(0)));
+    }
+
+    @Test
+    public void testReplayThroughput() throws Exception {
+        int n = 10000;
+        for (int i = 0; i < n; i++) {
+            journal.scheduled(new SerializableWork(String.valueOf(i)));
+        }
+        journal.close();
+        long t0 = System.currentTimeMillis();
+        journal = open();
+        List<Work> works = journal.replay();
+        long t = System.currentTimeMillis() - t0;
+        assertEquals(n, works.size());
+        assertEquals("0", name(works.get(0)));
+        assertEquals(String.valueOf(n - 1), name(works.get(n - 1)));
+        log.info("Replayed " + n + " works in " + t + " ms ("
+                + (n * 1000L / Math.max(t, 1)) + " works/s)");
+    }
+
+}
@@ -26,13 +26,23 @@ import static org.nuxeo.ecm.core.work.api.Work.State.SCHEDULED;
 import static org.nuxeo.ecm.core.work.api.Work.State.SUSPENDED;
 
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import org.nuxeo.ecm.core.api.DocumentLocation;
+import org.nuxeo.ecm.core.api.IdRef;
+import org.nuxeo.ecm.core.api.impl.DocumentLocationImpl;
+import org.nuxeo.ecm.core.work.api.Work.Priority;
 import org.nuxeo.ecm.core.work.api.Work.Progress;
 import org.nuxeo.ecm.core.work.api.WorkManager;
 import org.nuxeo.ecm.core.work.api.WorkManager.Scheduling;
@@ -255,6 +265,190 @@ public class WorkManagerTest extends NXRuntimeTestCase {
         assertTrue(work7 == service.find(work7, COMPLETED, false, null));
     }
 
+    @Test
+    public void testWorkManagerConcurrentScheduling() throws Exception {
+        // occupy the two threads of the queue
+        SleepWork work1 = new SleepWork(1000, true);
+        SleepWork work2 = new SleepWork(1000, true);
+        service.schedule(work1);
+        service.schedule(work2);
+        work1.debugWaitReady();
+        work2.debugWaitReady();
+
+        int nthreads = 8;
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<SleepWork> works = new ArrayList<SleepWork>();
+        Thread[] threads = new Thread[nthreads];
+        for (int i = 0; i < nthreads; i++) {
+            final SleepWork work = new SleepWorkWithEquals(1, false, "same");
+            works.add(work);
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    service.schedule(work, Scheduling.IF_NOT_SCHEDULED);
+                }
+            };
+            threads[i].start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        int scheduled = 0;
+        for (SleepWork work : works) {
+            if (work.getState() == SCHEDULED) {
+                scheduled++;
+            } else {
+                assertEquals(CANCELED, work.getState());
+            }
+        }
+        assertEquals(1, scheduled);
+
+        work1.debugStart();
+        work2.debugStart();
+        work1.debugFinish();
+        work2.debugFinish();
+        assertTrue(service.awaitCompletion(3, TimeUnit.SECONDS));
+    }
+
+    protected static class SleepWorkWithDocument extends SleepWork {
+
+        protected final String docId;
+
+        public SleepWorkWithDocument(long durationMillis, String docId) {
+            super(durationMillis);
+            this.docId = docId;
+        }
+
+        @Override
+        public Collection<DocumentLocation> getDocuments() {
+            return Collections.<DocumentLocation> singleton(new DocumentLocationImpl(
+                    "test", new IdRef(docId)));
+        }
+    }
+
+    @Test
+    public void testWorkManagerCoalescing() throws Exception {
+        long executed = service.getExecutedWorkCount(QUEUE);
+        long coalesced = service.getCoalescedWorkCount(QUEUE);
+        // occupy the two threads of the queue
+        SleepWork work1 = new SleepWork(1000, true);
+        SleepWork work2 = new SleepWork(1000, true);
+        service.schedule(work1);
+        service.schedule(work2);
+        work1.debugWaitReady();
+        work2.debugWaitReady();
+
+        SleepWork worka1 = new SleepWorkWithDocument(1, "a");
+        SleepWork worka2 = new SleepWorkWithDocument(1, "a");
+        SleepWork workb = new SleepWorkWithDocument(1, "b");
+        SleepWork worka3 = new SleepWorkWithDocument(1, "a");
+        service.schedule(worka1, Scheduling.COALESCE);
+        service.schedule(worka2, Scheduling.COALESCE);
+        service.schedule(workb, Scheduling.COALESCE);
+        service.schedule(worka3, Scheduling.COALESCE);
+        assertEquals(SCHEDULED, worka1.getState());
+        assertEquals(CANCELED, worka2.getState());
+        assertEquals(SCHEDULED, workb.getState());
+        assertEquals(CANCELED, worka3.getState());
+        assertEquals(coalesced + 2, service.getCoalescedWorkCount(QUEUE));
+
+        work1.debugStart();
+        work2.debugStart();
+        work1.debugFinish();
+        work2.debugFinish();
+        assertTrue(service.awaitCompletion(3, TimeUnit.SECONDS));
+        assertEquals(COMPLETED, worka1.getState());
+        assertEquals(COMPLETED, workb.getState());
+        assertEquals(executed + 4, service.getExecutedWorkCount(QUEUE));
+
+        // once executed, new work for the document is scheduled again
+        SleepWork worka4 = new SleepWorkWithDocument(1, "a");
+        service.schedule(worka4, Scheduling.COALESCE);
+        assertTrue(CANCELED != worka4.getState());
+        assertTrue(service.awaitCompletion(3, TimeUnit.SECONDS));
+        assertEquals(COMPLETED, worka4.getState());
+    }
+
+    protected static class OrderedSleepWork extends SleepWork {
+
+        protected final String name;
+
+        protected final List<String> order;
+
+        public OrderedSleepWork(String category, String name,
+                List<String> order) {
+            super(1, category, false);
+            this.name = name;
+            this.order = order;
+        }
+
+        @Override
+        public void work() throws InterruptedException {
+            order.add(name);
+            super.work();
+        }
+    }
+
+    @Test
+    public void testWorkManagerPriorities() throws Exception {
+        String category = "SleepWorkPriority";
+        String queue = service.getCategoryQueueId(category);
+        assertEquals("SleepWorkPriority", queue);
+        assertEquals("SleepWorkPriority",
+                service.getCategoryQueueId("SleepWorkUrgent"));
+        List<String> order = Collections.synchronizedList(new ArrayList<String>());
+
+        // occupy the only thread of the queue
+        SleepWork blocker = new SleepWork(1, category, true);
+        service.schedule(blocker);
+        blocker.debugWaitReady();
+
+        OrderedSleepWork low = new OrderedSleepWork(category, "low", order);
+        low.setPriority(Priority.LOW);
+        OrderedSleepWork normal = new OrderedSleepWork(category, "normal",
+                order);
+        OrderedSleepWork high = new OrderedSleepWork(category, "high", order);
+        high.setPriority(Priority.HIGH);
+        OrderedSleepWork urgent = new OrderedSleepWork("SleepWorkUrgent",
+                "urgent", order);
+        OrderedSleepWork aged = new OrderedSleepWork(category, "aged", order);
+        aged.setPriority(Priority.LOW);
+        aged.schedulingTime -= 25000; // waited more than twice the aging
+        OrderedSleepWork deadline = new OrderedSleepWork(category, "deadline",
+                order);
+        deadline.setPriority(Priority.LOW);
+        deadline.setDeadline(System.currentTimeMillis() - 30000);
+        service.schedule(low);
+        service.schedule(normal);
+        service.schedule(high);
+        service.schedule(urgent);
+        service.schedule(aged);
+        service.schedule(deadline);
+
+        blocker.debugStart();
+        blocker.debugFinish();
+        assertTrue(service.awaitCompletion(queue, 3, TimeUnit.SECONDS));
+        assertEquals(6, order.size());
+        assertEquals("deadline", order.get(0));
+        assertEquals("aged", order.get(1));
+        // same rank, any order
+        assertEquals(new HashSet<String>(Arrays.asList("high", "urgent")),
+                new HashSet<String>(order.subList(2, 4)));
+        assertEquals("normal", order.get(4));
+        assertEquals("low", order.get(5));
+
+        Map<Priority, LatencyHistogram> latencies = ((WorkManagerImpl) service).getLatencies(queue);
+        assertEquals(2, latencies.get(Priority.HIGH).getCount());
+        assertEquals(2, latencies.get(Priority.NORMAL).getCount());
+        assertEquals(3, latencies.get(Priority.LOW).getCount());
+    }
+
     @Test
     public void testWorkManagerWorkCompletion() throws Exception {
         int duration = 2000; // 2s
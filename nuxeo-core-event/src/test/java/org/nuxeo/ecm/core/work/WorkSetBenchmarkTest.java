@@ -0,0 +1,55 @@
+/*
+ * (C) Copyright 2012 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Florent Guillaume
+ */
+package org.nuxeo.ecm.core.work;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Timings of the {@link WorkSet} under contention, the functional checks are
+ * done by {@link WorkSetTest}.
+ * <p>
+ * Only run if the system property {@value #BENCHMARK_PROP} is {@code true}.
+ */
+public class WorkSetBenchmarkTest {
+
+    private static final Log log = LogFactory.getLog(WorkSetBenchmarkTest.class);
+
+    public static final String BENCHMARK_PROP = "nuxeo.test.benchmark";
+
+    @BeforeClass
+    public static void assumeBenchmark() {
+        Assume.assumeTrue(Boolean.getBoolean(BENCHMARK_PROP));
+    }
+
+    @Test
+    public void testConcurrentThroughput() throws Exception {
+        int nThreads = 32;
+        int perThread = 20000;
+        long elapsed = WorkSetTest.runConcurrent(nThreads, perThread);
+        long ops = (long) nThreads * perThread;
+        log.warn(String.format(
+                "%d threads: %d schedule/complete in %d ms (%d ops/s)",
+                Integer.valueOf(nThreads), Long.valueOf(ops),
+                Long.valueOf(elapsed / 1000000),
+                Long.valueOf(ops * 1000000000L / Math.max(elapsed, 1))));
+    }
+
+}
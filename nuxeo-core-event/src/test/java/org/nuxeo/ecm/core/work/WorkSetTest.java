@@ -0,0 +1,134 @@
+/*
+ * (C) Copyright 2012 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Florent Guillaume
+ */
+package org.nuxeo.ecm.core.work;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+import org.nuxeo.ecm.core.work.WorkManagerTest.SleepWorkWithEquals;
+import org.nuxeo.ecm.core.work.api.Work;
+
+public class WorkSetTest {
+
+    @Test
+    public void testFind() throws Exception {
+        WorkSet set = new WorkSet();
+        Work work1 = new SleepWorkWithEquals(1, false, "1");
+        Work work2 = new SleepWorkWithEquals(1, false, "2");
+        Work work3 = new SleepWorkWithEquals(1, false, "1"); // equals work1
+        set.add(work1);
+        set.add(work2);
+        set.add(work3);
+        assertEquals(3, set.size());
+        assertEquals(Arrays.asList(work1, work2, work3), set.list());
+
+        int[] pos = new int[1];
+        assertSame(work1, set.find(work1, false, pos));
+        assertEquals(0, pos[0]);
+        assertSame(work3, set.find(work3, false, pos));
+        assertEquals(2, pos[0]);
+        assertSame(work1, set.find(work3, true, pos));
+        assertEquals(0, pos[0]);
+        Work other = new SleepWorkWithEquals(1, false, "2");
+        assertNull(set.find(other, false, pos));
+        assertEquals(-1, pos[0]);
+        assertSame(work2, set.find(other, true, null));
+
+        assertTrue(set.remove(work1));
+        assertSame(work3, set.find(work1, true, pos));
+        assertEquals(1, pos[0]);
+        List<Work> removed = set.removeEquals(other);
+        assertEquals(Arrays.asList(work2), removed);
+        assertEquals(1, set.size());
+        set.clear();
+        assertEquals(0, set.size());
+        assertNull(set.find(work3, true, null));
+    }
+
+    @Test
+    public void testBounded() throws Exception {
+        WorkSet set = new WorkSet(10);
+        Work[] works = new Work[100];
+        for (int i = 0; i < works.length; i++) {
+            works[i] = new SleepWork(1);
+            set.add(works[i]);
+        }
+        assertEquals(10, set.size());
+        assertEquals(Arrays.asList(works).subList(90, 100), set.list());
+        assertNull(set.find(works[89], false, null));
+    }
+
+    @Test
+    public void testConcurrent() throws Exception {
+        // throughput is timed by WorkSetBenchmarkTest
+        runConcurrent(8, 1000);
+    }
+
+    /**
+     * Schedules and completes works from several threads at once.
+     *
+     * @return the elapsed time, in nanoseconds
+     */
+    protected static long runConcurrent(int nThreads, final int perThread)
+            throws Exception {
+        final WorkSet scheduled = new WorkSet();
+        final WorkSet completed = new WorkSet(1000);
+        final CountDownLatch start = new CountDownLatch(1);
+        final Throwable[] error = new Throwable[1];
+        Thread[] threads = new Thread[nThreads];
+        for (int t = 0; t < nThreads; t++) {
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int i = 0; i < perThread; i++) {
+                            Work work = new SleepWork(1);
+                            scheduled.add(work);
+                            assertSame(work, scheduled.find(work, false, null));
+                            completed.add(work);
+                            assertTrue(scheduled.remove(work));
+                        }
+                    } catch (Throwable e) {
+                        error[0] = e;
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        long t0 = System.nanoTime();
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long elapsed = System.nanoTime() - t0;
+        if (error[0] != null) {
+            throw new RuntimeException(error[0]);
+        }
+        assertEquals(0, scheduled.size());
+        assertEquals(Math.min(1000, nThreads * perThread), completed.size());
+        return elapsed;
+    }
+
+}
@@ -17,6 +17,7 @@ import java.security.Principal;
 import java.util.Collection;
 import java.util.Collections;
 
+import org.nuxeo.ecm.core.api.KeysetCursor;
 import org.nuxeo.ecm.core.api.impl.FacetFilter;
 import org.nuxeo.ecm.core.query.sql.model.SQLQuery;
 
@@ -27,7 +28,9 @@ import org.nuxeo.ecm.core.query.sql.model.SQLQuery;
  * This includes filtering on the BROWSE permission for the given principal,
  * filtering on facets, and applying query transformers.
  * <p>
- * You can also include a limit and offset, to get a subset of the total.
+ * You can also include a limit and offset, to get a subset of the total, or
+ * a limit and a {@link KeysetCursor} to get the documents following a
+ * previous page.
  *
  * @author Florent Guillaume
  */
@@ -54,6 +57,9 @@ public class QueryFilter implements Serializable {
 
     protected final long offset;
 
+    /** @since 5.7 */
+    protected final KeysetCursor keysetCursor;
+
     /**
      * Constructs a query filter.
      * <p>
@@ -63,6 +69,21 @@ public class QueryFilter implements Serializable {
             String[] permissions, FacetFilter facetFilter,
             Collection<SQLQuery.Transformer> queryTransformers, long limit,
             long offset) {
+        this(principal, principals, permissions, facetFilter,
+                queryTransformers, limit, offset, null);
+    }
+
+    /**
+     * Constructs a query filter with a keyset cursor.
+     * <p>
+     * Note that the principal MUST be {@link Serializable}.
+     *
+     * @since 5.7
+     */
+    public QueryFilter(Principal principal, String[] principals,
+            String[] permissions, FacetFilter facetFilter,
+            Collection<SQLQuery.Transformer> queryTransformers, long limit,
+            long offset, KeysetCursor keysetCursor) {
         this.principal = principal;
         this.principals = principals;
         this.permissions = permissions;
@@ -70,6 +91,7 @@ public class QueryFilter implements Serializable {
         this.queryTransformers = queryTransformers;
         this.limit = limit;
         this.offset = offset;
+        this.keysetCursor = keysetCursor;
     }
 
     public static QueryFilter withoutLimitOffset(QueryFilter other) {
@@ -79,7 +101,8 @@ public class QueryFilter implements Serializable {
                 other.permissions, //
                 other.facetFilter, //
                 other.queryTransformers, //
-                0, 0);
+                0, 0, //
+                other.keysetCursor);
     }
 
     public Principal getPrincipal() {
@@ -110,4 +133,14 @@ public class QueryFilter implements Serializable {
         return offset;
     }
 
+    /**
+     * Gets the keyset cursor after which results are returned, or
+     * {@code null}.
+     *
+     * @since 5.7
+     */
+    public KeysetCursor getKeysetCursor() {
+        return keysetCursor;
+    }
+
 }
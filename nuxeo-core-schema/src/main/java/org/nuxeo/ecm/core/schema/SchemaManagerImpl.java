@@ -13,10 +13,22 @@
 
 package org.nuxeo.ecm.core.schema;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
 import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -29,6 +41,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -49,16 +63,49 @@ import org.xml.sax.SAXException;
  * <p>
  * Holds basic types (String, Integer, etc.), schemas, document types and
  * facets.
+ * <p>
+ * Registrations are synchronized and mark the effective registries dirty.
+ * The effective registries are recomputed on the next lookup, and published
+ * as an immutable {@link Snapshot} through a volatile reference, so that
+ * lookups don't take any lock when nothing has changed.
+ * <p>
+ * Compiled schemas are cached, in memory and on disk, keyed by a hash of
+ * their XSD and of the XSDs it includes, so that a recomputation only parses
+ * the XSDs that changed, and a restart doesn't parse any unchanged XSD.
  */
 public class SchemaManagerImpl implements SchemaManager {
 
     private static final Log log = LogFactory.getLog(SchemaManagerImpl.class);
 
+    /**
+     * Framework property to disable the on-disk cache of compiled schemas.
+     *
+     * @since 5.7
+     */
+    public static final String SCHEMA_CACHE_PROPERTY = "org.nuxeo.ecm.core.schema.cache.enabled";
+
+    /**
+     * Version of the format of the on-disk cache of compiled schemas. Must be
+     * changed when the serialized form of the schema types changes.
+     *
+     * @since 5.7
+     */
+    public static final int SCHEMA_CACHE_VERSION = 1;
+
+    protected static final int SCHEMA_CACHE_MAGIC = 0x4e585343; // NXSC
+
+    protected static final String SCHEMA_CACHE_SUFFIX = ".ser";
+
+    protected static final Pattern SCHEMA_LOCATION = Pattern.compile("schemaLocation\\s*=\\s*[\"']([^\"']+)[\"']");
+
     /**
      * Whether there have been changes to the registered schemas, facets or
      * document types that require recomputation of the effective ones.
      */
-    protected boolean dirty = true;
+    protected volatile boolean dirty = true;
+
+    /** The effective registries, published after each recomputation. */
+    protected volatile Snapshot snapshot;
 
     /** Basic type registry. */
     protected Map<String, Type> types = new HashMap<String, Type>();
@@ -95,16 +142,31 @@ public class SchemaManagerImpl implements SchemaManager {
 
     protected Map<String, Set<String>> documentTypesForFacet = new HashMap<String, Set<String>>();
 
-    /** Fields computed lazily. */
-    private Map<String, Field> fields = new ConcurrentHashMap<String, Field>();
+    /**
+     * The compiled schemas used by the last recomputation, by cache key.
+     *
+     * @since 5.7
+     */
+    protected final Map<String, Schema> compiledSchemas = new HashMap<String, Schema>();
+
+    /** The cache keys used by the current recomputation. */
+    protected final Set<String> usedSchemaKeys = new HashSet<String>();
 
     private File schemaDir;
 
+    private File schemaCacheDir;
+
     public SchemaManagerImpl() {
         schemaDir = new File(Framework.getRuntime().getHome(), "schemas");
         if (!schemaDir.isDirectory()) {
             schemaDir.mkdirs();
         }
+        if (!"false".equals(Framework.getProperty(SCHEMA_CACHE_PROPERTY))) {
+            schemaCacheDir = new File(schemaDir, "cache");
+            if (!schemaCacheDir.isDirectory()) {
+                schemaCacheDir.mkdirs();
+            }
+        }
         registerBuiltinTypes();
     }
 
@@ -210,9 +272,23 @@ public class SchemaManagerImpl implements SchemaManager {
             return;
         }
         recompute();
+        // published before dirty is reset, for readers checking dirty first
+        snapshot = new Snapshot(this);
         dirty = false;
     }
 
+    /**
+     * Gets the current effective registries, recomputing them if needed.
+     *
+     * @since 5.7
+     */
+    protected Snapshot getSnapshot() {
+        if (dirty) {
+            checkDirty();
+        }
+        return snapshot;
+    }
+
     /**
      * Recomputes effective registries for schemas, facets and document types.
      */
@@ -221,7 +297,66 @@ public class SchemaManagerImpl implements SchemaManager {
         recomputeSchemas();
         recomputeFacets(); // depend on schemas
         recomputeDocumentTypes(); // depend on schemas and facets
-        fields.clear(); // re-filled lazily
+    }
+
+    /**
+     * Immutable copy of the effective registries.
+     *
+     * @since 5.7
+     */
+    protected static class Snapshot {
+
+        protected final Map<String, Schema> schemas;
+
+        protected final Schema[] schemaArray;
+
+        protected final Map<String, Schema> uriToSchema;
+
+        protected final Map<String, Schema> prefixToSchema;
+
+        protected final Map<String, CompositeType> facets;
+
+        protected final CompositeType[] facetArray;
+
+        protected final Map<String, DocumentType> documentTypes;
+
+        protected final DocumentType[] documentTypeArray;
+
+        protected final Map<String, Set<String>> documentTypesExtending;
+
+        protected final Map<String, Set<String>> documentTypesForFacet;
+
+        /** Fields computed lazily. */
+        protected final Map<String, Field> fields = new ConcurrentHashMap<String, Field>();
+
+        protected Snapshot(SchemaManagerImpl sm) {
+            schemas = copy(sm.schemas);
+            schemaArray = schemas.values().toArray(new Schema[0]);
+            uriToSchema = copy(sm.uriToSchema);
+            prefixToSchema = copy(sm.prefixToSchema);
+            facets = copy(sm.facets);
+            facetArray = facets.values().toArray(new CompositeType[0]);
+            documentTypes = Collections.unmodifiableMap(new HashMap<String, DocumentType>(
+                    sm.documentTypes));
+            documentTypeArray = documentTypes.values().toArray(
+                    new DocumentType[0]);
+            documentTypesExtending = copySets(sm.documentTypesExtending);
+            documentTypesForFacet = copySets(sm.documentTypesForFacet);
+        }
+
+        protected static <T> Map<String, T> copy(Map<String, T> map) {
+            return Collections.unmodifiableMap(new HashMap<String, T>(map));
+        }
+
+        protected static Map<String, Set<String>> copySets(
+                Map<String, Set<String>> map) {
+            Map<String, Set<String>> copy = new HashMap<String, Set<String>>();
+            for (Map.Entry<String, Set<String>> es : map.entrySet()) {
+                copy.put(es.getKey(), Collections.unmodifiableSet(new HashSet<String>(
+                        es.getValue())));
+            }
+            return Collections.unmodifiableMap(copy);
+        }
     }
 
     /*
@@ -245,6 +380,7 @@ public class SchemaManagerImpl implements SchemaManager {
         schemas.clear();
         uriToSchema.clear();
         prefixToSchema.clear();
+        usedSchemaKeys.clear();
         for (SchemaBindingDescriptor sd : allSchemas) {
             try {
                 recomputeSchema(sd);
@@ -256,6 +392,37 @@ public class SchemaManagerImpl implements SchemaManager {
                 log.error(e);
             }
         }
+        // forget the compiled schemas of removed or changed descriptors
+        compiledSchemas.keySet().retainAll(usedSchemaKeys);
+        pruneSchemaCache();
+    }
+
+    /**
+     * Deletes the files of the disk cache that were not used by the last
+     * recomputation, so that the cache doesn't grow with each change of the
+     * XSDs.
+     *
+     * @since 5.7
+     */
+    protected void pruneSchemaCache() {
+        if (schemaCacheDir == null) {
+            return;
+        }
+        File[] files = schemaCacheDir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            String name = file.getName();
+            if (!name.endsWith(SCHEMA_CACHE_SUFFIX)) {
+                continue;
+            }
+            String key = name.substring(0, name.length()
+                    - SCHEMA_CACHE_SUFFIX.length());
+            if (!usedSchemaKeys.contains(key) && !file.delete()) {
+                log.warn("Cannot delete stale cached schema: " + file);
+            }
+        }
     }
 
     protected void recomputeSchema(SchemaBindingDescriptor sd)
@@ -273,25 +440,224 @@ public class SchemaManagerImpl implements SchemaManager {
             log.error("XSD Schema not found: " + sd.src);
             return;
         }
+        byte[] xsd;
         InputStream in = url.openStream();
         try {
-            File file = new File(schemaDir, sd.name + ".xsd");
-            FileUtils.copyToFile(in, file); // may overwrite
-            Schema oldschema = schemas.get(sd.name);
+            xsd = FileUtils.readBytes(in);
+        } finally {
+            in.close();
+        }
+        File file = new File(schemaDir, sd.name + ".xsd");
+        // may overwrite, other schemas may include it
+        if (!file.isFile() || file.length() != xsd.length
+                || !Arrays.equals(FileUtils.readBytes(file), xsd)) {
+            FileUtils.writeFile(file, xsd);
+        }
+        Schema oldschema = schemas.get(sd.name);
+        String key = getSchemaCacheKey(sd, xsd, file);
+        usedSchemaKeys.add(key);
+        Schema schema = getCompiledSchema(key);
+        if (schema != null) {
+            if (oldschema == null || sd.override) {
+                registerSchema(schema);
+            }
+        } else {
             // loadSchema calls this.registerSchema
             XSDLoader schemaLoader = new XSDLoader(this);
-            schemaLoader.loadSchema(sd.name, sd.prefix, file, sd.override);
-            if (oldschema == null) {
-                log.info("Registered schema: " + sd.name + " from "
-                        + url.toString());
-            } else {
-                log.info("Reregistered schema: " + sd.name);
+            schema = schemaLoader.loadSchema(sd.name, sd.prefix, file,
+                    sd.override);
+            if (schema != null && schema != oldschema) {
+                putCompiledSchema(key, schema);
             }
-        } finally {
-            in.close();
+        }
+        if (oldschema == null) {
+            log.info("Registered schema: " + sd.name + " from "
+                    + url.toString());
+        } else {
+            log.info("Reregistered schema: " + sd.name);
+        }
+    }
+
+    /**
+     * Computes the cache key of a compiled schema, from its name and prefix
+     * and from the content of its XSD and of the XSDs it includes or imports.
+     *
+     * @since 5.7
+     */
+    protected String getSchemaCacheKey(SchemaBindingDescriptor sd,
+            byte[] xsd, File file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+        digest.update(String.valueOf(SCHEMA_CACHE_VERSION).getBytes("UTF-8"));
+        digest.update((byte) 0);
+        digest.update(sd.name.getBytes("UTF-8"));
+        digest.update((byte) 0);
+        digest.update(String.valueOf(sd.prefix).getBytes("UTF-8"));
+        digest.update((byte) 0);
+        Set<File> done = new HashSet<File>();
+        done.add(file.getCanonicalFile());
+        updateSchemaDigest(digest, xsd, file.getParentFile(), done);
+        StringBuilder buf = new StringBuilder();
+        for (byte b : digest.digest()) {
+            buf.append(Character.forDigit((b >> 4) & 0xf, 16));
+            buf.append(Character.forDigit(b & 0xf, 16));
+        }
+        return buf.toString();
+    }
+
+    protected static void updateSchemaDigest(MessageDigest digest, byte[] xsd,
+            File dir, Set<File> done) throws IOException {
+        digest.update(xsd);
+        Matcher m = SCHEMA_LOCATION.matcher(new String(xsd, "UTF-8"));
+        while (m.find()) {
+            File included = new File(dir, m.group(1)).getCanonicalFile();
+            digest.update((byte) 0);
+            digest.update(m.group(1).getBytes("UTF-8"));
+            if (!done.add(included) || !included.isFile()) {
+                continue;
+            }
+            digest.update((byte) 0);
+            updateSchemaDigest(digest, FileUtils.readBytes(included),
+                    included.getParentFile(), done);
+        }
+    }
+
+    /**
+     * Gets a compiled schema from the memory cache or from the disk cache.
+     *
+     * @return the schema, or {@code null} if not cached
+     * @since 5.7
+     */
+    protected Schema getCompiledSchema(String key) {
+        Schema schema = compiledSchemas.get(key);
+        if (schema != null || schemaCacheDir == null) {
+            return schema;
+        }
+        File file = new File(schemaCacheDir, key + SCHEMA_CACHE_SUFFIX);
+        if (!file.isFile()) {
+            return null;
+        }
+        try {
+            InputStream in = new BufferedInputStream(new FileInputStream(file));
+            try {
+                DataInputStream din = new DataInputStream(in);
+                if (din.readInt() != SCHEMA_CACHE_MAGIC
+                        || din.readInt() != SCHEMA_CACHE_VERSION) {
+                    return null;
+                }
+                schema = (Schema) new SchemaObjectInputStream(in).readObject();
+            } finally {
+                in.close();
+            }
+        } catch (Exception e) {
+            // recompiled and rewritten by the caller
+            log.warn("Cannot read cached schema: " + file + ": " + e);
+            return null;
+        }
+        compiledSchemas.put(key, schema);
+        return schema;
+    }
+
+    /**
+     * Puts a compiled schema in the memory cache and in the disk cache.
+     *
+     * @since 5.7
+     */
+    protected void putCompiledSchema(String key, Schema schema) {
+        compiledSchemas.put(key, schema);
+        if (schemaCacheDir == null) {
+            return;
+        }
+        File file = new File(schemaCacheDir, key + SCHEMA_CACHE_SUFFIX);
+        File tmp = new File(schemaCacheDir, key + ".tmp");
+        try {
+            DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(tmp)));
+            try {
+                out.writeInt(SCHEMA_CACHE_MAGIC);
+                out.writeInt(SCHEMA_CACHE_VERSION);
+                ObjectOutputStream oos = new ObjectOutputStream(out);
+                oos.writeObject(schema);
+                oos.flush();
+            } finally {
+                out.close();
+            }
+            // atomic for concurrent readers
+            if (!tmp.renameTo(file)) {
+                file.delete();
+                if (!tmp.renameTo(file)) {
+                    throw new IOException("Cannot rename " + tmp);
+                }
+            }
+        } catch (IOException e) {
+            log.warn("Cannot write cached schema: " + file + ": " + e);
+            tmp.delete();
         }
     }
 
+    /**
+     * Resolves the classes of the compiled schemas with the class loader of
+     * the schema types, which may not be the one of the caller.
+     * <p>
+     * Only the schema types and the JDK classes they use can be read, a
+     * tampered cache file can't instantiate other classes.
+     */
+    protected static class SchemaObjectInputStream extends ObjectInputStream {
+
+        protected static final String TYPES_PACKAGE = "org.nuxeo.ecm.core.schema.types.";
+
+        public SchemaObjectInputStream(InputStream in) throws IOException {
+            super(in);
+        }
+
+        protected static boolean isAllowed(String className) {
+            // arrays: [I, [Ljava.lang.String; ...
+            int i = 0;
+            while (i < className.length() && className.charAt(i) == '[') {
+                i++;
+            }
+            if (i > 0) {
+                if (className.charAt(i) != 'L') {
+                    return true; // primitive
+                }
+                className = className.substring(i + 1,
+                        className.length() - 1);
+            }
+            return className.startsWith(TYPES_PACKAGE)
+                    || className.startsWith("java.")
+                    || className.equals(Namespace.class.getName());
+        }
+
+        @Override
+        protected Class<?> resolveClass(ObjectStreamClass desc)
+                throws IOException, ClassNotFoundException {
+            if (!isAllowed(desc.getName())) {
+                throw new InvalidClassException(desc.getName(),
+                        "Not allowed in a cached schema");
+            }
+            try {
+                return Class.forName(desc.getName(), false,
+                        SchemaManagerImpl.class.getClassLoader());
+            } catch (ClassNotFoundException e) {
+                return super.resolveClass(desc);
+            }
+        }
+    }
+
+    /**
+     * Gets the directory of the on-disk cache of compiled schemas.
+     *
+     * @return the directory, or {@code null} if the cache is disabled
+     * @since 5.7
+     */
+    public File getSchemaCacheDir() {
+        return schemaCacheDir;
+    }
+
     // called from XSDLoader, does not do the checkDirty call
     protected Schema getSchemaInternal(String name) {
         return schemas.get(name);
@@ -307,26 +673,22 @@ public class SchemaManagerImpl implements SchemaManager {
 
     @Override
     public Schema[] getSchemas() {
-        checkDirty();
-        return new ArrayList<Schema>(schemas.values()).toArray(new Schema[0]);
+        return getSnapshot().schemaArray.clone();
     }
 
     @Override
     public Schema getSchema(String name) {
-        checkDirty();
-        return schemas.get(name);
+        return getSnapshot().schemas.get(name);
     }
 
     @Override
     public Schema getSchemaFromPrefix(String schemaPrefix) {
-        checkDirty();
-        return prefixToSchema.get(schemaPrefix);
+        return getSnapshot().prefixToSchema.get(schemaPrefix);
     }
 
     @Override
     public Schema getSchemaFromURI(String schemaURI) {
-        checkDirty();
-        return uriToSchema.get(schemaURI);
+        return getSnapshot().uriToSchema.get(schemaURI);
     }
 
     /*
@@ -364,14 +726,12 @@ public class SchemaManagerImpl implements SchemaManager {
 
     @Override
     public CompositeType[] getFacets() {
-        checkDirty();
-        return new ArrayList<CompositeType>(facets.values()).toArray(new CompositeType[facets.size()]);
+        return getSnapshot().facetArray.clone();
     }
 
     @Override
     public CompositeType getFacet(String name) {
-        checkDirty();
-        return facets.get(name);
+        return getSnapshot().facets.get(name);
     }
 
     /*
@@ -508,32 +868,27 @@ public class SchemaManagerImpl implements SchemaManager {
 
     @Override
     public DocumentType getDocumentType(String name) {
-        checkDirty();
-        return documentTypes.get(name);
+        return getSnapshot().documentTypes.get(name);
     }
 
     @Override
     public Set<String> getDocumentTypeNamesForFacet(String facet) {
-        checkDirty();
-        return documentTypesForFacet.get(facet);
+        return getSnapshot().documentTypesForFacet.get(facet);
     }
 
     @Override
     public Set<String> getDocumentTypeNamesExtending(String docTypeName) {
-        checkDirty();
-        return documentTypesExtending.get(docTypeName);
+        return getSnapshot().documentTypesExtending.get(docTypeName);
     }
 
     @Override
     public DocumentType[] getDocumentTypes() {
-        checkDirty();
-        return new ArrayList<DocumentType>(documentTypes.values()).toArray(new DocumentType[0]);
+        return getSnapshot().documentTypeArray.clone();
     }
 
     @Override
     public int getDocumentTypesCount() {
-        checkDirty();
-        return documentTypes.size();
+        return getSnapshot().documentTypes.size();
     }
 
     /*
@@ -542,21 +897,22 @@ public class SchemaManagerImpl implements SchemaManager {
 
     @Override
     public Field getField(String prefixedName) {
-        checkDirty();
-        Field field = fields.get(prefixedName);
+        Snapshot snapshot = getSnapshot();
+        Field field = snapshot.fields.get(prefixedName);
         if (field == null) {
             QName qname = QName.valueOf(prefixedName);
             String prefix = qname.getPrefix();
-            Schema schema = getSchemaFromPrefix(prefix);
+            Schema schema = snapshot.prefixToSchema.get(prefix);
             if (schema == null) {
                 // try using the name
-                schema = getSchema(prefix);
+                schema = snapshot.schemas.get(prefix);
             }
             if (schema != null) {
                 field = schema.getField(qname.getLocalName());
                 if (field != null) {
-                    // map is concurrent so parallelism is ok
-                    fields.put(prefixedName, field);
+                    // map is concurrent so parallelism is ok, and a field
+                    // computed from an old snapshot doesn't go in a new one
+                    snapshot.fields.put(prefixedName, field);
                 }
             }
         }
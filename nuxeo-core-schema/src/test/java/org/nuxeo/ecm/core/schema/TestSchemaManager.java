@@ -15,21 +15,29 @@
 package org.nuxeo.ecm.core.schema;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
+import java.io.File;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import org.nuxeo.ecm.core.schema.SchemaManagerImpl.SchemaObjectInputStream;
 import org.nuxeo.ecm.core.schema.types.CompositeType;
+import org.nuxeo.ecm.core.schema.types.Field;
 import org.nuxeo.ecm.core.schema.types.Schema;
 import org.nuxeo.ecm.core.schema.types.Type;
 import org.nuxeo.runtime.api.Framework;
@@ -277,4 +285,102 @@ public class TestSchemaManager extends NXRuntimeTestCase {
                 Arrays.asList(f.getSchemaNames()));
     }
 
+    @Test
+    public void testConcurrentLookups() throws Exception {
+        deployContrib("org.nuxeo.ecm.core.schema.tests",
+                "OSGI-INF/CoreTestExtensions.xml");
+        final int nthreads = 32;
+        final int n = 10000;
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+        Thread[] threads = new Thread[nthreads];
+        for (int i = 0; i < nthreads; i++) {
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int j = 0; j < n; j++) {
+                            assertNotNull(schemaManager.getField("common:icon"));
+                            assertNotNull(schemaManager.getDocumentType("myDoc3"));
+                            assertNotNull(schemaManager.getSchema("schema2"));
+                        }
+                    } catch (Throwable t) {
+                        error.compareAndSet(null, t);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        start.countDown();
+        // registrations while reading, forcing recomputations
+        for (int i = 0; i < 20; i++) {
+            DocumentTypeDescriptor dtd = new DocumentTypeDescriptor(
+                    "Document", "dynamic" + i, new SchemaDescriptor[0],
+                    new String[0]);
+            schemaManager.registerDocumentType(dtd);
+            assertNotNull(schemaManager.getDocumentType("dynamic" + i));
+            schemaManager.unregisterDocumentType(dtd);
+            assertNull(schemaManager.getDocumentType("dynamic" + i));
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        if (error.get() != null) {
+            throw new AssertionError(error.get());
+        }
+    }
+
+    @Test
+    public void testCompiledSchemaCache() throws Exception {
+        deployContrib("org.nuxeo.ecm.core.schema.tests",
+                "OSGI-INF/CoreTestExtensions.xml");
+        Schema schema = schemaManager.getSchema("schema1");
+        assertNotNull(schema);
+        File cacheDir = schemaManager.getSchemaCacheDir();
+        assertNotNull(cacheDir);
+        assertTrue(cacheDir.list().length > 0);
+
+        // unchanged schemas are not recompiled by a recomputation
+        schemaManager.registerFacet(new FacetDescriptor("somefacet", null));
+        assertSame(schema, schemaManager.getSchema("schema1"));
+
+        // read back from the disk cache
+        schemaManager.compiledSchemas.clear();
+        schemaManager.registerFacet(new FacetDescriptor("otherfacet", null));
+        Schema cached = schemaManager.getSchema("schema1");
+        assertNotSame(schema, cached);
+        assertEquals(schema.getNamespace(), cached.getNamespace());
+        assertEquals(schema.getFields().size(), cached.getFields().size());
+        for (Field field : schema.getFields()) {
+            Field f = cached.getField(field.getName());
+            assertNotNull(f);
+            assertEquals(field.getType().getName(), f.getType().getName());
+        }
+        assertNotNull(schemaManager.getField("common:icon"));
+        assertSame(cached,
+                schemaManager.getDocumentType("myDoc3").getSchema("schema1"));
+
+        // stale entries are removed by the next recomputation
+        File stale = new File(cacheDir, "0123456789abcdef"
+                + SchemaManagerImpl.SCHEMA_CACHE_SUFFIX);
+        assertTrue(stale.createNewFile());
+        int n = cacheDir.list().length;
+        schemaManager.registerFacet(new FacetDescriptor("thirdfacet", null));
+        assertNotNull(schemaManager.getSchema("schema1"));
+        assertFalse(stale.exists());
+        assertEquals(n - 1, cacheDir.list().length);
+    }
+
+    @Test
+    public void testCompiledSchemaCacheAllowedClasses() throws Exception {
+        assertTrue(SchemaObjectInputStream.isAllowed(Field.class.getName()));
+        assertTrue(SchemaObjectInputStream.isAllowed(Namespace.class.getName()));
+        assertTrue(SchemaObjectInputStream.isAllowed("java.util.HashMap"));
+        assertTrue(SchemaObjectInputStream.isAllowed("[Ljava.lang.String;"));
+        assertTrue(SchemaObjectInputStream.isAllowed("[I"));
+        assertFalse(SchemaObjectInputStream.isAllowed("org.apache.commons.collections.Transformer"));
+        assertFalse(SchemaObjectInputStream.isAllowed("[Lorg.nuxeo.runtime.api.Framework;"));
+    }
+
 }
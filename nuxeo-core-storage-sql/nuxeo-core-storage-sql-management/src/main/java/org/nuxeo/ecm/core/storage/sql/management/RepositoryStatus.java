@@ -29,6 +29,7 @@ import org.nuxeo.ecm.core.storage.sql.BinaryManagerStatus;
 import org.nuxeo.ecm.core.storage.sql.Repository;
 import org.nuxeo.ecm.core.storage.sql.RepositoryManagement;
 import org.nuxeo.ecm.core.storage.sql.RepositoryResolver;
+import org.nuxeo.ecm.core.storage.sql.jdbc.JDBCConnection;
 import org.nuxeo.ecm.core.storage.sql.net.MapperClientInfo;
 
 /**
@@ -142,6 +143,33 @@ public class RepositoryStatus implements RepositoryStatusMBean {
         return buf.toString();
     }
 
+    @Override
+    public String listStatementCacheStatistics() {
+        List<RepositoryManagement> repositories;
+        try {
+            repositories = getRepositories();
+        } catch (NamingException e) {
+            log.error("Error getting repositories", e);
+            return "Error!";
+        }
+        StringBuilder buf = new StringBuilder();
+        buf.append("Prepared statement cache for SQL repositories:<br />");
+        for (RepositoryManagement repository : repositories) {
+            String name = repository.getName();
+            long hits = JDBCConnection.getStatementCacheHits(name);
+            long misses = JDBCConnection.getStatementCacheMisses(name);
+            long total = hits + misses;
+            buf.append("<b>").append(name).append("</b>: ");
+            buf.append(hits).append(" hits, ");
+            buf.append(misses).append(" misses");
+            if (total > 0) {
+                buf.append(", hit ratio ").append(100 * hits / total).append('%');
+            }
+            buf.append("<br />");
+        }
+        return buf.toString();
+    }
+
     @Override
     public String listRemoteSessions() {
         List<RepositoryManagement> repositories;
@@ -216,6 +244,8 @@ public class RepositoryStatus implements RepositoryStatusMBean {
             status.sizeBinaries += s.sizeBinaries;
             status.numBinariesGC += s.numBinariesGC;
             status.sizeBinariesGC += s.sizeBinariesGC;
+            status.numBinariesAdded += s.numBinariesAdded;
+            status.numBinariesChecked += s.numBinariesChecked;
         }
         status.gcDuration = System.currentTimeMillis() - start;
         return status;
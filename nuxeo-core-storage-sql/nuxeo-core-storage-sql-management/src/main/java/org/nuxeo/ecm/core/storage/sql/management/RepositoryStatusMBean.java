@@ -39,6 +39,13 @@ public interface RepositoryStatusMBean {
      */
     String clearCaches();
 
+    /**
+     * Lists the prepared statement cache statistics.
+     *
+     * @since 5.7
+     */
+    String listStatementCacheStatistics();
+
     /**
      * GC the unused binaries.
      *
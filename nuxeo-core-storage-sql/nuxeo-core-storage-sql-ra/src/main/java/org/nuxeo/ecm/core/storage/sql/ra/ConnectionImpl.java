@@ -34,8 +34,10 @@ import org.nuxeo.ecm.core.storage.sql.Binary;
 import org.nuxeo.ecm.core.storage.sql.Mapper;
 import org.nuxeo.ecm.core.storage.sql.Model;
 import org.nuxeo.ecm.core.storage.sql.Node;
+import org.nuxeo.ecm.core.storage.sql.PrefetchProfile;
 import org.nuxeo.ecm.core.storage.sql.Session;
 import org.nuxeo.ecm.core.storage.sql.SessionImpl;
+import org.nuxeo.ecm.core.storage.sql.SharedACLCache;
 import org.nuxeo.runtime.services.streaming.FileSource;
 
 /**
@@ -192,6 +194,22 @@ public class ConnectionImpl implements Session {
         return getSession().getNodesByIds(ids);
     }
 
+    @Override
+    public List<Node> getNodesByIds(List<Serializable> ids,
+            PrefetchProfile profile) throws StorageException {
+        return getSession().getNodesByIds(ids, profile);
+    }
+
+    @Override
+    public SharedACLCache getSharedACLCache() throws StorageException {
+        return getSession().getSharedACLCache();
+    }
+
+    @Override
+    public long getSharedACLCacheStamp() throws StorageException {
+        return getSession().getSharedACLCacheStamp();
+    }
+
     @Override
     public Node getNodeByPath(String path, Node node) throws StorageException {
         return getSession().getNodeByPath(path, node);
@@ -12,10 +12,12 @@
 
 package org.nuxeo.ecm.core.storage.sql;
 
+import java.lang.reflect.Field;
 import java.util.Arrays;
 
 import org.nuxeo.ecm.core.event.EventService;
 import org.nuxeo.ecm.core.storage.sql.RepositoryDescriptor.FieldDescriptor;
+import org.nuxeo.ecm.core.storage.sql.jdbc.JDBCBackend;
 import org.nuxeo.runtime.api.Framework;
 import org.nuxeo.runtime.test.NXRuntimeTestCase;
 
@@ -92,4 +94,11 @@ public abstract class SQLBackendTestCase extends NXRuntimeTestCase {
         }
     }
 
+    protected JDBCBackend getJDBCBackend() throws Exception {
+        Field backendField = RepositoryImpl.class.getDeclaredField("backend");
+        backendField.setAccessible(true);
+        Object backend = backendField.get(repository);
+        return backend instanceof JDBCBackend ? (JDBCBackend) backend : null;
+    }
+
 }
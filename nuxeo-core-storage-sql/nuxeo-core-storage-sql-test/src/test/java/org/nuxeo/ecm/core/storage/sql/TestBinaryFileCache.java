@@ -0,0 +1,212 @@
+/*
+ * (C) Copyright 2012 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Florent Guillaume
+ */
+package org.nuxeo.ecm.core.storage.sql;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestBinaryFileCache {
+
+    protected File dir;
+
+    protected TestCache cache;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = File.createTempFile("binarycache-", ".dir");
+        dir.delete();
+        dir.mkdir();
+        cache = new TestCache(dir);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.deleteDirectory(dir);
+    }
+
+    @Test
+    public void testSingleFetch() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<File>> futures = new ArrayList<Future<File>>();
+            for (int i = 0; i < 16; i++) {
+                final String key = "key" + (i % 2);
+                futures.add(executor.submit(new Callable<File>() {
+                    @Override
+                    public File call() {
+                        return cache.getFile(key);
+                    }
+                }));
+            }
+            for (Future<File> future : futures) {
+                assertNotNull(future.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+        // each binary fetched once, never twice at the same time
+        assertEquals(2, cache.fetches.get());
+        assertEquals(1, cache.maxConcurrentFetchesPerKey);
+
+        assertNotNull(cache.getFile("key0"));
+        assertEquals(2, cache.fetches.get());
+        assertTrue(cache.getHits() > 0);
+
+        assertNull(cache.getFile("missing"));
+    }
+
+    @Test
+    public void testMemoryTier() throws Exception {
+        InputStream in = cache.getStream("small");
+        assertEquals("small", IOUtils.toString(in));
+        in = cache.getStream("small");
+        assertTrue(in instanceof ByteArrayInputStream);
+        assertEquals("small", IOUtils.toString(in));
+        assertEquals(1, cache.getMemoryHits());
+        assertEquals(1, cache.fetches.get());
+        assertEquals(Long.valueOf(5), cache.getLength("small"));
+
+        // too big for memory
+        in = cache.getStream("big");
+        assertFalse(in instanceof ByteArrayInputStream);
+        assertEquals(TestCache.BIG_SIZE, IOUtils.toByteArray(in).length);
+        in.close();
+        assertEquals(5, cache.getMemorySize());
+
+        assertNull(cache.getStream("missing"));
+    }
+
+    @Test
+    public void testPrefetch() throws Exception {
+        // disabled by default
+        assertFalse(cache.isPrefetchEnabled());
+        cache = new TestCache(dir, BinaryFileCache.DEFAULT_PREFETCH_THREADS,
+                BinaryFileCache.DEFAULT_PREFETCH_MAX_PENDING);
+        assertTrue(cache.isPrefetchEnabled());
+        assertNull(cache.getCachedFile("key"));
+        cache.prefetch("key");
+        // waits for the prefetch in progress
+        File file = cache.getFile("key");
+        assertNotNull(file);
+        assertEquals(1, cache.fetches.get());
+        assertEquals(file, cache.getCachedFile("key"));
+        assertEquals(1, cache.getPrefetches());
+    }
+
+    @Test
+    public void testPrefetchMaxPending() throws Exception {
+        cache = new TestCache(dir, 1, 2);
+        // the first one is running, the second one queued
+        assertTrue(cache.prefetch("key1"));
+        assertTrue(cache.prefetch("key2"));
+        // dropped, and not counted
+        assertFalse(cache.prefetch("key3"));
+        assertFalse(cache.prefetch("key4"));
+        assertEquals(2, cache.getPrefetches());
+        assertNotNull(cache.getFile("key2"));
+        assertNull(cache.getCachedFile("key3"));
+    }
+
+    protected static class TestCache extends BinaryFileCache {
+
+        public static final int BIG_SIZE = DEFAULT_MEMORY_MAX_ENTRY_SIZE + 1;
+
+        public final AtomicInteger fetches = new AtomicInteger();
+
+        protected final ConcurrentMap<String, AtomicInteger> concurrentFetches = new ConcurrentHashMap<String, AtomicInteger>();
+
+        public volatile int maxConcurrentFetchesPerKey;
+
+        public TestCache(File dir) {
+            super(dir, 1024 * 1024);
+        }
+
+        public TestCache(File dir, int prefetchThreads, int prefetchMaxPending) {
+            super(dir, 1024 * 1024, DEFAULT_MEMORY_MAX_SIZE,
+                    DEFAULT_MEMORY_MAX_ENTRY_SIZE, prefetchThreads,
+                    prefetchMaxPending);
+        }
+
+        @Override
+        public boolean fetchFile(String key, File tmp) {
+            fetches.incrementAndGet();
+            AtomicInteger concurrent = new AtomicInteger();
+            AtomicInteger old = concurrentFetches.putIfAbsent(key, concurrent);
+            if (old != null) {
+                concurrent = old;
+            }
+            int n = concurrent.incrementAndGet();
+            synchronized (concurrentFetches) {
+                maxConcurrentFetchesPerKey = Math.max(
+                        maxConcurrentFetchesPerKey, n);
+            }
+            try {
+                // slow remote storage
+                Thread.sleep(200);
+                if (key.startsWith("missing")) {
+                    return false;
+                }
+                byte[] bytes = key.equals("big") ? new byte[BIG_SIZE]
+                        : key.getBytes("UTF-8");
+                OutputStream out = new FileOutputStream(tmp);
+                try {
+                    out.write(bytes);
+                } finally {
+                    out.close();
+                }
+                return true;
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            } finally {
+                concurrent.decrementAndGet();
+            }
+        }
+
+        @Override
+        public Long fetchLength(String key) {
+            return null;
+        }
+    }
+
+}
@@ -107,6 +107,89 @@ public class TestDefaultBinaryManager extends NXRuntimeTestCase {
         assertEquals(2, countFiles(binaryManager.getStorageDir()));
     }
 
+    @Test
+    public void testIncrementalGC() throws Exception {
+        RepositoryDescriptor descriptor = new RepositoryDescriptor();
+        descriptor.binaryStoreIncrementalGC = true;
+        DefaultBinaryManager binaryManager = new DefaultBinaryManager();
+        binaryManager.initialize(descriptor);
+        BinaryGarbageCollector gc = binaryManager.getGarbageCollector();
+        assertTrue(gc instanceof IncrementalBinaryGarbageCollector);
+
+        byte[] bytes = CONTENT.getBytes("UTF-8");
+        binaryManager.getBinary(new ByteArrayInputStream(bytes));
+        // other binary we'll GC
+        binaryManager.getBinary(new ByteArrayInputStream(
+                "abc".getBytes("UTF-8")));
+        // sleep before GC to pass its time threshold
+        Thread.sleep(3 * 1000);
+        // create another binary after time threshold, it won't be GCed
+        binaryManager.getBinary(new ByteArrayInputStream(
+                "defg".getBytes("UTF-8")));
+        assertEquals(3, countFiles(binaryManager.getStorageDir()));
+
+        // GC in non-delete mode, creating the index
+        gc.start();
+        assertTrue(gc.isInProgress());
+        gc.mark(CONTENT_MD5);
+        gc.stop(false);
+        assertFalse(gc.isInProgress());
+        BinaryManagerStatus status = gc.getStatus();
+        assertEquals(2, status.numBinaries);
+        assertEquals(bytes.length + 4, status.sizeBinaries);
+        assertEquals(1, status.numBinariesGC);
+        assertEquals(3, status.sizeBinariesGC);
+        assertEquals(3, status.numBinariesAdded);
+        assertEquals(2, status.numBinariesChecked);
+        assertEquals(3, countFiles(binaryManager.getStorageDir()));
+
+        // real GC, from the index
+        gc.start();
+        gc.mark(CONTENT_MD5);
+        gc.stop(true);
+        status = gc.getStatus();
+        assertEquals(2, status.numBinaries);
+        assertEquals(bytes.length + 4, status.sizeBinaries);
+        assertEquals(1, status.numBinariesGC);
+        assertEquals(3, status.sizeBinariesGC);
+        assertEquals(0, status.numBinariesAdded);
+        assertEquals(2, status.numBinariesChecked);
+        assertEquals(2, countFiles(binaryManager.getStorageDir()));
+
+        // new binary, only it and the unreferenced one are checked
+        binaryManager.getBinary(new ByteArrayInputStream(
+                "hijkl".getBytes("UTF-8")));
+        gc.start();
+        gc.mark(CONTENT_MD5);
+        gc.stop(true);
+        status = gc.getStatus();
+        assertEquals(3, status.numBinaries);
+        assertEquals(bytes.length + 4 + 5, status.sizeBinaries);
+        assertEquals(0, status.numBinariesGC);
+        assertEquals(1, status.numBinariesAdded);
+        assertEquals(2, status.numBinariesChecked);
+        assertEquals(3, countFiles(binaryManager.getStorageDir()));
+    }
+
+    @Test
+    public void testIncrementalGCSortChunks() throws Exception {
+        DefaultBinaryManager binaryManager = new DefaultBinaryManager();
+        binaryManager.initialize(new RepositoryDescriptor());
+        // sorted and merged two lines at a time
+        IncrementalBinaryGarbageCollector gc = new IncrementalBinaryGarbageCollector(
+                binaryManager, 2);
+        File in = File.createTempFile("test-", ".txt");
+        File out = File.createTempFile("test-", ".sorted");
+        try {
+            FileUtils.writeFile(in, "c\na\nb\na\nd\n");
+            assertEquals(4, gc.sort(in, out));
+            assertEquals("a\nb\nc\nd\n", FileUtils.readFile(out));
+        } finally {
+            in.delete();
+            out.delete();
+        }
+    }
+
     @Test
     public void testStreamingCopies() throws IOException {
         DefaultBinaryManager binaryManager = new DefaultBinaryManager();
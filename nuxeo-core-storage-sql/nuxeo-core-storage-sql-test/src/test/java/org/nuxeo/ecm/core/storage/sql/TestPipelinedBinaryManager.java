@@ -0,0 +1,152 @@
+/*
+ * (C) Copyright 2012 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Florent Guillaume
+ */
+package org.nuxeo.ecm.core.storage.sql;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+import org.nuxeo.common.utils.FileUtils;
+import org.nuxeo.runtime.services.streaming.FileSource;
+import org.nuxeo.runtime.test.NXRuntimeTestCase;
+
+public class TestPipelinedBinaryManager extends NXRuntimeTestCase {
+
+    private static final String CONTENT = "this is a file au caf\u00e9";
+
+    private static final String CONTENT_MD5 = "d25ea4f4642073b7f218024d397dbaef";
+
+    @Test
+    public void testSmallBinary() throws Exception {
+        PipelinedBinaryManager binaryManager = new PipelinedBinaryManager();
+        binaryManager.initialize(new RepositoryDescriptor());
+        byte[] bytes = CONTENT.getBytes("UTF-8");
+        Binary binary = binaryManager.getBinary(new ByteArrayInputStream(bytes));
+        assertNotNull(binary);
+        assertEquals(CONTENT_MD5, binary.getDigest());
+        binary = binaryManager.getBinary(CONTENT_MD5);
+        assertNotNull(binary);
+        assertEquals(CONTENT, IOUtils.toString(binary.getStream(), "UTF-8"));
+    }
+
+    @Test
+    public void testLargeBinary() throws Exception {
+        PipelinedBinaryManager binaryManager = new PipelinedBinaryManager();
+        binaryManager.initialize(new RepositoryDescriptor());
+        // several buffers, the last one partially filled
+        byte[] bytes = new byte[5 * PipelinedBinaryManager.BUF_SIZE + 123];
+        new Random(123).nextBytes(bytes);
+        String md5 = AbstractBinaryManager.toHexString(MessageDigest.getInstance(
+                "MD5").digest(bytes));
+
+        Binary binary = binaryManager.getBinary(new ByteArrayInputStream(bytes));
+        assertEquals(md5, binary.getDigest());
+        assertEquals(bytes.length, binary.getLength());
+        assertTrue(Arrays.equals(bytes, IOUtils.toByteArray(binary.getStream())));
+
+        // same digest as the default binary manager
+        DefaultBinaryManager defaultBinaryManager = new DefaultBinaryManager();
+        defaultBinaryManager.initialize(new RepositoryDescriptor());
+        binary = defaultBinaryManager.getBinary(new ByteArrayInputStream(bytes));
+        assertEquals(md5, binary.getDigest());
+    }
+
+    @Test
+    public void testFileSource() throws Exception {
+        PipelinedBinaryManager binaryManager = new PipelinedBinaryManager();
+        binaryManager.initialize(new RepositoryDescriptor());
+        File file = File.createTempFile("test-", ".data",
+                binaryManager.getStorageDir());
+        FileUtils.writeFile(file, CONTENT.getBytes("UTF-8"));
+        FileSource source = new FileSource(file);
+        Binary binary = binaryManager.getBinary(source);
+        assertEquals(CONTENT_MD5, binary.getDigest());
+        assertTrue(source.getFile().exists());
+    }
+
+    @Test
+    public void testSameDigestAsDefault() throws Exception {
+        // throughput is timed by TestPipelinedBinaryManagerBenchmark
+        DefaultBinaryManager defaultBinaryManager = new DefaultBinaryManager();
+        defaultBinaryManager.initialize(new RepositoryDescriptor());
+        PipelinedBinaryManager pipelinedBinaryManager = new PipelinedBinaryManager();
+        pipelinedBinaryManager.initialize(new RepositoryDescriptor());
+        byte[] block = new byte[PipelinedBinaryManager.BUF_SIZE];
+        new Random(456).nextBytes(block);
+        long size = 2 * 1024 * 1024;
+        Binary b1 = defaultBinaryManager.getBinary(new RepeatingInputStream(
+                block, size, (byte) 0));
+        Binary b2 = pipelinedBinaryManager.getBinary(new RepeatingInputStream(
+                block, size, (byte) 0));
+        assertEquals(size, b1.getLength());
+        assertEquals(size, b2.getLength());
+        assertEquals(b1.getDigest(), b2.getDigest());
+    }
+
+    /**
+     * Stream of a given length repeating a block, with a first byte making
+     * the content distinct.
+     */
+    protected static class RepeatingInputStream extends InputStream {
+
+        protected final byte[] block;
+
+        protected final long length;
+
+        protected final byte first;
+
+        protected long pos;
+
+        public RepeatingInputStream(byte[] block, long length, byte first) {
+            this.block = block;
+            this.length = length;
+            this.first = first;
+        }
+
+        @Override
+        public int read() {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (pos >= length) {
+                return -1;
+            }
+            int boff = (int) (pos % block.length);
+            int n = (int) Math.min(Math.min(len, block.length - boff), length
+                    - pos);
+            System.arraycopy(block, boff, b, off, n);
+            if (pos == 0 && n > 0) {
+                b[off] = first;
+            }
+            pos += n;
+            return n;
+        }
+    }
+
+}
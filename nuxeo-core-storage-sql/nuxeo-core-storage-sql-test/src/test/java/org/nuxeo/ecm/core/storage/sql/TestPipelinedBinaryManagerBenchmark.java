@@ -0,0 +1,89 @@
+/*
+ * (C) Copyright 2012 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Florent Guillaume
+ */
+package org.nuxeo.ecm.core.storage.sql;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.nuxeo.ecm.core.storage.sql.TestPipelinedBinaryManager.RepeatingInputStream;
+import org.nuxeo.runtime.test.NXRuntimeTestCase;
+
+/**
+ * Timings of the {@link PipelinedBinaryManager} against the
+ * {@link DefaultBinaryManager}, the functional checks are done by
+ * {@link TestPipelinedBinaryManager}.
+ * <p>
+ * Only run if the system property {@value #BENCHMARK_PROP} is {@code true}.
+ */
+public class TestPipelinedBinaryManagerBenchmark extends NXRuntimeTestCase {
+
+    private static final Log log = LogFactory.getLog(TestPipelinedBinaryManagerBenchmark.class);
+
+    public static final String BENCHMARK_PROP = "nuxeo.test.benchmark";
+
+    /**
+     * Comma-separated sizes in MB of the binaries stored by
+     * {@link #testThroughput}, for instance {@code 1,100,2048}.
+     */
+    public static final String BENCHMARK_SIZES_PROP = "nuxeo.test.binary.sizes";
+
+    @BeforeClass
+    public static void assumeBenchmark() {
+        Assume.assumeTrue(Boolean.getBoolean(BENCHMARK_PROP));
+    }
+
+    @Test
+    public void testThroughput() throws Exception {
+        DefaultBinaryManager defaultBinaryManager = new DefaultBinaryManager();
+        defaultBinaryManager.initialize(new RepositoryDescriptor());
+        PipelinedBinaryManager pipelinedBinaryManager = new PipelinedBinaryManager();
+        pipelinedBinaryManager.initialize(new RepositoryDescriptor());
+        byte[] block = new byte[PipelinedBinaryManager.BUF_SIZE];
+        new Random(456).nextBytes(block);
+        String sizes = System.getProperty(BENCHMARK_SIZES_PROP, "100");
+        int seed = 0;
+        for (String s : sizes.split(",")) {
+            long size = Long.parseLong(s.trim()) * 1024 * 1024;
+            // different content for each store so that no file already exists
+            long t0 = System.nanoTime();
+            Binary b1 = defaultBinaryManager.getBinary(new RepeatingInputStream(
+                    block, size, (byte) seed++));
+            long t1 = System.nanoTime();
+            Binary b2 = pipelinedBinaryManager.getBinary(new RepeatingInputStream(
+                    block, size, (byte) seed++));
+            long t2 = System.nanoTime();
+            assertEquals(size, b1.getLength());
+            assertEquals(size, b2.getLength());
+            log.warn(String.format(
+                    "Stored %s MB: default %.1f MB/s, pipelined %.1f MB/s", s,
+                    mbPerSecond(size, t1 - t0), mbPerSecond(size, t2 - t1)));
+            defaultBinaryManager.getFileForDigest(b1.getDigest(), false).delete();
+            pipelinedBinaryManager.getFileForDigest(b2.getDigest(), false).delete();
+        }
+    }
+
+    protected static double mbPerSecond(long size, long nanos) {
+        return size / 1024.0 / 1024.0 / (nanos / 1e9);
+    }
+
+}
@@ -25,6 +25,11 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.Serializable;
 import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
@@ -53,6 +58,7 @@ import org.junit.Before;
 import org.junit.Test;
 import org.nuxeo.common.utils.XidImpl;
 import org.nuxeo.ecm.core.api.IterableQueryResult;
+import org.nuxeo.ecm.core.api.KeysetCursor;
 import org.nuxeo.ecm.core.api.Lock;
 import org.nuxeo.ecm.core.query.QueryFilter;
 import org.nuxeo.ecm.core.query.sql.model.SQLQuery;
@@ -65,6 +71,10 @@ import org.nuxeo.ecm.core.storage.sql.jdbc.JDBCConnection;
 import org.nuxeo.ecm.core.storage.sql.jdbc.JDBCConnectionPropagator;
 import org.nuxeo.ecm.core.storage.sql.jdbc.JDBCMapper;
 import org.nuxeo.ecm.core.storage.sql.jdbc.JDBCRowMapper;
+import org.nuxeo.ecm.core.storage.sql.jdbc.NXQLQueryCache;
+import org.nuxeo.ecm.core.storage.sql.jdbc.NXQLQueryMaker;
+import org.nuxeo.ecm.core.storage.sql.jdbc.SQLInfo;
+import org.nuxeo.ecm.core.storage.sql.jdbc.VMClusterInvalidator;
 
 public class TestSQLBackend extends SQLBackendTestCase {
 
@@ -288,6 +298,359 @@ public class TestSQLBackend extends SQLBackendTestCase {
         }
     }
 
+    @Test
+    public void testBulkInsert() throws Exception {
+        // sizes going through the batched, multi-row and bulk copy inserts,
+        // timings are in TestSQLBackendBenchmark
+        int[] sizes = { 5, 100, JDBCRowMapper.COPY_IN_THRESHOLD };
+        String title = "a\tb\nc\\d \"e\" \u00e9";
+        Calendar cal = new GregorianCalendar(2008, Calendar.JULY, 14, 12, 34,
+                56);
+        for (int n : sizes) {
+            Session session = repository.getConnection();
+            Node root = session.getRootNode();
+            Node folder = session.addChildNode(root, "bulk" + n, null,
+                    "TestDoc", false);
+            for (int i = 0; i < n; i++) {
+                Node node = session.addChildNode(folder, "doc" + i, null,
+                        "TestDoc", false);
+                node.setSimpleProperty("tst:title", title + i);
+                node.setSimpleProperty("tst:rate", Double.valueOf(i + 0.5));
+                node.setSimpleProperty("tst:created", cal);
+                node.setCollectionProperty("tst:subjects", new String[] {
+                        "a,b", "c\"d" });
+            }
+            session.save();
+            session.close();
+
+            session = repository.getConnection();
+            folder = session.getNodeByPath("/bulk" + n, null);
+            assertEquals(n, session.getChildren(folder, null, false).size());
+            Node node = session.getChildNode(folder, "doc" + (n - 1), false);
+            assertEquals(title + (n - 1),
+                    node.getSimpleProperty("tst:title").getString());
+            assertEquals(Double.valueOf(n - 0.5),
+                    node.getSimpleProperty("tst:rate").getValue());
+            assertEquals(cal.getTimeInMillis(),
+                    ((Calendar) node.getSimpleProperty("tst:created").getValue()).getTimeInMillis());
+            assertEquals(Arrays.asList("a,b", "c\"d"),
+                    Arrays.asList(node.getCollectionProperty("tst:subjects").getStrings()));
+            session.close();
+        }
+    }
+
+    @Test
+    public void testPathCache() throws Exception {
+        Session session = repository.getConnection();
+        Node root = session.getRootNode();
+        Node nodea = session.addChildNode(root, "a", null, "TestDoc", false);
+        Node nodeb = session.addChildNode(nodea, "b", null, "TestDoc", false);
+        Node nodec = session.addChildNode(nodeb, "c", null, "TestDoc", false);
+        session.save();
+        Serializable idc = nodec.getId();
+
+        // resolved by another session, through the shared cache
+        Session session2 = repository.getConnection();
+        assertEquals(idc, session2.getNodeByPath("/a/b/c", null).getId());
+        session2.close();
+        SharedPathCache pathCache = ((RepositoryImpl) repository).getSharedPathCache();
+        assertNotNull(pathCache);
+        long hits = pathCache.getHits();
+        session2 = repository.getConnection();
+        assertEquals(idc, session2.getNodeByPath("/a/b/c", null).getId());
+        assertEquals(hits + 3, pathCache.getHits());
+        session2.close();
+
+        // rename, not committed paths are only seen by the session
+        session.move(nodeb, nodea, "b2");
+        assertNull(session.getNodeByPath("/a/b/c", null));
+        assertEquals(idc, session.getNodeByPath("/a/b2/c", null).getId());
+        session.save();
+        session2 = repository.getConnection();
+        assertNull(session2.getNodeByPath("/a/b/c", null));
+        assertEquals(idc, session2.getNodeByPath("/a/b2/c", null).getId());
+        // not interpreted, as before the path cache
+        assertNull(session2.getNodeByPath("/a/./b2", null));
+        assertNull(session2.getNodeByPath("/a/b2/..", null));
+        session2.close();
+
+        // move
+        Node nodec2 = session.move(nodec, nodea, "c2");
+        session.save();
+        session2 = repository.getConnection();
+        assertNull(session2.getNodeByPath("/a/b2/c", null));
+        assertEquals(idc, session2.getNodeByPath("/a/c2", null).getId());
+        session2.close();
+
+        // remove, and a new node with the same name
+        session.removeNode(nodec2);
+        session.save();
+        session2 = repository.getConnection();
+        assertNull(session2.getNodeByPath("/a/c2", null));
+        session2.close();
+        Node nodec3 = session.addChildNode(nodea, "c2", null, "TestDoc", false);
+        session.save();
+        session2 = repository.getConnection();
+        assertEquals(nodec3.getId(),
+                session2.getNodeByPath("/a/c2", null).getId());
+        session2.close();
+        session.close();
+    }
+
+    @Test
+    public void testPathCacheDepths() throws Exception {
+        // lookup timings are in TestSQLBackendBenchmark
+        int[] depths = { 3, 15 };
+        Session session = repository.getConnection();
+        for (int depth : depths) {
+            Node node = session.getRootNode();
+            StringBuilder path = new StringBuilder();
+            for (int i = 0; i < depth; i++) {
+                String name = "depth" + depth + "-" + i;
+                node = session.addChildNode(node, name, null, "TestDoc",
+                        false);
+                path.append('/').append(name);
+            }
+            session.save();
+            Serializable id = node.getId();
+            String p = path.toString();
+            for (int i = 0; i < 2; i++) {
+                // new session, cold session caches, then shared cache hit
+                Session session2 = repository.getConnection();
+                assertEquals(id, session2.getNodeByPath(p, null).getId());
+                session2.close();
+            }
+        }
+        session.close();
+    }
+
+    @Test
+    public void testQueryStreaming() throws Exception {
+        // timings are in TestSQLBackendBenchmark
+        int[] sizes = { 100, 1000 };
+        for (int n : sizes) {
+            Session session = repository.getConnection();
+            Node root = session.getRootNode();
+            Node folder = session.addChildNode(root, "stream" + n, null,
+                    "TestDoc", false);
+            for (int i = 0; i < n; i++) {
+                session.addChildNode(folder, "doc" + i, null, "TestDoc", false);
+            }
+            session.save();
+            String query = "SELECT * FROM TestDoc WHERE ecm:parentId = '"
+                    + folder.getId() + "'";
+
+            // page with total size
+            QueryFilter qf = new QueryFilter(null, null, null, null, null, 10,
+                    n - 5);
+            PartialList<Serializable> res = session.query(query, qf, true);
+            assertEquals(5, res.list.size());
+            assertEquals(n, res.totalSize);
+            // page past the end
+            qf = new QueryFilter(null, null, null, null, null, 10, n + 5);
+            res = session.query(query, qf, true);
+            assertEquals(0, res.list.size());
+            assertEquals(n, res.totalSize);
+            // capped count
+            qf = new QueryFilter(null, null, null, null, null, 10, 0);
+            res = session.query(query, "NXQL", qf, n / 2);
+            assertEquals(10, res.list.size());
+            assertEquals(-2, res.totalSize);
+            res = session.query(query, "NXQL", qf, n);
+            assertEquals(n, res.totalSize);
+
+            // whole result
+            res = session.query(query, QueryFilter.EMPTY, true);
+            assertEquals(n, res.list.size());
+            assertEquals(n, res.totalSize);
+            session.close();
+        }
+    }
+
+    @Test
+    public void testQueryKeyset() throws Exception {
+        Session session = repository.getConnection();
+        Node root = session.getRootNode();
+        Node folder = session.addChildNode(root, "keyset", null, "TestDoc",
+                false);
+        int n = 23;
+        for (int i = 0; i < n; i++) {
+            Node node = session.addChildNode(folder, "doc" + i, null,
+                    "TestDoc", false);
+            // duplicate values, ties are broken by the id
+            node.setSimpleProperty("tst:title", "title" + (i % 5));
+        }
+        session.save();
+        String query = "SELECT * FROM TestDoc WHERE ecm:parentId = '"
+                + folder.getId() + "' ORDER BY tst:title DESC";
+        PartialList<Serializable> all = session.query(query
+                + ", ecm:uuid", QueryFilter.EMPTY, false);
+        assertEquals(n, all.list.size());
+
+        List<Serializable> ids = new ArrayList<Serializable>();
+        KeysetCursor cursor = null;
+        int pages = 0;
+        do {
+            QueryFilter qf = new QueryFilter(null, null, null, null,
+                    Collections.<SQLQuery.Transformer> emptyList(), 5, 0,
+                    cursor);
+            PartialList<Serializable> res = session.query(query, qf, false);
+            assertTrue(res.list.size() <= 5);
+            ids.addAll(res.list);
+            pages++;
+            if (res.list.size() < 5) {
+                break;
+            }
+            Node last = session.getNodeById(res.list.get(res.list.size() - 1));
+            Serializable title = last.getSimpleProperty("tst:title").getString();
+            cursor = new KeysetCursor(Collections.singletonList(title),
+                    last.getId().toString());
+            // cursors survive a round trip through a token
+            cursor = KeysetCursor.fromToken(cursor.toToken());
+        } while (pages < n);
+        assertEquals(all.list, ids);
+        assertEquals(5, pages);
+
+        // the cursor must match the ORDER BY clause
+        QueryFilter qf = new QueryFilter(null, null, null, null,
+                Collections.<SQLQuery.Transformer> emptyList(), 5, 0,
+                new KeysetCursor(Collections.<Serializable> emptyList(), "x"));
+        try {
+            session.query(query, qf, false);
+            fail("Cursor should not match ORDER BY");
+        } catch (StorageException e) {
+            // ok
+        }
+        session.close();
+    }
+
+    @Test
+    public void testQueryCache() throws Exception {
+        JDBCBackend backend = getJDBCBackend();
+        if (backend == null) {
+            return;
+        }
+        NXQLQueryCache queryCache = backend.getQueryCache();
+        assertNotNull(queryCache);
+        Session session = repository.getConnection();
+        Node root = session.getRootNode();
+        Node foo = session.addChildNode(root, "foo", null, "TestDoc", false);
+        Node bar = session.addChildNode(root, "bar", null, "TestDoc", false);
+        Node foo1 = session.addChildNode(foo, "foo1", null, "TestDoc", false);
+        foo1.setSimpleProperty("tst:title", "hello");
+        Node bar1 = session.addChildNode(bar, "bar1", null, "TestDoc", false);
+        bar1.setSimpleProperty("tst:title", "world");
+        Node bar2 = session.addChildNode(bar, "bar2", null, "TestDoc", false);
+        bar2.setSimpleProperty("tst:title", "world");
+        session.save();
+
+        String query = "SELECT * FROM TestDoc WHERE ecm:parentId = '%s'"
+                + " AND tst:title = '%s'";
+        long hits = queryCache.getHits();
+        PartialList<Serializable> res = session.query(String.format(query,
+                foo.getId(), "hello"), QueryFilter.EMPTY, false);
+        assertEquals(Collections.singletonList(foo1.getId()), res.list);
+        // same query with other literals reuses the built query
+        res = session.query(String.format(query, bar.getId(), "world"),
+                QueryFilter.EMPTY, false);
+        assertEquals(2, res.list.size());
+        assertEquals(
+                new HashSet<Serializable>(Arrays.asList(bar1.getId(),
+                        bar2.getId())), new HashSet<Serializable>(res.list));
+        res = session.query(String.format(query, bar.getId(), "hello"),
+                QueryFilter.EMPTY, false);
+        assertEquals(0, res.list.size());
+        assertEquals(hits + 2, queryCache.getHits());
+
+        // the built query depends on the type literal
+        res = session.query("SELECT * FROM TestDoc WHERE ecm:primaryType = "
+                + "'TestDoc2' AND ecm:parentId = '" + bar.getId() + "'",
+                QueryFilter.EMPTY, false);
+        assertEquals(0, res.list.size());
+        assertEquals(hits + 2, queryCache.getHits());
+
+        // paths are not cached
+        query = "SELECT * FROM TestDoc WHERE ecm:path STARTSWITH '/foo'";
+        res = session.query(query, QueryFilter.EMPTY, false);
+        assertEquals(1, res.list.size());
+        res = session.query(query, QueryFilter.EMPTY, false);
+        assertEquals(1, res.list.size());
+        assertEquals(hits + 2, queryCache.getHits());
+        session.close();
+    }
+
+    @Test
+    public void testQueryCacheBuildTime() throws Exception {
+        JDBCBackend backend = getJDBCBackend();
+        if (backend == null) {
+            return;
+        }
+        Field sqlInfoField = JDBCBackend.class.getDeclaredField("sqlInfo");
+        sqlInfoField.setAccessible(true);
+        SQLInfo sqlInfo = (SQLInfo) sqlInfoField.get(backend);
+        Session session = repository.getConnection();
+        Model model = session.getModel();
+        String query = "SELECT * FROM TestDoc WHERE ecm:parentId = '%d'"
+                + " AND tst:title IN ('a%d', 'b') AND ecm:isProxy = 0"
+                + " ORDER BY tst:title, tst:count DESC";
+        // build timings are in TestSQLBackendBenchmark
+        NXQLQueryCache queryCache = new NXQLQueryCache(100);
+        int n = 10;
+        for (int i = 0; i < n; i++) {
+            queryCache.buildQuery(new NXQLQueryMaker(), sqlInfo, model, null,
+                    String.format(query, i, i), QueryFilter.EMPTY);
+        }
+        assertEquals(1, queryCache.getSize());
+        assertEquals(n - 1, queryCache.getHits());
+        assertEquals(1, queryCache.getMisses());
+        session.close();
+    }
+
+    @Test
+    public void testSavePipelined() throws Exception {
+        if (!(DatabaseHelper.DATABASE instanceof DatabasePostgreSQL)) {
+            return; // compound statements not supported
+        }
+        // no fulltext updates, to only count the statements of the batch
+        repository.close();
+        repository = newRepository(-1, true);
+        Session session = repository.getConnection();
+        Node root = session.getRootNode();
+        Node foo = session.addChildNode(root, "foo", null, "TestDoc", false);
+        session.save();
+        JDBCConnection jdbc = (JDBCConnection) ((SoftRefCachingMapper) ((SessionImpl) session).getMapper()).mapper;
+        jdbc.countExecutes = true;
+
+        // creates in the hierarchy and schema tables are sent at once
+        jdbc.executeCount = 0;
+        Node bar = session.addChildNode(foo, "bar", null, "TestDoc", false);
+        bar.setSimpleProperty("tst:title", "bar");
+        bar.setSimpleProperty("tst:count", Long.valueOf(123));
+        session.save();
+        assertEquals(1, jdbc.executeCount);
+
+        // updates of several nodes are sent at once
+        jdbc.executeCount = 0;
+        foo.setSimpleProperty("tst:title", "foo");
+        bar.setSimpleProperty("tst:title", "bar2");
+        bar.setSimpleProperty("tst:rate", Double.valueOf(1.5));
+        session.save();
+        assertEquals(1, jdbc.executeCount);
+        session.close();
+
+        session = repository.getConnection();
+        bar = session.getNodeByPath("/foo/bar", null);
+        assertEquals("bar2", bar.getSimpleProperty("tst:title").getString());
+        assertEquals(Long.valueOf(123),
+                bar.getSimpleProperty("tst:count").getValue());
+        assertEquals(Double.valueOf(1.5),
+                bar.getSimpleProperty("tst:rate").getValue());
+        assertEquals("foo",
+                session.getNodeByPath("/foo", null).getSimpleProperty(
+                        "tst:title").getString());
+        session.close();
+    }
+
     @Test
     public void testBasics() throws Exception {
         Session session = repository.getConnection();
@@ -1030,6 +1393,52 @@ public class TestSQLBackend extends SQLBackendTestCase {
         repository2 = null; // already closed
     }
 
+    @Test
+    public void testClusteringPushInvalidations() throws Exception {
+        if (this instanceof TestSQLBackendNet
+                || this instanceof ITSQLBackendNet) {
+            return;
+        }
+        if (!DatabaseHelper.DATABASE.supportsClustering()) {
+            System.out.println("Skipping clustering test for unsupported database: "
+                    + DatabaseHelper.DATABASE.getClass().getName());
+            return;
+        }
+        repository.close();
+        // get two clustered repositories pushing invalidations in the VM
+        // with a database polling delay that won't expire during the test
+        long DELAY = 3600 * 1000; // ms
+        repository = newPushClusteredRepository(DELAY);
+        repository2 = newPushClusteredRepository(DELAY);
+
+        Session session1 = repository.getConnection();
+        Session session2 = repository2.getConnection();
+        session2.save(); // first database poll
+        Node folder1 = session1.addChildNode(session1.getRootNode(), "foo",
+                null, "TestDoc", false);
+        session1.save();
+        Node folder2 = session2.getChildNode(session2.getRootNode(), "foo",
+                false);
+        assertNotNull(folder2);
+        SimpleProperty title2 = folder2.getSimpleProperty("tst:title");
+        assertNull(title2.getString());
+
+        // change title, invalidations pushed without waiting for the delay
+        folder1.getSimpleProperty("tst:title").setValue("yo");
+        session1.save();
+        session2.save(); // process invalidations
+        assertEquals("yo", title2.getString());
+    }
+
+    protected Repository newPushClusteredRepository(long clusteringDelay)
+            throws Exception {
+        RepositoryDescriptor descriptor = newDescriptor(clusteringDelay, false);
+        descriptor.clusteringInvalidatorClass = VMClusterInvalidator.class;
+        RepositoryImpl repo = new RepositoryImpl(descriptor);
+        RepositoryResolver.registerTestRepository(repo);
+        return repo;
+    }
+
     protected static class ClusterTestJob extends LockStepJob {
 
         protected Repository repository1;
@@ -1690,6 +2099,62 @@ public class TestSQLBackend extends SQLBackendTestCase {
         // session.copy(ver1, null, "bar"); not possible right now
     }
 
+    @Test
+    public void testCopyLargeTree() throws Exception {
+        // folders of 10 documents, the copy is done level by level and the
+        // rows are copied in batches, not node by node; timings are in
+        // TestSQLBackendBenchmark
+        int[] sizes = { 10, 1000 };
+        for (int n : sizes) {
+            Session session = repository.getConnection();
+            Node root = session.getRootNode();
+            Node top = session.addChildNode(root, "tree" + n, null, "TestDoc",
+                    false);
+            Node folder = null;
+            for (int i = 0; i < n; i++) {
+                if (i % 10 == 0) {
+                    folder = session.addChildNode(top, "folder" + i, null,
+                            "TestDoc", false);
+                }
+                Node node = session.addChildNode(folder, "doc" + i, null,
+                        "TestDoc", false);
+                node.setSimpleProperty("tst:title", "title" + i);
+                node.setCollectionProperty("tst:subjects", new String[] {
+                        "a", "b" });
+            }
+            session.save();
+            session.close();
+
+            session = repository.getConnection();
+            JDBCConnection jdbc = (JDBCConnection) ((SoftRefCachingMapper) ((SessionImpl) session).getMapper()).mapper;
+            jdbc.countExecutes = true;
+            top = session.getNodeByPath("/tree" + n, null);
+            root = session.getRootNode();
+            jdbc.executeCount = 0;
+            session.copy(top, root, "copy" + n);
+            int count = jdbc.executeCount;
+            if (n >= 1000) {
+                assertTrue(String.valueOf(count), count < n / 5);
+            }
+            session.save();
+            session.close();
+
+            session = repository.getConnection();
+            Node copy = session.getNodeByPath("/copy" + n, null);
+            assertNotNull(copy);
+            List<Node> folders = session.getChildren(copy, null, false);
+            assertEquals(Math.max(1, n / 10), folders.size());
+            Node last = session.getNodeByPath("/copy" + n + "/folder"
+                    + (n - 1) / 10 * 10 + "/doc" + (n - 1), null);
+            assertNotNull(last);
+            assertEquals("title" + (n - 1),
+                    last.getSimpleProperty("tst:title").getString());
+            assertEquals(Arrays.asList("a", "b"),
+                    Arrays.asList(last.getCollectionProperty("tst:subjects").getStrings()));
+            session.close();
+        }
+    }
+
     @Test
     public void testVersionCopy() throws Exception {
         Session session = repository.getConnection();
@@ -2131,6 +2596,62 @@ public class TestSQLBackend extends SQLBackendTestCase {
         }
     }
 
+    @Test
+    public void testBulkFetchPrefetchProfile() throws Exception {
+        Session session = repository.getConnection();
+        Node root = session.getRootNode();
+        int n = 20;
+        List<Serializable> ids = new ArrayList<Serializable>(n);
+        for (int i = 0; i < n; i++) {
+            // TestDoc3 only prefetches tst:subjects
+            Node node = session.addChildNode(root, "n" + i, null, "TestDoc3",
+                    false);
+            node.setSimpleProperty("tst:title", "title" + i);
+            node.setCollectionProperty("tst:tags", new String[] { "tag" + i });
+            ids.add(node.getId());
+        }
+        session.save();
+        session.close();
+
+        // without profile, the fragments are read document by document
+        session = repository.getConnection();
+        JDBCConnection jdbc = (JDBCConnection) ((SoftRefCachingMapper) ((SessionImpl) session).getMapper()).mapper;
+        jdbc.countExecutes = true;
+        List<Node> nodes = session.getNodesByIds(ids);
+        jdbc.executeCount = 0;
+        checkTitlesAndTags(nodes);
+        assertTrue(jdbc.executeCount >= 2 * n);
+        session.close();
+
+        // with profile, one request per table for the whole page
+        session = repository.getConnection();
+        jdbc = (JDBCConnection) ((SoftRefCachingMapper) ((SessionImpl) session).getMapper()).mapper;
+        jdbc.countExecutes = true;
+        PrefetchProfile profile = new PrefetchProfile(
+                Collections.singleton("testschema"), null);
+        jdbc.executeCount = 0;
+        nodes = session.getNodesByIds(ids, profile);
+        int count = jdbc.executeCount;
+        // hierarchy, ancestors and the type's tables
+        int tables = session.getModel().getTypeFragments("TestDoc3").size();
+        assertTrue(count <= tables + 2);
+        checkTitlesAndTags(nodes);
+        assertEquals(count, jdbc.executeCount);
+        session.close();
+    }
+
+    protected static void checkTitlesAndTags(List<Node> nodes)
+            throws Exception {
+        for (int i = 0; i < nodes.size(); i++) {
+            Node node = nodes.get(i);
+            assertEquals("title" + i,
+                    node.getSimpleProperty("tst:title").getString());
+            assertEquals(
+                    Arrays.asList("tag" + i),
+                    Arrays.asList(node.getCollectionProperty("tst:tags").getStrings()));
+        }
+    }
+
     @Test
     public void testFulltext() throws Exception {
         Session session = repository.getConnection();
@@ -2963,6 +3484,110 @@ public class TestSQLBackend extends SQLBackendTestCase {
         assertNull(lock);
     }
 
+    @Test
+    public void testLockingWriteBehind() throws Exception {
+        if (this instanceof TestSQLBackendNet
+                || this instanceof ITSQLBackendNet) {
+            return;
+        }
+        repository.close();
+        RepositoryDescriptor descriptor = newDescriptor(-1, false);
+        descriptor.lockManagerWriteBehind = true;
+        descriptor.lockManagerFlushDelay = 60 * 1000; // flushed by hand
+        repository = new RepositoryImpl(descriptor);
+        Serializable nodeId = createNode();
+
+        WriteBehindLockManager lockManager = (WriteBehindLockManager) ((RepositoryImpl) repository).getLockManager();
+        JDBCConnection jdbc = (JDBCConnection) lockManager.mapper;
+        jdbc.countExecutes = true;
+        jdbc.executeCount = 0;
+
+        Session session = repository.getConnection();
+        assertNull(session.getLock(nodeId));
+        assertEquals(1, jdbc.executeCount); // read once
+        Lock lock = session.setLock(nodeId, new Lock("bob", null));
+        assertNull(lock);
+        for (int i = 0; i < 100; i++) {
+            assertEquals("bob", session.getLock(nodeId).getOwner());
+        }
+        lock = session.setLock(nodeId, new Lock("john", null));
+        assertEquals("bob", lock.getOwner());
+        lock = session.removeLock(nodeId, "steve", false);
+        assertTrue(lock.getFailed());
+        // nothing written yet
+        assertEquals(1, jdbc.executeCount);
+        assertEquals(1, lockManager.getPendingCount());
+        assertNull(lockManager.mapper.getLock(nodeId));
+
+        lockManager.flush();
+        assertEquals(0, lockManager.getPendingCount());
+        assertEquals("bob", lockManager.mapper.getLock(nodeId).getOwner());
+
+        // lock and unlock, only the last state is written
+        lock = session.removeLock(nodeId, null, false);
+        assertEquals("bob", lock.getOwner());
+        assertNull(session.setLock(nodeId, new Lock("john", null)));
+        assertEquals("john", session.removeLock(nodeId, "john", false).getOwner());
+        assertEquals(1, lockManager.getPendingCount());
+        lockManager.flush();
+        assertNull(lockManager.mapper.getLock(nodeId));
+        session.close();
+
+        // pending changes are written on shutdown
+        session = repository.getConnection();
+        session.setLock(nodeId, new Lock("steve", null));
+        session.close();
+        repository.close();
+        repository = newRepository(-1, false);
+        session = repository.getConnection();
+        assertEquals("steve", session.getLock(nodeId).getOwner());
+        session.close();
+    }
+
+    @Test
+    public void testLockingWriteBehindRetry() throws Exception {
+        if (this instanceof TestSQLBackendNet
+                || this instanceof ITSQLBackendNet) {
+            return;
+        }
+        repository.close();
+        RepositoryDescriptor descriptor = newDescriptor(-1, false);
+        descriptor.lockManagerWriteBehind = true;
+        descriptor.lockManagerFlushDelay = 60 * 1000; // flushed by hand
+        repository = new RepositoryImpl(descriptor);
+        Serializable nodeId = createNode();
+
+        WriteBehindLockManager lockManager = (WriteBehindLockManager) ((RepositoryImpl) repository).getLockManager();
+        Session session = repository.getConnection();
+        assertNull(session.setLock(nodeId, new Lock("bob", null)));
+
+        // database unavailable
+        Connection connection = lockManager.connection;
+        lockManager.connection = (Connection) Proxy.newProxyInstance(
+                getClass().getClassLoader(), new Class<?>[] { Connection.class },
+                new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method,
+                            Object[] args) throws Throwable {
+                        throw new SQLException("unavailable");
+                    }
+                });
+        try {
+            lockManager.flush();
+        } finally {
+            lockManager.connection = connection;
+        }
+        // still pending
+        assertEquals(1, lockManager.getPendingCount());
+        assertNull(lockManager.mapper.getLock(nodeId));
+
+        // written at next flush
+        lockManager.flush();
+        assertEquals(0, lockManager.getPendingCount());
+        assertEquals("bob", lockManager.mapper.getLock(nodeId).getOwner());
+        session.close();
+    }
+
     @Test
     public void testLockingParallel() throws Throwable {
         Serializable nodeId = createNode();
@@ -3924,6 +4549,27 @@ public class TestSQLBackend extends SQLBackendTestCase {
         assertEquals(0, jdbc.executeCount);
     }
 
+    @Test
+    public void testPreparedStatementCache() throws Exception {
+        if (Boolean.parseBoolean(System.getProperty(DatabaseHelper.SINGLEDS_PROPERTY))) {
+            return; // statements not reused in single datasource mode
+        }
+        Session session = repository.getConnection();
+        Node root = session.getRootNode();
+        Node foo = session.addChildNode(root, "foo", null, "TestDoc", false);
+        session.save();
+        String repositoryName = repository.getName();
+        long hits = JDBCConnection.getStatementCacheHits(repositoryName);
+
+        // read the same node several times from the database
+        for (int i = 0; i < 3; i++) {
+            ((SessionImpl) session).clearCaches();
+            assertNotNull(session.getNodeById(foo.getId()));
+        }
+        assertTrue(JDBCConnection.getStatementCacheHits(repositoryName) - hits >= 2);
+        session.close();
+    }
+
     @Test
     public void testPathDeep() throws Exception {
         Session session = repository.getConnection();
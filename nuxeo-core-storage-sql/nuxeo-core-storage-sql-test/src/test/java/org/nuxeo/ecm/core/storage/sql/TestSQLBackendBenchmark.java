@@ -0,0 +1,225 @@
+/*
+ * (C) Copyright 2012 Nuxeo SA (http://nuxeo.com/) and contributors.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl.html
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * Contributors:
+ *     Florent Guillaume
+ */
+package org.nuxeo.ecm.core.storage.sql;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.Serializable;
+import java.lang.reflect.Field;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.nuxeo.ecm.core.query.QueryFilter;
+import org.nuxeo.ecm.core.storage.PartialList;
+import org.nuxeo.ecm.core.storage.sql.jdbc.JDBCBackend;
+import org.nuxeo.ecm.core.storage.sql.jdbc.JDBCConnection;
+import org.nuxeo.ecm.core.storage.sql.jdbc.NXQLQueryCache;
+import org.nuxeo.ecm.core.storage.sql.jdbc.NXQLQueryMaker;
+import org.nuxeo.ecm.core.storage.sql.jdbc.SQLInfo;
+
+/**
+ * Timings of the VCS backend on large data sets, the functional checks are
+ * done at smaller sizes by {@link TestSQLBackend}.
+ * <p>
+ * Only run if the system property {@value #BENCHMARK_PROP} is {@code true}.
+ */
+public class TestSQLBackendBenchmark extends SQLBackendTestCase {
+
+    private static final Log log = LogFactory.getLog(TestSQLBackendBenchmark.class);
+
+    public static final String BENCHMARK_PROP = "nuxeo.test.benchmark";
+
+    @BeforeClass
+    public static void assumeBenchmark() {
+        Assume.assumeTrue(Boolean.getBoolean(BENCHMARK_PROP));
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        deployContrib("org.nuxeo.ecm.core.storage.sql.test.tests",
+                "OSGI-INF/test-backend-core-types-contrib.xml");
+    }
+
+    @Test
+    public void testBulkInsert() throws Exception {
+        int n = 10000;
+        Calendar cal = new GregorianCalendar(2008, Calendar.JULY, 14, 12, 34,
+                56);
+        Session session = repository.getConnection();
+        Node root = session.getRootNode();
+        Node folder = session.addChildNode(root, "bulk", null, "TestDoc",
+                false);
+        for (int i = 0; i < n; i++) {
+            Node node = session.addChildNode(folder, "doc" + i, null,
+                    "TestDoc", false);
+            node.setSimpleProperty("tst:title", "title" + i);
+            node.setSimpleProperty("tst:rate", Double.valueOf(i + 0.5));
+            node.setSimpleProperty("tst:created", cal);
+            node.setCollectionProperty("tst:subjects", new String[] { "a",
+                    "b" });
+        }
+        long t0 = System.currentTimeMillis();
+        session.save();
+        long elapsed = System.currentTimeMillis() - t0;
+        log.warn("Bulk insert of " + n + " documents: "
+                + (n * 1000L / Math.max(1, elapsed)) + " docs/s");
+        assertEquals(n, session.getChildren(folder, null, false).size());
+        session.close();
+    }
+
+    @Test
+    public void testPathCacheDepths() throws Exception {
+        int depth = 15;
+        int n = 200;
+        Session session = repository.getConnection();
+        Node node = session.getRootNode();
+        StringBuilder path = new StringBuilder();
+        for (int i = 0; i < depth; i++) {
+            String name = "depth" + i;
+            node = session.addChildNode(node, name, null, "TestDoc", false);
+            path.append('/').append(name);
+        }
+        session.save();
+        Serializable id = node.getId();
+        String p = path.toString();
+        long t0 = System.nanoTime();
+        for (int i = 0; i < n; i++) {
+            // new session, cold session caches
+            Session session2 = repository.getConnection();
+            assertEquals(id, session2.getNodeByPath(p, null).getId());
+            session2.close();
+        }
+        long elapsed = System.nanoTime() - t0;
+        log.warn("Path resolution at depth " + depth + ": "
+                + (elapsed / 1000 / n) + " us/lookup");
+        session.close();
+    }
+
+    @Test
+    public void testQueryStreaming() throws Exception {
+        int n = 10000;
+        Session session = repository.getConnection();
+        Node root = session.getRootNode();
+        Node folder = session.addChildNode(root, "stream", null, "TestDoc",
+                false);
+        for (int i = 0; i < n; i++) {
+            session.addChildNode(folder, "doc" + i, null, "TestDoc", false);
+        }
+        session.save();
+        String query = "SELECT * FROM TestDoc WHERE ecm:parentId = '"
+                + folder.getId() + "'";
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        long mem0 = runtime.totalMemory() - runtime.freeMemory();
+        long t0 = System.currentTimeMillis();
+        PartialList<Serializable> res = session.query(query,
+                QueryFilter.EMPTY, true);
+        long elapsed = System.currentTimeMillis() - t0;
+        long mem = runtime.totalMemory() - runtime.freeMemory() - mem0;
+        assertEquals(n, res.list.size());
+        log.warn("Query of " + n + " ids: " + elapsed + " ms, about "
+                + (mem / 1024) + " kB allocated");
+        session.close();
+    }
+
+    @Test
+    public void testQueryCacheBuildTime() throws Exception {
+        JDBCBackend backend = getJDBCBackend();
+        if (backend == null) {
+            return;
+        }
+        Field sqlInfoField = JDBCBackend.class.getDeclaredField("sqlInfo");
+        sqlInfoField.setAccessible(true);
+        SQLInfo sqlInfo = (SQLInfo) sqlInfoField.get(backend);
+        Session session = repository.getConnection();
+        Model model = session.getModel();
+        String query = "SELECT * FROM TestDoc WHERE ecm:parentId = '%d'"
+                + " AND tst:title IN ('a%d', 'b') AND ecm:isProxy = 0"
+                + " ORDER BY tst:title, tst:count DESC";
+        NXQLQueryCache queryCache = new NXQLQueryCache(100);
+        int n = 20000;
+        for (int pass = 0; pass < 2; pass++) {
+            long t0 = System.nanoTime();
+            for (int i = 0; i < n; i++) {
+                new NXQLQueryMaker().buildQuery(sqlInfo, model, null,
+                        String.format(query, i, i), QueryFilter.EMPTY);
+            }
+            long t1 = System.nanoTime();
+            for (int i = 0; i < n; i++) {
+                queryCache.buildQuery(new NXQLQueryMaker(), sqlInfo, model,
+                        null, String.format(query, i, i), QueryFilter.EMPTY);
+            }
+            long t2 = System.nanoTime();
+            if (pass == 1) {
+                // first pass is a warm-up
+                log.warn("NXQL query build: " + (t1 - t0) / 1000 / n
+                        + " us, with cache: " + (t2 - t1) / 1000 / n
+                        + " us, hit rate: " + queryCache.getHits() * 100
+                        / (queryCache.getHits() + queryCache.getMisses())
+                        + "%");
+            }
+        }
+        assertEquals(2 * n - 1, queryCache.getHits());
+        session.close();
+    }
+
+    @Test
+    public void testCopyLargeTree() throws Exception {
+        int n = 10000;
+        Session session = repository.getConnection();
+        Node root = session.getRootNode();
+        Node top = session.addChildNode(root, "tree", null, "TestDoc", false);
+        Node folder = null;
+        for (int i = 0; i < n; i++) {
+            if (i % 10 == 0) {
+                folder = session.addChildNode(top, "folder" + i, null,
+                        "TestDoc", false);
+            }
+            Node node = session.addChildNode(folder, "doc" + i, null,
+                    "TestDoc", false);
+            node.setSimpleProperty("tst:title", "title" + i);
+            node.setCollectionProperty("tst:subjects", new String[] { "a",
+                    "b" });
+        }
+        session.save();
+        session.close();
+
+        session = repository.getConnection();
+        JDBCConnection jdbc = (JDBCConnection) ((SoftRefCachingMapper) ((SessionImpl) session).getMapper()).mapper;
+        jdbc.countExecutes = true;
+        top = session.getNodeByPath("/tree", null);
+        root = session.getRootNode();
+        jdbc.executeCount = 0;
+        long t0 = System.currentTimeMillis();
+        session.copy(top, root, "copy");
+        long elapsed = System.currentTimeMillis() - t0;
+        log.warn("Copy of " + n + " documents: " + elapsed + " ms, "
+                + jdbc.executeCount + " statements");
+        session.save();
+        assertEquals(n / 10, session.getChildren(
+                session.getNodeByPath("/copy", null), null, false).size());
+        session.close();
+    }
+
+}
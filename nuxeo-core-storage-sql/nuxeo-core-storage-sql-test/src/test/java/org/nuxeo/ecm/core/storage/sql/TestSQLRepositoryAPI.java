@@ -3069,6 +3069,65 @@ public class TestSQLRepositoryAPI extends SQLRepositoryTestCase {
         assertEquals(expected, actual);
     }
 
+    @Test
+    public void testGetChildrenPaged() throws Exception {
+        DocumentModel root = session.getRootDocument();
+        DocumentModel folder = session.createDocument(new DocumentModelImpl(
+                root.getPathAsString(), "folder", "Folder"));
+        for (int i = 0; i < 10; i++) {
+            DocumentModel doc = new DocumentModelImpl(
+                    folder.getPathAsString(), "doc" + i, i < 7 ? "File"
+                            : "Note");
+            doc.setPropertyValue("dc:title", "title" + i);
+            session.createDocument(doc);
+        }
+        // not saved, must still be seen
+
+        DocumentModelList list = session.getChildren(folder.getRef(), null,
+                null, null, "dc:title DESC", 0, 0);
+        assertEquals(10, list.size());
+        assertEquals("doc9", list.get(0).getName());
+        assertEquals("doc0", list.get(9).getName());
+
+        list = session.getChildren(folder.getRef(), null, null, null,
+                "dc:title", 3, 2);
+        assertEquals(3, list.size());
+        assertEquals("doc2", list.get(0).getName());
+        assertEquals("doc4", list.get(2).getName());
+
+        list = session.getChildren(folder.getRef(), "Note", null, null,
+                "dc:title", 2, 0);
+        assertEquals(2, list.size());
+        assertEquals("doc7", list.get(0).getName());
+        assertEquals("doc8", list.get(1).getName());
+
+        list = session.getChildren(folder.getRef(), "Note", null, null,
+                "dc:title", 0, 5);
+        assertEquals(0, list.size());
+
+        DocumentModelIterator it = session.getChildrenIterator(
+                folder.getRef(), "File", null, null);
+        int n = 0;
+        while (it.hasNext()) {
+            assertEquals("File", it.next().getType());
+            n++;
+        }
+        assertEquals(7, n);
+
+        // types not extending Document are children too
+        DocumentModel rel = new DocumentModelImpl(folder.getPathAsString(),
+                "rel", "Relation");
+        rel.setPropertyValue("dc:title", "title99");
+        session.createDocument(rel);
+        list = session.getChildren(folder.getRef(), null, null, null,
+                "dc:title", 0, 0);
+        assertEquals(11, list.size());
+        assertEquals("rel", list.get(10).getName());
+        list = session.getChildren(folder.getRef(), "Relation", null, null,
+                null, 0, 0);
+        assertEquals(1, list.size());
+    }
+
     @Test
     public void testProxyChildren() throws Exception {
         DocumentModel root = session.getRootDocument();
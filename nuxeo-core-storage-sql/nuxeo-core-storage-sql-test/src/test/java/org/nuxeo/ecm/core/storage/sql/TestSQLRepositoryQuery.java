@@ -777,6 +777,57 @@ public class TestSQLRepositoryQuery extends SQLRepositoryTestCase {
         assertTrue(dml.totalSize() < 0);
     }
 
+    @Test
+    public void testQueryLimitsPostFilter() throws Exception {
+        DocumentModelList dml;
+        createDocs();
+
+        // not a FacetFilter, so filtered after the query
+        Filter filter = new Filter() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public boolean accept(DocumentModel doc) {
+                return !"Folder".equals(doc.getType());
+            }
+        };
+        String sql = "SELECT * FROM Document ORDER BY ecm:name";
+
+        dml = session.query(sql, filter, 2, 1, 0);
+        assertEquals(2, dml.size());
+        assertEquals("testfile2", dml.get(0).getName());
+        assertEquals("testfile3", dml.get(1).getName());
+
+        dml = session.query(sql, filter, 2, 1, -1);
+        assertEquals(2, dml.size());
+        assertEquals(4, dml.totalSize());
+
+        dml = session.query(sql, filter, 0, 0, 10);
+        assertEquals(4, dml.size());
+        assertEquals(4, dml.totalSize());
+
+        dml = session.query(sql, filter, 0, 0, 3);
+        assertEquals(4, dml.size());
+        assertTrue(dml.totalSize() < 0);
+
+        // stops as soon as the count is known to be over countUpTo
+        dml = session.query(sql, filter, 1, 0, 2);
+        assertEquals(1, dml.size());
+        assertEquals("testfile1", dml.get(0).getName());
+        assertTrue(dml.totalSize() < 0);
+
+        dml = session.query(sql, filter, 2, 10, -1);
+        assertEquals(0, dml.size());
+        assertEquals(4, dml.totalSize());
+
+        // ordered by path by hand
+        sql = "SELECT * FROM Document ORDER BY ecm:path DESC";
+        dml = session.query(sql, filter, 2, 0, 0);
+        assertEquals(2, dml.size());
+        assertEquals("testfile4", dml.get(0).getName());
+        assertEquals("testfile3", dml.get(1).getName());
+    }
+
     // from TestSQLWithPath
     @Test
     public void testEcmPathEqual() throws Exception {
@@ -29,6 +29,7 @@ import static org.nuxeo.ecm.core.api.security.SecurityConstants.WRITE_SECURITY;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 import org.junit.Before;
@@ -618,4 +619,221 @@ public class TestSQLRepositorySecurity extends SQLRepositoryTestCase {
 
 
     }
+
+    @Test
+    public void testInheritedACLCache() throws ClientException {
+        DocumentModel root = session.getRootDocument();
+        DocumentModel folder1 = session.createDocument(new DocumentModelImpl(
+                root.getPathAsString(), "folder1", "Folder"));
+        DocumentModel folder2 = session.createDocument(new DocumentModelImpl(
+                root.getPathAsString(), "folder2", "Folder"));
+        DocumentModel sub = session.createDocument(new DocumentModelImpl(
+                folder1.getPathAsString(), "sub", "Folder"));
+        List<DocumentRef> refs = new ArrayList<DocumentRef>();
+        for (int i = 0; i < 5; i++) {
+            DocumentModel doc = session.createDocument(new DocumentModelImpl(
+                    sub.getPathAsString(), "doc" + i, "File"));
+            refs.add(doc.getRef());
+        }
+        ACP acp = new ACPImpl();
+        ACL acl = new ACLImpl();
+        acl.add(new ACE("joe", READ, true));
+        acp.addACL(acl);
+        folder1.setACP(acp, true);
+        session.save();
+
+        SharedACLCache cache = getSharedACLCache();
+        CoreSession joeSession = openSessionAs("joe");
+        try {
+            // same decision for all the children, computed once
+            long hits = cache == null ? 0 : cache.getHits();
+            long accessHits = cache == null ? 0 : cache.getAccessHits();
+            for (DocumentRef ref : refs) {
+                assertTrue(joeSession.hasPermission(ref, READ));
+                assertFalse(joeSession.hasPermission(ref, WRITE));
+            }
+            if (cache != null) {
+                assertTrue(cache.getHits() > hits);
+                // all but the first child, for each permission
+                assertTrue(cache.getAccessHits() - accessHits >= 8);
+            }
+            assertEquals(5, joeSession.getChildren(sub.getRef()).size());
+
+            // creating documents doesn't prevent caching
+            if (cache != null) {
+                long stamp = cache.getStamp();
+                session.createDocument(new DocumentModelImpl(
+                        folder2.getPathAsString(), "other", "File"));
+                session.save();
+                assertEquals(stamp, cache.getStamp());
+                assertTrue(cache.getSize() > 0);
+            }
+
+            // ACL change on an ancestor seen by the other session
+            acp = new ACPImpl();
+            acl = new ACLImpl();
+            acl.add(new ACE("joe", READ, true));
+            acl.add(new ACE("joe", WRITE, true));
+            acp.addACL(acl);
+            folder1.setACP(acp, true);
+            session.save();
+            joeSession.save(); // process invalidations
+            for (DocumentRef ref : refs) {
+                assertTrue(joeSession.hasPermission(ref, WRITE));
+            }
+
+            // blocking inheritance on an intermediate folder
+            acp = new ACPImpl();
+            acl = new ACLImpl();
+            acl.add(new ACE("joe", READ, true));
+            acl.add(new ACE(EVERYONE, EVERYTHING, false));
+            acp.addACL(acl);
+            sub.setACP(acp, true);
+            session.save();
+            joeSession.save();
+            for (DocumentRef ref : refs) {
+                assertTrue(joeSession.hasPermission(ref, READ));
+                assertFalse(joeSession.hasPermission(ref, WRITE));
+            }
+            sub.setACP(new ACPImpl(), true);
+            session.save();
+            joeSession.save();
+            assertTrue(joeSession.hasPermission(refs.get(0), WRITE));
+
+            // move out of the granting folder
+            session.move(sub.getRef(), folder2.getRef(), null);
+            session.save();
+            joeSession.save();
+            for (DocumentRef ref : refs) {
+                assertFalse(joeSession.hasPermission(ref, READ));
+            }
+
+            // and back
+            session.move(sub.getRef(), folder1.getRef(), null);
+            session.save();
+            joeSession.save();
+            assertTrue(joeSession.hasPermission(refs.get(0), READ));
+        } finally {
+            closeSession(joeSession);
+        }
+    }
+
+    @Test
+    public void testInheritedACLCacheWithCreatedDocuments()
+            throws ClientException {
+        DocumentModel root = session.getRootDocument();
+        DocumentModel folder = session.createDocument(new DocumentModelImpl(
+                root.getPathAsString(), "folder", "Folder"));
+        ACP acp = new ACPImpl();
+        ACL acl = new ACLImpl();
+        acl.add(new ACE("bob", EVERYTHING, true));
+        acl.add(new ACE("joe", READ, true));
+        acp.addACL(acl);
+        folder.setACP(acp, true);
+        session.save();
+
+        CoreSession bobSession = openSessionAs("bob");
+        CoreSession joeSession = openSessionAs("joe");
+        try {
+            // bob creates X/Y/Z and checks Z before committing
+            DocumentModel x = bobSession.createDocument(new DocumentModelImpl(
+                    folder.getPathAsString(), "x", "Folder"));
+            DocumentModel y = bobSession.createDocument(new DocumentModelImpl(
+                    x.getPathAsString(), "y", "Folder"));
+            DocumentModel z = bobSession.createDocument(new DocumentModelImpl(
+                    y.getPathAsString(), "z", "File"));
+            assertTrue(bobSession.hasPermission(z.getRef(), READ));
+            // then blocks inheritance on X in the same transaction
+            acp = new ACPImpl();
+            acl = new ACLImpl();
+            acl.add(new ACE("bob", EVERYTHING, true));
+            acl.add(new ACE(EVERYONE, EVERYTHING, false));
+            acp.addACL(acl);
+            x.setACP(acp, true);
+            bobSession.save();
+
+            joeSession.save(); // process invalidations
+            assertFalse(joeSession.hasPermission(z.getRef(), READ));
+            assertTrue(bobSession.hasPermission(z.getRef(), READ));
+        } finally {
+            closeSession(joeSession);
+            closeSession(bobSession);
+        }
+    }
+
+    protected SharedACLCache getSharedACLCache() {
+        Repository repository = RepositoryResolver.getRepository(session.getRepositoryName());
+        if (repository instanceof RepositoryImpl) {
+            return ((RepositoryImpl) repository).getSharedACLCache();
+        }
+        return null;
+    }
+
+    @Test
+    public void testGetChildrenSecurity() throws ClientException {
+        DocumentModel root = session.getRootDocument();
+        DocumentModel folder = session.createDocument(new DocumentModelImpl(
+                root.getPathAsString(), "folder", "Folder"));
+        ACP acp = new ACPImpl();
+        ACL acl = new ACLImpl();
+        acl.add(new ACE("joe", READ, true));
+        acp.addACL(acl);
+        folder.setACP(acp, true);
+        List<String> visible = new ArrayList<String>();
+        for (int i = 0; i < 6; i++) {
+            DocumentModel doc = session.createDocument(new DocumentModelImpl(
+                    folder.getPathAsString(), "doc" + i, "File"));
+            if (i % 2 == 0) {
+                visible.add(doc.getId());
+                continue;
+            }
+            acp = new ACPImpl();
+            acl = new ACLImpl();
+            if (i == 3) {
+                // browse only, no read
+                acl.add(new ACE("joe", BROWSE, true));
+            }
+            acl.add(new ACE(EVERYONE, EVERYTHING, false));
+            acp.addACL(acl);
+            doc.setACP(acp, true);
+        }
+        session.save();
+        // unordered folder, the paged query returns children in id order
+        Collections.sort(visible);
+
+        CoreSession joeSession = openSessionAs("joe");
+        try {
+            DocumentModelList list = joeSession.getChildren(folder.getRef());
+            List<String> ids = new ArrayList<String>();
+            for (DocumentModel doc : list) {
+                ids.add(doc.getId());
+            }
+            Collections.sort(ids);
+            assertEquals(visible, ids);
+
+            list = joeSession.getChildren(folder.getRef(), null, null, null,
+                    null, 1, 1);
+            assertEquals(1, list.size());
+            assertEquals(visible.get(1), list.get(0).getId());
+
+            // browse is enough
+            list = joeSession.getChildren(folder.getRef(), null, BROWSE, null,
+                    null, 0, 0);
+            assertEquals(4, list.size());
+
+            List<DocumentRef> refs = joeSession.getChildrenRefs(
+                    folder.getRef(), READ);
+            ids.clear();
+            for (DocumentRef ref : refs) {
+                ids.add(ref.toString());
+            }
+            Collections.sort(ids);
+            assertEquals(visible, ids);
+            assertEquals(6,
+                    session.getChildrenRefs(folder.getRef(), null).size());
+        } finally {
+            closeSession(joeSession);
+        }
+    }
+
 }
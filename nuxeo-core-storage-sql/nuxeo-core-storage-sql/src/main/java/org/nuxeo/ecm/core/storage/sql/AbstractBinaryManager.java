@@ -85,14 +85,22 @@ abstract class AbstractBinaryManager implements BinaryManager {
 
     public static final int MAX_BUF_SIZE = 64 * 1024; // 64 kB
 
-    protected String storeAndDigest(InputStream in, OutputStream out)
-            throws IOException {
-        MessageDigest digest;
+    /**
+     * Gets a new {@link MessageDigest} for the configured digest algorithm.
+     *
+     * @since 5.7
+     */
+    protected MessageDigest getMessageDigest() throws IOException {
         try {
-            digest = MessageDigest.getInstance(descriptor.digest);
+            return MessageDigest.getInstance(descriptor.digest);
         } catch (NoSuchAlgorithmException e) {
             throw (IOException) new IOException().initCause(e);
         }
+    }
+
+    protected String storeAndDigest(InputStream in, OutputStream out)
+            throws IOException {
+        MessageDigest digest = getMessageDigest();
 
         int size = in.available();
         if (size == 0) {
@@ -111,6 +111,10 @@ public class Binary implements Serializable {
 
     protected File fetchData() {
         BinaryManager mgr = RepositoryResolver.getBinaryManager(repoName);
+        if (mgr instanceof BinaryCachingManager) {
+            // getBinary may return a lazy binary without file
+            return ((BinaryCachingManager) mgr).fileCache().getFile(digest);
+        }
         return mgr.getBinary(digest).file;
     }
 
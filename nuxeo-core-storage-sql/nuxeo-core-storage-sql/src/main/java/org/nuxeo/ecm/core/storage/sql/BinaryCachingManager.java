@@ -28,10 +28,29 @@ public abstract class BinaryCachingManager extends AbstractBinaryManager {
 
     public abstract BinaryFileCache fileCache();
 
+    /**
+     * Gets a binary from its digest.
+     * <p>
+     * This is called for each binary of the rows read from the database. If
+     * the file cache can prefetch, a binary missing from the cache is fetched
+     * in the background instead of before returning, so that loading documents
+     * doesn't wait for their binaries to be downloaded. The number of pending
+     * prefetches is capped by the cache, beyond it the binaries are only
+     * fetched when read.
+     */
     @Override
     public Binary getBinary(String digest) {
-        // Check in the cache
-        File file = fileCache().getFile(digest);
+        BinaryFileCache cache = fileCache();
+        File file;
+        if (cache.isPrefetchEnabled()) {
+            file = cache.getCachedFile(digest);
+            if (file == null) {
+                cache.prefetch(digest);
+            }
+        } else {
+            // Check in the cache
+            file = cache.getFile(digest);
+        }
         if (file == null) {
             return new LazyBinary(digest, fileCache(), repositoryName);
         } else {
@@ -16,6 +16,7 @@
  */
 package org.nuxeo.ecm.core.storage.sql;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -24,27 +25,161 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.Writer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.logging.LogFactory;
+import org.javasimon.SimonManager;
 import org.nuxeo.common.file.LRUFileCache;
 
 /**
+ * A file cache of remote binaries, evicting the least recently used files
+ * beyond its maximum size.
+ * <p>
+ * The files are fetched outside of the lock of the cache, and each binary is
+ * fetched only once even if several threads ask for it at the same time. Small
+ * binaries are also kept in a lock-striped in-memory tier. Binaries can be
+ * prefetched in the background with {@link #prefetch}.
+ *
  * @author "Stephane Lacoin (aka matic) slacoin@nuxeo.com"
  *
  */
 public abstract class BinaryFileCache extends LRUFileCache {
 
+    // JavaSimon Counter Names
+    private static final String CN_HITS = "org.nuxeo.ecm.core.storage.sql.binary.cache.hits";
+
+    private static final String CN_MISSES = "org.nuxeo.ecm.core.storage.sql.binary.cache.misses";
+
+    private static final String CN_MEMORY_HITS = "org.nuxeo.ecm.core.storage.sql.binary.cache.memoryhits";
+
+    private static final String CN_PREFETCHES = "org.nuxeo.ecm.core.storage.sql.binary.cache.prefetches";
+
+    private static final String CN_FETCHED_BYTES = "org.nuxeo.ecm.core.storage.sql.binary.cache.fetchedbytes";
+
+    private static final String CN_MEMORY_BYTES = "org.nuxeo.ecm.core.storage.sql.binary.cache.memorybytes";
+
+    /** Statistics are published to JavaSimon every that many accesses. */
+    private static final int STATS_PERIOD = 64;
+
     protected static final String LEN_DIGEST_SUFFIX = "-len";
 
+    /** @since 5.7 */
+    public static final long DEFAULT_MEMORY_MAX_SIZE = 4 * 1024 * 1024; // 4 MB
+
+    /** @since 5.7 */
+    public static final int DEFAULT_MEMORY_MAX_ENTRY_SIZE = 16 * 1024; // 16 kB
+
+    /**
+     * Number of prefetch threads suggested to subclasses enabling prefetching.
+     *
+     * @since 5.7
+     */
+    public static final int DEFAULT_PREFETCH_THREADS = 2;
+
+    /** @since 5.7 */
+    public static final int DEFAULT_PREFETCH_MAX_PENDING = 100;
+
+    protected static final int MEMORY_SEGMENTS = 16;
+
+    /** The fetches in progress, by key. */
+    protected final ConcurrentMap<String, FutureTask<File>> fetches = new ConcurrentHashMap<String, FutureTask<File>>();
+
+    /** The in-memory tier, or {@code null} if disabled. */
+    protected final MemorySegment[] memorySegments;
+
+    protected final int memoryMaxEntrySize;
+
+    /** The prefetch executor, or {@code null} if disabled. */
+    protected final ThreadPoolExecutor prefetchExecutor;
+
+    /** Prefetches beyond that many pending ones are dropped. */
+    protected final int prefetchMaxPending;
+
+    /** The prefetches queued or running. */
+    protected final AtomicInteger pendingPrefetches = new AtomicInteger();
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private final AtomicLong memoryHits = new AtomicLong();
+
+    private final AtomicLong prefetches = new AtomicLong();
+
+    private final AtomicLong fetchedBytes = new AtomicLong();
+
+    /**
+     * Creates a binary file cache without prefetching, binaries missing from
+     * the cache are fetched when asked for.
+     *
+     * @param dir the directory of the cached files
+     * @param maxSize the maximum size of the cached files
+     */
     public BinaryFileCache(File dir, long maxSize) {
+        this(dir, maxSize, DEFAULT_MEMORY_MAX_SIZE,
+                DEFAULT_MEMORY_MAX_ENTRY_SIZE, 0, DEFAULT_PREFETCH_MAX_PENDING);
+    }
+
+    /**
+     * Creates a binary file cache.
+     *
+     * @param dir the directory of the cached files
+     * @param maxSize the maximum size of the cached files
+     * @param memoryMaxSize the maximum size of the in-memory tier, 0 to
+     *            disable it
+     * @param memoryMaxEntrySize the maximum size of a binary kept in memory
+     * @param prefetchThreads the number of threads fetching binaries in the
+     *            background, 0 to disable prefetching
+     * @param prefetchMaxPending the maximum number of prefetches queued or
+     *            running, further ones are dropped
+     * @since 5.7
+     */
+    public BinaryFileCache(File dir, long maxSize, long memoryMaxSize,
+            int memoryMaxEntrySize, int prefetchThreads,
+            int prefetchMaxPending) {
         super(dir, maxSize);
+        if (memoryMaxSize > 0) {
+            memorySegments = new MemorySegment[MEMORY_SEGMENTS];
+            for (int i = 0; i < MEMORY_SEGMENTS; i++) {
+                memorySegments[i] = new MemorySegment(memoryMaxSize
+                        / MEMORY_SEGMENTS);
+            }
+        } else {
+            memorySegments = null;
+        }
+        this.memoryMaxEntrySize = memoryMaxEntrySize;
+        this.prefetchMaxPending = prefetchMaxPending;
+        if (prefetchThreads > 0 && prefetchMaxPending > 0) {
+            prefetchExecutor = new ThreadPoolExecutor(prefetchThreads,
+                    prefetchThreads, 60, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<Runnable>(prefetchMaxPending),
+                    new PrefetchThreadFactory());
+            prefetchExecutor.allowCoreThreadTimeOut(true);
+        } else {
+            prefetchExecutor = null;
+        }
     }
 
     /**
      * Fetches the file from the cache or the remote database.
      * <p>
      * If something is retrieved from the database, it is put in cache.
+     * <p>
+     * May be called concurrently for different keys.
      *
      * @param key identify the file in cache
      * @param tmp the temporary file to use to store the file
@@ -63,7 +198,7 @@ public abstract class BinaryFileCache extends LRUFileCache {
     public abstract Long fetchLength(String key);
 
     protected Long lengthFromCache(String key) {
-        File f = super.getFile(key);
+        File f = getCachedFile(key);
         if (f == null) {
             return null;
         }
@@ -105,7 +240,9 @@ public abstract class BinaryFileCache extends LRUFileCache {
             writer.flush();
             out.close();
             out = null;
-            putFile(key + LEN_DIGEST_SUFFIX, tmp);
+            synchronized (this) {
+                putFile(key + LEN_DIGEST_SUFFIX, tmp);
+            }
         } catch (IOException e) {
             throw new RuntimeException(e);
         } finally {
@@ -120,6 +257,14 @@ public abstract class BinaryFileCache extends LRUFileCache {
     }
 
     public Long getLength(String key) {
+        byte[] bytes = memoryGet(key);
+        if (bytes != null) {
+            return Long.valueOf(bytes.length);
+        }
+        File file = getCachedFile(key);
+        if (file != null) {
+            return Long.valueOf(file.length());
+        }
         Long length = lengthFromCache(key);
         if (length != null) {
             return length;
@@ -128,33 +273,296 @@ public abstract class BinaryFileCache extends LRUFileCache {
 
     }
 
+    /**
+     * Gets a file from the cache, without fetching it if it's missing.
+     *
+     * @return the file, or {@code null} if it's not in the cache
+     * @since 5.7
+     */
+    public File getCachedFile(String key) {
+        // the LRU bookkeeping is done under the lock, but not the fetches
+        synchronized (this) {
+            return super.getFile(key);
+        }
+    }
+
     @Override
-    public synchronized File getFile(String key) {
+    public File getFile(String key) {
 
         // get file from cache
-        File file = super.getFile(key);
+        File file = getCachedFile(key);
         if (file != null) {
+            hits.incrementAndGet();
+            updateStats();
             return file;
         }
+        misses.incrementAndGet();
+        updateStats();
 
         // fetch file from storage
-        File tmp = null;
+        return fetch(key);
+    }
+
+    /**
+     * Gets a stream for a binary, from the in-memory tier if it's small
+     * enough, fetching it if needed.
+     *
+     * @return the stream, or {@code null} if the binary is missing from the
+     *         storage
+     * @since 5.7
+     */
+    public InputStream getStream(String key) throws IOException {
+        byte[] bytes = memoryGet(key);
+        if (bytes != null) {
+            memoryHits.incrementAndGet();
+            return new ByteArrayInputStream(bytes);
+        }
+        File file = getFile(key);
+        if (file == null) {
+            return null;
+        }
+        if (memorySegments != null && file.length() <= memoryMaxEntrySize) {
+            InputStream in = new FileInputStream(file);
+            try {
+                bytes = IOUtils.toByteArray(in);
+            } finally {
+                in.close();
+            }
+            memoryPut(key, bytes);
+            return new ByteArrayInputStream(bytes);
+        }
+        return new FileInputStream(file);
+    }
+
+    /**
+     * Checks if binaries can be prefetched.
+     *
+     * @since 5.7
+     */
+    public boolean isPrefetchEnabled() {
+        return prefetchExecutor != null;
+    }
+
+    /**
+     * Fetches a binary in the background if it's not in the cache. Does
+     * nothing if too many prefetches are already pending.
+     *
+     * @return {@code true} if the prefetch was queued, {@code false} if it
+     *         was dropped
+     * @since 5.7
+     */
+    public boolean prefetch(final String key) {
+        if (prefetchExecutor == null || fetches.containsKey(key)) {
+            return false;
+        }
+        if (pendingPrefetches.incrementAndGet() > prefetchMaxPending) {
+            pendingPrefetches.decrementAndGet();
+            return false;
+        }
         try {
-            tmp = getTempFile();
-            if (fetchFile(key, tmp)) {
-                file = putFile(key, tmp);
-                return file; // fetched file from storage
+            prefetchExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        fetch(key);
+                    } finally {
+                        pendingPrefetches.decrementAndGet();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            pendingPrefetches.decrementAndGet();
+            return false;
+        }
+        prefetches.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Fetches a file from storage, waiting for the fetch already in progress
+     * for the same key if there is one.
+     */
+    protected File fetch(String key) {
+        FutureTask<File> task = new FutureTask<File>(new Fetch(key));
+        FutureTask<File> inProgress = fetches.putIfAbsent(key, task);
+        if (inProgress == null) {
+            try {
+                task.run();
+            } finally {
+                fetches.remove(key, task);
             }
-        } catch (IOException e) {
+            inProgress = task;
+        }
+        try {
+            return inProgress.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
             LogFactory.getLog(BinaryFileCache.class).error(
-                    "IO error while fetching " + key + " on storage", e);
+                    "Error while fetching " + key + " on storage", e.getCause());
+            return null;
+        }
+    }
+
+    protected class Fetch implements Callable<File> {
+
+        protected final String key;
+
+        public Fetch(String key) {
+            this.key = key;
+        }
+
+        @Override
+        public File call() {
+            // may have been fetched since the cache was checked
+            File file = getCachedFile(key);
+            if (file != null) {
+                return file;
+            }
+            File tmp = null;
+            try {
+                tmp = getTempFile();
+                if (fetchFile(key, tmp)) {
+                    fetchedBytes.addAndGet(tmp.length());
+                    synchronized (BinaryFileCache.this) {
+                        file = putFile(key, tmp);
+                    }
+                    return file; // fetched file from storage
+                }
+            } catch (IOException e) {
+                LogFactory.getLog(BinaryFileCache.class).error(
+                        "IO error while fetching " + key + " on storage", e);
+            }
+
+            // file not in storage
+            if (tmp != null) {
+                tmp.delete();
+            }
+            return null;
+        }
+    }
+
+    protected byte[] memoryGet(String key) {
+        if (memorySegments == null) {
+            return null;
+        }
+        return memorySegmentFor(key).get(key);
+    }
+
+    protected void memoryPut(String key, byte[] bytes) {
+        if (memorySegments == null || bytes.length > memoryMaxEntrySize) {
+            return;
+        }
+        memorySegmentFor(key).put(key, bytes);
+    }
+
+    protected MemorySegment memorySegmentFor(String key) {
+        return memorySegments[key.hashCode() & (MEMORY_SEGMENTS - 1)];
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getMemoryHits() {
+        return memoryHits.get();
+    }
+
+    /**
+     * Gets the number of prefetches queued, not counting the dropped ones.
+     */
+    public long getPrefetches() {
+        return prefetches.get();
+    }
+
+    public long getFetchedBytes() {
+        return fetchedBytes.get();
+    }
+
+    /**
+     * Gets the size in bytes of the in-memory tier.
+     */
+    public long getMemorySize() {
+        if (memorySegments == null) {
+            return 0;
+        }
+        long size = 0;
+        for (MemorySegment segment : memorySegments) {
+            size += segment.getSize();
         }
+        return size;
+    }
 
-        // file not in storage
-        if (tmp != null) {
-            tmp.delete();
+    private void updateStats() {
+        if ((hits.get() + misses.get()) % STATS_PERIOD != 0) {
+            return;
         }
-        return null;
+        SimonManager.getCounter(CN_HITS).set(hits.get());
+        SimonManager.getCounter(CN_MISSES).set(misses.get());
+        SimonManager.getCounter(CN_MEMORY_HITS).set(memoryHits.get());
+        SimonManager.getCounter(CN_PREFETCHES).set(prefetches.get());
+        SimonManager.getCounter(CN_FETCHED_BYTES).set(fetchedBytes.get());
+        SimonManager.getCounter(CN_MEMORY_BYTES).set(getMemorySize());
+    }
+
+    /**
+     * A segment of the in-memory tier, evicting the least recently used
+     * entries beyond its maximum size.
+     */
+    protected static final class MemorySegment {
+
+        private final LinkedHashMap<String, byte[]> map = new LinkedHashMap<String, byte[]>(
+                16, 0.75f, true);
 
+        private final long maxSize;
+
+        private long size;
+
+        MemorySegment(long maxSize) {
+            this.maxSize = maxSize;
+        }
+
+        synchronized byte[] get(String key) {
+            return map.get(key);
+        }
+
+        synchronized void put(String key, byte[] bytes) {
+            if (bytes.length > maxSize) {
+                return;
+            }
+            byte[] old = map.put(key, bytes);
+            if (old != null) {
+                size -= old.length;
+            }
+            size += bytes.length;
+            Iterator<byte[]> it = map.values().iterator();
+            while (size > maxSize && it.hasNext()) {
+                size -= it.next().length;
+                it.remove();
+            }
+        }
+
+        synchronized long getSize() {
+            return size;
+        }
     }
+
+    protected static class PrefetchThreadFactory implements ThreadFactory {
+
+        private static final AtomicInteger threadNumber = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "Nuxeo-Binary-Prefetch-"
+                    + threadNumber.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+
 }
@@ -32,6 +32,12 @@ public class BinaryManagerStatus {
 
     public long sizeBinariesGC;
 
+    /* @since 5.7 */
+    public long numBinariesAdded;
+
+    /* @since 5.7 */
+    public long numBinariesChecked;
+
     /**
      * The GC duration, in milliseconds
      */
@@ -67,4 +73,24 @@ public class BinaryManagerStatus {
         return sizeBinariesGC;
     }
 
+    /**
+     * The number of binaries added since the previous GC, for a GC that keeps
+     * track of them, or 0.
+     *
+     * @since 5.7
+     */
+    public long getNumBinariesAdded() {
+        return numBinariesAdded;
+    }
+
+    /**
+     * The number of binaries whose file had to be checked on disk, for a GC
+     * that doesn't need to check all of them, or 0.
+     *
+     * @since 5.7
+     */
+    public long getNumBinariesChecked() {
+        return numBinariesChecked;
+    }
+
 }
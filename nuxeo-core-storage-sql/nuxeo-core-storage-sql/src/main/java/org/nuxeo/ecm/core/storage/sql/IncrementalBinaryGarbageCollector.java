@@ -0,0 +1,544 @@
+/*
+ * Copyright (c) 2006-2012 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Florent Guillaume
+ */
+
+package org.nuxeo.ecm.core.storage.sql;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.nuxeo.ecm.core.storage.sql.LocalBinaryManager.DefaultBinaryGarbageCollector;
+
+/**
+ * A garbage collector for a {@link LocalBinaryManager} that doesn't need to
+ * touch the referenced binaries nor walk the whole storage directory.
+ * <p>
+ * The binaries present in the store are kept in a sorted index file, and the
+ * binary manager appends the binaries it creates to a journal file. During the
+ * mark phase the referenced digests are written to a file, which is then
+ * sorted. On stop, the index and the journal of the binaries added since the
+ * previous GC are merged with the sorted referenced digests, and only the
+ * binaries that are not referenced are checked on disk. A new index is written
+ * with the binaries that remain.
+ * <p>
+ * All the files are kept in the <em>gc/</em> subdirectory of the binaries
+ * directory:
+ * <ul>
+ * <li><em>index</em> the sorted binaries known at the end of the previous GC,
+ * </li>
+ * <li><em>journal</em> the binaries created since the start of the previous
+ * GC,</li>
+ * <li><em>journal.gc</em> the binaries created before the start of the
+ * current GC, kept until a GC completes,</li>
+ * <li><em>referenced</em> the sorted digests referenced at the last GC.</li>
+ * </ul>
+ * If a GC fails, the index and the journal of the binaries to examine are left
+ * untouched and the next GC resumes from them. When there is no index (first
+ * GC, or <em>gc/</em> deleted to force a rebuild), the storage directory is
+ * walked once to create it.
+ * <p>
+ * The journal is written by the binary manager of the current process, so
+ * this garbage collector must not be used for a binaries directory shared by
+ * several processes.
+ *
+ * @since 5.7
+ */
+public class IncrementalBinaryGarbageCollector implements
+        BinaryGarbageCollector {
+
+    private static final Log log = LogFactory.getLog(IncrementalBinaryGarbageCollector.class);
+
+    public static final String GC_DIR = "gc";
+
+    public static final String INDEX = "index";
+
+    public static final String JOURNAL = "journal";
+
+    public static final String JOURNAL_GC = "journal.gc";
+
+    public static final String MARKED = "marked";
+
+    public static final String REFERENCED = "referenced";
+
+    public static final String SCAN = "scan";
+
+    private static final String ENCODING = "UTF-8";
+
+    /** Default maximum number of lines sorted in memory at a time. */
+    public static final int DEFAULT_SORT_CHUNK_SIZE = 500000;
+
+    protected final LocalBinaryManager binaryManager;
+
+    /** Maximum number of lines sorted in memory at a time. */
+    protected final int sortChunkSize;
+
+    protected final File gcDir;
+
+    protected final Object journalLock = new Object();
+
+    // protected by journalLock
+    protected Writer journal;
+
+    protected volatile long startTime;
+
+    protected BinaryManagerStatus status;
+
+    protected Writer marked;
+
+    public IncrementalBinaryGarbageCollector(LocalBinaryManager binaryManager) {
+        this(binaryManager, DEFAULT_SORT_CHUNK_SIZE);
+    }
+
+    /**
+     * Creates a garbage collector sorting at most the given number of lines
+     * in memory at a time, larger files are sorted in chunks.
+     */
+    public IncrementalBinaryGarbageCollector(LocalBinaryManager binaryManager,
+            int sortChunkSize) {
+        this.binaryManager = binaryManager;
+        this.sortChunkSize = sortChunkSize;
+        gcDir = new File(binaryManager.getStorageDir().getParentFile(), GC_DIR);
+        gcDir.mkdirs();
+    }
+
+    @Override
+    public String getId() {
+        return binaryManager.getStorageDir().toURI().toString();
+    }
+
+    @Override
+    public BinaryManagerStatus getStatus() {
+        return status;
+    }
+
+    @Override
+    public boolean isInProgress() {
+        // volatile as this is designed to be called from another thread
+        return startTime != 0;
+    }
+
+    /**
+     * Records a binary newly created in the store.
+     */
+    public void binaryAdded(String digest, long length) {
+        synchronized (journalLock) {
+            try {
+                if (journal == null) {
+                    journal = openWriter(new File(gcDir, JOURNAL), true);
+                }
+                journal.write(digest + ' ' + length + '\n');
+                journal.flush();
+            } catch (IOException e) {
+                log.error("Cannot journal binary: " + digest, e);
+            }
+        }
+    }
+
+    @Override
+    public void start() {
+        if (startTime != 0) {
+            throw new RuntimeException("Already started");
+        }
+        startTime = System.currentTimeMillis();
+        status = new BinaryManagerStatus();
+        try {
+            // binaries created from now on are not examined by this GC
+            synchronized (journalLock) {
+                if (journal != null) {
+                    journal.close();
+                    journal = null;
+                }
+                File file = new File(gcDir, JOURNAL);
+                File gcFile = new File(gcDir, JOURNAL_GC);
+                if (file.exists()) {
+                    if (gcFile.exists()) {
+                        // previous GC didn't complete, examine both
+                        appendFile(file, gcFile);
+                        file.delete();
+                    } else if (!file.renameTo(gcFile)) {
+                        throw new IOException("Cannot rename: " + file);
+                    }
+                }
+            }
+            marked = openWriter(new File(gcDir, MARKED), false);
+        } catch (IOException e) {
+            startTime = 0;
+            throw new RuntimeException("Cannot start binaries GC", e);
+        }
+    }
+
+    @Override
+    public synchronized void mark(String digest) {
+        try {
+            marked.write(digest);
+            marked.write('\n');
+        } catch (IOException e) {
+            throw new RuntimeException("Cannot mark binary: " + digest, e);
+        }
+    }
+
+    @Override
+    public void stop(boolean delete) {
+        if (startTime == 0) {
+            throw new RuntimeException("Not started");
+        }
+        List<File> tmpFiles = new ArrayList<File>();
+        try {
+            synchronized (this) {
+                marked.close();
+                marked = null;
+            }
+            File markedFile = new File(gcDir, MARKED);
+            File referenced = new File(gcDir, REFERENCED);
+            sort(markedFile, referenced);
+            markedFile.delete();
+
+            List<File> stores = new ArrayList<File>(2);
+            File index = new File(gcDir, INDEX);
+            if (index.exists()) {
+                stores.add(index);
+            } else {
+                log.info("Creating binaries GC index for: "
+                        + binaryManager.getStorageDir());
+                File scan = new File(gcDir, SCAN);
+                File scanSorted = new File(gcDir, SCAN + ".sorted");
+                tmpFiles.add(scan);
+                tmpFiles.add(scanSorted);
+                Writer writer = openWriter(scan, false);
+                try {
+                    scan(binaryManager.getStorageDir(), writer);
+                } finally {
+                    writer.close();
+                }
+                sort(scan, scanSorted);
+                stores.add(scanSorted);
+            }
+            File journalGC = new File(gcDir, JOURNAL_GC);
+            if (journalGC.exists()) {
+                File journalSorted = new File(gcDir, JOURNAL_GC + ".sorted");
+                tmpFiles.add(journalSorted);
+                status.numBinariesAdded = sort(journalGC, journalSorted);
+                stores.add(journalSorted);
+            }
+
+            File newIndex = new File(gcDir, INDEX + ".tmp");
+            tmpFiles.add(newIndex);
+            sweep(stores, referenced, newIndex, startTime
+                    - DefaultBinaryGarbageCollector.TIME_RESOLUTION, delete);
+            index.delete();
+            if (!newIndex.renameTo(index)) {
+                throw new IOException("Cannot rename: " + newIndex);
+            }
+            // the binaries of the journal are now in the index
+            journalGC.delete();
+        } catch (IOException e) {
+            throw new RuntimeException("Binaries GC failed", e);
+        } finally {
+            for (File file : tmpFiles) {
+                file.delete();
+            }
+            status.gcDuration = System.currentTimeMillis() - startTime;
+            startTime = 0;
+        }
+    }
+
+    /**
+     * Merges the sorted store files with the sorted referenced digests,
+     * deleting the binaries not referenced and writing the others to the new
+     * index.
+     */
+    protected void sweep(List<File> stores, File referenced, File newIndex,
+            long minTime, boolean delete) throws IOException {
+        SortedLinesMerger store = new SortedLinesMerger(stores);
+        SortedLinesMerger refs = new SortedLinesMerger(
+                Collections.singletonList(referenced));
+        Writer writer = openWriter(newIndex, false);
+        try {
+            String ref = refs.next();
+            String line;
+            while ((line = store.next()) != null) {
+                int i = line.indexOf(' ');
+                String digest = i == -1 ? line : line.substring(0, i);
+                long length = i == -1 ? -1 : Long.parseLong(line.substring(i + 1));
+                while (ref != null && ref.compareTo(digest) < 0) {
+                    ref = refs.next();
+                }
+                boolean keep;
+                if (digest.equals(ref)) {
+                    keep = true;
+                } else {
+                    status.numBinariesChecked++;
+                    File file = binaryManager.getFileForDigest(digest, false);
+                    if (file == null || !file.isFile()) {
+                        // already gone
+                        continue;
+                    }
+                    if (length == -1) {
+                        length = file.length();
+                    }
+                    long lastModified = file.lastModified();
+                    if (lastModified == 0) {
+                        log.error("Cannot read last modified for file: "
+                                + file);
+                        keep = true;
+                    } else {
+                        // recently created or revived
+                        keep = lastModified >= minTime;
+                    }
+                    if (!keep) {
+                        status.sizeBinariesGC += length;
+                        status.numBinariesGC++;
+                        if (delete) {
+                            if (file.delete()) {
+                                deleteEmptyParents(file);
+                                continue;
+                            }
+                            log.warn("Cannot gc file: " + file);
+                        }
+                    }
+                }
+                if (keep) {
+                    status.sizeBinaries += length;
+                    status.numBinaries++;
+                }
+                writer.write(digest + ' ' + length + '\n');
+            }
+        } finally {
+            writer.close();
+            store.close();
+            refs.close();
+        }
+    }
+
+    protected void deleteEmptyParents(File file) {
+        File storageDir = binaryManager.getStorageDir();
+        File dir = file.getParentFile();
+        // delete fails if the directory is not empty
+        while (dir != null && !dir.equals(storageDir) && dir.delete()) {
+            dir = dir.getParentFile();
+        }
+    }
+
+    /**
+     * Writes all the files of a directory, recursively.
+     */
+    protected static void scan(File dir, Writer writer) throws IOException {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (file.isDirectory()) {
+                scan(file, writer);
+            } else if (file.isFile()) {
+                writer.write(file.getName() + ' ' + file.length() + '\n');
+            }
+        }
+    }
+
+    /**
+     * Sorts the lines of a file, removing duplicates. Large files are sorted
+     * in chunks that are then merged.
+     *
+     * @return the number of lines written
+     */
+    protected long sort(File in, File out) throws IOException {
+        List<File> runs = new ArrayList<File>();
+        List<String> lines = new ArrayList<String>();
+        BufferedReader reader = openReader(in);
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines.add(line);
+                if (lines.size() >= sortChunkSize) {
+                    File run = new File(out.getPath() + ".run" + runs.size());
+                    runs.add(run);
+                    writeSorted(lines, run);
+                    lines.clear();
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        if (runs.isEmpty()) {
+            return writeSorted(lines, out);
+        }
+        try {
+            if (!lines.isEmpty()) {
+                File run = new File(out.getPath() + ".run" + runs.size());
+                runs.add(run);
+                writeSorted(lines, run);
+                lines.clear();
+            }
+            SortedLinesMerger merger = new SortedLinesMerger(runs);
+            Writer writer = openWriter(out, false);
+            long n = 0;
+            try {
+                String line;
+                while ((line = merger.next()) != null) {
+                    writer.write(line);
+                    writer.write('\n');
+                    n++;
+                }
+            } finally {
+                writer.close();
+                merger.close();
+            }
+            return n;
+        } finally {
+            for (File run : runs) {
+                run.delete();
+            }
+        }
+    }
+
+    protected static long writeSorted(List<String> lines, File file)
+            throws IOException {
+        Collections.sort(lines);
+        Writer writer = openWriter(file, false);
+        long n = 0;
+        try {
+            String last = null;
+            for (String line : lines) {
+                if (!line.equals(last)) {
+                    writer.write(line);
+                    writer.write('\n');
+                    n++;
+                }
+                last = line;
+            }
+        } finally {
+            writer.close();
+        }
+        return n;
+    }
+
+    protected static void appendFile(File source, File dest)
+            throws IOException {
+        BufferedReader reader = openReader(source);
+        try {
+            Writer writer = openWriter(dest, true);
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    writer.write(line);
+                    writer.write('\n');
+                }
+            } finally {
+                writer.close();
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    protected static BufferedReader openReader(File file) throws IOException {
+        return new BufferedReader(new InputStreamReader(new FileInputStream(
+                file), ENCODING));
+    }
+
+    protected static Writer openWriter(File file, boolean append)
+            throws IOException {
+        return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(
+                file, append), ENCODING));
+    }
+
+    /**
+     * Iterates in order over the lines of several sorted files, skipping
+     * duplicates.
+     */
+    protected static class SortedLinesMerger {
+
+        protected final PriorityQueue<SortedLines> queue = new PriorityQueue<SortedLines>();
+
+        protected final List<SortedLines> all = new ArrayList<SortedLines>();
+
+        protected String last;
+
+        public SortedLinesMerger(List<File> files) throws IOException {
+            try {
+                for (File file : files) {
+                    SortedLines lines = new SortedLines(openReader(file));
+                    all.add(lines);
+                    if (lines.advance()) {
+                        queue.add(lines);
+                    }
+                }
+            } catch (IOException e) {
+                close();
+                throw e;
+            }
+        }
+
+        /**
+         * Gets the next line, or {@code null} at the end.
+         */
+        public String next() throws IOException {
+            while (!queue.isEmpty()) {
+                SortedLines lines = queue.poll();
+                String line = lines.current;
+                if (lines.advance()) {
+                    queue.add(lines);
+                }
+                if (!line.equals(last)) {
+                    last = line;
+                    return line;
+                }
+            }
+            return null;
+        }
+
+        public void close() {
+            for (SortedLines lines : all) {
+                try {
+                    lines.reader.close();
+                } catch (IOException e) {
+                    log.error(e, e);
+                }
+            }
+        }
+    }
+
+    protected static class SortedLines implements Comparable<SortedLines> {
+
+        protected final BufferedReader reader;
+
+        protected String current;
+
+        public SortedLines(BufferedReader reader) {
+            this.reader = reader;
+        }
+
+        public boolean advance() throws IOException {
+            current = reader.readLine();
+            return current != null;
+        }
+
+        @Override
+        public int compareTo(SortedLines other) {
+            return current.compareTo(other.current);
+        }
+    }
+
+}
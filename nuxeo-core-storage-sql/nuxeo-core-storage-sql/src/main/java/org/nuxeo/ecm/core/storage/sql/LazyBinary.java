@@ -57,13 +57,10 @@ public class LazyBinary extends Binary {
     @Override
     public InputStream getStream() throws IOException {
         if (file == null) {
-            file = cache().getFile(digest);
-            if (file != null) {
-                length = file.length();
-                hasLength = true;
-            }
+            // small binaries may come from memory
+            return cache().getStream(digest);
         }
-        return file == null ? null : new FileInputStream(file);
+        return new FileInputStream(file);
     }
 
     @Override
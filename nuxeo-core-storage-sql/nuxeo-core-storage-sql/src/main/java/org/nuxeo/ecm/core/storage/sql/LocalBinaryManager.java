@@ -19,8 +19,8 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
 
-import org.apache.commons.io.IOUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.nuxeo.common.Environment;
@@ -37,7 +37,9 @@ import org.nuxeo.runtime.api.Framework;
  * <ul>
  * <li><em>data/</em> hierarchy with the actual binaries in subdirectories,</li>
  * <li><em>tmp/</em> temporary storage during creation,</li>
- * <li><em>config.xml</em> a file containing the configuration used.</li>
+ * <li><em>config.xml</em> a file containing the configuration used,</li>
+ * <li><em>gc/</em> the files of the {@link IncrementalBinaryGarbageCollector}
+ * if it is enabled.</li>
  * </ul>
  *
  * When not using a binary scrambler, you should use
@@ -62,6 +64,9 @@ public class LocalBinaryManager extends AbstractBinaryManager {
 
     protected File tmpDir;
 
+    /* @since 5.7 */
+    protected boolean incrementalGC;
+
     @Override
     public void initialize(RepositoryDescriptor repositoryDescriptor)
             throws IOException {
@@ -102,6 +107,7 @@ public class LocalBinaryManager extends AbstractBinaryManager {
         storageDir.mkdirs();
         tmpDir.mkdirs();
         descriptor = getDescriptor(new File(base, CONFIG_FILE));
+        incrementalGC = repositoryDescriptor.binaryStoreIncrementalGC;
         createGarbageCollector();
     }
 
@@ -215,20 +221,7 @@ public class LocalBinaryManager extends AbstractBinaryManager {
             File tmp = File.createTempFile(dest.getName(), ".tmp",
                     dest.getParentFile());
             try {
-                InputStream in = null;
-                OutputStream out = null;
-                try {
-                    in = new FileInputStream(source);
-                    out = new FileOutputStream(tmp);
-                    IOUtils.copy(in, out);
-                } finally {
-                    if (in != null) {
-                        in.close();
-                    }
-                    if (out != null) {
-                        out.close();
-                    }
-                }
+                copyFile(source, tmp);
                 // then do the atomic rename
                 tmp.renameTo(dest);
             } finally {
@@ -240,10 +233,57 @@ public class LocalBinaryManager extends AbstractBinaryManager {
         if (!dest.exists()) {
             throw new IOException("Could not create file: " + dest);
         }
+        binaryAdded(dest);
+    }
+
+    /**
+     * Called when a new binary file has been created in the store.
+     *
+     * @since 5.7
+     */
+    protected void binaryAdded(File file) {
+        if (garbageCollector instanceof IncrementalBinaryGarbageCollector) {
+            ((IncrementalBinaryGarbageCollector) garbageCollector).binaryAdded(
+                    file.getName(), file.length());
+        }
+    }
+
+    /**
+     * Copies a file, letting the filesystem transfer the bytes directly when
+     * it can instead of copying them through the Java heap.
+     *
+     * @since 5.7
+     */
+    protected static void copyFile(File source, File dest) throws IOException {
+        FileInputStream in = new FileInputStream(source);
+        try {
+            FileOutputStream out = new FileOutputStream(dest);
+            try {
+                FileChannel inch = in.getChannel();
+                FileChannel outch = out.getChannel();
+                long size = inch.size();
+                long pos = 0;
+                while (pos < size) {
+                    long n = inch.transferTo(pos, size - pos, outch);
+                    if (n <= 0) {
+                        throw new IOException("Could not copy file: " + source);
+                    }
+                    pos += n;
+                }
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
     }
 
     protected void createGarbageCollector() {
-        garbageCollector = new DefaultBinaryGarbageCollector(this);
+        if (incrementalGC) {
+            garbageCollector = new IncrementalBinaryGarbageCollector(this);
+        } else {
+            garbageCollector = new DefaultBinaryGarbageCollector(this);
+        }
     }
 
     public static class DefaultBinaryGarbageCollector implements
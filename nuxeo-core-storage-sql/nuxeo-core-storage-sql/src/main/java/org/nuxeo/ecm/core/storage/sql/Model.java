@@ -324,6 +324,9 @@ public class Model {
      */
     private final Map<String, String> schemaFragment;
 
+    /** Prefetch profile for query results. */
+    private final PrefetchProfile queryPrefetchProfile;
+
     /** Maps schema to collection fragments. */
     protected final Map<String, Set<String>> typeCollectionFragments;
 
@@ -398,6 +401,29 @@ public class Model {
         if (!repositoryDescriptor.fulltextDisabled) {
             initFullTextModel();
         }
+        queryPrefetchProfile = new PrefetchProfile(
+                repositoryDescriptor.queryPrefetchSchemas,
+                getPrefetchableFields(repositoryDescriptor.queryPrefetchFields));
+    }
+
+    /**
+     * Keeps the fields that can be prefetched by document id, the top-level
+     * fields of the schemas. Logs and skips the others, in particular full
+     * xpaths into complex properties, whose rows are keyed by the id of the
+     * complex property node.
+     */
+    protected Set<String> getPrefetchableFields(Set<String> fieldNames) {
+        Set<String> fields = new HashSet<String>();
+        for (String fieldName : fieldNames) {
+            if (getFieldFragments(fieldName) == null) {
+                log.warn("Ignoring query prefetch field '" + fieldName
+                        + "' for repository " + repositoryDescriptor.name
+                        + ": not a top-level field of a schema");
+                continue;
+            }
+            fields.add(fieldName);
+        }
+        return fields;
     }
 
     /**
@@ -995,6 +1021,44 @@ public class Model {
         return typePrefetchedFragments.get(typeName);
     }
 
+    /**
+     * Gets the fragments holding the schemas and fields of a prefetch profile,
+     * including their collection fragments. Only the top-level fields of the
+     * schemas are taken into account.
+     *
+     * @since 5.7
+     */
+    public Set<String> getPrefetchProfileFragments(PrefetchProfile profile) {
+        Set<String> fragments = new HashSet<String>();
+        for (String schemaName : profile.getSchemas()) {
+            String fragment = schemaFragment.get(schemaName);
+            if (fragment != null) {
+                fragments.add(fragment);
+            }
+            Set<String> collectionFragments = typeCollectionFragments.get(schemaName);
+            if (collectionFragments != null) {
+                fragments.addAll(collectionFragments);
+            }
+        }
+        for (String fieldName : profile.getFields()) {
+            // a full xpath has no fragment keyed by document id, skipped
+            Set<String> fieldFragments = getFieldFragments(fieldName);
+            if (fieldFragments != null) {
+                fragments.addAll(fieldFragments);
+            }
+        }
+        return fragments;
+    }
+
+    /**
+     * Gets the prefetch profile configured for query results.
+     *
+     * @since 5.7
+     */
+    public PrefetchProfile getQueryPrefetchProfile() {
+        return queryPrefetchProfile;
+    }
+
     public boolean isType(String typeName) {
         return typeFragments.containsKey(typeName);
     }
@@ -126,6 +126,15 @@ public class PersistenceContext {
      */
     private final Set<Serializable> createdIds;
 
+    /** The repository-wide path cache, or {@code null}. */
+    private final SharedPathCache pathCache;
+
+    /**
+     * Whether ACLs or the hierarchy were changed, or nodes were created, since
+     * the last invalidations sent to others.
+     */
+    private boolean securityChanged;
+
     @SuppressWarnings("unchecked")
     public PersistenceContext(Model model, RowMapper mapper, SessionImpl session)
             throws StorageException {
@@ -153,6 +162,7 @@ public class PersistenceContext {
         // this has to be linked to keep creation order, as foreign keys
         // are used and need this
         createdIds = new LinkedHashSet<Serializable>();
+        pathCache = session.getSharedPathCache();
     }
 
     protected int clearCaches() {
@@ -163,6 +173,7 @@ public class PersistenceContext {
         int n = clearLocalCaches();
         modified.clear(); // not empty when rolling back before save
         createdIds.clear();
+        securityChanged = false;
         return n;
     }
 
@@ -375,6 +386,24 @@ public class PersistenceContext {
         RowId rowId = fragment.row;
         pristine.remove(rowId);
         modified.put(rowId, fragment);
+        if (!securityChanged) {
+            String tableName = rowId.tableName;
+            // new nodes count too, ACLs computed while they're not
+            // committed must not be shared
+            securityChanged = Model.ACL_TABLE_NAME.equals(tableName)
+                    || Model.HIER_TABLE_NAME.equals(tableName);
+        }
+    }
+
+    /**
+     * Checks if ACLs or the hierarchy were changed, or nodes were created, and
+     * not yet committed, in which case the repository-wide ACL cache must not be
+     * used.
+     *
+     * @since 5.7
+     */
+    protected boolean hasSecurityChanges() {
+        return securityChanged;
     }
 
     // also called from Fragment
@@ -397,6 +426,7 @@ public class PersistenceContext {
         }
         mapper.sendInvalidations(invalidations);
         // events sent in mapper
+        securityChanged = false;
     }
 
     /**
@@ -1241,8 +1271,35 @@ public class PersistenceContext {
 
     public SimpleFragment getChildHierByName(Serializable parentId,
             String name, boolean complexProp) throws StorageException {
-        return getHierSelectionContext(complexProp).getSelectionFragment(
+        if (complexProp || pathCache == null) {
+            return getHierSelectionContext(complexProp).getSelectionFragment(
+                    parentId, name);
+        }
+        SimpleFragment fragment = hierNonComplex.getSelectionFragmentIfKnown(
                 parentId, name);
+        if (fragment != SimpleFragment.UNKNOWN) {
+            return fragment;
+        }
+        // the shared cache is a hint, check the actual row
+        Serializable id = pathCache.get(parentId, name);
+        if (id != null) {
+            fragment = getHier(id, false);
+            if (fragment != null
+                    && parentId.equals(fragment.get(model.HIER_PARENT_KEY))
+                    && name.equals(fragment.getString(model.HIER_CHILD_NAME_KEY))
+                    && !complexProp(fragment)) {
+                State state = fragment.getState();
+                if (state == State.PRISTINE || state == State.MODIFIED) {
+                    return fragment;
+                }
+            }
+            pathCache.remove(parentId, name, id);
+        }
+        fragment = hierNonComplex.getSelectionFragment(parentId, name);
+        if (fragment != null && fragment.getState() == State.PRISTINE) {
+            pathCache.put(parentId, name, fragment.getId());
+        }
+        return fragment;
     }
 
     /**
@@ -0,0 +1,262 @@
+/*
+ * Copyright (c) 2006-2012 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Florent Guillaume
+ */
+
+package org.nuxeo.ecm.core.storage.sql;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A filesystem-based binary manager that computes the digest of a binary in a
+ * separate thread while the binary is being written.
+ * <p>
+ * The binary is read into direct buffers which are written to the temporary
+ * file through its channel, then handed to a digest thread. Reading and
+ * writing the next buffer thus happens while the previous one is digested,
+ * which for large binaries keeps the disk busy instead of alternating between
+ * I/O and digest computation on a single thread.
+ * <p>
+ * Binaries smaller than one buffer are digested inline, as the pipeline would
+ * only add a thread handoff for them.
+ * <p>
+ * The storage format is the same as for {@link DefaultBinaryManager}, so the
+ * two can be switched on an existing binaries directory.
+ *
+ * @since 5.7
+ */
+public class PipelinedBinaryManager extends DefaultBinaryManager {
+
+    public static final int BUF_SIZE = 1024 * 1024; // 1 MB
+
+    /** Maximum number of buffers in flight for one binary. */
+    public static final int BUF_COUNT = 4;
+
+    /** Maximum number of free buffers kept for reuse. */
+    public static final int POOL_SIZE = 4 * BUF_COUNT;
+
+    protected static final ByteBuffer END = ByteBuffer.allocate(0);
+
+    protected static final BlockingQueue<ByteBuffer> bufferPool = new ArrayBlockingQueue<ByteBuffer>(
+            POOL_SIZE);
+
+    protected static final ExecutorService digestExecutor = Executors.newCachedThreadPool(new DigestThreadFactory());
+
+    @Override
+    protected String storeAndDigest(InputStream in, OutputStream out)
+            throws IOException {
+        ReadableByteChannel inch = Channels.newChannel(in);
+        WritableByteChannel outch = Channels.newChannel(out);
+        MessageDigest digest = getMessageDigest();
+
+        ByteBuffer buf = acquireBuffer();
+        if (fill(inch, buf)) {
+            // small binary, no need for a separate thread
+            write(outch, buf);
+            buf.rewind();
+            digest.update(buf);
+            releaseBuffer(buf);
+            return toHexString(digest.digest());
+        }
+
+        BlockingQueue<ByteBuffer> full = new ArrayBlockingQueue<ByteBuffer>(
+                BUF_COUNT + 1);
+        BlockingQueue<ByteBuffer> free = new ArrayBlockingQueue<ByteBuffer>(
+                BUF_COUNT);
+        List<ByteBuffer> buffers = new ArrayList<ByteBuffer>(BUF_COUNT);
+        buffers.add(buf);
+        Future<byte[]> future = digestExecutor.submit(new DigestTask(digest,
+                full, free));
+        boolean done = false;
+        try {
+            boolean eof = false;
+            while (true) {
+                write(outch, buf);
+                buf.rewind();
+                put(full, buf);
+                if (eof) {
+                    break;
+                }
+                buf = free.poll();
+                if (buf == null) {
+                    if (buffers.size() < BUF_COUNT) {
+                        buf = acquireBuffer();
+                        buffers.add(buf);
+                    } else {
+                        buf = waitForBuffer(free, future);
+                    }
+                }
+                eof = fill(inch, buf);
+            }
+            put(full, END);
+            byte[] bytes = get(future);
+            done = true;
+            return toHexString(bytes);
+        } finally {
+            if (done) {
+                // the digest thread is finished with all the buffers
+                for (ByteBuffer b : buffers) {
+                    releaseBuffer(b);
+                }
+            } else {
+                // buffers may still be in use, leave them to the GC
+                future.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * Reads into a buffer until it is full or the channel is exhausted, and
+     * flips it.
+     *
+     * @return {@code true} if the end of the channel was reached
+     */
+    protected static boolean fill(ReadableByteChannel ch, ByteBuffer buf)
+            throws IOException {
+        boolean eof = false;
+        while (buf.hasRemaining()) {
+            if (ch.read(buf) == -1) {
+                eof = true;
+                break;
+            }
+        }
+        buf.flip();
+        return eof;
+    }
+
+    protected static void write(WritableByteChannel ch, ByteBuffer buf)
+            throws IOException {
+        while (buf.hasRemaining()) {
+            ch.write(buf);
+        }
+    }
+
+    protected static ByteBuffer acquireBuffer() {
+        ByteBuffer buf = bufferPool.poll();
+        if (buf == null) {
+            buf = ByteBuffer.allocateDirect(BUF_SIZE);
+        }
+        return buf;
+    }
+
+    protected static void releaseBuffer(ByteBuffer buf) {
+        buf.clear();
+        // if the pool is full, the buffer is left to the GC
+        bufferPool.offer(buf);
+    }
+
+    protected static ByteBuffer waitForBuffer(BlockingQueue<ByteBuffer> free,
+            Future<byte[]> future) throws IOException {
+        try {
+            while (true) {
+                ByteBuffer buf = free.poll(1, TimeUnit.SECONDS);
+                if (buf != null) {
+                    return buf;
+                }
+                if (future.isDone()) {
+                    // digest thread failed, get the cause
+                    get(future);
+                    throw new IOException("Digest thread stopped");
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw (IOException) new IOException().initCause(e);
+        }
+    }
+
+    protected static void put(BlockingQueue<ByteBuffer> queue, ByteBuffer buf)
+            throws IOException {
+        try {
+            queue.put(buf);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw (IOException) new IOException().initCause(e);
+        }
+    }
+
+    protected static byte[] get(Future<byte[]> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw (IOException) new IOException().initCause(e);
+        } catch (ExecutionException e) {
+            throw (IOException) new IOException().initCause(e.getCause());
+        }
+    }
+
+    /**
+     * Digests the buffers of the full queue until {@link #END}, giving them
+     * back through the free queue.
+     */
+    protected static class DigestTask implements Callable<byte[]> {
+
+        protected final MessageDigest digest;
+
+        protected final BlockingQueue<ByteBuffer> full;
+
+        protected final BlockingQueue<ByteBuffer> free;
+
+        public DigestTask(MessageDigest digest, BlockingQueue<ByteBuffer> full,
+                BlockingQueue<ByteBuffer> free) {
+            this.digest = digest;
+            this.full = full;
+            this.free = free;
+        }
+
+        @Override
+        public byte[] call() throws InterruptedException {
+            while (true) {
+                ByteBuffer buf = full.take();
+                if (buf == END) {
+                    break;
+                }
+                digest.update(buf);
+                buf.clear();
+                free.put(buf);
+            }
+            return digest.digest();
+        }
+    }
+
+    protected static class DigestThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger threadNumber = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "Nuxeo-Binary-Digest-"
+                    + threadNumber.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2006-2012 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Florent Guillaume
+ */
+
+package org.nuxeo.ecm.core.storage.sql;
+
+import java.io.Serializable;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * The schemas and fields to prefetch when getting several nodes at once, for
+ * instance for a page of query results displayed in a listing.
+ * <p>
+ * The fragments of these schemas and fields, including their collection
+ * fragments, are fetched together with the ones prefetched by the document
+ * type, with one request per table for the whole page instead of one request
+ * per document when the properties are accessed.
+ *
+ * @since 5.7
+ */
+public class PrefetchProfile implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final PrefetchProfile EMPTY = new PrefetchProfile(null,
+            null);
+
+    protected final Set<String> schemas;
+
+    protected final Set<String> fields;
+
+    /**
+     * Constructs a prefetch profile.
+     *
+     * @param schemas the schema names, or {@code null}
+     * @param fields the field names (prefixed, like {@code dc:title}), or
+     *            {@code null}
+     */
+    public PrefetchProfile(Collection<String> schemas,
+            Collection<String> fields) {
+        this.schemas = schemas == null ? Collections.<String> emptySet()
+                : Collections.unmodifiableSet(new HashSet<String>(schemas));
+        this.fields = fields == null ? Collections.<String> emptySet()
+                : Collections.unmodifiableSet(new HashSet<String>(fields));
+    }
+
+    public Set<String> getSchemas() {
+        return schemas;
+    }
+
+    public Set<String> getFields() {
+        return fields;
+    }
+
+    public boolean isEmpty() {
+        return schemas.isEmpty() && fields.isEmpty();
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * schemas.hashCode() + fields.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (other == this) {
+            return true;
+        }
+        if (!(other instanceof PrefetchProfile)) {
+            return false;
+        }
+        PrefetchProfile p = (PrefetchProfile) other;
+        return schemas.equals(p.schemas) && fields.equals(p.fields);
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "(schemas=" + schemas
+                + ", fields=" + fields + ')';
+    }
+
+}
@@ -43,7 +43,14 @@ public interface RepositoryBackend {
      * The kind of mapper to create through {@link #newMapper}.
      */
     enum MapperKind {
-        LOCK_MANAGER, CLUSTER_NODE_HANDLER
+        LOCK_MANAGER, CLUSTER_NODE_HANDLER,
+        /**
+         * Mapper exchanging cluster invalidations for a
+         * {@link WriteBehindLockManager}.
+         *
+         * @since 5.7
+         */
+        LOCK_MANAGER_INVALIDATIONS
     }
 
     /**
@@ -26,6 +26,7 @@ import org.nuxeo.common.xmap.annotation.XNode;
 import org.nuxeo.common.xmap.annotation.XNodeList;
 import org.nuxeo.common.xmap.annotation.XNodeMap;
 import org.nuxeo.common.xmap.annotation.XObject;
+import org.nuxeo.ecm.core.storage.sql.jdbc.ClusterInvalidator;
 
 /**
  * Repository descriptor.
@@ -133,6 +134,74 @@ public class RepositoryDescriptor {
     @XNodeMap(value = "cachingMapper/property", key = "@name", type = HashMap.class, componentType = String.class)
     public Map<String, String> cachingMapperProperties = new HashMap<String, String>();
 
+    /* @since 5.7 */
+    @XNode("sharedRowCache@enabled")
+    public boolean sharedRowCacheEnabled = false;
+
+    /* @since 5.7 */
+    @XNode("sharedRowCache@maxEntries")
+    public int sharedRowCacheMaxEntries = 100000;
+
+    /** Maximum estimated size in bytes. */
+    /* @since 5.7 */
+    @XNode("sharedRowCache@maxSize")
+    public long sharedRowCacheMaxSize = 64L * 1024 * 1024;
+
+    /* @since 5.7 */
+    @XNode("sharedRowCache@concurrency")
+    public int sharedRowCacheConcurrency = 16;
+
+    /* @since 5.7 */
+    @XNode("sharedPathCache@enabled")
+    public boolean sharedPathCacheEnabled = true;
+
+    /** Maximum number of parents whose children ids are cached. */
+    /* @since 5.7 */
+    @XNode("sharedPathCache@maxParents")
+    public int sharedPathCacheMaxParents = 10000;
+
+    /** Maximum number of children ids cached for a parent. */
+    /* @since 5.7 */
+    @XNode("sharedPathCache@maxChildren")
+    public int sharedPathCacheMaxChildren = 1000;
+
+    /* @since 5.7 */
+    @XNode("sharedACLCache@enabled")
+    public boolean sharedACLCacheEnabled = true;
+
+    /** Maximum number of inherited ACLs, and of access decisions, cached. */
+    /* @since 5.7 */
+    @XNode("sharedACLCache@maxEntries")
+    public int sharedACLCacheMaxEntries = 10000;
+
+    /** Maximum number of built NXQL queries cached, 0 to disable. */
+    /* @since 5.7 */
+    @XNode("queryCache@maxEntries")
+    public int queryCacheMaxEntries = 1000;
+
+    /** Schemas whose fragments are prefetched for query results. */
+    /* @since 5.7 */
+    @XNodeList(value = "queryPrefetch/schema", type = HashSet.class, componentType = String.class)
+    public Set<String> queryPrefetchSchemas = Collections.emptySet();
+
+    /** Fields whose fragments are prefetched for query results. */
+    /* @since 5.7 */
+    @XNodeList(value = "queryPrefetch/field", type = HashSet.class, componentType = String.class)
+    public Set<String> queryPrefetchFields = Collections.emptySet();
+
+    /**
+     * Whether locks are kept in memory and written to the database in
+     * batches, see {@link WriteBehindLockManager}.
+     */
+    /* @since 5.7 */
+    @XNode("lockManager@writeBehind")
+    public boolean lockManagerWriteBehind;
+
+    /** Delay in milliseconds between writes of the changed locks. */
+    /* @since 5.7 */
+    @XNode("lockManager@flushDelay")
+    public long lockManagerFlushDelay = 1000;
+
     @XNode("noDDL")
     public boolean noDDL = false;
 
@@ -142,6 +211,10 @@ public class RepositoryDescriptor {
     @XNode("clustering@delay")
     public long clusteringDelay;
 
+    /* @since 5.7 */
+    @XNode("clustering@invalidatorClass")
+    public Class<? extends ClusterInvalidator> clusteringInvalidatorClass;
+
     @XNodeList(value = "schema/field", type = ArrayList.class, componentType = FieldDescriptor.class)
     public List<FieldDescriptor> schemaFields = Collections.emptyList();
 
@@ -200,6 +273,10 @@ public class RepositoryDescriptor {
     @XNode("binaryStore@path")
     public String binaryStorePath;
 
+    /* @since 5.7 */
+    @XNode("binaryStore@incrementalGC")
+    public boolean binaryStoreIncrementalGC;
+
     @XNode("@sendInvalidationEvents")
     public boolean sendInvalidationEvents;
 
@@ -210,8 +287,23 @@ public class RepositoryDescriptor {
         backendClass = other.backendClass;
         cachingMapperClass = other.cachingMapperClass;
         cachingMapperEnabled = other.cachingMapperEnabled;
+        sharedRowCacheEnabled = other.sharedRowCacheEnabled;
+        sharedRowCacheMaxEntries = other.sharedRowCacheMaxEntries;
+        sharedRowCacheMaxSize = other.sharedRowCacheMaxSize;
+        sharedRowCacheConcurrency = other.sharedRowCacheConcurrency;
+        sharedPathCacheEnabled = other.sharedPathCacheEnabled;
+        sharedPathCacheMaxParents = other.sharedPathCacheMaxParents;
+        sharedPathCacheMaxChildren = other.sharedPathCacheMaxChildren;
+        sharedACLCacheEnabled = other.sharedACLCacheEnabled;
+        sharedACLCacheMaxEntries = other.sharedACLCacheMaxEntries;
+        queryCacheMaxEntries = other.queryCacheMaxEntries;
+        queryPrefetchSchemas = other.queryPrefetchSchemas;
+        queryPrefetchFields = other.queryPrefetchFields;
+        lockManagerWriteBehind = other.lockManagerWriteBehind;
+        lockManagerFlushDelay = other.lockManagerFlushDelay;
         clusteringEnabled = other.clusteringEnabled;
         clusteringDelay = other.clusteringDelay;
+        clusteringInvalidatorClass = other.clusteringInvalidatorClass;
         noDDL = other.noDDL;
         schemaFields = other.schemaFields;
         fulltextDisabled = other.fulltextDisabled;
@@ -222,6 +314,7 @@ public class RepositoryDescriptor {
         aclOptimizationsEnabled = other.aclOptimizationsEnabled;
         readAclMaxSize = other.readAclMaxSize;
         binaryStorePath = other.binaryStorePath;
+        binaryStoreIncrementalGC = other.binaryStoreIncrementalGC;
         binaryManagerClass = other.binaryManagerClass;
         binaryManagerKey = other.binaryManagerKey;
         binaryManagerListen = other.binaryManagerListen;
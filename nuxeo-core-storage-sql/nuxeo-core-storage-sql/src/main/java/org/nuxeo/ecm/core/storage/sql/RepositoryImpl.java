@@ -96,6 +96,15 @@ public class RepositoryImpl implements Repository {
     /** Single event queue global to the repository. */
     private final InvalidationsQueue repositoryEventQueue;
 
+    /** Row cache shared by all sessions, or {@code null}. */
+    private final SharedRowCache sharedRowCache;
+
+    /** Path cache shared by all sessions, or {@code null}. */
+    private final SharedPathCache sharedPathCache;
+
+    /** ACL cache shared by all sessions, or {@code null}. */
+    private final SharedACLCache sharedACLCache;
+
     private Model model;
 
     private boolean serverStarted;
@@ -116,6 +125,27 @@ public class RepositoryImpl implements Repository {
         eventPropagator = new InvalidationsPropagator("event-" + this);
         repositoryEventQueue = new InvalidationsQueue("repo-"
                 + repositoryDescriptor.name);
+        if (repositoryDescriptor.sharedRowCacheEnabled) {
+            sharedRowCache = new SharedRowCache(
+                    repositoryDescriptor.sharedRowCacheMaxEntries,
+                    repositoryDescriptor.sharedRowCacheMaxSize,
+                    repositoryDescriptor.sharedRowCacheConcurrency);
+        } else {
+            sharedRowCache = null;
+        }
+        if (repositoryDescriptor.sharedPathCacheEnabled) {
+            sharedPathCache = new SharedPathCache(
+                    repositoryDescriptor.sharedPathCacheMaxParents,
+                    repositoryDescriptor.sharedPathCacheMaxChildren);
+        } else {
+            sharedPathCache = null;
+        }
+        if (repositoryDescriptor.sharedACLCacheEnabled) {
+            sharedACLCache = new SharedACLCache(
+                    repositoryDescriptor.sharedACLCacheMaxEntries);
+        } else {
+            sharedACLCache = null;
+        }
         try {
             schemaManager = Framework.getService(SchemaManager.class);
         } catch (Exception e) {
@@ -230,6 +260,28 @@ public class RepositoryImpl implements Repository {
             cachingMapper = cachingMapperClass.newInstance();
             cachingMapper.initialize(model, mapper, cachePropagator,
                     eventPropagator, repositoryEventQueue, repositoryDescriptor.cachingMapperProperties);
+            if (sharedRowCache != null) {
+                if (cachingMapper instanceof SoftRefCachingRowMapper) {
+                    ((SoftRefCachingRowMapper) cachingMapper).setSharedRowCache(sharedRowCache);
+                } else {
+                    log.warn("VCS shared row cache not supported by: "
+                            + cachingMapperClass.getName());
+                }
+            }
+            if (sharedPathCache != null
+                    && cachingMapper instanceof SoftRefCachingRowMapper) {
+                // invalidated along with the mapper caches
+                ((SoftRefCachingRowMapper) cachingMapper).setSharedPathCache(sharedPathCache);
+            }
+            if (sharedACLCache != null) {
+                if (cachingMapper instanceof SoftRefCachingRowMapper) {
+                    // invalidated along with the mapper caches
+                    ((SoftRefCachingRowMapper) cachingMapper).setSharedACLCache(sharedACLCache);
+                } else {
+                    log.warn("VCS shared ACL cache not supported by: "
+                            + cachingMapperClass.getName());
+                }
+            }
         } catch (Exception e) {
             throw new StorageException(e);
         }
@@ -344,6 +396,36 @@ public class RepositoryImpl implements Repository {
         return lockManager;
     }
 
+    /**
+     * Gets the row cache shared by all sessions.
+     *
+     * @return the shared row cache, or {@code null} if not enabled
+     * @since 5.7
+     */
+    public SharedRowCache getSharedRowCache() {
+        return sharedRowCache;
+    }
+
+    /**
+     * Gets the path cache shared by all sessions.
+     *
+     * @return the shared path cache, or {@code null} if not enabled
+     * @since 5.7
+     */
+    public SharedPathCache getSharedPathCache() {
+        return sharedPathCache;
+    }
+
+    /**
+     * Gets the ACL cache shared by all sessions.
+     *
+     * @return the shared ACL cache, or {@code null} if not enabled
+     * @since 5.7
+     */
+    public SharedACLCache getSharedACLCache() {
+        return sharedACLCache;
+    }
+
     /*
      * ----- javax.resource.cci.ConnectionFactory -----
      */
@@ -392,8 +474,10 @@ public class RepositoryImpl implements Repository {
             // as we don't want invalidations in the lock manager's mapper
             Mapper lockManagerMapper = backend.newMapper(model, null,
                     MapperKind.LOCK_MANAGER);
-            lockManager = new LockManager(lockManagerMapper,
-                    repositoryDescriptor.clusteringEnabled);
+            if (!repositoryDescriptor.lockManagerWriteBehind) {
+                lockManager = new LockManager(lockManagerMapper,
+                        repositoryDescriptor.clusteringEnabled);
+            }
 
             // create the mapper for the cluster node handler
             if (repositoryDescriptor.clusteringEnabled) {
@@ -402,6 +486,16 @@ public class RepositoryImpl implements Repository {
                         + repositoryDescriptor.clusteringDelay
                         + " ms delay for repository: " + getName());
             }
+
+            if (repositoryDescriptor.lockManagerWriteBehind) {
+                // this one needs the cluster node handler to exchange lock
+                // invalidations with the other nodes
+                Mapper invalidationsMapper = repositoryDescriptor.clusteringEnabled ? backend.newMapper(
+                        model, null, MapperKind.LOCK_MANAGER_INVALIDATIONS)
+                        : null;
+                lockManager = new WriteBehindLockManager(lockManagerMapper,
+                        invalidationsMapper, repositoryDescriptor);
+            }
         }
 
         SessionPathResolver pathResolver = new SessionPathResolver();
@@ -516,6 +610,15 @@ public class RepositoryImpl implements Repository {
         if (lockManager != null) {
             lockManager.clearCaches();
         }
+        if (sharedRowCache != null) {
+            n += sharedRowCache.clear();
+        }
+        if (sharedPathCache != null) {
+            n += sharedPathCache.clear();
+        }
+        if (sharedACLCache != null) {
+            n += sharedACLCache.clear();
+        }
         return n;
     }
 
@@ -197,6 +197,21 @@ public class SelectionContext {
         return fragment;
     }
 
+    /**
+     * Finds a fragment given its selection id and value, if it is known
+     * without asking the mapper.
+     *
+     * @param selId the selection id
+     * @param filter the value to filter on
+     * @return the fragment, {@code null} if known to be missing, or
+     *         {@link SimpleFragment#UNKNOWN}
+     * @since 5.7
+     */
+    public SimpleFragment getSelectionFragmentIfKnown(Serializable selId,
+            String filter) {
+        return getSelection(selId).getFragmentByValue(filter);
+    }
+
     /**
      * Finds all the selection fragments for a given id.
      * <p>
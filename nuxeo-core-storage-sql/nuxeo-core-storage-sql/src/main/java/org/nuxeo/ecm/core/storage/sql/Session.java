@@ -97,6 +97,43 @@ public interface Session extends Connection {
      */
     List<Node> getNodesByIds(List<Serializable> ids) throws StorageException;
 
+    /**
+     * Gets several nodes given their ids, prefetching the fragments of a
+     * prefetch profile in addition to the ones prefetched for their types.
+     * <p>
+     * The fragments are fetched with one request per table for all the nodes.
+     *
+     * @param ids the ids
+     * @param profile the prefetch profile
+     * @return the nodes, in the same order as the ids, with elements being
+     *         {@code null} if not found
+     * @throws StorageException
+     * @since 5.7
+     */
+    List<Node> getNodesByIds(List<Serializable> ids, PrefetchProfile profile)
+            throws StorageException;
+
+    /**
+     * Gets the repository-wide cache of inherited ACLs and access decisions.
+     * <p>
+     * It is not available while this session has uncommitted changes to ACLs
+     * or to the hierarchy, as other sessions must not see them.
+     *
+     * @return the cache, or {@code null} if not available
+     * @since 5.7
+     */
+    SharedACLCache getSharedACLCache() throws StorageException;
+
+    /**
+     * Gets the stamp of the repository-wide ACL cache to pass when putting in
+     * it values computed from what this session sees.
+     *
+     * @return the stamp
+     * @see SharedACLCache#getStamp
+     * @since 5.7
+     */
+    long getSharedACLCacheStamp() throws StorageException;
+
     /**
      * Gets a node given its absolute path, or given an existing node and a
      * relative path.
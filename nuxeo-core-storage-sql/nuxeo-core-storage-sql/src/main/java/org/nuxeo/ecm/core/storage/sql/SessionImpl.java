@@ -109,6 +109,12 @@ public class SessionImpl implements Session, XAResource {
 
     private boolean readAclsChanged;
 
+    /**
+     * The stamp of the repository-wide ACL cache before the last invalidations
+     * received were processed.
+     */
+    private long sharedACLCacheStamp;
+
     private String threadName;
 
     public SessionImpl(RepositoryImpl repository, Model model, Mapper mapper,
@@ -136,6 +142,10 @@ public class SessionImpl implements Session, XAResource {
             throw new StorageException(e);
         }
 
+        SharedACLCache aclCache = getSharedACLCacheInternal();
+        if (aclCache != null) {
+            sharedACLCacheStamp = aclCache.getStamp();
+        }
         computeRootNode();
     }
 
@@ -151,6 +161,39 @@ public class SessionImpl implements Session, XAResource {
         return mapper;
     }
 
+    /**
+     * Gets the repository-wide path cache.
+     *
+     * @return the shared path cache, or {@code null} if not enabled
+     * @since 5.7
+     */
+    protected SharedPathCache getSharedPathCache() {
+        return repository.getSharedPathCache();
+    }
+
+    /**
+     * Gets the repository-wide ACL cache, if invalidated by our mapper.
+     */
+    protected SharedACLCache getSharedACLCacheInternal() {
+        if (mapper instanceof SoftRefCachingRowMapper) {
+            return ((SoftRefCachingRowMapper) mapper).getSharedACLCache();
+        }
+        return null;
+    }
+
+    @Override
+    public SharedACLCache getSharedACLCache() {
+        if (context.hasSecurityChanges()) {
+            return null;
+        }
+        return getSharedACLCacheInternal();
+    }
+
+    @Override
+    public long getSharedACLCacheStamp() {
+        return sharedACLCacheStamp;
+    }
+
     /**
      * Gets the XAResource. Called by the ManagedConnectionImpl, which actually
      * wraps it in a connection-aware implementation.
@@ -445,6 +488,11 @@ public class SessionImpl implements Session, XAResource {
      * Called pre-transaction by start or transactionless save;
      */
     protected void processReceivedInvalidations() throws StorageException {
+        // before, as we may not see the invalidations arriving meanwhile
+        SharedACLCache aclCache = getSharedACLCacheInternal();
+        if (aclCache != null) {
+            sharedACLCacheStamp = aclCache.getStamp();
+        }
         context.processReceivedInvalidations();
     }
 
@@ -575,6 +623,17 @@ public class SessionImpl implements Session, XAResource {
 
     public List<Node> getNodesByIds(List<Serializable> ids, boolean prefetch)
             throws StorageException {
+        return getNodesByIds(ids, prefetch, null);
+    }
+
+    /**
+     * Gets nodes, prefetching the fragments of their types and the ones of
+     * the given prefetch profile.
+     *
+     * @param profile the prefetch profile, or {@code null}
+     */
+    protected List<Node> getNodesByIds(List<Serializable> ids,
+            boolean prefetch, PrefetchProfile profile) throws StorageException {
         // get hier fragments
         List<RowId> hierRowIds = new ArrayList<RowId>(ids.size());
         for (Serializable id : ids) {
@@ -624,11 +683,14 @@ public class SessionImpl implements Session, XAResource {
         if (prefetch) {
             List<RowId> bulkRowIds = new ArrayList<RowId>();
             Set<Serializable> proxyIds = new HashSet<Serializable>();
+            Set<String> profileFragments = profile == null
+                    || profile.isEmpty() ? null
+                    : model.getPrefetchProfileFragments(profile);
 
             // get rows to prefetch for hier fragments
             for (Fragment fragment : hierFragments) {
-                findPrefetchedFragments((SimpleFragment) fragment, bulkRowIds,
-                        proxyIds);
+                findPrefetchedFragments((SimpleFragment) fragment,
+                        profileFragments, bulkRowIds, proxyIds);
             }
 
             // proxies
@@ -654,8 +716,8 @@ public class SessionImpl implements Session, XAResource {
             }
             hierFragments = context.getMulti(hierRowIds, true);
             for (Fragment fragment : hierFragments) {
-                findPrefetchedFragments((SimpleFragment) fragment, bulkRowIds,
-                        null);
+                findPrefetchedFragments((SimpleFragment) fragment,
+                        profileFragments, bulkRowIds, null);
             }
 
             // we have everything to be prefetched
@@ -689,10 +751,13 @@ public class SessionImpl implements Session, XAResource {
     /**
      * Finds prefetched fragments for a hierarchy fragment, takes note of the
      * ones that are proxies.
+     * <p>
+     * The profile fragments are only prefetched if the document type or the
+     * instance facets of the document have them.
      */
     protected void findPrefetchedFragments(SimpleFragment hierFragment,
-            List<RowId> bulkRowIds, Set<Serializable> proxyIds)
-            throws StorageException {
+            Set<String> profileFragments, List<RowId> bulkRowIds,
+            Set<Serializable> proxyIds) throws StorageException {
         Serializable id = hierFragment.row.id;
 
         // find type
@@ -709,6 +774,28 @@ public class SessionImpl implements Session, XAResource {
         if (tableNames == null) {
             return; // unknown (obsolete) type
         }
+        if (profileFragments != null) {
+            tableNames = new HashSet<String>(tableNames);
+            for (String fragmentName : profileFragments) {
+                if (model.getTypeFragments(typeName).contains(fragmentName)) {
+                    tableNames.add(fragmentName);
+                }
+            }
+            String[] mixins = (String[]) hierFragment.get(model.MAIN_MIXIN_TYPES_KEY);
+            if (mixins != null) {
+                for (String mixin : mixins) {
+                    Set<String> mixinFragments = model.getMixinFragments(mixin);
+                    if (mixinFragments == null) {
+                        continue; // unknown facet
+                    }
+                    for (String fragmentName : profileFragments) {
+                        if (mixinFragments.contains(fragmentName)) {
+                            tableNames.add(fragmentName);
+                        }
+                    }
+                }
+            }
+        }
 
         // add row id for each table name
         Serializable parentId = hierFragment.get(model.HIER_PARENT_KEY);
@@ -732,6 +819,14 @@ public class SessionImpl implements Session, XAResource {
         return getNodesByIds(ids, true);
     }
 
+    @Override
+    public List<Node> getNodesByIds(List<Serializable> ids,
+            PrefetchProfile profile) throws StorageException {
+        checkThread();
+        checkLive();
+        return getNodesByIds(ids, true, profile);
+    }
+
     @Override
     public Node getParentNode(Node node) throws StorageException {
         checkLive();
@@ -755,7 +850,8 @@ public class SessionImpl implements Session, XAResource {
     /* Does not apply to properties for now (no use case). */
     @Override
     public Node getNodeByPath(String path, Node node) throws StorageException {
-        // TODO optimize this to use a dedicated path-based table
+        // segments are resolved through the shared path cache, and only the
+        // hierarchy fragments of the intermediate nodes are fetched
         checkLive();
         if (path == null) {
             throw new IllegalArgumentException("Illegal null path");
@@ -776,18 +872,25 @@ public class SessionImpl implements Session, XAResource {
             i = 0;
         }
         String[] names = path.split("/", -1);
+        Serializable id = node.getId();
         for (; i < names.length; i++) {
             String name = names[i];
             if (name.length() == 0) {
                 throw new IllegalArgumentException(
                         "Illegal path with empty component: " + path);
             }
-            node = getChildNode(node, name, false);
-            if (node == null) {
+            if (name.equals(".") || name.equals("..")) {
+                // no child can have these names, don't cache them
+                return null;
+            }
+            SimpleFragment fragment = context.getChildHierByName(id, name,
+                    false);
+            if (fragment == null) {
                 return null;
             }
+            id = fragment.getId();
         }
-        return node;
+        return getNodeById(id);
     }
 
     @Override
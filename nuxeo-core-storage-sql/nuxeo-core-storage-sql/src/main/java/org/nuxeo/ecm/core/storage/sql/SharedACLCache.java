@@ -0,0 +1,382 @@
+/*
+ * Copyright (c) 2006-2012 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Florent Guillaume
+ */
+package org.nuxeo.ecm.core.storage.sql;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.javasimon.SimonManager;
+import org.nuxeo.ecm.core.api.security.ACL;
+import org.nuxeo.ecm.core.api.security.Access;
+import org.nuxeo.ecm.core.api.security.impl.ACLImpl;
+
+/**
+ * A repository-wide cache of the ACLs inherited by the children of a
+ * document, shared by all the sessions of a repository, so that checking a
+ * permission on a document doesn't walk up all its ancestors.
+ * <p>
+ * It also caches the access decisions computed from an inherited ACL, for a
+ * set of principals and permissions. They apply to all the children of a
+ * document that have no ACL of their own.
+ * <p>
+ * An entry depends on the ACLs and on the parent of its document and of the
+ * ancestors it inherits from. All the entries are cleared when a
+ * {@link Model#ACL_TABLE_NAME} or {@link Model#HIER_TABLE_NAME} invalidation
+ * is received for one of these documents. Creating documents neither clears
+ * the cache nor changes its stamp.
+ * <p>
+ * The cache must only ever hold values computed from committed data. The
+ * cache stamp changes with each invalidation of an ACL or of the hierarchy.
+ * Sessions get the stamp before processing the invalidations they receive,
+ * and pass it to {@link #putInheritedACL} and {@link #putAccess}. The put is
+ * ignored if the stamp changed in the meantime, because the session may not
+ * have seen the change yet. Sessions having uncommitted changes to ACLs or to
+ * the hierarchy, including created documents, must not use the cache.
+ * <p>
+ * The stored ACLs are never modified. Callers must copy them if they want to
+ * modify them.
+ *
+ * @since 5.7
+ */
+public class SharedACLCache {
+
+    // JavaSimon Counter Names
+    private static final String CN_HITS = "org.nuxeo.ecm.core.storage.sql.acl.sharedcache.hits";
+
+    private static final String CN_MISSES = "org.nuxeo.ecm.core.storage.sql.acl.sharedcache.misses";
+
+    private static final String CN_ACCESS_HITS = "org.nuxeo.ecm.core.storage.sql.acl.sharedcache.access.hits";
+
+    private static final String CN_ACCESS_MISSES = "org.nuxeo.ecm.core.storage.sql.acl.sharedcache.access.misses";
+
+    private static final String CN_SIZE = "org.nuxeo.ecm.core.storage.sql.acl.sharedcache.size";
+
+    /** Statistics are published to JavaSimon every that many accesses. */
+    private static final int STATS_PERIOD = 1024;
+
+    /**
+     * Value returned by {@link #getInheritedACL} for a document whose children
+     * inherit no ACL.
+     */
+    public static final ACL NO_ACL = new ACLImpl(ACL.INHERITED_ACL, true);
+
+    private final ConcurrentMap<Serializable, ACL> inherited;
+
+    private final ConcurrentMap<AccessKey, Access> accesses;
+
+    /** The documents whose ACL or parent the entries depend on. */
+    private final ConcurrentMap<Serializable, Boolean> dependencies;
+
+    private final int maxEntries;
+
+    private final AtomicLong stamp = new AtomicLong();
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private final AtomicLong accessHits = new AtomicLong();
+
+    private final AtomicLong accessMisses = new AtomicLong();
+
+    /**
+     * Creates a shared ACL cache.
+     *
+     * @param maxEntries the maximum number of inherited ACLs, and of access
+     *            decisions
+     */
+    public SharedACLCache(int maxEntries) {
+        this.maxEntries = Math.max(1, maxEntries);
+        inherited = new ConcurrentHashMap<Serializable, ACL>();
+        accesses = new ConcurrentHashMap<AccessKey, Access>();
+        dependencies = new ConcurrentHashMap<Serializable, Boolean>();
+    }
+
+    /**
+     * Gets the current stamp, to be passed to the puts of values computed
+     * from what a session sees.
+     */
+    public long getStamp() {
+        return stamp.get();
+    }
+
+    /**
+     * Gets the ACL inherited by the children of a document.
+     *
+     * @param id the document id
+     * @return the ACL, which must not be modified, {@link #NO_ACL} if the
+     *         children inherit no ACL, or {@code null} if not in the cache
+     */
+    public ACL getInheritedACL(Serializable id) {
+        ACL acl = inherited.get(id);
+        if (acl == null) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+        updateStats();
+        return acl;
+    }
+
+    /**
+     * Puts the ACL inherited by the children of a document in the cache.
+     * <p>
+     * The entries for its ancestors, if any, must have been put before with
+     * the same stamp, as the entry only records its dependency on the
+     * document itself.
+     *
+     * @param id the document id
+     * @param acl the ACL, or {@code null} if the children inherit no ACL
+     * @param stamp the stamp obtained before the session processed its last
+     *            invalidations
+     */
+    public void putInheritedACL(Serializable id, ACL acl, long stamp) {
+        dependencies.put(id, Boolean.TRUE);
+        if (stamp != this.stamp.get()) {
+            // concurrent invalidation, the value may be stale
+            return;
+        }
+        inherited.put(id, acl == null ? NO_ACL : acl);
+        if (stamp != this.stamp.get()) {
+            // cleared concurrently before we put
+            inherited.remove(id);
+            return;
+        }
+        if (inherited.size() > maxEntries) {
+            clear();
+        }
+    }
+
+    /**
+     * Gets the access decision for the children without ACL of a document.
+     *
+     * @param id the document id
+     * @param principals the principals
+     * @param permissions the permissions
+     * @return the access, or {@code null} if not in the cache
+     */
+    public Access getAccess(Serializable id, String[] principals,
+            String[] permissions) {
+        Access access = accesses.get(new AccessKey(id, principals,
+                permissions));
+        if (access == null) {
+            accessMisses.incrementAndGet();
+        } else {
+            accessHits.incrementAndGet();
+        }
+        updateStats();
+        return access;
+    }
+
+    /**
+     * Puts the access decision for the children without ACL of a document in
+     * the cache.
+     *
+     * @param id the document id
+     * @param principals the principals
+     * @param permissions the permissions
+     * @param access the access
+     * @param stamp the stamp obtained before the session processed its last
+     *            invalidations
+     */
+    public void putAccess(Serializable id, String[] principals,
+            String[] permissions, Access access, long stamp) {
+        dependencies.put(id, Boolean.TRUE);
+        if (stamp != this.stamp.get()) {
+            return;
+        }
+        AccessKey key = new AccessKey(id, principals, permissions);
+        accesses.put(key, access);
+        if (stamp != this.stamp.get()) {
+            accesses.remove(key);
+            return;
+        }
+        if (accesses.size() > maxEntries) {
+            clear();
+        }
+    }
+
+    /**
+     * Applies invalidations to the cache.
+     * <p>
+     * When invalidations are sent, this must be called both before they are
+     * queued to the other sessions, so that no session gets a stale value,
+     * and after, so that a session that has not received them yet doesn't put
+     * a stale value.
+     */
+    public void invalidate(Invalidations invalidations) {
+        invalidate(invalidations, Collections.<Serializable> emptySet());
+    }
+
+    /**
+     * Applies invalidations to the cache, ignoring those of documents created
+     * by the transaction that sends them unless an entry depends on them.
+     * <p>
+     * Nothing in the cache should depend on a document that didn't exist
+     * before, so its creation doesn't change the stamp, otherwise any creation
+     * of documents would make the concurrent puts be ignored.
+     *
+     * @param invalidations the invalidations
+     * @param createdIds the ids of the created documents
+     * @see #invalidate(Invalidations)
+     */
+    public void invalidate(Invalidations invalidations,
+            Set<Serializable> createdIds) {
+        if (invalidations == null) {
+            return;
+        }
+        if (invalidations.all) {
+            clear();
+            return;
+        }
+        boolean changed = false;
+        boolean dependent = false;
+        if (invalidations.modified != null) {
+            for (RowId rowId : invalidations.modified) {
+                if (!isSecurityTable(rowId.tableName)) {
+                    continue;
+                }
+                if (dependencies.containsKey(rowId.id)) {
+                    dependent = true;
+                    break;
+                }
+                if (!createdIds.contains(rowId.id)) {
+                    changed = true;
+                }
+            }
+        }
+        if (!dependent && invalidations.deleted != null) {
+            for (RowId rowId : invalidations.deleted) {
+                if (!isSecurityTable(rowId.tableName)) {
+                    continue;
+                }
+                if (dependencies.containsKey(rowId.id)) {
+                    dependent = true;
+                    break;
+                }
+                if (!createdIds.contains(rowId.id)) {
+                    changed = true;
+                }
+            }
+        }
+        if (dependent) {
+            clear();
+        } else if (changed) {
+            stamp.incrementAndGet();
+        }
+    }
+
+    protected static boolean isSecurityTable(String tableName) {
+        return Model.ACL_TABLE_NAME.equals(tableName)
+                || Model.HIER_TABLE_NAME.equals(tableName);
+    }
+
+    /**
+     * Clears the cache.
+     *
+     * @return the number of inherited ACLs removed
+     */
+    public int clear() {
+        stamp.incrementAndGet();
+        int n = inherited.size();
+        inherited.clear();
+        accesses.clear();
+        dependencies.clear();
+        return n;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getAccessHits() {
+        return accessHits.get();
+    }
+
+    public long getAccessMisses() {
+        return accessMisses.get();
+    }
+
+    /**
+     * Gets the number of inherited ACLs in the cache.
+     */
+    public int getSize() {
+        return inherited.size();
+    }
+
+    private void updateStats() {
+        if ((hits.get() + misses.get() + accessHits.get() + accessMisses.get())
+                % STATS_PERIOD != 0) {
+            return;
+        }
+        SimonManager.getCounter(CN_HITS).set(hits.get());
+        SimonManager.getCounter(CN_MISSES).set(misses.get());
+        SimonManager.getCounter(CN_ACCESS_HITS).set(accessHits.get());
+        SimonManager.getCounter(CN_ACCESS_MISSES).set(accessMisses.get());
+        SimonManager.getCounter(CN_SIZE).set(inherited.size());
+    }
+
+    /**
+     * Key of an access decision: the document whose inherited ACL is checked,
+     * and the principals and permissions checked.
+     */
+    protected static final class AccessKey {
+
+        private final Serializable id;
+
+        private final List<String> principals;
+
+        private final List<String> permissions;
+
+        private final int hash;
+
+        public AccessKey(Serializable id, String[] principals,
+                String[] permissions) {
+            this.id = id;
+            // copied, the caller may reuse its arrays
+            this.principals = Arrays.asList(principals.clone());
+            this.permissions = Arrays.asList(permissions.clone());
+            hash = 31 * (31 * id.hashCode() + this.principals.hashCode())
+                    + this.permissions.hashCode();
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (other == this) {
+                return true;
+            }
+            if (!(other instanceof AccessKey)) {
+                return false;
+            }
+            AccessKey k = (AccessKey) other;
+            return hash == k.hash && id.equals(k.id)
+                    && principals.equals(k.principals)
+                    && permissions.equals(k.permissions);
+        }
+    }
+
+}
@@ -0,0 +1,213 @@
+/*
+ * Copyright (c) 2006-2011 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Florent Guillaume
+ */
+package org.nuxeo.ecm.core.storage.sql;
+
+import java.io.Serializable;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.javasimon.SimonManager;
+
+/**
+ * A repository-wide cache of the ids of named document children, shared by
+ * all the sessions of a repository, so that the path segments of
+ * {@link Session#getNodeByPath} are resolved in memory instead of with one
+ * child query per segment.
+ * <p>
+ * Entries are grouped by parent id. The children of a parent are invalidated
+ * with the {@link Invalidations#PARENT} invalidations sent when a child is
+ * added, removed, moved or renamed, and when the parent itself is deleted.
+ * <p>
+ * The cache is only a hint: callers must check that the hierarchy row of the
+ * returned id still has the expected parent and name, so a stale entry (put
+ * concurrently with an invalidation, or for data not committed) is never
+ * returned to the application.
+ *
+ * @since 5.7
+ */
+public class SharedPathCache {
+
+    // JavaSimon Counter Names
+    private static final String CN_HITS = "org.nuxeo.ecm.core.storage.sql.path.sharedcache.hits";
+
+    private static final String CN_MISSES = "org.nuxeo.ecm.core.storage.sql.path.sharedcache.misses";
+
+    private static final String CN_SIZE = "org.nuxeo.ecm.core.storage.sql.path.sharedcache.size";
+
+    /** Statistics are published to JavaSimon every that many accesses. */
+    private static final int STATS_PERIOD = 1024;
+
+    private final ConcurrentMap<Serializable, ConcurrentMap<String, Serializable>> parents;
+
+    private final int maxParents;
+
+    private final int maxChildren;
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Creates a shared path cache.
+     *
+     * @param maxParents the maximum number of parents whose children are
+     *            cached
+     * @param maxChildren the maximum number of children cached for a parent
+     */
+    public SharedPathCache(int maxParents, int maxChildren) {
+        this.maxParents = Math.max(1, maxParents);
+        this.maxChildren = Math.max(1, maxChildren);
+        parents = new ConcurrentHashMap<Serializable, ConcurrentMap<String, Serializable>>();
+    }
+
+    /**
+     * Gets the id of a named child.
+     *
+     * @param parentId the parent id
+     * @param name the child name
+     * @return the child id, to be checked by the caller, or {@code null}
+     */
+    public Serializable get(Serializable parentId, String name) {
+        ConcurrentMap<String, Serializable> children = parents.get(parentId);
+        Serializable id = children == null ? null : children.get(name);
+        if (id == null) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+        updateStats();
+        return id;
+    }
+
+    /**
+     * Puts the id of a named child in the cache.
+     */
+    public void put(Serializable parentId, String name, Serializable id) {
+        ConcurrentMap<String, Serializable> children = parents.get(parentId);
+        if (children == null) {
+            ConcurrentMap<String, Serializable> newChildren = new ConcurrentHashMap<String, Serializable>();
+            children = parents.putIfAbsent(parentId, newChildren);
+            if (children == null) {
+                children = newChildren;
+                if (parents.size() > maxParents) {
+                    evict(parentId);
+                }
+            }
+        }
+        if (children.size() >= maxChildren && !children.containsKey(name)) {
+            return;
+        }
+        children.put(name, id);
+    }
+
+    /**
+     * Removes a named child from the cache, if it still has the given id.
+     */
+    public void remove(Serializable parentId, String name, Serializable id) {
+        ConcurrentMap<String, Serializable> children = parents.get(parentId);
+        if (children != null) {
+            children.remove(name, id);
+        }
+    }
+
+    /**
+     * Removes the children of a parent from the cache.
+     */
+    public void invalidate(Serializable parentId) {
+        parents.remove(parentId);
+    }
+
+    /**
+     * Applies invalidations to the cache.
+     */
+    public void invalidate(Invalidations invalidations) {
+        if (invalidations == null) {
+            return;
+        }
+        if (invalidations.all) {
+            clear();
+            return;
+        }
+        if (invalidations.modified != null) {
+            for (RowId rowId : invalidations.modified) {
+                if (Invalidations.PARENT.equals(rowId.tableName)) {
+                    invalidate(rowId.id);
+                }
+            }
+        }
+        if (invalidations.deleted != null) {
+            for (RowId rowId : invalidations.deleted) {
+                if (Model.HIER_TABLE_NAME.equals(rowId.tableName)) {
+                    invalidate(rowId.id);
+                }
+            }
+        }
+    }
+
+    /**
+     * Evicts about a quarter of the parents. The iteration order of the map
+     * being based on hashes, this is a random eviction.
+     */
+    protected void evict(Serializable keep) {
+        int n = parents.size() - maxParents * 3 / 4;
+        for (Iterator<Serializable> it = parents.keySet().iterator(); n > 0
+                && it.hasNext();) {
+            Serializable parentId = it.next();
+            if (!parentId.equals(keep)) {
+                it.remove();
+                n--;
+            }
+        }
+    }
+
+    /**
+     * Clears the cache.
+     *
+     * @return the number of children removed
+     */
+    public int clear() {
+        int n = getSize();
+        parents.clear();
+        return n;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Gets the number of children in the cache.
+     */
+    public int getSize() {
+        int size = 0;
+        for (ConcurrentMap<String, Serializable> children : parents.values()) {
+            size += children.size();
+        }
+        return size;
+    }
+
+    private void updateStats() {
+        if ((hits.get() + misses.get()) % STATS_PERIOD != 0) {
+            return;
+        }
+        SimonManager.getCounter(CN_HITS).set(hits.get());
+        SimonManager.getCounter(CN_MISSES).set(misses.get());
+        SimonManager.getCounter(CN_SIZE).set(parents.size());
+    }
+
+}
@@ -0,0 +1,411 @@
+/*
+ * Copyright (c) 2006-2011 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Florent Guillaume
+ */
+package org.nuxeo.ecm.core.storage.sql;
+
+import java.io.Serializable;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.javasimon.SimonManager;
+
+/**
+ * A repository-wide cache of {@link Row}s, shared by all the sessions of a
+ * repository as a second level behind their own {@link SoftRefCachingRowMapper}
+ * cache.
+ * <p>
+ * The cache is split into segments according to the {@link RowId} hash. Reads
+ * are lock-free, writes and invalidations lock a single segment. Each segment
+ * is bounded by a number of entries and an estimated size in bytes, and
+ * evicts using the CLOCK (second chance) approximation of LRU.
+ * <p>
+ * The cache must only ever hold committed data. To avoid caching a row read
+ * from the database concurrently with its invalidation, callers get the
+ * segment stamps with {@link #getStamps} before reading from the database and
+ * pass them to {@link #put}, which is ignored if the segment was invalidated
+ * in the meantime.
+ * <p>
+ * The stored rows are never modified, callers must clone rows when they get
+ * them out of the cache if they intend to modify them.
+ *
+ * @since 5.7
+ */
+public class SharedRowCache {
+
+    // JavaSimon Counter Names
+    private static final String CN_HITS = "org.nuxeo.ecm.core.storage.sql.row.sharedcache.hits";
+
+    private static final String CN_MISSES = "org.nuxeo.ecm.core.storage.sql.row.sharedcache.misses";
+
+    private static final String CN_EVICTIONS = "org.nuxeo.ecm.core.storage.sql.row.sharedcache.evictions";
+
+    private static final String CN_SIZE = "org.nuxeo.ecm.core.storage.sql.row.sharedcache.size";
+
+    private static final String CN_BYTES = "org.nuxeo.ecm.core.storage.sql.row.sharedcache.bytes";
+
+    /** Statistics are published to JavaSimon every that many accesses. */
+    private static final int STATS_PERIOD = 1024;
+
+    private static final long ROW_OVERHEAD = 64;
+
+    private static final long REF_SIZE = 8;
+
+    private final Segment[] segments;
+
+    private final int segmentMask;
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Creates a shared row cache.
+     *
+     * @param maxEntries the maximum number of rows
+     * @param maxBytes the maximum estimated size in bytes of the rows
+     * @param concurrency the number of segments, rounded up to a power of 2
+     */
+    public SharedRowCache(int maxEntries, long maxBytes, int concurrency) {
+        int n = 1;
+        while (n < concurrency) {
+            n <<= 1;
+        }
+        segments = new Segment[n];
+        segmentMask = n - 1;
+        int segmentEntries = Math.max(1, maxEntries / n);
+        long segmentBytes = Math.max(1, maxBytes / n);
+        for (int i = 0; i < n; i++) {
+            segments[i] = new Segment(segmentEntries, segmentBytes);
+        }
+    }
+
+    private int segmentIndex(RowId rowId) {
+        int h = rowId.hashCode();
+        // spread bits, as the low bits of the hash are used by the maps
+        h ^= (h >>> 20) ^ (h >>> 12);
+        h ^= (h >>> 7) ^ (h >>> 4);
+        return h & segmentMask;
+    }
+
+    private Segment segmentFor(RowId rowId) {
+        return segments[segmentIndex(rowId)];
+    }
+
+    /**
+     * Gets a row from the cache.
+     *
+     * @return the cached row, which must not be modified, or {@code null}
+     */
+    public Row get(RowId rowId) {
+        Entry entry = segmentFor(rowId).map.get(rowId);
+        if (entry == null) {
+            misses.incrementAndGet();
+            updateStats();
+            return null;
+        }
+        entry.referenced = true;
+        hits.incrementAndGet();
+        updateStats();
+        return entry.row;
+    }
+
+    /**
+     * Gets the current invalidation stamps, to be passed to {@link #put}.
+     */
+    public long[] getStamps() {
+        long[] stamps = new long[segments.length];
+        for (int i = 0; i < segments.length; i++) {
+            stamps[i] = segments[i].stamp;
+        }
+        return stamps;
+    }
+
+    /**
+     * Puts a row in the cache, unless its segment has been invalidated since
+     * the stamps were taken.
+     *
+     * @param rowId the row id
+     * @param row the row, which must not be modified afterwards
+     * @param stamps the stamps gotten from {@link #getStamps} before reading
+     *            the row from the database
+     */
+    public void put(RowId rowId, Row row, long[] stamps) {
+        int i = segmentIndex(rowId);
+        long evicted = segments[i].put(new RowId(rowId), row, stamps[i]);
+        if (evicted != 0) {
+            evictions.addAndGet(evicted);
+        }
+    }
+
+    /**
+     * Removes a row from the cache.
+     */
+    public void invalidate(RowId rowId) {
+        segmentFor(rowId).remove(rowId);
+    }
+
+    /**
+     * Applies invalidations to the cache.
+     */
+    public void invalidate(Invalidations invalidations) {
+        if (invalidations == null) {
+            return;
+        }
+        if (invalidations.all) {
+            clear();
+            return;
+        }
+        if (invalidations.modified != null) {
+            for (RowId rowId : invalidations.modified) {
+                invalidate(rowId);
+            }
+        }
+        if (invalidations.deleted != null) {
+            for (RowId rowId : invalidations.deleted) {
+                invalidate(rowId);
+            }
+        }
+    }
+
+    /**
+     * Clears the cache.
+     *
+     * @return the number of rows removed
+     */
+    public int clear() {
+        int n = 0;
+        for (Segment segment : segments) {
+            n += segment.clear();
+        }
+        return n;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /**
+     * Gets the number of rows in the cache.
+     */
+    public int getSize() {
+        int size = 0;
+        for (Segment segment : segments) {
+            size += segment.map.size();
+        }
+        return size;
+    }
+
+    /**
+     * Gets the estimated size in bytes of the rows in the cache.
+     */
+    public long getEstimatedBytes() {
+        long bytes = 0;
+        for (Segment segment : segments) {
+            bytes += segment.bytes;
+        }
+        return bytes;
+    }
+
+    private void updateStats() {
+        if ((hits.get() + misses.get()) % STATS_PERIOD != 0) {
+            return;
+        }
+        SimonManager.getCounter(CN_HITS).set(hits.get());
+        SimonManager.getCounter(CN_MISSES).set(misses.get());
+        SimonManager.getCounter(CN_EVICTIONS).set(evictions.get());
+        SimonManager.getCounter(CN_SIZE).set(getSize());
+        SimonManager.getCounter(CN_BYTES).set(getEstimatedBytes());
+    }
+
+    /**
+     * Estimates the memory used by a row.
+     */
+    protected static long estimateSize(Row row) {
+        long size = ROW_OVERHEAD;
+        if (row.values != null) {
+            size += estimateSize(row.values);
+        }
+        if (row.keys != null) {
+            // keys are shared column names
+            size += REF_SIZE * row.keys.length;
+        }
+        return size;
+    }
+
+    protected static long estimateSize(Serializable value) {
+        if (value == null) {
+            return REF_SIZE;
+        }
+        if (value instanceof String) {
+            return 40 + 2 * ((String) value).length();
+        }
+        if (value instanceof Serializable[]) {
+            long size = 16;
+            for (Serializable v : (Serializable[]) value) {
+                size += estimateSize(v);
+            }
+            return size;
+        }
+        if (value instanceof ACLRow) {
+            ACLRow acl = (ACLRow) value;
+            return 32 + estimateSize(acl.name) + estimateSize(acl.permission)
+                    + estimateSize(acl.user) + estimateSize(acl.group);
+        }
+        return 32;
+    }
+
+    private static final class Entry {
+
+        final RowId key;
+
+        final Row row;
+
+        final long size;
+
+        volatile boolean referenced;
+
+        Entry(RowId key, Row row) {
+            this.key = key;
+            this.row = row;
+            size = estimateSize(row);
+        }
+    }
+
+    private static final class Segment {
+
+        final ConcurrentHashMap<RowId, Entry> map = new ConcurrentHashMap<RowId, Entry>();
+
+        final int maxEntries;
+
+        final long maxBytes;
+
+        final ReentrantLock lock = new ReentrantLock();
+
+        /** Incremented at each invalidation. Modified under lock. */
+        volatile long stamp;
+
+        /** Estimated size in bytes. Modified under lock. */
+        volatile long bytes;
+
+        /**
+         * The CLOCK queue. May hold entries no longer in the map, which are
+         * skipped. Used under lock.
+         */
+        final ArrayDeque<Entry> clock = new ArrayDeque<Entry>();
+
+        Segment(int maxEntries, long maxBytes) {
+            this.maxEntries = maxEntries;
+            this.maxBytes = maxBytes;
+        }
+
+        /** Returns the number of evicted entries. */
+        long put(RowId key, Row row, long expectedStamp) {
+            lock.lock();
+            try {
+                if (stamp != expectedStamp) {
+                    // invalidated while the row was read
+                    return 0;
+                }
+                Entry entry = new Entry(key, row);
+                Entry old = map.put(key, entry);
+                long b = bytes + entry.size;
+                if (old != null) {
+                    b -= old.size;
+                }
+                bytes = b;
+                clock.add(entry);
+                long evicted = evict();
+                if (clock.size() > 2 * map.size() + 16) {
+                    purgeClock();
+                }
+                return evicted;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        // called under lock
+        long evict() {
+            long evicted = 0;
+            while (map.size() > maxEntries || bytes > maxBytes) {
+                Entry entry = clock.poll();
+                if (entry == null) {
+                    break;
+                }
+                if (map.get(entry.key) != entry) {
+                    // stale
+                    continue;
+                }
+                if (entry.referenced) {
+                    // second chance
+                    entry.referenced = false;
+                    clock.add(entry);
+                    continue;
+                }
+                map.remove(entry.key);
+                bytes -= entry.size;
+                evicted++;
+            }
+            return evicted;
+        }
+
+        // called under lock
+        void purgeClock() {
+            for (Iterator<Entry> it = clock.iterator(); it.hasNext();) {
+                Entry entry = it.next();
+                if (map.get(entry.key) != entry) {
+                    it.remove();
+                }
+            }
+        }
+
+        void remove(RowId key) {
+            lock.lock();
+            try {
+                stamp++;
+                Entry old = map.remove(key);
+                if (old != null) {
+                    bytes -= old.size;
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        int clear() {
+            lock.lock();
+            try {
+                stamp++;
+                int n = map.size();
+                map.clear();
+                clock.clear();
+                bytes = 0;
+                return n;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+}
@@ -16,9 +16,11 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import javax.transaction.xa.XAException;
 import javax.transaction.xa.Xid;
@@ -62,6 +64,21 @@ public class SoftRefCachingRowMapper implements RowMapper {
     // references to it which would prevent its GCing
     private final Map<RowId, Row> cache;
 
+    /**
+     * The repository-wide second level cache, or {@code null}.
+     */
+    protected SharedRowCache sharedCache;
+
+    /**
+     * The repository-wide path cache to invalidate, or {@code null}.
+     */
+    protected SharedPathCache sharedPathCache;
+
+    /**
+     * The repository-wide ACL cache to invalidate, or {@code null}.
+     */
+    protected SharedACLCache sharedACLCache;
+
     private Model model;
 
     /**
@@ -76,6 +93,12 @@ public class SoftRefCachingRowMapper implements RowMapper {
      */
     private final Invalidations localInvalidations;
 
+    /**
+     * The documents created through this mapper whose invalidations are in
+     * {@link #localInvalidations}. Nothing cached can depend on them.
+     */
+    private final Set<Serializable> localCreatedIds = new HashSet<Serializable>();
+
     /**
      * The queue of cache invalidations received from other session, to process
      * at pre-transaction time.
@@ -156,6 +179,44 @@ public class SoftRefCachingRowMapper implements RowMapper {
         eventPropagator.addQueue(repositoryEventQueue);
     }
 
+    /**
+     * Sets the repository-wide cache used as a second level behind this
+     * mapper's cache.
+     *
+     * @since 5.7
+     */
+    public void setSharedRowCache(SharedRowCache sharedCache) {
+        this.sharedCache = sharedCache;
+    }
+
+    /**
+     * Sets the repository-wide path cache, invalidated by this mapper.
+     *
+     * @since 5.7
+     */
+    public void setSharedPathCache(SharedPathCache sharedPathCache) {
+        this.sharedPathCache = sharedPathCache;
+    }
+
+    /**
+     * Sets the repository-wide ACL cache, invalidated by this mapper.
+     *
+     * @since 5.7
+     */
+    public void setSharedACLCache(SharedACLCache sharedACLCache) {
+        this.sharedACLCache = sharedACLCache;
+    }
+
+    /**
+     * Gets the repository-wide ACL cache invalidated by this mapper.
+     *
+     * @return the shared ACL cache, or {@code null}
+     * @since 5.7
+     */
+    public SharedACLCache getSharedACLCache() {
+        return sharedACLCache;
+    }
+
     public void close() throws StorageException {
         cachePropagator.removeQueue(cacheQueue);
         eventPropagator.removeQueue(eventQueue); // TODO can be overriden
@@ -269,6 +330,75 @@ public class SoftRefCachingRowMapper implements RowMapper {
         cache.remove(rowId);
     }
 
+    /*
+     * ----- Shared Cache -----
+     */
+
+    /**
+     * Checks if the shared cache can be used for a row. This is not the case
+     * if the row was written by this mapper in the current transaction, as
+     * the shared cache must only hold committed data.
+     */
+    protected boolean useSharedCache(RowId rowId) {
+        if (sharedCache == null) {
+            return false;
+        }
+        if (localInvalidations.modified != null
+                && localInvalidations.modified.contains(rowId)) {
+            return false;
+        }
+        if (localInvalidations.deleted != null
+                && localInvalidations.deleted.contains(rowId)) {
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Gets a row from the shared cache, and puts it in the local cache.
+     *
+     * @return a row, an absent row, or {@code null} if not in the shared cache
+     */
+    protected Row sharedCacheGet(RowId rowId) {
+        if (!useSharedCache(rowId)) {
+            return null;
+        }
+        Row row = sharedCache.get(rowId);
+        if (row == null) {
+            return null;
+        }
+        if (isAbsent(row)) {
+            cachePutAbsent(rowId);
+            return row;
+        }
+        // no need to sort ACLs again, the shared cache has them sorted
+        row = row.clone();
+        cache.put(new RowId(row), row);
+        return row.clone();
+    }
+
+    /**
+     * Gets the shared cache stamps to use before a read from the database.
+     */
+    protected long[] sharedCacheStamps() {
+        return sharedCache == null ? null : sharedCache.getStamps();
+    }
+
+    /**
+     * Puts in the shared cache a row just read from the database and put in
+     * the local cache.
+     */
+    protected void sharedCachePut(RowId rowId, long[] stamps) {
+        if (stamps == null || !useSharedCache(rowId)) {
+            return;
+        }
+        Row row = cache.get(rowId);
+        if (row != null) {
+            // local cache rows are never modified, so they can be shared
+            sharedCache.put(rowId, row, stamps);
+        }
+    }
+
     /*
      * ----- Invalidations / Cache Management -----
      */
@@ -277,6 +407,15 @@ public class SoftRefCachingRowMapper implements RowMapper {
     public InvalidationsPair receiveInvalidations() throws StorageException {
         // invalidations from the underlying mapper (remote, cluster)
         InvalidationsPair invals = rowMapper.receiveInvalidations();
+        if (sharedCache != null && invals != null) {
+            sharedCache.invalidate(invals.cacheInvalidations);
+        }
+        if (sharedPathCache != null && invals != null) {
+            sharedPathCache.invalidate(invals.cacheInvalidations);
+        }
+        if (sharedACLCache != null && invals != null) {
+            sharedACLCache.invalidate(invals.cacheInvalidations);
+        }
 
         // add local accumulated invalidations to remote ones
         Invalidations invalidations = cacheQueue.getInvalidations();
@@ -324,14 +463,36 @@ public class SoftRefCachingRowMapper implements RowMapper {
             invalidations.add(localInvalidations);
             localInvalidations.clear();
         }
+        Set<Serializable> createdIds = Collections.emptySet();
+        if (!localCreatedIds.isEmpty()) {
+            createdIds = new HashSet<Serializable>(localCreatedIds);
+            localCreatedIds.clear();
+        }
 
         if (invalidations != null && !invalidations.isEmpty()) {
+            // the shared cache must not serve the previous values anymore
+            if (sharedCache != null) {
+                sharedCache.invalidate(invalidations);
+            }
+            if (sharedPathCache != null) {
+                sharedPathCache.invalidate(invalidations);
+            }
+            if (sharedACLCache != null) {
+                sharedACLCache.invalidate(invalidations, createdIds);
+            }
+
             // send to underlying mapper
             rowMapper.sendInvalidations(invalidations);
 
             // queue to other local mappers' caches
             cachePropagator.propagateInvalidations(invalidations, cacheQueue);
 
+            // again, for sessions that got the ACL cache stamp before
+            // receiving these invalidations
+            if (sharedACLCache != null) {
+                sharedACLCache.invalidate(invalidations, createdIds);
+            }
+
             // queue as events for other repositories
             eventPropagator.propagateInvalidations(invalidations, eventQueue);
 
@@ -365,6 +526,7 @@ public class SoftRefCachingRowMapper implements RowMapper {
     public void clearCache() {
         cache.clear();
         localInvalidations.clear();
+        localCreatedIds.clear();
         rowMapper.clearCache();
     }
 
@@ -375,6 +537,7 @@ public class SoftRefCachingRowMapper implements RowMapper {
         } finally {
             cache.clear();
             localInvalidations.clear();
+            localCreatedIds.clear();
         }
     }
 
@@ -393,6 +556,9 @@ public class SoftRefCachingRowMapper implements RowMapper {
         List<RowId> todo = new LinkedList<RowId>();
         for (RowId rowId : rowIds) {
             Row row = cacheGet(rowId);
+            if (row == null) {
+                row = sharedCacheGet(rowId);
+            }
             if (row == null) {
                 if (cacheOnly) {
                     res.add(new RowId(rowId));
@@ -411,11 +577,13 @@ public class SoftRefCachingRowMapper implements RowMapper {
                 Stopwatch stopWatch = SimonManager.getStopwatch(SW_SOR);
                 split = stopWatch.start();
             }
+            long[] stamps = sharedCacheStamps();
             // ask missing ones to underlying row mapper
             List<? extends RowId> fetched = rowMapper.read(todo, cacheOnly);
             // add them to the cache
             for (RowId rowId : fetched) {
                 cachePutAbsentIfRowId(rowId);
+                sharedCachePut(rowId, stamps);
             }
             // merge results
             res.addAll(fetched);
@@ -440,6 +608,9 @@ public class SoftRefCachingRowMapper implements RowMapper {
                 // to be invalidated
                 localInvalidations.addModified(new RowId(row));
             }
+            if (Model.HIER_TABLE_NAME.equals(row.tableName)) {
+                localCreatedIds.add(row.id);
+            }
         }
         for (RowUpdate rowu : batch.updates) {
             cachePut(rowu.row);
@@ -478,8 +649,13 @@ public class SoftRefCachingRowMapper implements RowMapper {
     public Row readSimpleRow(RowId rowId) throws StorageException {
         Row row = cacheGet(rowId);
         if (row == null) {
+            row = sharedCacheGet(rowId);
+        }
+        if (row == null) {
+            long[] stamps = sharedCacheStamps();
             row = rowMapper.readSimpleRow(rowId);
             cachePutAbsentIfNull(rowId, row);
+            sharedCachePut(rowId, stamps);
             return row;
         } else if (isAbsent(row)) {
             return null;
@@ -493,10 +669,15 @@ public class SoftRefCachingRowMapper implements RowMapper {
             throws StorageException {
         Row row = cacheGet(rowId);
         if (row == null) {
+            row = sharedCacheGet(rowId);
+        }
+        if (row == null) {
+            long[] stamps = sharedCacheStamps();
             Serializable[] array = rowMapper.readCollectionRowArray(rowId);
             assert array != null;
             row = new Row(rowId.tableName, rowId.id, array);
             cachePut(row);
+            sharedCachePut(rowId, stamps);
             return row.values;
         } else if (isAbsent(row)) {
             return null;
@@ -509,10 +690,12 @@ public class SoftRefCachingRowMapper implements RowMapper {
     public List<Row> readSelectionRows(SelectionType selType,
             Serializable selId, Serializable filter, Serializable criterion,
             boolean limitToOne) throws StorageException {
+        long[] stamps = sharedCacheStamps();
         List<Row> rows = rowMapper.readSelectionRows(selType, selId, filter,
                 criterion, limitToOne);
         for (Row row : rows) {
             cachePut(row);
+            sharedCachePut(row, stamps);
         }
         return rows;
     }
@@ -0,0 +1,479 @@
+/*
+ * Copyright (c) 2006-2012 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Florent Guillaume
+ */
+package org.nuxeo.ecm.core.storage.sql;
+
+import java.io.Serializable;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.javasimon.SimonManager;
+import org.nuxeo.ecm.core.api.Lock;
+import org.nuxeo.ecm.core.storage.StorageException;
+import org.nuxeo.ecm.core.storage.sql.Invalidations.InvalidationsPair;
+import org.nuxeo.ecm.core.storage.sql.RowMapper.RowBatch;
+
+/**
+ * Lock manager keeping the locks in an in-memory table, which is
+ * authoritative for this node, and persisting the changes to the database in
+ * batches.
+ * <p>
+ * The table is split into segments according to the document id, each one
+ * locked separately, so that lock checks on different documents don't contend
+ * and a lock known to the table costs no database access. Only lock changes
+ * and reads of documents unknown to the table go through the mapper.
+ * <p>
+ * Changes are kept as pending until a background thread writes them, every
+ * {@link RepositoryDescriptor#lockManagerFlushDelay} milliseconds, in a single
+ * transaction. Pending changes are never evicted from the table, and a failed
+ * write is retried at the next flush.
+ * <p>
+ * In cluster mode, once written, the changed locks are sent as invalidations
+ * of the lock table rows, and the invalidations received from other nodes
+ * remove the corresponding entries from the table so that they are read again
+ * from the database. Two nodes may therefore both grant a lock on the same
+ * document within the clustering delay, in which case the last write wins.
+ *
+ * @since 5.7
+ */
+public class WriteBehindLockManager extends LockManager {
+
+    private static final Log log = LogFactory.getLog(WriteBehindLockManager.class);
+
+    // JavaSimon Counter Names
+    private static final String CN_HITS = "org.nuxeo.ecm.core.storage.sql.lock.hits";
+
+    private static final String CN_MISSES = "org.nuxeo.ecm.core.storage.sql.lock.misses";
+
+    private static final String CN_FLUSHED = "org.nuxeo.ecm.core.storage.sql.lock.flushed";
+
+    /** Statistics are published to JavaSimon every that many accesses. */
+    private static final int STATS_PERIOD = 1024;
+
+    /** Number of segments of the lock table. */
+    public static final int SEGMENTS = 16;
+
+    /** Maximum number of locks (or absence of lock) kept in the table. */
+    public static final int TABLE_SIZE = 10000;
+
+    protected final Segment[] segments;
+
+    /**
+     * The mapper used to exchange invalidations with the cluster, or
+     * {@code null} if clustering is not enabled.
+     */
+    protected final Mapper invalidationsMapper;
+
+    protected final ScheduledExecutorService flusher;
+
+    /** Serializes flushes from the flusher thread and from callers. */
+    protected final Object flushLock = new Object();
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private final AtomicLong flushed = new AtomicLong();
+
+    /**
+     * A segment of the lock table, holding the known locks (or
+     * {@link LockManager#NULL_LOCK}) and the ones not written yet.
+     * <p>
+     * Used under its own monitor.
+     */
+    protected static class Segment {
+
+        protected final LRUCache<Serializable, Lock> locks;
+
+        /** Changes not written yet, in order. */
+        protected final Map<Serializable, Lock> pending = new LinkedHashMap<Serializable, Lock>();
+
+        public Segment(int max) {
+            locks = new LRUCache<Serializable, Lock>(max);
+        }
+
+        public Lock get(Serializable id) {
+            Lock lock = pending.get(id);
+            if (lock == null) {
+                lock = locks.get(id);
+            }
+            return lock;
+        }
+
+        public void change(Serializable id, Lock lock) {
+            locks.put(id, lock);
+            pending.put(id, lock);
+        }
+
+        /** Forgets a lock unless it has pending changes. */
+        public void invalidate(Serializable id) {
+            if (!pending.containsKey(id)) {
+                locks.remove(id);
+            }
+        }
+
+        /** Forgets all locks without pending changes. */
+        public void clear() {
+            locks.clear();
+            locks.putAll(pending);
+        }
+    }
+
+    /**
+     * Creates a write-behind lock manager.
+     * <p>
+     * The mappers will from then on be only used and closed by the lock
+     * manager.
+     *
+     * @param mapper the mapper used to read and write the locks
+     * @param invalidationsMapper the mapper used to exchange invalidations
+     *            with the cluster, or {@code null} if clustering is not enabled
+     * @param repositoryDescriptor the repository descriptor
+     */
+    public WriteBehindLockManager(Mapper mapper, Mapper invalidationsMapper,
+            RepositoryDescriptor repositoryDescriptor) throws StorageException {
+        super(mapper, invalidationsMapper != null);
+        this.invalidationsMapper = invalidationsMapper;
+        segments = new Segment[SEGMENTS];
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(TABLE_SIZE / SEGMENTS);
+        }
+        long delay = repositoryDescriptor.lockManagerFlushDelay;
+        flusher = Executors.newSingleThreadScheduledExecutor(new FlusherThreadFactory(
+                repositoryDescriptor.name));
+        flusher.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    receiveInvalidations();
+                    flush();
+                } catch (Exception e) {
+                    log.error("Failed to flush locks: " + e, e);
+                }
+            }
+        }, delay, delay, TimeUnit.MILLISECONDS);
+    }
+
+    protected Segment segmentFor(Serializable id) {
+        int h = id.hashCode();
+        h ^= (h >>> 20) ^ (h >>> 12);
+        h ^= (h >>> 7) ^ (h >>> 4);
+        return segments[h & (SEGMENTS - 1)];
+    }
+
+    /**
+     * Gets a lock from the segment, reading it from the database if unknown.
+     * <p>
+     * Called under the segment monitor.
+     */
+    protected Lock getLockInternal(Segment segment, Serializable id)
+            throws StorageException {
+        Lock lock = segment.get(id);
+        if (lock != null) {
+            count(hits);
+            return lock;
+        }
+        count(misses);
+        serializationLock.lock();
+        try {
+            lock = mapper.getLock(id);
+        } finally {
+            serializationLock.unlock();
+        }
+        if (lock == null) {
+            lock = NULL_LOCK;
+        }
+        segment.locks.put(id, lock);
+        return lock;
+    }
+
+    @Override
+    public Lock getLock(Serializable id) throws StorageException {
+        Segment segment = segmentFor(id);
+        synchronized (segment) {
+            Lock lock = getLockInternal(segment, id);
+            return lock == NULL_LOCK ? null : lock;
+        }
+    }
+
+    @Override
+    public Lock setLock(Serializable id, Lock lock) throws StorageException {
+        Segment segment = segmentFor(id);
+        synchronized (segment) {
+            Lock oldLock = getLockInternal(segment, id);
+            if (oldLock != NULL_LOCK) {
+                return oldLock;
+            }
+            segment.change(id, lock);
+            return null;
+        }
+    }
+
+    @Override
+    public Lock removeLock(Serializable id, String owner)
+            throws StorageException {
+        Segment segment = segmentFor(id);
+        synchronized (segment) {
+            Lock oldLock = getLockInternal(segment, id);
+            if (oldLock == NULL_LOCK) {
+                return null;
+            }
+            if (!canLockBeRemoved(oldLock, owner)) {
+                // existing mismatched lock, flag failure
+                return new Lock(oldLock, true);
+            }
+            segment.change(id, NULL_LOCK);
+            return oldLock;
+        }
+    }
+
+    /**
+     * Writes the pending lock changes to the database, and sends them to the
+     * cluster.
+     * <p>
+     * The changes that could not be written stay pending.
+     */
+    public void flush() throws StorageException {
+        synchronized (flushLock) {
+            Map<Serializable, Lock> changes = new LinkedHashMap<Serializable, Lock>();
+            for (Segment segment : segments) {
+                synchronized (segment) {
+                    changes.putAll(segment.pending);
+                }
+            }
+            if (changes.isEmpty()) {
+                return;
+            }
+            // the changes actually written
+            Map<Serializable, Lock> written;
+            serializationLock.lock();
+            try {
+                try {
+                    write(changes);
+                    written = changes;
+                } catch (StorageException e) {
+                    log.debug("Failed to write locks in batch, "
+                            + "writing them one by one: " + e);
+                    written = new LinkedHashMap<Serializable, Lock>();
+                    for (Entry<Serializable, Lock> en : changes.entrySet()) {
+                        try {
+                            write(Collections.singletonMap(en.getKey(),
+                                    en.getValue()));
+                            written.put(en.getKey(), en.getValue());
+                        } catch (StorageException ee) {
+                            // kept pending, retried at next flush
+                            log.error("Failed to write lock for "
+                                    + en.getKey() + ": " + ee);
+                        }
+                    }
+                }
+            } finally {
+                serializationLock.unlock();
+            }
+            if (written.isEmpty()) {
+                return;
+            }
+            // changes made since the snapshot stay pending
+            for (Entry<Serializable, Lock> en : written.entrySet()) {
+                Serializable id = en.getKey();
+                Segment segment = segmentFor(id);
+                synchronized (segment) {
+                    if (segment.pending.get(id) == en.getValue()) {
+                        segment.pending.remove(id);
+                    }
+                }
+            }
+            flushed.addAndGet(written.size());
+            SimonManager.getCounter(CN_FLUSHED).set(flushed.get());
+            if (invalidationsMapper != null) {
+                Invalidations invalidations = new Invalidations();
+                for (Serializable id : written.keySet()) {
+                    invalidations.addModified(new RowId(
+                            Model.LOCK_TABLE_NAME, id));
+                }
+                invalidationsMapper.sendInvalidations(invalidations);
+            }
+        }
+    }
+
+    /**
+     * Writes lock changes in a single transaction.
+     * <p>
+     * Called under {@link #serializationLock}.
+     */
+    protected void write(Map<Serializable, Lock> changes)
+            throws StorageException {
+        // deletes are done after creates in a batch, so use two batches
+        RowBatch deletes = new RowBatch();
+        RowBatch creates = new RowBatch();
+        for (Entry<Serializable, Lock> en : changes.entrySet()) {
+            Serializable id = en.getKey();
+            Lock lock = en.getValue();
+            deletes.deletes.add(new RowId(Model.LOCK_TABLE_NAME, id));
+            if (lock != NULL_LOCK) {
+                Row row = new Row(Model.LOCK_TABLE_NAME, id);
+                row.put(Model.LOCK_OWNER_KEY, lock.getOwner());
+                row.put(Model.LOCK_CREATED_KEY, lock.getCreated());
+                creates.creates.add(row);
+            }
+        }
+        boolean ok = false;
+        try {
+            try {
+                connection.setAutoCommit(false);
+            } catch (SQLException e) {
+                throw new StorageException(e);
+            }
+            mapper.write(deletes);
+            if (!creates.isEmpty()) {
+                mapper.write(creates);
+            }
+            ok = true;
+        } finally {
+            try {
+                try {
+                    if (ok) {
+                        connection.commit();
+                    } else {
+                        connection.rollback();
+                    }
+                } catch (SQLException e) {
+                    throw new StorageException(e);
+                }
+            } finally {
+                try {
+                    connection.setAutoCommit(true);
+                } catch (SQLException e) {
+                    throw new StorageException(e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Forgets the locks changed by other cluster nodes.
+     */
+    protected void receiveInvalidations() throws StorageException {
+        if (invalidationsMapper == null) {
+            return;
+        }
+        InvalidationsPair invals = invalidationsMapper.receiveInvalidations();
+        if (invals == null || invals.cacheInvalidations == null) {
+            return;
+        }
+        Invalidations invalidations = invals.cacheInvalidations;
+        if (invalidations.all) {
+            clearCaches();
+            return;
+        }
+        invalidate(invalidations.modified, false);
+        invalidate(invalidations.deleted, true);
+    }
+
+    protected void invalidate(Iterable<RowId> rowIds, boolean deleted) {
+        if (rowIds == null) {
+            return;
+        }
+        for (RowId rowId : rowIds) {
+            // a deleted document also removes its lock
+            if (Model.LOCK_TABLE_NAME.equals(rowId.tableName)
+                    || (deleted && Model.HIER_TABLE_NAME.equals(rowId.tableName))) {
+                Segment segment = segmentFor(rowId.id);
+                synchronized (segment) {
+                    segment.invalidate(rowId.id);
+                }
+            }
+        }
+    }
+
+    protected void count(AtomicLong counter) {
+        if (counter.incrementAndGet() % STATS_PERIOD == 0) {
+            SimonManager.getCounter(CN_HITS).set(hits.get());
+            SimonManager.getCounter(CN_MISSES).set(misses.get());
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Gets the number of lock changes not yet written to the database.
+     */
+    public int getPendingCount() {
+        int n = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                n += segment.pending.size();
+            }
+        }
+        return n;
+    }
+
+    @Override
+    public void clearCaches() {
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    @Override
+    public void shutdown() throws StorageException {
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            flush();
+        } finally {
+            if (invalidationsMapper != null) {
+                invalidationsMapper.close();
+            }
+            super.shutdown();
+        }
+    }
+
+    protected static class FlusherThreadFactory implements ThreadFactory {
+
+        private final String repositoryName;
+
+        public FlusherThreadFactory(String repositoryName) {
+            this.repositoryName = repositoryName;
+        }
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "Nuxeo-LockManager-Flush-"
+                    + repositoryName);
+            t.setDaemon(true);
+            return t;
+        }
+    }
+
+}
@@ -18,6 +18,7 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -40,6 +41,9 @@ public class SQLQueryResult implements QueryResult {
 
     private static final Log log = LogFactory.getLog(SQLQueryResult.class);
 
+    /** Number of documents fetched at once when iterating on the documents. */
+    public static final int DOCUMENTS_BATCH_SIZE = 100;
+
     protected final SQLSession session;
 
     protected final Iterator<Serializable> it;
@@ -151,8 +155,16 @@ public class SQLQueryResult implements QueryResult {
         }
     }
 
+    /**
+     * Iterates on the documents, fetched in bulk in batches of
+     * {@link #DOCUMENTS_BATCH_SIZE}, so that callers can stop early without
+     * having loaded all of them.
+     */
     @Override
     public DocumentIterator getDocuments(int start) {
+        if (orderByPath != null) {
+            return getDocumentsOrderedByPath(start);
+        }
         // initial skip
         for (int i = 0; i < start; i++) {
             if (it.hasNext()) {
@@ -163,20 +175,34 @@ public class SQLQueryResult implements QueryResult {
         }
 
         return new DocumentIterator() {
+
+            private List<Document> batch = Collections.emptyList();
+
+            private int pos;
+
             @Override
             public Document next() {
-                currentId = it.next();
-                try {
-                    return session.getDocumentById(currentId);
-                } catch (DocumentException e) {
-                    log.error(e.getMessage());
-                    return next();
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
                 }
+                return batch.get(pos++);
             }
 
             @Override
             public boolean hasNext() {
-                return it.hasNext();
+                while (pos >= batch.size()) {
+                    if (!it.hasNext()) {
+                        return false;
+                    }
+                    List<Serializable> ids = new ArrayList<Serializable>(
+                            DOCUMENTS_BATCH_SIZE);
+                    while (it.hasNext() && ids.size() < DOCUMENTS_BATCH_SIZE) {
+                        ids.add(it.next());
+                    }
+                    batch = getDocumentsById(ids);
+                    pos = 0;
+                }
+                return true;
             }
 
             @Override
@@ -190,6 +216,91 @@ public class SQLQueryResult implements QueryResult {
         };
     }
 
+    /**
+     * Gets the documents ordered by path, which needs all of them, then
+     * applies limit and offset.
+     */
+    protected DocumentIterator getDocumentsOrderedByPath(int start) {
+        List<Serializable> ids = new ArrayList<Serializable>((int) size);
+        while (it.hasNext()) {
+            ids.add(it.next());
+        }
+        List<Document> docs = new ArrayList<Document>(getDocumentsById(ids));
+        final int sign = orderByPath.booleanValue() ? 1 : -1;
+        Collections.sort(docs, new Comparator<Document>() {
+            @Override
+            public int compare(Document doc1, Document doc2) {
+                String p1 = getPath(doc1);
+                String p2 = getPath(doc2);
+                if (p1 == null && p2 == null) {
+                    return sign * doc1.getUUID().compareTo(doc2.getUUID());
+                } else if (p1 == null) {
+                    return sign;
+                } else if (p2 == null) {
+                    return -1 * sign;
+                }
+                return sign * p1.compareTo(p2);
+            }
+        });
+        int from = limit == 0 ? 0 : Math.min(offset, docs.size());
+        int to = limit == 0 ? docs.size() : Math.min(from + limit, docs.size());
+        from = Math.min(from + start, to);
+        final Iterator<Document> dit = docs.subList(from, to).iterator();
+        final long dsize = to - from;
+        return new DocumentIterator() {
+            @Override
+            public Document next() {
+                return dit.next();
+            }
+
+            @Override
+            public boolean hasNext() {
+                return dit.hasNext();
+            }
+
+            @Override
+            public long getSize() {
+                return dsize;
+            }
+
+            @Override
+            public void remove() {
+            }
+        };
+    }
+
+    /**
+     * Gets documents in bulk. If one of them can't be loaded, falls back to
+     * getting them one by one, so that only the bad ones are skipped.
+     */
+    protected List<Document> getDocumentsById(List<Serializable> ids) {
+        try {
+            return session.getDocumentsById(ids);
+        } catch (DocumentException e) {
+            log.debug("Could not fetch documents in bulk for ids: " + ids, e);
+        }
+        List<Document> docs = new ArrayList<Document>(ids.size());
+        for (Serializable id : ids) {
+            try {
+                Document doc = session.getDocumentById(id);
+                if (doc != null) {
+                    docs.add(doc);
+                }
+            } catch (DocumentException e) {
+                log.error(e.getMessage());
+            }
+        }
+        return docs;
+    }
+
+    protected static String getPath(Document doc) {
+        try {
+            return doc.getPath();
+        } catch (DocumentException e) {
+            return null;
+        }
+    }
+
     @Override
     public boolean next() {
         if (!it.hasNext()) {
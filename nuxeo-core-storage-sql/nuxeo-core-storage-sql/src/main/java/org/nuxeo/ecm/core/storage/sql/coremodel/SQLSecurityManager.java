@@ -12,6 +12,7 @@
 
 package org.nuxeo.ecm.core.storage.sql.coremodel;
 
+import java.io.Serializable;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
@@ -31,14 +32,16 @@ import org.nuxeo.ecm.core.api.security.impl.ACLImpl;
 import org.nuxeo.ecm.core.api.security.impl.ACPImpl;
 import org.nuxeo.ecm.core.model.Document;
 import org.nuxeo.ecm.core.model.Property;
+import org.nuxeo.ecm.core.model.Session;
+import org.nuxeo.ecm.core.security.CachingSecurityManager;
 import org.nuxeo.ecm.core.security.SecurityException;
-import org.nuxeo.ecm.core.security.SecurityManager;
 import org.nuxeo.ecm.core.storage.sql.ACLRow;
+import org.nuxeo.ecm.core.storage.sql.SharedACLCache;
 
 /**
  * @author Florent Guillaume
  */
-public class SQLSecurityManager implements SecurityManager {
+public class SQLSecurityManager implements CachingSecurityManager {
 
     /*
      * ----- org.nuxeo.ecm.core.security.SecurityManager -----
@@ -82,14 +85,15 @@ public class SQLSecurityManager implements SecurityManager {
                 return null;
             }
             ACP acp = getACP(base);
-            if (doc.getParent() == null) {
+            Document parent = doc.getParent();
+            if (parent == null) {
                 return acp;
             }
             // get inherited acls only if no blocking inheritance ACE exists in the top level acp.
             ACL acl = null;
             if (acp == null || acp.getAccess(SecurityConstants.EVERYONE,
                     SecurityConstants.EVERYTHING) != Access.DENY) {
-                acl = getInheritedACLs(doc);
+                acl = getInheritedACL(doc, parent);
             }
             if (acp == null) {
                 if (acl == null) {
@@ -120,6 +124,38 @@ public class SQLSecurityManager implements SecurityManager {
                 permission);
     }
 
+    /*
+     * ----- org.nuxeo.ecm.core.security.CachingSecurityManager -----
+     */
+
+    @Override
+    public Access getAccess(Document doc, ACP acp, String[] principals,
+            String[] permissions) throws SecurityException {
+        try {
+            SQLSession session = getSQLSession(doc);
+            SharedACLCache cache = session == null ? null
+                    : session.getSharedACLCache();
+            ACL[] acls = acp.getACLs();
+            Document parent;
+            if (cache == null || acls.length != 1
+                    || !ACL.INHERITED_ACL.equals(acls[0].getName())
+                    || (parent = doc.getParent()) == null) {
+                return acp.getAccess(principals, permissions);
+            }
+            // no ACL of its own, same decision for all the parent's children
+            Serializable parentId = ((SQLDocument) parent).getNode().getId();
+            Access access = cache.getAccess(parentId, principals, permissions);
+            if (access == null) {
+                access = acp.getAccess(principals, permissions);
+                cache.putAccess(parentId, principals, permissions, access,
+                        session.getSharedACLCacheStamp());
+            }
+            return access;
+        } catch (DocumentException e) {
+            throw new SecurityException("Failed to get access", e);
+        }
+    }
+
     /*
      * ----- internal methods -----
      */
@@ -247,6 +283,60 @@ public class SQLSecurityManager implements SecurityManager {
                 ace.getPermission(), user, group));
     }
 
+    protected static SQLSession getSQLSession(Document doc) {
+        Session session = doc.getSession();
+        return session instanceof SQLSession ? (SQLSession) session : null;
+    }
+
+    /**
+     * Gets the ACL inherited by a document from its parent, using the
+     * repository-wide cache if available.
+     *
+     * @return the ACL, which may be modified, or {@code null}
+     */
+    protected ACL getInheritedACL(Document doc, Document parent)
+            throws DocumentException {
+        SQLSession session = getSQLSession(doc);
+        SharedACLCache cache = session == null ? null
+                : session.getSharedACLCache();
+        if (cache == null || !(parent instanceof SQLDocument)) {
+            return getInheritedACLs(doc);
+        }
+        ACL acl = getCachedInheritedACL(parent, cache,
+                session.getSharedACLCacheStamp());
+        return acl == null ? null : (ACL) acl.clone();
+    }
+
+    /**
+     * Gets the ACL inherited by the children of a document, from the
+     * repository-wide cache or computed and put in it.
+     *
+     * @return the ACL, which must not be modified, or {@code null}
+     */
+    protected ACL getCachedInheritedACL(Document doc, SharedACLCache cache,
+            long stamp) throws DocumentException {
+        Serializable id = ((SQLDocument) doc).getNode().getId();
+        ACL acl = cache.getInheritedACL(id);
+        if (acl != null) {
+            return acl == SharedACLCache.NO_ACL ? null : acl;
+        }
+        ACP acp = getACP(doc);
+        acl = acp == null ? null : acp.getMergedACLs(ACL.INHERITED_ACL);
+        Document parent = doc.getParent();
+        if (parent instanceof SQLDocument
+                && (acp == null || acp.getAccess(SecurityConstants.EVERYONE,
+                        SecurityConstants.EVERYTHING) != Access.DENY)) {
+            ACL parentACL = getCachedInheritedACL(parent, cache, stamp);
+            if (acl == null) {
+                acl = parentACL;
+            } else if (parentACL != null) {
+                acl.addAll(parentACL);
+            }
+        }
+        cache.putInheritedACL(id, acl, stamp);
+        return acl;
+    }
+
     protected ACL getInheritedACLs(Document doc) throws DocumentException {
         doc = doc.getParent();
         ACL merged = null;
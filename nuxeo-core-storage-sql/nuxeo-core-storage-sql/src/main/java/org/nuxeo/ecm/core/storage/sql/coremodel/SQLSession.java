@@ -69,6 +69,7 @@ import org.nuxeo.ecm.core.storage.sql.Binary;
 import org.nuxeo.ecm.core.storage.sql.CollectionProperty;
 import org.nuxeo.ecm.core.storage.sql.Model;
 import org.nuxeo.ecm.core.storage.sql.Node;
+import org.nuxeo.ecm.core.storage.sql.SharedACLCache;
 import org.nuxeo.ecm.core.storage.sql.SimpleProperty;
 import org.nuxeo.runtime.services.streaming.FileSource;
 import org.nuxeo.runtime.services.streaming.StreamSource;
@@ -680,7 +681,8 @@ public class SQLSession implements Session {
             throws DocumentException {
         List<Document> docs = new ArrayList<Document>(ids.size());
         try {
-            List<Node> nodes = session.getNodesByIds(ids);
+            List<Node> nodes = session.getNodesByIds(ids,
+                    session.getModel().getQueryPrefetchProfile());
             for (Node node : nodes) {
                 if (node == null) {
                     continue;
@@ -900,6 +902,33 @@ public class SQLSession implements Session {
         }
     }
 
+    /**
+     * Gets the repository-wide ACL cache usable by this session.
+     *
+     * @return the cache, or {@code null} if not available
+     * @since 5.7
+     */
+    protected SharedACLCache getSharedACLCache() throws DocumentException {
+        try {
+            return session.getSharedACLCache();
+        } catch (StorageException e) {
+            throw new DocumentException(e);
+        }
+    }
+
+    /**
+     * Gets the stamp of the repository-wide ACL cache for this session.
+     *
+     * @since 5.7
+     */
+    protected long getSharedACLCacheStamp() throws DocumentException {
+        try {
+            return session.getSharedACLCacheStamp();
+        } catch (StorageException e) {
+            throw new DocumentException(e);
+        }
+    }
+
     protected Lock getLock(Node node) throws DocumentException {
         try {
             return session.getLock(node.getId());
@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) 2006-2011 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Florent Guillaume
+ */
+
+package org.nuxeo.ecm.core.storage.sql.jdbc;
+
+import org.nuxeo.ecm.core.storage.StorageException;
+import org.nuxeo.ecm.core.storage.sql.Invalidations;
+import org.nuxeo.ecm.core.storage.sql.RepositoryDescriptor;
+
+/**
+ * Transport used by a {@link ClusterNodeHandler} to push invalidations to the
+ * other cluster nodes as soon as they are sent, instead of having them poll
+ * the cluster invalidations table.
+ * <p>
+ * When a cluster invalidator is configured, the database table is only used
+ * as a fallback if the transport fails to send.
+ *
+ * @since 5.7
+ */
+public interface ClusterInvalidator {
+
+    /**
+     * Initializes the cluster invalidator.
+     *
+     * @param nodeId the cluster node id
+     * @param repositoryDescriptor the repository descriptor
+     */
+    void initialize(String nodeId, RepositoryDescriptor repositoryDescriptor)
+            throws StorageException;
+
+    /**
+     * Closes this cluster invalidator and releases resources.
+     */
+    void close();
+
+    /**
+     * Receives the invalidations pushed by other cluster nodes since the last
+     * call.
+     *
+     * @return the invalidations, or {@code null} if there are none
+     */
+    Invalidations receiveInvalidations() throws StorageException;
+
+    /**
+     * Sends invalidations to the other cluster nodes.
+     *
+     * @param invalidations the invalidations
+     */
+    void sendInvalidations(Invalidations invalidations)
+            throws StorageException;
+
+}
@@ -14,6 +14,8 @@ package org.nuxeo.ecm.core.storage.sql.jdbc;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.javasimon.SimonManager;
+import org.javasimon.Split;
 import org.nuxeo.ecm.core.storage.ConnectionResetException;
 import org.nuxeo.ecm.core.storage.StorageException;
 import org.nuxeo.ecm.core.storage.sql.Invalidations;
@@ -26,11 +28,21 @@ import org.nuxeo.ecm.core.storage.sql.RepositoryDescriptor;
  * Encapsulates cluster node operations.
  * <p>
  * There is one cluster node handler per cluster node (repository).
+ * <p>
+ * Invalidations are exchanged through the cluster invalidations table, unless
+ * a {@link ClusterInvalidator} is configured in which case they are pushed
+ * through it and the table is only used as a fallback.
  */
 public class ClusterNodeHandler {
 
     private static final Log log = LogFactory.getLog(ClusterNodeHandler.class);
 
+    /** Stop watch for sending invalidations. */
+    public static final String SW_SEND = "org.nuxeo.ecm.core.storage.sql.cluster.invalidations.send";
+
+    /** Stop watch for receiving invalidations. */
+    public static final String SW_RECEIVE = "org.nuxeo.ecm.core.storage.sql.cluster.invalidations.receive";
+
     /** Cluster node mapper. Used synchronized. */
     private final Mapper clusterNodeMapper;
 
@@ -45,6 +57,9 @@ public class ClusterNodeHandler {
     /** Cluster node id, needed at the Java level for some databases. */
     private String nodeId;
 
+    /** Push transport for invalidations, or {@code null} to only use the DB. */
+    private final ClusterInvalidator clusterInvalidator;
+
     public ClusterNodeHandler(Mapper clusterNodeMapper,
             RepositoryDescriptor repositoryDescriptor) throws StorageException {
         this.clusterNodeMapper = clusterNodeMapper;
@@ -52,6 +67,25 @@ public class ClusterNodeHandler {
         clusteringDelay = repositoryDescriptor.clusteringDelay;
         processClusterInvalidationsNext();
         propagator = new InvalidationsPropagator("cluster-" + this);
+        clusterInvalidator = createClusterInvalidator(repositoryDescriptor);
+    }
+
+    protected ClusterInvalidator createClusterInvalidator(
+            RepositoryDescriptor repositoryDescriptor) throws StorageException {
+        Class<? extends ClusterInvalidator> klass = repositoryDescriptor.clusteringInvalidatorClass;
+        if (klass == null) {
+            return null;
+        }
+        ClusterInvalidator invalidator;
+        try {
+            invalidator = klass.newInstance();
+        } catch (Exception e) {
+            throw new StorageException("Cannot instantiate class: "
+                    + klass.getName(), e);
+        }
+        invalidator.initialize(nodeId, repositoryDescriptor);
+        log.info("Cluster invalidations pushed using: " + klass.getName());
+        return invalidator;
     }
 
     public JDBCConnection getConnection() {
@@ -59,6 +93,9 @@ public class ClusterNodeHandler {
     }
 
     public void close() throws StorageException {
+        if (clusterInvalidator != null) {
+            clusterInvalidator.close();
+        }
         synchronized (clusterNodeMapper) {
             try {
                 clusterNodeMapper.removeClusterNode();
@@ -110,9 +147,32 @@ public class ClusterNodeHandler {
 
     /**
      * Receives cluster invalidations from other cluster nodes.
+     * <p>
+     * Invalidations pushed through the cluster invalidator are returned
+     * immediately, the database table is polled at most every clustering
+     * delay.
      */
     public Invalidations receiveClusterInvalidations()
             throws StorageException {
+        Split split = SimonManager.getStopwatch(SW_RECEIVE).start();
+        try {
+            Invalidations invalidations = null;
+            if (clusterInvalidator != null) {
+                invalidations = clusterInvalidator.receiveInvalidations();
+            }
+            Invalidations dbInvalidations = receiveDatabaseInvalidations();
+            if (invalidations == null) {
+                return dbInvalidations;
+            }
+            invalidations.add(dbInvalidations);
+            return invalidations;
+        } finally {
+            split.stop();
+        }
+    }
+
+    protected Invalidations receiveDatabaseInvalidations()
+            throws StorageException {
         synchronized (clusterNodeMapper) {
             if (clusterNodeLastInvalidationTimeMillis + clusteringDelay > System.currentTimeMillis()) {
                 // delay hasn't expired
@@ -138,8 +198,23 @@ public class ClusterNodeHandler {
         if (invalidations == null || invalidations.isEmpty()) {
             return;
         }
-        synchronized (clusterNodeMapper) {
-            clusterNodeMapper.insertClusterInvalidations(invalidations, nodeId);
+        Split split = SimonManager.getStopwatch(SW_SEND).start();
+        try {
+            if (clusterInvalidator != null) {
+                try {
+                    clusterInvalidator.sendInvalidations(invalidations);
+                    return;
+                } catch (StorageException e) {
+                    log.warn("Cannot push cluster invalidations, "
+                            + "falling back to database: " + e, e);
+                }
+            }
+            synchronized (clusterNodeMapper) {
+                clusterNodeMapper.insertClusterInvalidations(invalidations,
+                        nodeId);
+            }
+        } finally {
+            split.stop();
         }
     }
 
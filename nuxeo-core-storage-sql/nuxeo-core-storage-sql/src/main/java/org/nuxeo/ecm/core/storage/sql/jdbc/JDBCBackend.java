@@ -51,6 +51,8 @@ public class JDBCBackend implements RepositoryBackend {
 
     private SQLInfo sqlInfo;
 
+    private NXQLQueryCache queryCache;
+
     private ClusterNodeHandler clusterNodeHandler;
 
     private JDBCConnectionPropagator connectionPropagator;
@@ -163,6 +165,19 @@ public class JDBCBackend implements RepositoryBackend {
     @Override
     public void initializeModel(Model model) throws StorageException {
         sqlInfo = new SQLInfo(model, dialect);
+        // queries built for a previous model are discarded
+        int queryCacheMaxEntries = repository.getRepositoryDescriptor().queryCacheMaxEntries;
+        queryCache = queryCacheMaxEntries > 0 ? new NXQLQueryCache(
+                queryCacheMaxEntries) : null;
+    }
+
+    /**
+     * Gets the cache of built NXQL queries, or {@code null} if disabled.
+     *
+     * @since 5.7
+     */
+    public NXQLQueryCache getQueryCache() {
+        return queryCache;
     }
 
     @Override
@@ -170,15 +185,17 @@ public class JDBCBackend implements RepositoryBackend {
             MapperKind kind) throws StorageException {
         boolean create = kind == MapperKind.LOCK_MANAGER;
         boolean noSharing = kind == MapperKind.LOCK_MANAGER
+                || kind == MapperKind.LOCK_MANAGER_INVALIDATIONS
                 || kind == MapperKind.CLUSTER_NODE_HANDLER;
         RepositoryDescriptor repositoryDescriptor = repository.getRepositoryDescriptor();
 
         // The first mapper is used for the lock manager and must not accumulate
         // invalidations from the cluster. Fortunately if first then there is
         // no cluster node handler yet.
-        Mapper mapper = new JDBCMapper(model, pathResolver, sqlInfo,
+        JDBCMapper mapper = new JDBCMapper(model, pathResolver, sqlInfo,
                 xadatasource, clusterNodeHandler, connectionPropagator,
                 noSharing);
+        mapper.setQueryCache(queryCache);
         if (create) {
             if (repositoryDescriptor.noDDL) {
                 log.info("Skipping database creation");
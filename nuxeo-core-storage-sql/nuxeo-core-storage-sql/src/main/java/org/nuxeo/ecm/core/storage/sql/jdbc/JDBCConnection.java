@@ -12,8 +12,14 @@
 package org.nuxeo.ecm.core.storage.sql.jdbc;
 
 import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.concurrent.atomic.AtomicLong;
 
 import javax.sql.XAConnection;
@@ -21,6 +27,8 @@ import javax.sql.XADataSource;
 import javax.transaction.xa.XAException;
 import javax.transaction.xa.XAResource;
 
+import org.javasimon.Counter;
+import org.javasimon.SimonManager;
 import org.nuxeo.ecm.core.storage.ConnectionResetException;
 import org.nuxeo.ecm.core.storage.StorageException;
 import org.nuxeo.ecm.core.storage.sql.Mapper.Identification;
@@ -38,6 +46,18 @@ public class JDBCConnection {
      */
     public static final int MAX_CONNECTION_TRIES = 3;
 
+    /**
+     * Maximum number of prepared statements kept open for reuse.
+     *
+     * @since 5.7
+     */
+    public static final int STATEMENT_CACHE_SIZE = 50;
+
+    // JavaSimon Counter Names, suffixed by the repository name
+    public static final String CN_STATEMENT_CACHE_HITS = "org.nuxeo.ecm.core.storage.sql.jdbc.statementcache.hits.";
+
+    public static final String CN_STATEMENT_CACHE_MISSES = "org.nuxeo.ecm.core.storage.sql.jdbc.statementcache.misses.";
+
     /** The model used to do the mapping. */
     protected final Model model;
 
@@ -65,6 +85,26 @@ public class JDBCConnection {
     /** If there's a chance the connection may be closed. */
     protected volatile boolean checkConnectionValid;
 
+    /**
+     * The prepared statements available for reuse, keyed by SQL, in LRU
+     * order.
+     */
+    private final Map<String, PreparedStatement> statementCache = new LinkedHashMap<String, PreparedStatement>(
+            16, 0.75f, true);
+
+    /** The SQL of the reusable statements currently in use. */
+    private final Map<Statement, String> statementsInUse = new IdentityHashMap<Statement, String>();
+
+    /**
+     * Statements are only reused in XA mode, in single-datasource mode the
+     * underlying connection may change between transactions.
+     */
+    private boolean statementCacheEnabled;
+
+    private final Counter statementCacheHits;
+
+    private final Counter statementCacheMisses;
+
     // for tests
     public boolean countExecutes;
 
@@ -97,6 +137,11 @@ public class JDBCConnection {
         this.xadatasource = xadatasource;
         this.connectionPropagator = connectionPropagator;
         this.noSharing = noSharing;
+        String repositoryName = model.getRepositoryDescriptor().name;
+        statementCacheHits = SimonManager.getCounter(CN_STATEMENT_CACHE_HITS
+                + repositoryName);
+        statementCacheMisses = SimonManager.getCounter(CN_STATEMENT_CACHE_MISSES
+                + repositoryName);
         connectionPropagator.addConnection(this);
         open();
     }
@@ -162,15 +207,18 @@ public class JDBCConnection {
             }
             connection = xaconnection.getConnection();
             xaresource = xaconnection.getXAResource();
+            statementCacheEnabled = true;
         } else {
             // single-datasource non-XA mode
             xaconnection = null;
             xaresource = new XAResourceConnectionAdapter(connection);
+            statementCacheEnabled = false;
         }
     }
 
     public void close() {
         connectionPropagator.removeConnection(this);
+        clearStatementCache();
         closeConnections();
         xaresource = null;
     }
@@ -202,6 +250,7 @@ public class JDBCConnection {
      */
     protected void resetConnection() throws StorageException {
         logger.error("Resetting connection");
+        clearStatementCache();
         closeConnections();
         openConnections();
         // we had to reset a connection; notify all the others that they
@@ -210,6 +259,8 @@ public class JDBCConnection {
     }
 
     protected void connectionWasReset() {
+        // called from another thread, the statement cache will be cleared
+        // when the connection is checked
         checkConnectionValid = true;
     }
 
@@ -218,6 +269,7 @@ public class JDBCConnection {
      */
     protected void checkConnectionValid() throws StorageException {
         if (checkConnectionValid) {
+            clearStatementCache();
             if (connection == null) {
                 resetConnection();
             }
@@ -299,7 +351,86 @@ public class JDBCConnection {
         }
     }
 
+    /**
+     * Prepares a statement for one of the fixed SQL strings of
+     * {@link SQLInfo}, reusing a previously prepared one for the same SQL if
+     * available. The statement must be released using {@link #closeStatement},
+     * which makes it available for reuse.
+     *
+     * @param sql the SQL, which should not embed variable values
+     * @return the prepared statement
+     * @since 5.7
+     */
+    protected PreparedStatement prepareStatement(String sql)
+            throws SQLException {
+        return prepareStatement(sql, true);
+    }
+
+    /**
+     * Prepares a statement, reusing a previously prepared one for the same
+     * SQL if available and if the SQL is cacheable. The statement must be
+     * released using {@link #closeStatement}, which makes it available for
+     * reuse if it was cacheable.
+     * <p>
+     * SQL strings that vary a lot (queries, paging clauses, {@code IN}
+     * clauses with a variable number of parameters) must not be cacheable,
+     * as they would evict the fixed statements from the cache.
+     *
+     * @param sql the SQL
+     * @param cacheable {@code true} if the statement may be reused
+     * @return the prepared statement
+     * @since 5.7
+     */
+    protected PreparedStatement prepareStatement(String sql, boolean cacheable)
+            throws SQLException {
+        if (!statementCacheEnabled || !cacheable) {
+            return connection.prepareStatement(sql);
+        }
+        PreparedStatement ps = statementCache.remove(sql);
+        if (ps == null) {
+            statementCacheMisses.increase();
+            ps = connection.prepareStatement(sql);
+        } else {
+            statementCacheHits.increase();
+        }
+        statementsInUse.put(ps, sql);
+        return ps;
+    }
+
     protected void closeStatement(Statement s) throws SQLException {
+        String sql = statementsInUse.remove(s);
+        if (sql != null && !statementCache.containsKey(sql)) {
+            // keep it for reuse
+            PreparedStatement ps = (PreparedStatement) s;
+            try {
+                // callers don't close their result sets, don't keep the
+                // cursor and its rows open while the statement is cached
+                ResultSet rs = ps.getResultSet();
+                if (rs != null) {
+                    rs.close();
+                }
+                ps.clearParameters();
+                if (supportsBatchUpdates) {
+                    ps.clearBatch();
+                }
+            } catch (SQLException e) {
+                // unusable
+                closeStatementDirect(s);
+                return;
+            }
+            statementCache.put(sql, ps);
+            if (statementCache.size() > STATEMENT_CACHE_SIZE) {
+                Iterator<PreparedStatement> it = statementCache.values().iterator();
+                PreparedStatement eldest = it.next();
+                it.remove();
+                closeStatementDirect(eldest);
+            }
+            return;
+        }
+        closeStatementDirect(s);
+    }
+
+    private void closeStatementDirect(Statement s) throws SQLException {
         try {
             s.close();
         } catch (IllegalArgumentException e) {
@@ -308,4 +439,43 @@ public class JDBCConnection {
         }
     }
 
+    /**
+     * Closes the prepared statements kept for reuse. Those currently in use
+     * will be closed when released.
+     *
+     * @since 5.7
+     */
+    protected void clearStatementCache() {
+        for (PreparedStatement ps : statementCache.values()) {
+            try {
+                closeStatementDirect(ps);
+            } catch (Exception e) {
+                // ignore, the connection may be broken
+            }
+        }
+        statementCache.clear();
+        statementsInUse.clear();
+    }
+
+    /**
+     * Gets the number of prepared statements reused for a repository.
+     *
+     * @since 5.7
+     */
+    public static long getStatementCacheHits(String repositoryName) {
+        return SimonManager.getCounter(
+                CN_STATEMENT_CACHE_HITS + repositoryName).getCounter();
+    }
+
+    /**
+     * Gets the number of prepared statements that had to be prepared for a
+     * repository.
+     *
+     * @since 5.7
+     */
+    public static long getStatementCacheMisses(String repositoryName) {
+        return SimonManager.getCounter(
+                CN_STATEMENT_CACHE_MISSES + repositoryName).getCounter();
+    }
+
 }
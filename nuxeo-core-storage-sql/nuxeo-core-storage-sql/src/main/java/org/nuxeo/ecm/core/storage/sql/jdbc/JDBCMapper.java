@@ -100,6 +100,9 @@ public class JDBCMapper extends JDBCRowMapper implements Mapper {
 
     private long maxResults;
 
+    /** @since 5.7 */
+    private NXQLQueryCache queryCache;
+
     /**
      * Creates a new Mapper.
      *
@@ -438,7 +441,7 @@ public class JDBCMapper extends JDBCRowMapper implements Mapper {
         List<Column> columns = sqlInfo.getClusterInvalidationsColumns();
         PreparedStatement ps = null;
         try {
-            ps = connection.prepareStatement(sql);
+            ps = prepareStatement(sql);
             int kind = Invalidations.MODIFIED;
             while (true) {
                 Set<RowId> rowIds = invalidations.getKindSet(kind);
@@ -587,7 +590,7 @@ public class JDBCMapper extends JDBCRowMapper implements Mapper {
             if (logger.isLogEnabled()) {
                 logger.logSQL(sql, Collections.singletonList(repositoryId));
             }
-            PreparedStatement ps = connection.prepareStatement(sql);
+            PreparedStatement ps = prepareStatement(sql);
             try {
                 ps.setObject(1, repositoryId);
                 ResultSet rs = ps.executeQuery();
@@ -623,7 +626,7 @@ public class JDBCMapper extends JDBCRowMapper implements Mapper {
             throws StorageException {
         String sql = sqlInfo.getInsertRootIdSql();
         try {
-            PreparedStatement ps = connection.prepareStatement(sql);
+            PreparedStatement ps = prepareStatement(sql);
             try {
                 List<Column> columns = sqlInfo.getInsertRootIdColumns();
                 List<Serializable> debugValues = null;
@@ -662,6 +665,16 @@ public class JDBCMapper extends JDBCRowMapper implements Mapper {
         }
     }
 
+    /**
+     * Sets the cache of built NXQL queries shared by the mappers of the
+     * repository.
+     *
+     * @since 5.7
+     */
+    public void setQueryCache(NXQLQueryCache queryCache) {
+        this.queryCache = queryCache;
+    }
+
     protected QueryMaker findQueryMaker(String queryType)
             throws StorageException {
         for (Class<? extends QueryMaker> klass : queryMakerService.getQueryMakers()) {
@@ -728,8 +741,15 @@ public class JDBCMapper extends JDBCRowMapper implements Mapper {
             throw new StorageException("No QueryMaker accepts query: "
                     + queryType + ": " + query);
         }
-        QueryMaker.Query q = queryMaker.buildQuery(sqlInfo, model,
-                pathResolver, query, queryFilter);
+        QueryMaker.Query q;
+        if (queryCache != null
+                && queryMaker.getClass() == NXQLQueryMaker.class) {
+            q = queryCache.buildQuery((NXQLQueryMaker) queryMaker, sqlInfo,
+                    model, pathResolver, query, queryFilter);
+        } else {
+            q = queryMaker.buildQuery(sqlInfo, model, pathResolver, query,
+                    queryFilter);
+        }
 
         if (q == null) {
             logger.log("Query cannot return anything due to conflicting clauses");
@@ -751,10 +771,17 @@ public class JDBCMapper extends JDBCRowMapper implements Mapper {
         }
 
         String sql = q.selectInfo.sql;
-
-        if (countUpTo == 0 && limit > 0 && sqlInfo.dialect.supportsPaging()) {
+        String countSql = countUpTo == -1 ? sqlInfo.dialect.getCountSql(sql)
+                : null;
+
+        boolean paged = false;
+        long requestedLimit = limit;
+        long requestedOffset = offset;
+        if (limit > 0 && sqlInfo.dialect.supportsPaging()
+                && (countUpTo == 0 || countSql != null)) {
             // full result set not needed for counting
             sql = sqlInfo.dialect.addPagingClause(sql, limit, offset);
+            paged = true;
             limit = 0;
             offset = 0;
         } else if (countUpTo > 0 && sqlInfo.dialect.supportsPaging()) {
@@ -765,64 +792,60 @@ public class JDBCMapper extends JDBCRowMapper implements Mapper {
 
         PreparedStatement ps = null;
         try {
-            ps = connection.prepareStatement(sql,
-                    ResultSet.TYPE_SCROLL_INSENSITIVE,
-                    ResultSet.CONCUR_READ_ONLY);
-            int i = 1;
-            for (Object object : q.selectParams) {
-                if (object instanceof Calendar) {
-                    Calendar cal = (Calendar) object;
-                    Timestamp ts = new Timestamp(cal.getTimeInMillis());
-                    ps.setTimestamp(i++, ts, cal); // cal passed for timezone
-                } else if (object instanceof java.sql.Date) {
-                    ps.setDate(i++, (java.sql.Date) object);
-                } else if (object instanceof String[]) {
-                    Array array = sqlInfo.dialect.createArrayOf(Types.VARCHAR,
-                            (Object[]) object, connection);
-                    ps.setArray(i++, array);
-                } else {
-                    ps.setObject(i++, object);
-                }
+            // forward-only, so that the driver can stream the rows
+            ps = prepareStatement(sql, false);
+            int fetchSize = sqlInfo.dialect.getQueryFetchSize();
+            if (fetchSize > 0) {
+                ps.setFetchSize(fetchSize);
             }
+            setQueryParameters(ps, q.selectParams);
             ResultSet rs = ps.executeQuery();
             countExecute();
 
-            // limit/offset
+            // offset, rows are counted to get the total size
             long totalSize = -1;
-            boolean available;
-            if ((limit == 0) || (offset == 0)) {
-                available = rs.first();
-                if (!available) {
-                    totalSize = 0;
-                }
-                if (limit == 0) {
-                    limit = -1; // infinite
-                }
-            } else {
-                available = rs.absolute((int) offset + 1);
+            long rowNum = 0;
+            boolean available = rs.next();
+            if (!available && (requestedLimit == 0 || requestedOffset == 0)) {
+                totalSize = 0;
+            }
+            for (; available && rowNum < offset; rowNum++) {
+                available = rs.next();
+            }
+            if (limit == 0) {
+                limit = -1; // infinite
             }
 
             Column column = q.selectInfo.whatColumns.get(0);
-            List<Serializable> ids = new LinkedList<Serializable>();
-            int rowNum = 0;
+            List<Serializable> ids = new ArrayList<Serializable>(
+                    limit > 0 ? (int) Math.min(limit, 1000) : 10);
             while (available && (limit != 0)) {
                 Serializable id = column.getFromResultSet(rs, 1);
                 ids.add(id);
-                rowNum = rs.getRow();
+                rowNum++;
                 available = rs.next();
                 limit--;
             }
 
             // total size
             if (countUpTo != 0 && (totalSize == -1)) {
-                if (!available && (rowNum != 0)) {
-                    // last row read was the actual last
-                    totalSize = rowNum;
+                if (paged) {
+                    if (requestedOffset == 0 && ids.size() < requestedLimit) {
+                        // whole result read
+                        totalSize = ids.size();
+                    } else {
+                        totalSize = countQuery(countSql, q.selectParams);
+                    }
                 } else {
-                    // available if limit reached with some left
-                    // rowNum == 0 if skipped too far
-                    rs.last();
-                    totalSize = rs.getRow();
+                    // read the rest without fetching the ids, stopping once
+                    // past the maximum count
+                    for (; available; rowNum++) {
+                        if (countUpTo > 0 && rowNum > countUpTo) {
+                            break;
+                        }
+                        available = rs.next();
+                    }
+                    totalSize = rowNum;
                 }
                 if (countUpTo > 0 && totalSize > countUpTo) {
                     // the result where truncated we don't know the total size
@@ -849,6 +872,50 @@ public class JDBCMapper extends JDBCRowMapper implements Mapper {
         }
     }
 
+    /**
+     * Counts the rows of a query using a count query from the dialect.
+     */
+    protected long countQuery(String countSql, List<Serializable> params)
+            throws SQLException {
+        if (logger.isLogEnabled()) {
+            logger.logSQL(countSql, params);
+        }
+        PreparedStatement ps = prepareStatement(countSql, false);
+        try {
+            setQueryParameters(ps, params);
+            ResultSet rs = ps.executeQuery();
+            countExecute();
+            rs.next();
+            long count = rs.getLong(1);
+            if (logger.isLogEnabled()) {
+                logger.log("  -> " + count);
+            }
+            return count;
+        } finally {
+            closeStatement(ps);
+        }
+    }
+
+    protected void setQueryParameters(PreparedStatement ps,
+            List<Serializable> params) throws SQLException {
+        int i = 1;
+        for (Object object : params) {
+            if (object instanceof Calendar) {
+                Calendar cal = (Calendar) object;
+                Timestamp ts = new Timestamp(cal.getTimeInMillis());
+                ps.setTimestamp(i++, ts, cal); // cal passed for timezone
+            } else if (object instanceof java.sql.Date) {
+                ps.setDate(i++, (java.sql.Date) object);
+            } else if (object instanceof String[]) {
+                Array array = sqlInfo.dialect.createArrayOf(Types.VARCHAR,
+                        (Object[]) object, connection);
+                ps.setArray(i++, array);
+            } else {
+                ps.setObject(i++, object);
+            }
+        }
+    }
+
     // queryFilter used for principals and permissions
     @Override
     public IterableQueryResult queryAndFetch(String query, String queryType,
@@ -896,7 +963,7 @@ public class JDBCMapper extends JDBCRowMapper implements Mapper {
                 logger.logSQL(select.sql, Collections.singleton(whereIds));
             }
             Column what = select.whatColumns.get(0);
-            ps = connection.prepareStatement(select.sql);
+            ps = prepareStatement(select.sql);
             if (whereIds instanceof String[]) {
                 Array array = sqlInfo.dialect.createArrayOf(Types.VARCHAR,
                         (Object[]) whereIds, connection);
@@ -967,7 +1034,7 @@ public class JDBCMapper extends JDBCRowMapper implements Mapper {
                 }
                 Column what = select.whatColumns.get(0);
                 Column where = select.whereColumns.get(0);
-                ps = connection.prepareStatement(select.sql);
+                ps = prepareStatement(select.sql, false);
                 int i = 1;
                 for (Serializable id : todo) {
                     where.setToPreparedStatement(ps, i++, id);
@@ -995,7 +1062,7 @@ public class JDBCMapper extends JDBCRowMapper implements Mapper {
                 if (logger.isLogEnabled()) {
                     logger.logIds(debugIds, false, 0);
                 }
-                ps.close();
+                closeStatement(ps);
                 ps = null;
             }
             return res;
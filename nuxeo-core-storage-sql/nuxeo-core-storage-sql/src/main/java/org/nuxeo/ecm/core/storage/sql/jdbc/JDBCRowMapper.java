@@ -22,17 +22,21 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.TreeMap;
 
 import javax.sql.XADataSource;
 import javax.transaction.xa.XAException;
 import javax.transaction.xa.Xid;
 
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.nuxeo.common.utils.StringUtils;
 import org.nuxeo.ecm.core.storage.StorageException;
 import org.nuxeo.ecm.core.storage.sql.Invalidations;
@@ -57,8 +61,42 @@ import org.nuxeo.ecm.core.storage.sql.jdbc.db.Update;
  */
 public class JDBCRowMapper extends JDBCConnection implements RowMapper {
 
+    private static final Log log = LogFactory.getLog(JDBCRowMapper.class);
+
     public static final int UPDATE_BATCH_SIZE = 100; // also insert/delete
 
+    /**
+     * Number of rows for a table from which a multi-row {@code INSERT} is used,
+     * if the dialect supports it.
+     *
+     * @since 5.7
+     */
+    public static final int MULTI_ROW_INSERT_THRESHOLD = 10;
+
+    /**
+     * Maximum number of rows in a single multi-row {@code INSERT}.
+     *
+     * @since 5.7
+     */
+    public static final int MULTI_ROW_INSERT_MAX_ROWS = 1000;
+
+    /**
+     * Number of rows for a table from which a COPY-style bulk load is used, if
+     * the dialect supports it.
+     *
+     * @since 5.7
+     */
+    public static final int COPY_IN_THRESHOLD = 1000;
+
+    /**
+     * Number of rows for a table below which single-row statements are
+     * pipelined with those of other tables, if the dialect supports compound
+     * statements.
+     *
+     * @since 5.7
+     */
+    public static final int PIPELINE_THRESHOLD = MULTI_ROW_INSERT_THRESHOLD;
+
     public static final int DEBUG_MAX_TREE = 50;
 
     /**
@@ -72,6 +110,12 @@ public class JDBCRowMapper extends JDBCConnection implements RowMapper {
      */
     private final InvalidationsQueue queue;
 
+    /**
+     * Pipeline of pending single-row statements during a {@link #write}, or
+     * {@code null} if the dialect doesn't support compound statements.
+     */
+    protected StatementPipeline pipeline;
+
     public JDBCRowMapper(Model model, SQLInfo sqlInfo,
             XADataSource xadatasource, ClusterNodeHandler clusterNodeHandler,
             JDBCConnectionPropagator connectionPropagator, boolean noSharing)
@@ -255,7 +299,7 @@ public class JDBCRowMapper extends JDBCConnection implements RowMapper {
             if (logger.isLogEnabled()) {
                 logger.logSQL(sql, ids);
             }
-            PreparedStatement ps = connection.prepareStatement(sql);
+            PreparedStatement ps = prepareStatement(sql, false);
             try {
                 int i = 1;
                 for (Serializable id : ids) {
@@ -351,9 +395,17 @@ public class JDBCRowMapper extends JDBCConnection implements RowMapper {
         if (joinMap == null) {
             joinMap = Collections.emptyMap();
         }
+        // IN (...) selects depend on the number of values, don't reuse them
+        boolean cacheable = true;
+        for (Serializable v : criteriaMap.values()) {
+            if (v instanceof Collection<?>) {
+                cacheable = false;
+                break;
+            }
+        }
         PreparedStatement ps = null;
         try {
-            ps = connection.prepareStatement(select.sql);
+            ps = prepareStatement(select.sql, cacheable);
 
             /*
              * Compute where part.
@@ -444,23 +496,40 @@ public class JDBCRowMapper extends JDBCConnection implements RowMapper {
 
     @Override
     public void write(RowBatch batch) throws StorageException {
-        if (!batch.creates.isEmpty()) {
-            writeCreates(batch.creates);
+        if (sqlInfo.dialect.supportsCompoundStatements()) {
+            pipeline = new StatementPipeline();
         }
-        if (!batch.updates.isEmpty()) {
-            writeUpdates(batch.updates);
+        try {
+            if (!batch.creates.isEmpty()) {
+                writeCreates(batch.creates);
+            }
+            if (!batch.updates.isEmpty()) {
+                writeUpdates(batch.updates);
+            }
+            if (!batch.deletes.isEmpty()) {
+                writeDeletes(batch.deletes);
+            }
+            // batch.deletesDependent not executed
+            flushPipeline();
+        } finally {
+            pipeline = null;
         }
-        if (!batch.deletes.isEmpty()) {
-            writeDeletes(batch.deletes);
+    }
+
+    /**
+     * Executes the statements pending in the pipeline, if any. Must be called
+     * before executing other statements, to keep them in order.
+     */
+    protected void flushPipeline() throws StorageException {
+        if (pipeline != null) {
+            pipeline.flush();
         }
-        // batch.deletesDependent not executed
     }
 
     protected void writeCreates(List<Row> creates) throws StorageException {
-        // reorganize by table
-        Map<String, List<Row>> tableRows = new LinkedHashMap<String, List<Row>>();
-        // hierarchy table first because there are foreign keys to it
-        tableRows.put(model.HIER_TABLE_NAME, new LinkedList<Row>());
+        // reorganize by table, in a stable order so that the same statements
+        // are reused from one write to the next
+        Map<String, List<Row>> tableRows = new TreeMap<String, List<Row>>();
         for (Row row : creates) {
             List<Row> rows = tableRows.get(row.tableName);
             if (rows == null) {
@@ -468,21 +537,30 @@ public class JDBCRowMapper extends JDBCConnection implements RowMapper {
             }
             rows.add(row);
         }
-        // inserts on each table
+        // hierarchy table first because there are foreign keys to it
+        List<Row> hierRows = tableRows.remove(model.HIER_TABLE_NAME);
+        if (hierRows != null) {
+            insertSimpleRows(model.HIER_TABLE_NAME, hierRows);
+        }
+        // inserts on each simple table, then on each collection table, so
+        // that pipelined single-row inserts are kept together
+        for (Entry<String, List<Row>> en : tableRows.entrySet()) {
+            String tableName = en.getKey();
+            if (!model.isCollectionFragment(tableName)) {
+                insertSimpleRows(tableName, en.getValue());
+            }
+        }
         for (Entry<String, List<Row>> en : tableRows.entrySet()) {
             String tableName = en.getKey();
-            List<Row> rows = en.getValue();
             if (model.isCollectionFragment(tableName)) {
-                insertCollectionRows(tableName, rows);
-            } else {
-                insertSimpleRows(tableName, rows);
+                insertCollectionRows(tableName, en.getValue());
             }
         }
     }
 
     protected void writeUpdates(Set<RowUpdate> updates) throws StorageException {
         // reorganize by table
-        Map<String, List<RowUpdate>> tableRows = new HashMap<String, List<RowUpdate>>();
+        Map<String, List<RowUpdate>> tableRows = new TreeMap<String, List<RowUpdate>>();
         for (RowUpdate rowu : updates) {
             List<RowUpdate> rows = tableRows.get(rowu.row.tableName);
             if (rows == null) {
@@ -491,14 +569,17 @@ public class JDBCRowMapper extends JDBCConnection implements RowMapper {
             }
             rows.add(rowu);
         }
-        // updates on each table
+        // updates on each simple table, then on each collection table
+        for (Entry<String, List<RowUpdate>> en : tableRows.entrySet()) {
+            String tableName = en.getKey();
+            if (!model.isCollectionFragment(tableName)) {
+                updateSimpleRows(tableName, en.getValue());
+            }
+        }
         for (Entry<String, List<RowUpdate>> en : tableRows.entrySet()) {
             String tableName = en.getKey();
-            List<RowUpdate> rows = en.getValue();
             if (model.isCollectionFragment(tableName)) {
-                updateCollectionRows(tableName, rows);
-            } else {
-                updateSimpleRows(tableName, rows);
+                updateCollectionRows(tableName, en.getValue());
             }
         }
     }
@@ -534,11 +615,31 @@ public class JDBCRowMapper extends JDBCConnection implements RowMapper {
         if (sql == null) {
             throw new StorageException("Unknown table: " + tableName);
         }
+        List<Column> columns = sqlInfo.getInsertColumns(tableName);
+        if (pipeline != null && rows.size() < PIPELINE_THRESHOLD) {
+            for (Row row : rows) {
+                pipeline.add(sql, columns, row);
+            }
+            return;
+        }
+        flushPipeline();
+        if (!columns.isEmpty()) {
+            if (rows.size() >= COPY_IN_THRESHOLD
+                    && isCopyable(columns)
+                    && sqlInfo.dialect.supportsCopyIn(connection)) {
+                copyInSimpleRows(tableName, rows, columns);
+                return;
+            }
+            if (rows.size() >= MULTI_ROW_INSERT_THRESHOLD
+                    && sqlInfo.dialect.supportsMultiRowInsert()) {
+                insertSimpleRowsMultiRow(tableName, rows, columns);
+                return;
+            }
+        }
         String loggedSql = supportsBatchUpdates && rows.size() > 1 ? sql
                 + " -- BATCHED" : sql;
-        List<Column> columns = sqlInfo.getInsertColumns(tableName);
         try {
-            PreparedStatement ps = connection.prepareStatement(sql);
+            PreparedStatement ps = prepareStatement(sql);
             try {
                 int batch = 0;
                 for (Row row : rows) {
@@ -582,6 +683,108 @@ public class JDBCRowMapper extends JDBCConnection implements RowMapper {
         }
     }
 
+    /**
+     * Inserts multiple rows, all for the same table, using {@code INSERT}
+     * statements holding several rows each.
+     *
+     * @since 5.7
+     */
+    protected void insertSimpleRowsMultiRow(String tableName, List<Row> rows,
+            List<Column> columns) throws StorageException {
+        int chunkSize = Math.min(MULTI_ROW_INSERT_MAX_ROWS, Math.max(1,
+                sqlInfo.dialect.getMaximumParameters() / columns.size()));
+        String loggedSql = sqlInfo.getInsertSql(tableName) + " -- MULTI-ROW";
+        String sql = null;
+        try {
+            PreparedStatement ps = null;
+            int psRows = 0;
+            try {
+                Iterator<Row> it = rows.iterator();
+                int remaining = rows.size();
+                while (remaining > 0) {
+                    int n = Math.min(chunkSize, remaining);
+                    remaining -= n;
+                    if (n != psRows) {
+                        // first chunk, or last smaller chunk
+                        if (ps != null) {
+                            closeStatement(ps);
+                            ps = null;
+                        }
+                        sql = sqlInfo.getMultiRowInsertSql(tableName, n);
+                        ps = prepareStatement(sql, n == chunkSize);
+                        psRows = n;
+                    }
+                    int i = 1;
+                    for (int r = 0; r < n; r++) {
+                        Row row = it.next();
+                        if (logger.isLogEnabled()) {
+                            logger.logSQL(loggedSql, columns, row);
+                        }
+                        for (Column column : columns) {
+                            column.setToPreparedStatement(ps, i++,
+                                    row.get(column.getKey()));
+                        }
+                    }
+                    ps.execute();
+                    countExecute();
+                }
+            } finally {
+                if (ps != null) {
+                    closeStatement(ps);
+                }
+            }
+        } catch (Exception e) {
+            checkConnectionReset(e);
+            throw new StorageException("Could not insert: " + sql, e);
+        }
+    }
+
+    /**
+     * Checks that the values of the columns can be loaded as is. COPY can't
+     * apply the SQL function with which some insert values are wrapped, like
+     * the conversion of the fulltext to a {@code tsvector}.
+     *
+     * @since 5.7
+     */
+    protected static boolean isCopyable(List<Column> columns) {
+        for (Column column : columns) {
+            if (!"?".equals(column.getFreeVariableSetter())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Inserts multiple rows, all for the same table, using a COPY-style bulk
+     * load.
+     *
+     * @since 5.7
+     */
+    protected void copyInSimpleRows(String tableName, List<Row> rows,
+            List<Column> columns) throws StorageException {
+        Table table = sqlInfo.database.getTable(tableName);
+        if (logger.isLogEnabled()) {
+            String loggedSql = sqlInfo.getInsertSql(tableName) + " -- COPY";
+            for (Row row : rows) {
+                logger.logSQL(loggedSql, columns, row);
+            }
+        }
+        try {
+            long count = sqlInfo.dialect.copyIn(connection, table, columns,
+                    rows);
+            countExecute();
+            if (count != rows.size()) {
+                throw new StorageException("Could not copy " + rows.size()
+                        + " rows into " + tableName + ", loaded: " + count);
+            }
+        } catch (SQLException e) {
+            checkConnectionReset(e);
+            throw new StorageException("Could not copy rows into: "
+                    + tableName, e);
+        }
+    }
+
     /**
      * Updates multiple collection rows, all for the same table.
      */
@@ -590,11 +793,12 @@ public class JDBCRowMapper extends JDBCConnection implements RowMapper {
         if (rows.isEmpty()) {
             return;
         }
+        flushPipeline();
         String sql = sqlInfo.getInsertSql(tableName);
         List<Column> columns = sqlInfo.getInsertColumns(tableName);
         CollectionIO io = getCollectionIO(tableName);
         try {
-            PreparedStatement ps = connection.prepareStatement(sql);
+            PreparedStatement ps = prepareStatement(sql);
             try {
                 io.executeInserts(ps, rows, columns, supportsBatchUpdates, sql,
                         this);
@@ -616,8 +820,8 @@ public class JDBCRowMapper extends JDBCConnection implements RowMapper {
             return;
         }
 
-        // reorganize by unique sets of keys
-        Map<String, List<RowUpdate>> updatesByKeys = new HashMap<String, List<RowUpdate>>();
+        // reorganize by unique sets of keys, in a stable order
+        Map<String, List<RowUpdate>> updatesByKeys = new TreeMap<String, List<RowUpdate>>();
         for (RowUpdate rowu : rows) {
             List<String> keys = new ArrayList<String>(rowu.keys);
             if (keys.isEmpty()) {
@@ -635,11 +839,19 @@ public class JDBCRowMapper extends JDBCConnection implements RowMapper {
         for (List<RowUpdate> keysUpdates : updatesByKeys.values()) {
             Collection<String> keys = keysUpdates.iterator().next().keys;
             SQLInfoSelect update = sqlInfo.getUpdateById(tableName, keys);
+            if (pipeline != null
+                    && keysUpdates.size() < PIPELINE_THRESHOLD) {
+                for (RowUpdate rowu : keysUpdates) {
+                    pipeline.add(update.sql, update.whatColumns, rowu.row);
+                }
+                continue;
+            }
+            flushPipeline();
             String loggedSql = supportsBatchUpdates && rows.size() > 1 ? update.sql
                     + " -- BATCHED"
                     : update.sql;
             try {
-                PreparedStatement ps = connection.prepareStatement(update.sql);
+                PreparedStatement ps = prepareStatement(update.sql);
                 int batch = 0;
                 try {
                     for (RowUpdate rowu : keysUpdates) {
@@ -701,6 +913,7 @@ public class JDBCRowMapper extends JDBCConnection implements RowMapper {
         if (ids.isEmpty()) {
             return;
         }
+        flushPipeline();
         int size = ids.size();
         int chunkSize = sqlInfo.getMaximumArgsForIn();
         if (size > chunkSize) {
@@ -727,7 +940,7 @@ public class JDBCRowMapper extends JDBCConnection implements RowMapper {
             if (logger.isLogEnabled()) {
                 logger.logSQL(sql, ids);
             }
-            PreparedStatement ps = connection.prepareStatement(sql);
+            PreparedStatement ps = prepareStatement(sql, false);
             try {
                 int i = 1;
                 for (Serializable id : ids) {
@@ -766,7 +979,7 @@ public class JDBCRowMapper extends JDBCConnection implements RowMapper {
             if (logger.isLogEnabled()) {
                 logger.logSQL(sql, Collections.singletonList(id));
             }
-            PreparedStatement ps = connection.prepareStatement(sql);
+            PreparedStatement ps = prepareStatement(sql);
             try {
                 List<Column> columns = sqlInfo.selectFragmentById.get(tableName).whatColumns;
                 ps.setObject(1, id); // assumes only one primary column
@@ -840,8 +1053,24 @@ public class JDBCRowMapper extends JDBCConnection implements RowMapper {
             }
             // create the new hierarchy by copy
             boolean resetVersion = destParentId != null;
-            Serializable newRootId = copyHierRecursive(source, destParentId,
-                    destName, overwriteId, resetVersion, idMap, idToTypes);
+            Serializable newRootId;
+            if (overwriteId == null) {
+                newRootId = copyHier(source.id, destParentId, destName,
+                        resetVersion, idMap);
+            } else {
+                newRootId = overwriteId;
+                idMap.put(source.id, overwriteId);
+            }
+            idToTypes.put(source.id, source);
+            // only complex properties are copied for a version or restore
+            boolean onlyComplex = destParentId == null;
+            Map<Serializable, Serializable> parentIds = new HashMap<Serializable, Serializable>();
+            List<IdWithTypes> descendants = getDescendantsIdsWithTypes(
+                    source.id, onlyComplex, parentIds);
+            copyHiers(descendants, parentIds, resetVersion, idMap);
+            for (IdWithTypes descendant : descendants) {
+                idToTypes.put(descendant.id, descendant);
+            }
             // invalidate children
             Serializable invalParentId = overwriteId == null ? destParentId
                     : overwriteId;
@@ -901,7 +1130,7 @@ public class JDBCRowMapper extends JDBCConnection implements RowMapper {
         Table table = update.getTable();
         String sql = update.getStatement();
         try {
-            PreparedStatement ps = connection.prepareStatement(sql);
+            PreparedStatement ps = prepareStatement(sql);
             try {
                 if (logger.isLogEnabled()) {
                     List<Serializable> values = new LinkedList<Serializable>();
@@ -931,41 +1160,6 @@ public class JDBCRowMapper extends JDBCConnection implements RowMapper {
         }
     }
 
-    /**
-     * Copies hierarchy from id to parentId, and recurses.
-     * <p>
-     * If name is {@code null}, then the original name is kept.
-     * <p>
-     * {@code idMap} is filled with info about the correspondence between
-     * original and copied ids. {@code idType} is filled with the type of each
-     * (source) fragment.
-     * <p>
-     * TODO: this should be optimized to use a stored procedure.
-     *
-     * @param overwriteId when not {@code null}, the copy is done onto this
-     *            existing node (skipped)
-     * @return the new root id
-     */
-    protected Serializable copyHierRecursive(IdWithTypes source,
-            Serializable parentId, String name, Serializable overwriteId,
-            boolean resetVersion, Map<Serializable, Serializable> idMap,
-            Map<Serializable, IdWithTypes> idToTypes) throws SQLException {
-        idToTypes.put(source.id, source);
-        Serializable newId;
-        if (overwriteId == null) {
-            newId = copyHier(source.id, parentId, name, resetVersion, idMap);
-        } else {
-            newId = overwriteId;
-            idMap.put(source.id, newId);
-        }
-        // recurse in children
-        boolean onlyComplex = parentId == null;
-        for (IdWithTypes child : getChildrenIdsWithTypes(source.id, onlyComplex)) {
-            copyHierRecursive(child, newId, null, null, resetVersion, idMap, idToTypes);
-        }
-        return newId;
-    }
-
     /**
      * Copies hierarchy from id to a new child of parentId.
      * <p>
@@ -984,49 +1178,11 @@ public class JDBCRowMapper extends JDBCConnection implements RowMapper {
         Serializable newId = null;
 
         SQLInfoSelect copy = sqlInfo.getCopyHier(explicitName, resetVersion);
-        PreparedStatement ps = connection.prepareStatement(copy.sql);
+        PreparedStatement ps = prepareStatement(copy.sql);
         try {
             // TODO DB_IDENTITY
             newId = model.generateNewId();
-
-            List<Serializable> debugValues = null;
-            if (logger.isLogEnabled()) {
-                debugValues = new ArrayList<Serializable>(4);
-            }
-            int i = 1;
-            for (Column column : copy.whatColumns) {
-                String key = column.getKey();
-                Serializable v;
-                if (key.equals(model.HIER_PARENT_KEY)) {
-                    v = parentId;
-                } else if (key.equals(model.HIER_CHILD_NAME_KEY)) {
-                    // present if name explicitely set (first iteration)
-                    v = name;
-                } else if (key.equals(model.MAIN_KEY)) {
-                    // present if APP_UUID generation
-                    v = newId;
-                } else if (key.equals(model.MAIN_BASE_VERSION_KEY)
-                        || key.equals(model.MAIN_CHECKED_IN_KEY)) {
-                    v = null;
-                } else if (key.equals(model.MAIN_MINOR_VERSION_KEY)
-                        || key.equals(model.MAIN_MAJOR_VERSION_KEY)) {
-                    // present if reset version (regular copy, not checkin)
-                    v = null;
-                } else {
-                    throw new RuntimeException(column.toString());
-                }
-                column.setToPreparedStatement(ps, i++, v);
-                if (debugValues != null) {
-                    debugValues.add(v);
-                }
-            }
-            // last parameter is for 'WHERE "id" = ?'
-            Column whereColumn = copy.whereColumns.get(0);
-            whereColumn.setToPreparedStatement(ps, i, id);
-            if (debugValues != null) {
-                debugValues.add(id);
-                logger.logSQL(copy.sql, debugValues);
-            }
+            setCopyHierValues(ps, copy, id, parentId, name, newId);
             int count = ps.executeUpdate();
             countExecute();
             logger.logCount(count);
@@ -1042,55 +1198,210 @@ public class JDBCRowMapper extends JDBCConnection implements RowMapper {
     }
 
     /**
-     * Gets the children ids and types of a node.
+     * Copies the hierarchy rows of several nodes, keeping their names, using
+     * batched statements.
+     * <p>
+     * The nodes must be ordered so that parents come before their children,
+     * and the new ids of their parents must already be in {@code idMap}.
+     *
+     * @param nodes the nodes to copy
+     * @param parentIds the map of node id to parent id
+     * @since 5.7
      */
-    protected List<IdWithTypes> getChildrenIdsWithTypes(Serializable id,
-            boolean onlyComplex) throws SQLException {
-        List<IdWithTypes> children = new LinkedList<IdWithTypes>();
-        String sql = sqlInfo.getSelectChildrenIdsAndTypesSql(onlyComplex);
-        if (logger.isLogEnabled()) {
-            logger.logSQL(sql, Collections.singletonList(id));
+    protected void copyHiers(List<IdWithTypes> nodes,
+            Map<Serializable, Serializable> parentIds, boolean resetVersion,
+            Map<Serializable, Serializable> idMap) throws SQLException {
+        if (nodes.isEmpty()) {
+            return;
         }
-        List<Column> columns = sqlInfo.getSelectChildrenIdsAndTypesWhatColumns();
-        PreparedStatement ps = connection.prepareStatement(sql);
+        SQLInfoSelect copy = sqlInfo.getCopyHier(false, resetVersion);
+        PreparedStatement ps = prepareStatement(copy.sql);
         try {
-            List<String> debugValues = null;
+            int size = nodes.size();
+            int batch = 0;
+            for (IdWithTypes node : nodes) {
+                batch++;
+                // TODO DB_IDENTITY
+                Serializable newId = model.generateNewId();
+                Serializable newParentId = idMap.get(parentIds.get(node.id));
+                setCopyHierValues(ps, copy, node.id, newParentId, null, newId);
+                idMap.put(node.id, newId);
+                if (supportsBatchUpdates) {
+                    ps.addBatch();
+                    if (batch % UPDATE_BATCH_SIZE == 0) {
+                        int[] counts = ps.executeBatch();
+                        countExecute();
+                        logger.logCounts(counts);
+                        logCopyProgress(model.HIER_TABLE_NAME, batch, size);
+                    }
+                } else {
+                    int count = ps.executeUpdate();
+                    countExecute();
+                    logger.logCount(count);
+                }
+            }
+            if (supportsBatchUpdates) {
+                int[] counts = ps.executeBatch();
+                countExecute();
+                logger.logCounts(counts);
+            }
+        } finally {
+            closeStatement(ps);
+        }
+    }
+
+    /**
+     * Sets the parameters of the hierarchy copy statement.
+     */
+    protected void setCopyHierValues(PreparedStatement ps,
+            SQLInfoSelect copy, Serializable id, Serializable parentId,
+            String name, Serializable newId) throws SQLException {
+        List<Serializable> debugValues = null;
+        if (logger.isLogEnabled()) {
+            debugValues = new ArrayList<Serializable>(4);
+        }
+        int i = 1;
+        for (Column column : copy.whatColumns) {
+            String key = column.getKey();
+            Serializable v;
+            if (key.equals(model.HIER_PARENT_KEY)) {
+                v = parentId;
+            } else if (key.equals(model.HIER_CHILD_NAME_KEY)) {
+                // present if name explicitely set (first iteration)
+                v = name;
+            } else if (key.equals(model.MAIN_KEY)) {
+                // present if APP_UUID generation
+                v = newId;
+            } else if (key.equals(model.MAIN_BASE_VERSION_KEY)
+                    || key.equals(model.MAIN_CHECKED_IN_KEY)) {
+                v = null;
+            } else if (key.equals(model.MAIN_MINOR_VERSION_KEY)
+                    || key.equals(model.MAIN_MAJOR_VERSION_KEY)) {
+                // present if reset version (regular copy, not checkin)
+                v = null;
+            } else {
+                throw new RuntimeException(column.toString());
+            }
+            column.setToPreparedStatement(ps, i++, v);
+            if (debugValues != null) {
+                debugValues.add(v);
+            }
+        }
+        // last parameter is for 'WHERE "id" = ?'
+        Column whereColumn = copy.whereColumns.get(0);
+        whereColumn.setToPreparedStatement(ps, i, id);
+        if (debugValues != null) {
+            debugValues.add(id);
+            logger.logSQL(copy.sql, debugValues);
+        }
+    }
+
+    /**
+     * Gets the ids and types of all the descendants of a node, breadth-first,
+     * so that parents always come before their children.
+     * <p>
+     * One query is done per level of the tree (and per chunk of parents if a
+     * level is larger than what an {@code IN} clause accepts), instead of one
+     * query per node.
+     *
+     * @param rootId the root id
+     * @param onlyComplex whether only complex properties are returned as
+     *            direct children of the root
+     * @param parentIds the map filled with the parent id of each descendant
+     * @since 5.7
+     */
+    protected List<IdWithTypes> getDescendantsIdsWithTypes(
+            Serializable rootId, boolean onlyComplex,
+            Map<Serializable, Serializable> parentIds) throws SQLException {
+        List<IdWithTypes> descendants = new ArrayList<IdWithTypes>();
+        List<Serializable> level = Collections.singletonList(rootId);
+        while (!level.isEmpty()) {
+            List<IdWithTypes> children = getChildrenIdsWithTypes(level,
+                    onlyComplex, parentIds);
+            onlyComplex = false;
+            descendants.addAll(children);
+            level = new ArrayList<Serializable>(children.size());
+            for (IdWithTypes child : children) {
+                level.add(child.id);
+            }
+        }
+        if (log.isDebugEnabled() && descendants.size() >= UPDATE_BATCH_SIZE) {
+            log.debug("Copying " + descendants.size() + " descendants of "
+                    + rootId);
+        }
+        return descendants;
+    }
+
+    /**
+     * Gets the children ids and types of several nodes.
+     *
+     * @param parentIds the map filled with the parent id of each child
+     * @since 5.7
+     */
+    protected List<IdWithTypes> getChildrenIdsWithTypes(
+            List<Serializable> ids, boolean onlyComplex,
+            Map<Serializable, Serializable> parentIds) throws SQLException {
+        List<IdWithTypes> children = new ArrayList<IdWithTypes>();
+        int size = ids.size();
+        int chunkSize = sqlInfo.getMaximumArgsForIn();
+        for (int start = 0; start < size; start += chunkSize) {
+            int end = start + chunkSize;
+            if (end > size) {
+                end = size;
+            }
+            List<Serializable> chunkIds = ids.subList(start, end);
+            SQLInfoSelect select = sqlInfo.getSelectChildrenIdsAndTypesByParents(
+                    chunkIds.size(), onlyComplex);
             if (logger.isLogEnabled()) {
-                debugValues = new LinkedList<String>();
+                logger.logSQL(select.sql, chunkIds);
             }
-            ps.setObject(1, id); // parent id
-            ResultSet rs = ps.executeQuery();
-            countExecute();
-            while (rs.next()) {
-                Serializable childId = null;
-                String childPrimaryType = null;
-                String[] childMixinTypes = null;
+            PreparedStatement ps = prepareStatement(select.sql, false);
+            try {
+                List<String> debugValues = null;
+                if (logger.isLogEnabled()) {
+                    debugValues = new LinkedList<String>();
+                }
                 int i = 1;
-                for (Column column : columns) {
-                    String key = column.getKey();
-                    Serializable value = column.getFromResultSet(rs, i++);
-                    if (key.equals(model.MAIN_KEY)) {
-                        childId = value;
-                    } else if (key.equals(model.MAIN_PRIMARY_TYPE_KEY)) {
-                        childPrimaryType = (String) value;
-                    } else if (key.equals(model.MAIN_MIXIN_TYPES_KEY)) {
-                        childMixinTypes = (String[]) value;
+                for (Serializable id : chunkIds) {
+                    ps.setObject(i++, id); // parent id
+                }
+                ResultSet rs = ps.executeQuery();
+                countExecute();
+                while (rs.next()) {
+                    Serializable childId = null;
+                    Serializable parentId = null;
+                    String childPrimaryType = null;
+                    String[] childMixinTypes = null;
+                    i = 1;
+                    for (Column column : select.whatColumns) {
+                        String key = column.getKey();
+                        Serializable value = column.getFromResultSet(rs, i++);
+                        if (key.equals(model.MAIN_KEY)) {
+                            childId = value;
+                        } else if (key.equals(model.HIER_PARENT_KEY)) {
+                            parentId = value;
+                        } else if (key.equals(model.MAIN_PRIMARY_TYPE_KEY)) {
+                            childPrimaryType = (String) value;
+                        } else if (key.equals(model.MAIN_MIXIN_TYPES_KEY)) {
+                            childMixinTypes = (String[]) value;
+                        }
+                    }
+                    children.add(new IdWithTypes(childId, childPrimaryType,
+                            childMixinTypes));
+                    parentIds.put(childId, parentId);
+                    if (debugValues != null) {
+                        debugValues.add(childId + "/" + childPrimaryType + "/"
+                                + Arrays.toString(childMixinTypes));
                     }
                 }
-                children.add(new IdWithTypes(childId, childPrimaryType,
-                        childMixinTypes));
                 if (debugValues != null) {
-                    debugValues.add(childId + "/" + childPrimaryType + "/"
-                            + Arrays.toString(childMixinTypes));
+                    logger.log("  -> " + debugValues);
                 }
+            } finally {
+                closeStatement(ps);
             }
-            if (debugValues != null) {
-                logger.log("  -> " + debugValues);
-            }
-            return children;
-        } finally {
-            closeStatement(ps);
         }
+        return children;
     }
 
     /**
@@ -1098,6 +1409,8 @@ public class JDBCRowMapper extends JDBCConnection implements RowMapper {
      * given by idMap.
      * <p>
      * A new row with id {@code overwriteId} is first deleted.
+     * <p>
+     * The copies are batched if the database supports it.
      *
      * @return {@link Boolean#TRUE} for a modification or creation,
      *         {@link Boolean#FALSE} for a deletion, {@code null} otherwise
@@ -1109,27 +1422,33 @@ public class JDBCRowMapper extends JDBCConnection implements RowMapper {
             throws SQLException {
         String copySql = sqlInfo.getCopySql(tableName);
         Column copyIdColumn = sqlInfo.getCopyIdColumn(tableName);
-        PreparedStatement copyPs = connection.prepareStatement(copySql);
-        String deleteSql = sqlInfo.getDeleteSql(tableName);
-        PreparedStatement deletePs = connection.prepareStatement(deleteSql);
-        try {
-            boolean before = false;
-            boolean after = false;
-            for (Serializable id : ids) {
-                Serializable newId = idMap.get(id);
-                boolean overwrite = newId.equals(overwriteId);
-                if (overwrite) {
-                    // remove existing first
-                    if (logger.isLogEnabled()) {
-                        logger.logSQL(deleteSql,
-                                Collections.singletonList(newId));
-                    }
-                    deletePs.setObject(1, newId);
-                    int delCount = deletePs.executeUpdate();
-                    countExecute();
-                    logger.logCount(delCount);
-                    before = delCount > 0;
+        boolean before = false;
+        boolean after = false;
+        List<Serializable> copyIds = new ArrayList<Serializable>(ids.size());
+        for (Serializable id : ids) {
+            Serializable newId = idMap.get(id);
+            if (!newId.equals(overwriteId)) {
+                copyIds.add(id);
+                continue;
+            }
+            // remove existing first, and copy with a separate statement to
+            // get its own count
+            String deleteSql = sqlInfo.getDeleteSql(tableName);
+            PreparedStatement deletePs = prepareStatement(deleteSql);
+            try {
+                if (logger.isLogEnabled()) {
+                    logger.logSQL(deleteSql, Collections.singletonList(newId));
                 }
+                deletePs.setObject(1, newId);
+                int delCount = deletePs.executeUpdate();
+                countExecute();
+                logger.logCount(delCount);
+                before = delCount > 0;
+            } finally {
+                closeStatement(deletePs);
+            }
+            PreparedStatement copyPs = prepareStatement(copySql);
+            try {
                 copyIdColumn.setToPreparedStatement(copyPs, 1, newId);
                 copyIdColumn.setToPreparedStatement(copyPs, 2, id);
                 if (logger.isLogEnabled()) {
@@ -1138,17 +1457,59 @@ public class JDBCRowMapper extends JDBCConnection implements RowMapper {
                 int copyCount = copyPs.executeUpdate();
                 countExecute();
                 logger.logCount(copyCount);
-                if (overwrite) {
-                    after = copyCount > 0;
+                after = copyCount > 0;
+            } finally {
+                closeStatement(copyPs);
+            }
+        }
+        if (!copyIds.isEmpty()) {
+            String loggedSql = supportsBatchUpdates && copyIds.size() > 1 ? copySql
+                    + " -- BATCHED"
+                    : copySql;
+            PreparedStatement copyPs = prepareStatement(copySql);
+            try {
+                int size = copyIds.size();
+                int batch = 0;
+                for (Serializable id : copyIds) {
+                    batch++;
+                    Serializable newId = idMap.get(id);
+                    copyIdColumn.setToPreparedStatement(copyPs, 1, newId);
+                    copyIdColumn.setToPreparedStatement(copyPs, 2, id);
+                    if (logger.isLogEnabled()) {
+                        logger.logSQL(loggedSql, Arrays.asList(newId, id));
+                    }
+                    if (supportsBatchUpdates) {
+                        copyPs.addBatch();
+                        if (batch % UPDATE_BATCH_SIZE == 0) {
+                            int[] counts = copyPs.executeBatch();
+                            countExecute();
+                            logger.logCounts(counts);
+                            logCopyProgress(tableName, batch, size);
+                        }
+                    } else {
+                        int copyCount = copyPs.executeUpdate();
+                        countExecute();
+                        logger.logCount(copyCount);
+                    }
                 }
+                if (supportsBatchUpdates) {
+                    int[] counts = copyPs.executeBatch();
+                    countExecute();
+                    logger.logCounts(counts);
+                }
+            } finally {
+                closeStatement(copyPs);
             }
-            // * , n -> mod (TRUE)
-            // n , 0 -> del (FALSE)
-            // 0 , 0 -> null
-            return after ? Boolean.TRUE : (before ? Boolean.FALSE : null);
-        } finally {
-            closeStatement(copyPs);
-            closeStatement(deletePs);
+        }
+        // * , n -> mod (TRUE)
+        // n , 0 -> del (FALSE)
+        // 0 , 0 -> null
+        return after ? Boolean.TRUE : (before ? Boolean.FALSE : null);
+    }
+
+    protected void logCopyProgress(String tableName, int done, int size) {
+        if (log.isDebugEnabled()) {
+            log.debug("Copied " + done + "/" + size + " rows of " + tableName);
         }
     }
 
@@ -1171,7 +1532,7 @@ public class JDBCRowMapper extends JDBCConnection implements RowMapper {
         List<Column> columns = sqlInfo.getSelectDescendantsInfoWhatColumns();
         PreparedStatement ps = null;
         try {
-            ps = connection.prepareStatement(sql);
+            ps = prepareStatement(sql);
             List<String> debugValues = null;
             if (logger.isLogEnabled()) {
                 debugValues = new LinkedList<String>();
@@ -1235,4 +1596,86 @@ public class JDBCRowMapper extends JDBCConnection implements RowMapper {
         }
     }
 
+    /**
+     * Accumulates single-row statements, possibly for different tables, and
+     * executes them as one compound statement, in a single round-trip to the
+     * database.
+     */
+    protected class StatementPipeline {
+
+        protected final List<String> sqls = new ArrayList<String>();
+
+        protected final List<List<Column>> columnsList = new ArrayList<List<Column>>();
+
+        protected final List<Row> rows = new ArrayList<Row>();
+
+        protected int parameters;
+
+        /**
+         * Adds a statement to the pipeline. The statement parameters are the
+         * values of the given columns in the row.
+         */
+        public void add(String sql, List<Column> columns, Row row)
+                throws StorageException {
+            if (!sqls.isEmpty()
+                    && (sqls.size() >= UPDATE_BATCH_SIZE || parameters
+                            + columns.size() > sqlInfo.dialect.getMaximumParameters())) {
+                flush();
+            }
+            sqls.add(sql);
+            columnsList.add(columns);
+            rows.add(row);
+            parameters += columns.size();
+        }
+
+        /**
+         * Executes the pending statements.
+         */
+        public void flush() throws StorageException {
+            if (sqls.isEmpty()) {
+                return;
+            }
+            String sql = sqls.size() == 1 ? sqls.get(0) : StringUtils.join(
+                    sqls, "; ");
+            try {
+                PreparedStatement ps = prepareStatement(sql, sqls.size() == 1);
+                try {
+                    int i = 1;
+                    for (int n = 0; n < sqls.size(); n++) {
+                        List<Column> columns = columnsList.get(n);
+                        Row row = rows.get(n);
+                        if (logger.isLogEnabled()) {
+                            logger.logSQL(sqls.get(n) + " -- PIPELINED",
+                                    columns, row);
+                        }
+                        for (Column column : columns) {
+                            column.setToPreparedStatement(ps, i++,
+                                    row.get(column.getKey()));
+                        }
+                    }
+                    ps.execute();
+                    countExecute();
+                    if (logger.isLogEnabled()) {
+                        int count = ps.getUpdateCount();
+                        while (count != -1) {
+                            logger.logCount(count);
+                            ps.getMoreResults();
+                            count = ps.getUpdateCount();
+                        }
+                    }
+                } finally {
+                    closeStatement(ps);
+                }
+            } catch (Exception e) {
+                checkConnectionReset(e);
+                throw new StorageException("Could not execute: " + sql, e);
+            } finally {
+                sqls.clear();
+                columnsList.clear();
+                rows.clear();
+                parameters = 0;
+            }
+        }
+    }
+
 }
@@ -0,0 +1,448 @@
+/*
+ * Copyright (c) 2006-2011 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Florent Guillaume
+ */
+package org.nuxeo.ecm.core.storage.sql.jdbc;
+
+import java.io.Serializable;
+import java.security.Principal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.javasimon.SimonManager;
+import org.nuxeo.ecm.core.api.impl.FacetFilter;
+import org.nuxeo.ecm.core.query.QueryFilter;
+import org.nuxeo.ecm.core.query.sql.NXQL;
+import org.nuxeo.ecm.core.query.sql.SQLQueryParser;
+import org.nuxeo.ecm.core.query.sql.model.BooleanLiteral;
+import org.nuxeo.ecm.core.query.sql.model.DateLiteral;
+import org.nuxeo.ecm.core.query.sql.model.DoubleLiteral;
+import org.nuxeo.ecm.core.query.sql.model.Expression;
+import org.nuxeo.ecm.core.query.sql.model.IntegerLiteral;
+import org.nuxeo.ecm.core.query.sql.model.LiteralList;
+import org.nuxeo.ecm.core.query.sql.model.MultiExpression;
+import org.nuxeo.ecm.core.query.sql.model.Operand;
+import org.nuxeo.ecm.core.query.sql.model.Operator;
+import org.nuxeo.ecm.core.query.sql.model.OrderByExpr;
+import org.nuxeo.ecm.core.query.sql.model.Reference;
+import org.nuxeo.ecm.core.query.sql.model.SQLQuery;
+import org.nuxeo.ecm.core.query.sql.model.StringLiteral;
+import org.nuxeo.ecm.core.storage.StorageException;
+import org.nuxeo.ecm.core.storage.sql.Model;
+import org.nuxeo.ecm.core.storage.sql.Session.PathResolver;
+import org.nuxeo.ecm.core.storage.sql.jdbc.QueryMaker.Query;
+
+/**
+ * A cache of the SQL queries built by the {@link NXQLQueryMaker}, shared by
+ * all the mappers of a repository, to avoid analyzing the same NXQL queries
+ * again and again.
+ * <p>
+ * The string literals compared to plain properties (for instance
+ * {@code ecm:parentId = '...'} or {@code dc:title IN ('a', 'b')}) are not
+ * part of the cache key: the built query is kept as a template whose
+ * parameters for these literals are replaced by the values of the query
+ * executed. Other literals, which can change the structure of the SQL query
+ * ({@code ecm:primaryType}, {@code ecm:isProxy}, fulltext, ...), are part of
+ * the key. The principals, permissions, facet filter and security policies
+ * of the {@link QueryFilter} are also part of the key.
+ * <p>
+ * Queries referring to paths, resolved to ids when the query is built, and
+ * queries with a keyset cursor are not cached.
+ * <p>
+ * A new cache is created when the {@link Model} changes.
+ *
+ * @since 5.7
+ */
+public class NXQLQueryCache {
+
+    // JavaSimon Counter Names
+    private static final String CN_HITS = "org.nuxeo.ecm.core.storage.sql.query.cache.hits";
+
+    private static final String CN_MISSES = "org.nuxeo.ecm.core.storage.sql.query.cache.misses";
+
+    private static final String CN_SIZE = "org.nuxeo.ecm.core.storage.sql.query.cache.size";
+
+    /** Statistics are published to JavaSimon every that many accesses. */
+    private static final int STATS_PERIOD = 1024;
+
+    /** The ecm: properties whose string literals are parameters. */
+    private static final List<String> PARAMETER_ECM_PROPERTIES = Arrays.asList(
+            NXQL.ECM_UUID, NXQL.ECM_PARENTID, NXQL.ECM_NAME,
+            NXQL.ECM_LIFECYCLESTATE, NXQL.ECM_VERSIONLABEL,
+            NXQL.ECM_LOCK_OWNER);
+
+    /** The operators whose string literals are parameters. */
+    private static final List<Operator> PARAMETER_OPERATORS = Arrays.asList(
+            Operator.EQ, Operator.NOTEQ, Operator.LT, Operator.GT,
+            Operator.LTEQ, Operator.GTEQ, Operator.IN, Operator.NOTIN);
+
+    /** Marker for a query that cannot be used as a template. */
+    private static final Template UNCACHEABLE = new Template(null, null);
+
+    private final Map<String, Template> templates;
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * A built query, and the positions in its parameters of the values of
+     * the literals parameters of the NXQL query.
+     */
+    protected static class Template {
+
+        /** The query, or {@code null} if it cannot match anything. */
+        protected final Query query;
+
+        /** Pairs of parameter position and literal index. */
+        protected final int[] positions;
+
+        protected Template(Query query, int[] positions) {
+            this.query = query;
+            this.positions = positions;
+        }
+
+        protected Query instantiate(List<String> literals) {
+            if (query == null) {
+                return null;
+            }
+            Query q = new Query();
+            q.selectInfo = query.selectInfo;
+            q.selectParams = new ArrayList<Serializable>(query.selectParams);
+            for (int i = 0; i < positions.length; i += 2) {
+                q.selectParams.set(positions[i], literals.get(positions[i + 1]));
+            }
+            return q;
+        }
+    }
+
+    /**
+     * Creates a query cache.
+     *
+     * @param maxEntries the maximum number of queries cached
+     */
+    @SuppressWarnings("serial")
+    public NXQLQueryCache(final int maxEntries) {
+        templates = Collections.synchronizedMap(new LinkedHashMap<String, Template>(
+                16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Template> eldest) {
+                return size() > maxEntries;
+            }
+        });
+    }
+
+    /**
+     * Builds a query using the cache.
+     *
+     * @return the query, or {@code null} if it cannot match anything
+     */
+    public Query buildQuery(NXQLQueryMaker queryMaker, SQLInfo sqlInfo,
+            Model model, PathResolver pathResolver, String query,
+            QueryFilter queryFilter) throws StorageException {
+        SQLQuery sqlQuery = SQLQueryParser.parse(query);
+        if (queryFilter.getKeysetCursor() != null) {
+            misses.incrementAndGet();
+            return queryMaker.buildQuery(sqlInfo, model, pathResolver,
+                    sqlQuery, queryFilter);
+        }
+        List<String> literals = new ArrayList<String>();
+        String key = getKey(sqlQuery, queryFilter, literals);
+        Template template = key == null ? UNCACHEABLE : templates.get(key);
+        if (template != null && template != UNCACHEABLE) {
+            hits.incrementAndGet();
+            updateStats();
+            return template.instantiate(literals);
+        }
+        misses.incrementAndGet();
+        updateStats();
+        if (template == UNCACHEABLE) {
+            return queryMaker.buildQuery(sqlInfo, model, pathResolver,
+                    sqlQuery, queryFilter);
+        }
+        TrackingPathResolver trackingPathResolver = new TrackingPathResolver(
+                pathResolver);
+        Query q = queryMaker.buildQuery(sqlInfo, model, trackingPathResolver,
+                sqlQuery, queryFilter);
+        if (trackingPathResolver.used) {
+            template = UNCACHEABLE;
+        } else if (q == null) {
+            template = new Template(null, null);
+        } else {
+            template = newTemplate(q, literals);
+        }
+        templates.put(key, template);
+        return q;
+    }
+
+    /**
+     * Finds the positions of the literals in the parameters of a built query.
+     * The parameters of the literals are their very string instances.
+     */
+    protected static Template newTemplate(Query q, List<String> literals) {
+        Map<String, Integer> indexes = new IdentityHashMap<String, Integer>();
+        for (int i = 0; i < literals.size(); i++) {
+            if (indexes.put(literals.get(i), Integer.valueOf(i)) != null) {
+                // same instance for two literals
+                return UNCACHEABLE;
+            }
+        }
+        List<Integer> positions = new ArrayList<Integer>();
+        boolean[] found = new boolean[literals.size()];
+        int pos = 0;
+        for (Serializable param : q.selectParams) {
+            Integer index = param instanceof String ? indexes.get(param)
+                    : null;
+            if (index != null) {
+                positions.add(Integer.valueOf(pos));
+                positions.add(index);
+                found[index.intValue()] = true;
+            }
+            pos++;
+        }
+        for (boolean f : found) {
+            if (!f) {
+                // literal transformed or inlined in the SQL
+                return UNCACHEABLE;
+            }
+        }
+        int[] p = new int[positions.size()];
+        for (int i = 0; i < p.length; i++) {
+            p[i] = positions.get(i).intValue();
+        }
+        Query query = new Query();
+        query.selectInfo = q.selectInfo;
+        query.selectParams = new ArrayList<Serializable>(q.selectParams);
+        return new Template(query, p);
+    }
+
+    /**
+     * Computes the cache key of a query, and collects the literals that are
+     * parameters.
+     *
+     * @return the key, or {@code null} if the query cannot be cached
+     */
+    protected static String getKey(SQLQuery sqlQuery, QueryFilter queryFilter,
+            List<String> literals) {
+        if (sqlQuery.groupBy != null || sqlQuery.having != null) {
+            return null;
+        }
+        StringBuilder buf = new StringBuilder();
+        buf.append(sqlQuery.select.isDistinct() ? "SELECT DISTINCT " : "SELECT ");
+        for (int i = 0; i < sqlQuery.select.count(); i++) {
+            if (!appendKey(buf, sqlQuery.select.get(i), literals, false)) {
+                return null;
+            }
+            buf.append(',');
+        }
+        buf.append(" FROM ");
+        for (int i = 0; i < sqlQuery.from.count(); i++) {
+            appendString(buf, sqlQuery.from.get(i));
+        }
+        if (sqlQuery.where != null) {
+            buf.append(" WHERE ");
+            if (!appendKey(buf, sqlQuery.where.predicate, literals, false)) {
+                return null;
+            }
+        }
+        if (sqlQuery.orderBy != null) {
+            buf.append(" ORDER BY ");
+            for (OrderByExpr orderBy : sqlQuery.orderBy.elements) {
+                if (!appendKey(buf, orderBy.reference, literals, false)) {
+                    return null;
+                }
+                buf.append(orderBy.isDescending ? " DESC," : ",");
+            }
+        }
+        // query filter
+        Principal principal = queryFilter.getPrincipal();
+        buf.append(" PRINCIPAL ");
+        appendString(buf, principal == null ? "" : principal.getName());
+        buf.append(" PRINCIPALS ");
+        appendStrings(buf, queryFilter.getPrincipals());
+        buf.append(" PERMISSIONS ");
+        appendStrings(buf, queryFilter.getPermissions());
+        FacetFilter facetFilter = queryFilter.getFacetFilter();
+        if (facetFilter != null) {
+            buf.append(" FACETS ");
+            buf.append(new TreeSet<String>(facetFilter.required));
+            buf.append(new TreeSet<String>(facetFilter.excluded));
+        }
+        if (queryFilter.getQueryTransformers() != null) {
+            buf.append(" TRANSFORMERS ");
+            for (SQLQuery.Transformer transformer : queryFilter.getQueryTransformers()) {
+                buf.append(transformer.getClass().getName()).append(',');
+            }
+        }
+        return buf.toString();
+    }
+
+    /**
+     * Appends an unambiguous representation of an operand to the key.
+     *
+     * @param param {@code true} if a string literal is a parameter
+     * @return {@code false} if the operand is not supported
+     */
+    protected static boolean appendKey(StringBuilder buf, Operand operand,
+            List<String> literals, boolean param) {
+        if (operand == null) {
+            buf.append('N');
+        } else if (operand instanceof MultiExpression) {
+            MultiExpression expr = (MultiExpression) operand;
+            buf.append('M').append(expr.operator.id).append('(');
+            for (Operand value : expr.values) {
+                if (!appendKey(buf, value, literals, false)) {
+                    return false;
+                }
+                buf.append(',');
+            }
+            buf.append(')');
+        } else if (operand instanceof Expression) {
+            Expression expr = (Expression) operand;
+            boolean p = isParameterExpression(expr);
+            buf.append('E').append(expr.operator.id).append('(');
+            if (!appendKey(buf, expr.lvalue, literals, false)) {
+                return false;
+            }
+            buf.append(',');
+            if (!appendKey(buf, expr.rvalue, literals, p)) {
+                return false;
+            }
+            buf.append(')');
+        } else if (operand instanceof Reference) {
+            Reference ref = (Reference) operand;
+            buf.append('R');
+            appendString(buf, ref.name);
+            appendString(buf, ref.cast == null ? "" : ref.cast);
+        } else if (operand instanceof StringLiteral) {
+            String value = ((StringLiteral) operand).value;
+            if (param && value.length() != 0) {
+                buf.append('?');
+                literals.add(value);
+            } else {
+                buf.append('S');
+                appendString(buf, value);
+            }
+        } else if (operand instanceof LiteralList) {
+            buf.append('L').append('(');
+            for (Operand value : (LiteralList) operand) {
+                if (!appendKey(buf, value, literals, param)) {
+                    return false;
+                }
+                buf.append(',');
+            }
+            buf.append(')');
+        } else if (operand instanceof IntegerLiteral) {
+            buf.append('I').append(((IntegerLiteral) operand).value);
+        } else if (operand instanceof DoubleLiteral) {
+            buf.append('F').append(((DoubleLiteral) operand).value);
+        } else if (operand instanceof BooleanLiteral) {
+            buf.append('B').append(((BooleanLiteral) operand).value);
+        } else if (operand instanceof DateLiteral) {
+            DateLiteral date = (DateLiteral) operand;
+            buf.append(date.onlyDate ? 'D' : 'T');
+            appendString(buf, date.value.toString());
+        } else {
+            // functions and others
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Checks if the string literals of an expression are plain parameters of
+     * the built SQL query.
+     */
+    protected static boolean isParameterExpression(Expression expr) {
+        if (!PARAMETER_OPERATORS.contains(expr.operator)
+                || !(expr.lvalue instanceof Reference)) {
+            return false;
+        }
+        Reference ref = (Reference) expr.lvalue;
+        if (ref.cast != null) {
+            return false;
+        }
+        return PARAMETER_ECM_PROPERTIES.contains(ref.name)
+                || !ref.name.startsWith(NXQL.ECM_PREFIX);
+    }
+
+    protected static void appendString(StringBuilder buf, String s) {
+        buf.append(s.length()).append(':').append(s);
+    }
+
+    protected static void appendStrings(StringBuilder buf, String[] strings) {
+        if (strings == null) {
+            buf.append('N');
+            return;
+        }
+        buf.append(strings.length).append('[');
+        for (String s : strings) {
+            appendString(buf, s);
+        }
+        buf.append(']');
+    }
+
+    /**
+     * Clears the cache.
+     */
+    public void clear() {
+        templates.clear();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public int getSize() {
+        return templates.size();
+    }
+
+    private void updateStats() {
+        if ((hits.get() + misses.get()) % STATS_PERIOD != 0) {
+            return;
+        }
+        SimonManager.getCounter(CN_HITS).set(hits.get());
+        SimonManager.getCounter(CN_MISSES).set(misses.get());
+        SimonManager.getCounter(CN_SIZE).set(templates.size());
+    }
+
+    /**
+     * Path resolver remembering if it has been used, in which case the built
+     * query depends on the data and is not cached.
+     */
+    protected static class TrackingPathResolver implements PathResolver {
+
+        protected final PathResolver pathResolver;
+
+        protected boolean used;
+
+        protected TrackingPathResolver(PathResolver pathResolver) {
+            this.pathResolver = pathResolver;
+        }
+
+        @Override
+        public Serializable getIdForPath(String path) throws StorageException {
+            used = true;
+            return pathResolver.getIdForPath(path);
+        }
+    }
+
+}
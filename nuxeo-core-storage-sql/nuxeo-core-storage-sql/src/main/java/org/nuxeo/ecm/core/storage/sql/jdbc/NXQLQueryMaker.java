@@ -16,7 +16,9 @@ import java.io.Serializable;
 import java.sql.Types;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Calendar;
 import java.util.Collections;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -30,6 +32,7 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.nuxeo.common.utils.FullTextUtils;
 import org.nuxeo.common.utils.StringUtils;
+import org.nuxeo.ecm.core.api.KeysetCursor;
 import org.nuxeo.ecm.core.api.impl.FacetFilter;
 import org.nuxeo.ecm.core.query.QueryFilter;
 import org.nuxeo.ecm.core.query.sql.NXQL;
@@ -232,6 +235,18 @@ public class NXQLQueryMaker implements QueryMaker {
     public Query buildQuery(SQLInfo sqlInfo, Model model,
             PathResolver pathResolver, String query, QueryFilter queryFilter,
             Object... params) throws StorageException {
+        return buildQuery(sqlInfo, model, pathResolver,
+                SQLQueryParser.parse(query), queryFilter);
+    }
+
+    /**
+     * Builds the query from an already parsed NXQL query.
+     *
+     * @since 5.7
+     */
+    public Query buildQuery(SQLInfo sqlInfo, Model model,
+            PathResolver pathResolver, SQLQuery sqlQuery,
+            QueryFilter queryFilter) throws StorageException {
         this.sqlInfo = sqlInfo;
         database = sqlInfo.database;
         dialect = sqlInfo.dialect;
@@ -239,11 +254,19 @@ public class NXQLQueryMaker implements QueryMaker {
         this.pathResolver = pathResolver;
         // transform the query according to the transformers defined by the
         // security policies
-        SQLQuery sqlQuery = SQLQueryParser.parse(query);
         for (SQLQuery.Transformer transformer : queryFilter.getQueryTransformers()) {
             sqlQuery = transformer.transform(queryFilter.getPrincipal(),
                     sqlQuery);
         }
+        // keyset pagination
+        if (queryFilter.getKeysetCursor() != null) {
+            try {
+                sqlQuery = addKeysetCursor(sqlQuery,
+                        queryFilter.getKeysetCursor());
+            } catch (QueryMakerException e) {
+                throw new StorageException(e.getMessage(), e);
+            }
+        }
 
         // SELECT * -> SELECT ecm:uuid
         boolean selectStar = sqlQuery.select.isEmpty();
@@ -652,6 +675,110 @@ public class NXQLQueryMaker implements QueryMaker {
         return q;
     }
 
+    /**
+     * Restricts the query to the documents following a keyset cursor in the
+     * query order, and adds the document id as a last ORDER BY criterion to
+     * make this order total.
+     * <p>
+     * For {@code ORDER BY a, b DESC} and a cursor {@code (va, vb, id)} the
+     * seek predicate is {@code a >= va AND (a > va OR (a = va AND b < vb) OR
+     * (a = va AND b = vb AND ecm:uuid > id))}. Unlike a row value comparison
+     * it allows mixed directions and is understood by all databases. The
+     * redundant leading {@code a >= va} lets the database use a range scan of
+     * an index on the ORDER BY columns, so no preceding row is read.
+     *
+     * @since 5.7
+     */
+    protected SQLQuery addKeysetCursor(SQLQuery sqlQuery, KeysetCursor cursor) {
+        List<OrderByExpr> orderBys = new ArrayList<OrderByExpr>();
+        if (sqlQuery.orderBy != null) {
+            orderBys.addAll(sqlQuery.orderBy.elements);
+        }
+        OrderByExpr idOrderBy;
+        int last = orderBys.size() - 1;
+        if (last >= 0
+                && NXQL.ECM_UUID.equals(orderBys.get(last).reference.name)) {
+            idOrderBy = orderBys.remove(last);
+        } else {
+            idOrderBy = new OrderByExpr(new Reference(NXQL.ECM_UUID), false);
+        }
+        List<Serializable> values = cursor.getValues();
+        if (values.size() != orderBys.size()) {
+            throw new QueryMakerException("Keyset cursor has "
+                    + values.size() + " values but query has "
+                    + orderBys.size() + " ORDER BY properties");
+        }
+        List<Operand> seeks = new LinkedList<Operand>();
+        for (int i = 0; i <= orderBys.size(); i++) {
+            List<Operand> ands = new LinkedList<Operand>();
+            for (int j = 0; j < i; j++) {
+                ands.add(new Predicate(orderBys.get(j).reference,
+                        Operator.EQ, getKeysetLiteral(values.get(j), true)));
+            }
+            OrderByExpr orderBy;
+            Serializable value;
+            if (i < orderBys.size()) {
+                orderBy = orderBys.get(i);
+                value = values.get(i);
+            } else {
+                orderBy = idOrderBy;
+                value = cursor.getId();
+            }
+            Operator op = orderBy.isDescending ? Operator.LT : Operator.GT;
+            ands.add(new Predicate(orderBy.reference, op, getKeysetLiteral(
+                    value, false)));
+            seeks.add(ands.size() == 1 ? ands.get(0) : new MultiExpression(
+                    Operator.AND, ands));
+        }
+        Predicate seek = seeks.size() == 1 ? (Predicate) seeks.get(0)
+                : new MultiExpression(Operator.OR, seeks);
+        if (!orderBys.isEmpty()) {
+            // redundant, but usable as an index range by the planners
+            OrderByExpr first = orderBys.get(0);
+            Operator op = first.isDescending ? Operator.LTEQ : Operator.GTEQ;
+            seek = new Predicate(new Predicate(first.reference, op,
+                    getKeysetLiteral(values.get(0), false)), Operator.AND,
+                    seek);
+        }
+        Predicate where = sqlQuery.where == null ? seek : new Predicate(
+                sqlQuery.where.predicate, Operator.AND, seek);
+        OrderByList orderByList = new OrderByList(idOrderBy);
+        orderByList.addAll(0, orderBys);
+        return new SQLQuery(sqlQuery.select, sqlQuery.from, new WhereClause(
+                where), sqlQuery.groupBy, sqlQuery.having, new OrderByClause(
+                orderByList), sqlQuery.limit, sqlQuery.offset);
+    }
+
+    /**
+     * Converts a keyset cursor value into a literal. Booleans are compared
+     * for equality with 0 or 1 like in NXQL, but ordered as booleans.
+     */
+    protected static Literal getKeysetLiteral(Serializable value,
+            boolean equality) {
+        if (value instanceof String) {
+            return new StringLiteral((String) value);
+        } else if (value instanceof Boolean) {
+            boolean b = ((Boolean) value).booleanValue();
+            return equality ? new IntegerLiteral(b ? 1L : 0L)
+                    : new BooleanLiteral(b);
+        } else if (value instanceof Double || value instanceof Float) {
+            return new DoubleLiteral(((Number) value).doubleValue());
+        } else if (value instanceof Number) {
+            return new IntegerLiteral(((Number) value).longValue());
+        } else if (value instanceof Calendar) {
+            long millis = ((Calendar) value).getTimeInMillis();
+            return new DateLiteral(DateLiteral.dateTimeFormatter.print(millis),
+                    false);
+        } else if (value instanceof Date) {
+            long millis = ((Date) value).getTime();
+            return new DateLiteral(DateLiteral.dateTimeFormatter.print(millis),
+                    false);
+        } else {
+            throw new QueryMakerException("Invalid keyset cursor value: "
+                    + value);
+        }
+    }
+
     // overridden by specialized query makers that need to tweak some joins
     protected void addJoin(int kind, String alias, Table table, String column,
             Table contextTable, String contextColumn, String name, int index) {
@@ -71,6 +71,8 @@ public class SQLInfo {
 
     private final Map<String, List<Column>> insertColumnsMap;
 
+    private final Map<String, Insert> insertMap;
+
     private final Map<String, String> deleteSqlMap; // statement
 
     private Map<SelectionType, SQLInfoSelection> selections;
@@ -127,6 +129,7 @@ public class SQLInfo {
 
         insertSqlMap = new HashMap<String, String>();
         insertColumnsMap = new HashMap<String, List<Column>>();
+        insertMap = new HashMap<String, Insert>();
 
         deleteSqlMap = new HashMap<String, String>();
 
@@ -182,6 +185,50 @@ public class SQLInfo {
         return selectChildrenIdsAndTypesWhatColumns;
     }
 
+    /**
+     * Select of the ids, types and parent ids of the children of several
+     * parents.
+     *
+     * @param nparents the number of parent ids
+     * @param onlyComplex whether to only select complex properties
+     * @since 5.7
+     */
+    public SQLInfoSelect getSelectChildrenIdsAndTypesByParents(int nparents,
+            boolean onlyComplex) {
+        Table table = database.getTable(model.HIER_TABLE_NAME);
+        Column parentColumn = table.getColumn(model.HIER_PARENT_KEY);
+        List<Column> whatColumns = Arrays.asList(
+                table.getColumn(model.MAIN_KEY), parentColumn,
+                table.getColumn(model.MAIN_PRIMARY_TYPE_KEY),
+                table.getColumn(model.MAIN_MIXIN_TYPES_KEY));
+        List<String> whats = new ArrayList<String>(whatColumns.size());
+        for (Column column : whatColumns) {
+            whats.add(column.getQuotedName());
+        }
+        StringBuilder wherebuf = new StringBuilder(
+                parentColumn.getQuotedName());
+        wherebuf.append(" IN (");
+        for (int i = 0; i < nparents; i++) {
+            if (i != 0) {
+                wherebuf.append(", ");
+            }
+            wherebuf.append('?');
+        }
+        wherebuf.append(')');
+        if (onlyComplex) {
+            wherebuf.append(" AND ");
+            wherebuf.append(table.getColumn(model.HIER_CHILD_ISPROPERTY_KEY).getQuotedName());
+            wherebuf.append(" = ");
+            wherebuf.append(dialect.toBooleanValueString(true));
+        }
+        Select select = new Select(table);
+        select.setWhat(StringUtils.join(whats, ", "));
+        select.setFrom(table.getQuotedName());
+        select.setWhere(wherebuf.toString());
+        return new SQLInfoSelect(select.getStatement(), whatColumns,
+                Collections.singletonList(parentColumn), null);
+    }
+
     public String getSelectDescendantsInfoSql() {
         return selectDescendantsInfoSql;
     }
@@ -220,6 +267,22 @@ public class SQLInfo {
         return insertColumnsMap.get(tableName);
     }
 
+    /**
+     * Returns the SQL {@code INSERT} to add several rows in a single
+     * statement. The columns are those of {@link #getInsertColumns}, repeated
+     * for each row.
+     * <p>
+     * Only usable if the dialect supports multi-row inserts.
+     *
+     * @param tableName the table name
+     * @param rows the number of rows
+     * @return the SQL {@code INSERT} statement
+     * @since 5.7
+     */
+    public String getMultiRowInsertSql(String tableName, int rows) {
+        return insertMap.get(tableName).getStatement(rows);
+    }
+
     // ----- update -----
 
     // TODO these two methods are redundant with one another
@@ -811,6 +874,7 @@ public class SQLInfo {
                 insert.addColumn(column);
             }
             insertSqlMap.put(tableName, insert.getStatement());
+            insertMap.put(tableName, insert);
             insertColumnsMap.put(tableName, insertColumns);
         }
 
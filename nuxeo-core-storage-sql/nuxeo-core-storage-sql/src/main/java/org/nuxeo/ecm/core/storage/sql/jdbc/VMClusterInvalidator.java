@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2006-2011 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Florent Guillaume
+ */
+
+package org.nuxeo.ecm.core.storage.sql.jdbc;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.javasimon.SimonManager;
+import org.nuxeo.ecm.core.storage.StorageException;
+import org.nuxeo.ecm.core.storage.sql.Invalidations;
+import org.nuxeo.ecm.core.storage.sql.InvalidationsQueue;
+import org.nuxeo.ecm.core.storage.sql.RepositoryDescriptor;
+
+/**
+ * Cluster invalidator pushing invalidations between cluster nodes living in
+ * the same JVM.
+ * <p>
+ * All the nodes for the same repository name share a channel, invalidations
+ * sent by one node are immediately queued to all the other ones. This is
+ * mostly useful for tests and as a stand-in for a network transport.
+ *
+ * @since 5.7
+ */
+public class VMClusterInvalidator implements ClusterInvalidator {
+
+    /** Stop watch for the delay between send and receive. */
+    public static final String SW_DELAY = "org.nuxeo.ecm.core.storage.sql.cluster.invalidations.delay";
+
+    /** The channels, keyed by repository name. */
+    protected static final ConcurrentMap<String, List<VMClusterInvalidator>> channels = new ConcurrentHashMap<String, List<VMClusterInvalidator>>();
+
+    protected String nodeId;
+
+    protected String channelName;
+
+    protected List<VMClusterInvalidator> channel;
+
+    protected InvalidationsQueue queue;
+
+    /** Time at which the oldest not yet received invalidations were queued. */
+    // used synchronized on queue
+    protected long pendingSinceNanos;
+
+    @Override
+    public void initialize(String nodeId,
+            RepositoryDescriptor repositoryDescriptor) {
+        this.nodeId = nodeId;
+        channelName = repositoryDescriptor.name;
+        queue = new InvalidationsQueue("cluster-vm-" + nodeId);
+        List<VMClusterInvalidator> newChannel = new CopyOnWriteArrayList<VMClusterInvalidator>();
+        channel = channels.putIfAbsent(channelName, newChannel);
+        if (channel == null) {
+            channel = newChannel;
+        }
+        channel.add(this);
+    }
+
+    @Override
+    public void close() {
+        channel.remove(this);
+    }
+
+    @Override
+    public Invalidations receiveInvalidations() {
+        Invalidations invalidations;
+        long since;
+        synchronized (queue) {
+            invalidations = queue.getInvalidations();
+            since = pendingSinceNanos;
+            pendingSinceNanos = 0;
+        }
+        if (invalidations.isEmpty()) {
+            return null;
+        }
+        if (since != 0) {
+            SimonManager.getStopwatch(SW_DELAY).addTime(
+                    System.nanoTime() - since);
+        }
+        return invalidations;
+    }
+
+    @Override
+    public void sendInvalidations(Invalidations invalidations)
+            throws StorageException {
+        for (VMClusterInvalidator peer : channel) {
+            if (peer != this) {
+                peer.queueInvalidations(invalidations);
+            }
+        }
+    }
+
+    protected void queueInvalidations(Invalidations invalidations) {
+        synchronized (queue) {
+            if (pendingSinceNanos == 0) {
+                pendingSinceNanos = System.nanoTime();
+            }
+            queue.addInvalidations(invalidations);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + '(' + channelName + ',' + nodeId
+                + ')';
+    }
+
+}
@@ -60,6 +60,24 @@ public class Insert implements Serializable {
      * @return the SQL insert or copy statement
      */
     public String getStatement() {
+        return getStatement(1);
+    }
+
+    /**
+     * Gets the statement to insert several rows at once.
+     * <p>
+     * Example: {@code INSERT INTO foo (a, b, c) VALUES (?, ?, ?), (?, ?, ?)}
+     *
+     * @param rows the number of rows
+     * @return the SQL insert statement
+     * @since 5.7
+     */
+    public String getStatement(int rows) {
+        if (rows > 1 && (columns.isEmpty() || insertValues != null)) {
+            throw new IllegalArgumentException(
+                    "Cannot insert multiple rows into: "
+                            + table.getPhysicalName());
+        }
         StringBuilder buf = new StringBuilder(128);
         buf.append("INSERT INTO ");
         buf.append(table.getQuotedName());
@@ -79,9 +97,14 @@ public class Insert implements Serializable {
             buf.append(StringUtils.join(columnNames, ", "));
             buf.append(") ");
             if (insertValues == null) {
-                buf.append("VALUES (");
-                buf.append(StringUtils.join(values, ", "));
-                buf.append(')');
+                String tuple = '(' + StringUtils.join(values, ", ") + ')';
+                buf.append("VALUES ");
+                for (int i = 0; i < rows; i++) {
+                    if (i != 0) {
+                        buf.append(", ");
+                    }
+                    buf.append(tuple);
+                }
             } else {
                 buf.append(insertValues);
             }
@@ -46,6 +46,7 @@ import org.nuxeo.ecm.core.storage.sql.BinaryManager;
 import org.nuxeo.ecm.core.storage.sql.ColumnType;
 import org.nuxeo.ecm.core.storage.sql.Model;
 import org.nuxeo.ecm.core.storage.sql.RepositoryDescriptor;
+import org.nuxeo.ecm.core.storage.sql.Row;
 import org.nuxeo.ecm.core.storage.sql.jdbc.QueryMaker.QueryMakerException;
 import org.nuxeo.ecm.core.storage.sql.jdbc.db.Column;
 import org.nuxeo.ecm.core.storage.sql.jdbc.db.Database;
@@ -861,6 +862,30 @@ public abstract class Dialect {
         throw new UnsupportedOperationException("paging is not supported");
     }
 
+    /**
+     * Gets the number of rows fetched at a time by queries, so that large
+     * results are streamed instead of being read completely by the driver.
+     *
+     * @return the fetch size, or {@code 0} for the driver default
+     * @since 5.7
+     */
+    public int getQueryFetchSize() {
+        return 0;
+    }
+
+    /**
+     * Returns a SQL query counting the rows of the given query, used to get
+     * the total size of a paged query without reading all its rows.
+     *
+     * @param sql the query
+     * @return the count query, or {@code null} if the rows have to be read to
+     *         be counted
+     * @since 5.7
+     */
+    public String getCountSql(String sql) {
+        return null;
+    }
+
     /**
      * Gets the type of a fulltext column has known by JDBC.
      * <p>
@@ -1195,6 +1220,69 @@ public abstract class Dialect {
         return 400;
     }
 
+    /**
+     * Does the dialect support inserting several rows with a single
+     * {@code INSERT INTO ... VALUES (...), (...)} statement.
+     *
+     * @since 5.7
+     */
+    public boolean supportsMultiRowInsert() {
+        return false;
+    }
+
+    /**
+     * Maximum number of parameters in a prepared statement.
+     * <p>
+     * Beyond this size multi-row inserts are done in several chunks.
+     * <p>
+     * SQL Server is limited to 2100 parameters.
+     *
+     * @since 5.7
+     */
+    public int getMaximumParameters() {
+        return 2000;
+    }
+
+    /**
+     * Does the dialect support several {@code ;}-separated statements with
+     * parameters in a single prepared statement, sent to the database in one
+     * round-trip.
+     *
+     * @since 5.7
+     */
+    public boolean supportsCompoundStatements() {
+        return false;
+    }
+
+    /**
+     * Does the dialect support a COPY-style bulk load of rows through
+     * {@link #copyIn} on the given connection.
+     *
+     * @param connection the connection
+     * @since 5.7
+     */
+    public boolean supportsCopyIn(Connection connection) {
+        return false;
+    }
+
+    /**
+     * Bulk loads rows into a table by streaming them to the database,
+     * bypassing the per-row statement execution.
+     * <p>
+     * Only called if {@link #supportsCopyIn} returned {@code true}.
+     *
+     * @param connection the connection
+     * @param table the table
+     * @param columns the columns to load
+     * @param rows the rows holding the column values
+     * @return the number of rows loaded
+     * @since 5.7
+     */
+    public long copyIn(Connection connection, Table table,
+            List<Column> columns, List<Row> rows) throws SQLException {
+        throw new UnsupportedOperationException();
+    }
+
     /**
      * Gets the statement to update the read acls
      *
@@ -291,6 +291,11 @@ public class DialectH2 extends Dialect {
         return false;
     }
 
+    @Override
+    public boolean supportsMultiRowInsert() {
+        return true;
+    }
+
     @Override
     public String getSQLStatementsFilename() {
         return "nuxeovcs/h2.sql.txt";
@@ -347,6 +352,16 @@ public class DialectH2 extends Dialect {
         return sql + String.format(" LIMIT %d OFFSET %d", limit, offset);
     }
 
+    @Override
+    public int getQueryFetchSize() {
+        return 1000;
+    }
+
+    @Override
+    public String getCountSql(String sql) {
+        return "SELECT COUNT(*) FROM (" + sql + ") _C";
+    }
+
     public String getUsersSeparator() {
         if (usersSeparator == null) {
             return DEFAULT_USERS_SEPARATOR;
@@ -342,6 +342,16 @@ public class DialectMySQL extends Dialect {
         return true;
     }
 
+    @Override
+    public boolean supportsMultiRowInsert() {
+        return true;
+    }
+
+    @Override
+    public int getMaximumParameters() {
+        return 65535;
+    }
+
     @Override
     public boolean needsOrderByKeysAfterDistinct() {
         return false;
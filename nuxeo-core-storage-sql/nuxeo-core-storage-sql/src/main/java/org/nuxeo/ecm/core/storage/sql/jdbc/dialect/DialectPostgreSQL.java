@@ -13,7 +13,11 @@
 
 package org.nuxeo.ecm.core.storage.sql.jdbc.dialect;
 
+import java.io.Reader;
 import java.io.Serializable;
+import java.io.StringReader;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
 import java.net.SocketException;
 import java.sql.Array;
 import java.sql.Connection;
@@ -23,12 +27,15 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.sql.Types;
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Calendar;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 import java.util.regex.Pattern;
@@ -40,11 +47,13 @@ import org.nuxeo.ecm.core.NXCore;
 import org.nuxeo.ecm.core.api.security.SecurityConstants;
 import org.nuxeo.ecm.core.security.SecurityService;
 import org.nuxeo.ecm.core.storage.StorageException;
+import org.nuxeo.ecm.core.storage.sql.Binary;
 import org.nuxeo.ecm.core.storage.sql.BinaryManager;
 import org.nuxeo.ecm.core.storage.sql.ColumnType;
 import org.nuxeo.ecm.core.storage.sql.Model;
 import org.nuxeo.ecm.core.storage.sql.ModelFulltext;
 import org.nuxeo.ecm.core.storage.sql.RepositoryDescriptor;
+import org.nuxeo.ecm.core.storage.sql.Row;
 import org.nuxeo.ecm.core.storage.sql.jdbc.QueryMaker.QueryMakerException;
 import org.nuxeo.ecm.core.storage.sql.jdbc.db.Column;
 import org.nuxeo.ecm.core.storage.sql.jdbc.db.Database;
@@ -77,6 +86,8 @@ public class DialectPostgreSQL extends Dialect {
 
     private static final String UNLOGGED_KEYWORD = "UNLOGGED";
 
+    private static final String PG_CONNECTION_CLASS = "org.postgresql.PGConnection";
+
     protected final String fulltextAnalyzer;
 
     protected final boolean supportsWith;
@@ -692,6 +703,197 @@ public class DialectPostgreSQL extends Dialect {
         return true;
     }
 
+    @Override
+    public boolean supportsMultiRowInsert() {
+        return true;
+    }
+
+    @Override
+    public int getMaximumParameters() {
+        // the driver sends the parameter count as a 16-bit integer
+        return 32767;
+    }
+
+    @Override
+    public boolean supportsCompoundStatements() {
+        // the driver pipelines them without waiting for each result
+        return true;
+    }
+
+    @Override
+    public boolean supportsCopyIn(Connection connection) {
+        return getCopyManager(connection) != null;
+    }
+
+    /**
+     * Gets the driver's {@code CopyManager} for a connection, or {@code null}
+     * if unavailable. Reflection is used as the PostgreSQL driver is not a
+     * compile-time dependency.
+     */
+    protected Object getCopyManager(Connection connection) {
+        try {
+            Class<?> klass = Class.forName(PG_CONNECTION_CLASS, false,
+                    connection.getClass().getClassLoader());
+            Object pgConnection;
+            if (klass.isInstance(connection)) {
+                pgConnection = connection;
+            } else if (connection.isWrapperFor(klass)) {
+                pgConnection = connection.unwrap(klass);
+            } else {
+                return null;
+            }
+            return klass.getMethod("getCopyAPI").invoke(pgConnection);
+        } catch (Exception e) {
+            return null;
+        } catch (AbstractMethodError e) {
+            // pre-JDBC4 wrapper
+            return null;
+        }
+    }
+
+    @Override
+    public long copyIn(Connection connection, Table table,
+            List<Column> columns, List<Row> rows) throws SQLException {
+        Object copyManager = getCopyManager(connection);
+        if (copyManager == null) {
+            throw new SQLException("COPY not available on connection: "
+                    + connection);
+        }
+        List<String> columnNames = new ArrayList<String>(columns.size());
+        for (Column column : columns) {
+            columnNames.add(column.getQuotedName());
+        }
+        String sql = "COPY " + table.getQuotedName() + " ("
+                + StringUtils.join(columnNames, ", ") + ") FROM STDIN";
+        // timestamps are sent like setTimestamp(index, ts, cal) would
+        SimpleDateFormat timestampFormat = new SimpleDateFormat(
+                "yyyy-MM-dd HH:mm:ss.SSS", Locale.ENGLISH);
+        StringBuilder buf = new StringBuilder(rows.size() * 64);
+        for (Row row : rows) {
+            boolean first = true;
+            for (Column column : columns) {
+                if (first) {
+                    first = false;
+                } else {
+                    buf.append('\t');
+                }
+                appendCopyValue(buf, row.get(column.getKey()), column,
+                        timestampFormat);
+            }
+            buf.append('\n');
+        }
+        try {
+            Method copyIn = copyManager.getClass().getMethod("copyIn",
+                    String.class, Reader.class);
+            Object count = copyIn.invoke(copyManager, sql, new StringReader(
+                    buf.toString()));
+            return ((Long) count).longValue();
+        } catch (InvocationTargetException e) {
+            Throwable t = e.getCause();
+            if (t instanceof SQLException) {
+                throw (SQLException) t;
+            }
+            throw new SQLException("Could not COPY: " + sql, t);
+        } catch (Exception e) {
+            throw new SQLException("Could not COPY: " + sql, e);
+        }
+    }
+
+    /**
+     * Appends a value in the COPY text format.
+     */
+    protected void appendCopyValue(StringBuilder buf, Serializable value,
+            Column column, SimpleDateFormat timestampFormat)
+            throws SQLException {
+        if (value == null) {
+            buf.append("\\N");
+            return;
+        }
+        switch (column.getJdbcType()) {
+        case Types.VARCHAR:
+        case Types.CLOB:
+            if (column.getType() == ColumnType.BLOBID) {
+                appendCopyEscaped(buf, ((Binary) value).getDigest());
+            } else {
+                appendCopyEscaped(buf, (String) value);
+            }
+            return;
+        case Types.BIT:
+            buf.append(((Boolean) value).booleanValue() ? 't' : 'f');
+            return;
+        case Types.SMALLINT:
+        case Types.INTEGER:
+        case Types.BIGINT:
+            buf.append(((Long) value).longValue());
+            return;
+        case Types.DOUBLE:
+            buf.append(((Double) value).doubleValue());
+            return;
+        case Types.TIMESTAMP:
+            Calendar cal = (Calendar) value;
+            timestampFormat.setTimeZone(cal.getTimeZone());
+            buf.append(timestampFormat.format(cal.getTime()));
+            return;
+        case Types.ARRAY:
+            if (!(value instanceof String[])) {
+                throw new SQLException("Expected String[] instead of: "
+                        + value);
+            }
+            StringBuilder array = new StringBuilder();
+            array.append('{');
+            boolean first = true;
+            for (String string : (String[]) value) {
+                if (first) {
+                    first = false;
+                } else {
+                    array.append(',');
+                }
+                if (string == null) {
+                    array.append("NULL");
+                } else {
+                    array.append('"');
+                    array.append(string.replace("\\", "\\\\").replace("\"",
+                            "\\\""));
+                    array.append('"');
+                }
+            }
+            array.append('}');
+            appendCopyEscaped(buf, array.toString());
+            return;
+        case Types.OTHER:
+            if (column.getType() == ColumnType.FTSTORED) {
+                appendCopyEscaped(buf, (String) value);
+                return;
+            }
+            throw new SQLException("Unhandled type: " + column.getType());
+        default:
+            throw new SQLException("Unhandled JDBC type: "
+                    + column.getJdbcType());
+        }
+    }
+
+    protected static void appendCopyEscaped(StringBuilder buf, String string) {
+        for (int i = 0; i < string.length(); i++) {
+            char c = string.charAt(i);
+            switch (c) {
+            case '\\':
+                buf.append("\\\\");
+                break;
+            case '\t':
+                buf.append("\\t");
+                break;
+            case '\n':
+                buf.append("\\n");
+                break;
+            case '\r':
+                buf.append("\\r");
+                break;
+            default:
+                buf.append(c);
+            }
+        }
+    }
+
     @Override
     public Array createArrayOf(int type, Object[] elements,
             Connection connection) throws SQLException {
@@ -1017,6 +1219,16 @@ public class DialectPostgreSQL extends Dialect {
         return sql + String.format(" LIMIT %d OFFSET %d", limit, offset);
     }
 
+    @Override
+    public int getQueryFetchSize() {
+        return 1000;
+    }
+
+    @Override
+    public String getCountSql(String sql) {
+        return "SELECT COUNT(*) FROM (" + sql + ") _C";
+    }
+
     @Override
     public boolean supportsWith() {
         return false; // don't activate until proven useful
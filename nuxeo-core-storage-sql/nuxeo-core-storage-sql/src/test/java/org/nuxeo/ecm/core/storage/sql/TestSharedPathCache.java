@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2006-2011 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Florent Guillaume
+ */
+package org.nuxeo.ecm.core.storage.sql;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class TestSharedPathCache {
+
+    @Test
+    public void testPutGet() throws Exception {
+        SharedPathCache cache = new SharedPathCache(100, 100);
+        assertNull(cache.get("root", "foo"));
+        cache.put("root", "foo", "1");
+        cache.put("root", "bar", "2");
+        cache.put("1", "gee", "3");
+        assertEquals("1", cache.get("root", "foo"));
+        assertEquals("2", cache.get("root", "bar"));
+        assertEquals("3", cache.get("1", "gee"));
+        assertEquals(3, cache.getSize());
+        assertEquals(3, cache.getHits());
+        assertEquals(1, cache.getMisses());
+
+        // only removed if still the same id
+        cache.remove("root", "foo", "4");
+        assertEquals("1", cache.get("root", "foo"));
+        cache.remove("root", "foo", "1");
+        assertNull(cache.get("root", "foo"));
+    }
+
+    @Test
+    public void testInvalidate() throws Exception {
+        SharedPathCache cache = new SharedPathCache(100, 100);
+        cache.put("root", "foo", "1");
+        cache.put("1", "gee", "3");
+        cache.put("2", "moo", "4");
+
+        // children of root changed (move, rename, remove)
+        Invalidations invalidations = new Invalidations();
+        invalidations.addModified(new RowId(Invalidations.PARENT, "root"));
+        // unrelated row modification
+        invalidations.addModified(new RowId(Model.HIER_TABLE_NAME, "2"));
+        cache.invalidate(invalidations);
+        assertNull(cache.get("root", "foo"));
+        assertEquals("3", cache.get("1", "gee"));
+        assertEquals("4", cache.get("2", "moo"));
+
+        // parent deleted
+        invalidations = new Invalidations();
+        invalidations.addDeleted(new RowId(Model.HIER_TABLE_NAME, "1"));
+        cache.invalidate(invalidations);
+        assertNull(cache.get("1", "gee"));
+
+        cache.invalidate(new Invalidations(true));
+        assertEquals(0, cache.getSize());
+    }
+
+    @Test
+    public void testBounded() throws Exception {
+        SharedPathCache cache = new SharedPathCache(10, 5);
+        for (int i = 0; i < 10; i++) {
+            cache.put("root", "child" + i, String.valueOf(i));
+        }
+        assertEquals(5, cache.getSize());
+        for (int i = 0; i < 100; i++) {
+            cache.put("parent" + i, "child", String.valueOf(i));
+        }
+        assertTrue(cache.getSize() <= 10);
+        // the last one is kept
+        assertEquals("99", cache.get("parent99", "child"));
+    }
+
+}
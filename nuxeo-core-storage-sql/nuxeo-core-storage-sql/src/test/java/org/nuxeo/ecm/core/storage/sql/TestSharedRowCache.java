@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2006-2011 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Florent Guillaume
+ */
+package org.nuxeo.ecm.core.storage.sql;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class TestSharedRowCache {
+
+    protected static Row newRow(String id) {
+        Row row = new Row("tst", id);
+        row.put("title", "title of " + id);
+        return row;
+    }
+
+    @Test
+    public void testPutGet() throws Exception {
+        SharedRowCache cache = new SharedRowCache(100, 1000000, 4);
+        RowId rowId = new RowId("tst", "1");
+        assertNull(cache.get(rowId));
+        Row row = newRow("1");
+        cache.put(rowId, row, cache.getStamps());
+        assertSame(row, cache.get(rowId));
+        assertEquals(1, cache.getSize());
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void testInvalidate() throws Exception {
+        SharedRowCache cache = new SharedRowCache(100, 1000000, 4);
+        RowId rowId = new RowId("tst", "1");
+        cache.put(rowId, newRow("1"), cache.getStamps());
+        Invalidations invalidations = new Invalidations();
+        invalidations.addModified(new RowId(rowId));
+        cache.invalidate(invalidations);
+        assertNull(cache.get(rowId));
+        assertEquals(0, cache.getSize());
+        assertEquals(0, cache.getEstimatedBytes());
+    }
+
+    @Test
+    public void testPutAfterConcurrentInvalidationIgnored() throws Exception {
+        SharedRowCache cache = new SharedRowCache(100, 1000000, 1);
+        RowId rowId = new RowId("tst", "1");
+        // stamps taken before a database read
+        long[] stamps = cache.getStamps();
+        // concurrent commit invalidates the row
+        cache.invalidate(rowId);
+        // the value read is now stale and must not be cached
+        cache.put(rowId, newRow("1"), stamps);
+        assertNull(cache.get(rowId));
+        // new reads are cached
+        cache.put(rowId, newRow("1"), cache.getStamps());
+        assertNotNull(cache.get(rowId));
+    }
+
+    @Test
+    public void testEvictionByCount() throws Exception {
+        SharedRowCache cache = new SharedRowCache(10, 1000000, 1);
+        for (int i = 0; i < 100; i++) {
+            RowId rowId = new RowId("tst", String.valueOf(i));
+            cache.put(rowId, newRow(String.valueOf(i)), cache.getStamps());
+        }
+        assertEquals(10, cache.getSize());
+        assertEquals(90, cache.getEvictions());
+    }
+
+    @Test
+    public void testEvictionKeepsReferenced() throws Exception {
+        SharedRowCache cache = new SharedRowCache(10, 1000000, 1);
+        RowId hot = new RowId("tst", "hot");
+        cache.put(hot, newRow("hot"), cache.getStamps());
+        for (int i = 0; i < 100; i++) {
+            RowId rowId = new RowId("tst", String.valueOf(i));
+            cache.put(rowId, newRow(String.valueOf(i)), cache.getStamps());
+            // keep accessing the hot row
+            assertNotNull(cache.get(hot));
+        }
+        assertEquals(10, cache.getSize());
+    }
+
+    @Test
+    public void testEvictionBySize() throws Exception {
+        long rowSize = SharedRowCache.estimateSize(newRow("0"));
+        SharedRowCache cache = new SharedRowCache(1000, 5 * rowSize, 1);
+        for (int i = 0; i < 10; i++) {
+            RowId rowId = new RowId("tst", String.valueOf(i));
+            cache.put(rowId, newRow(String.valueOf(i)), cache.getStamps());
+        }
+        assertEquals(5, cache.getSize());
+        assertTrue(cache.getEstimatedBytes() <= 5 * rowSize);
+    }
+
+}
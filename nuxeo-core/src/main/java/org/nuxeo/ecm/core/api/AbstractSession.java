@@ -97,6 +97,9 @@ import org.nuxeo.ecm.core.query.QueryFilter;
 import org.nuxeo.ecm.core.query.QueryParseException;
 import org.nuxeo.ecm.core.query.QueryResult;
 import org.nuxeo.ecm.core.query.sql.NXQL;
+import org.nuxeo.ecm.core.query.sql.SQLQueryParser;
+import org.nuxeo.ecm.core.query.sql.model.OrderByExpr;
+import org.nuxeo.ecm.core.query.sql.model.SQLQuery;
 import org.nuxeo.ecm.core.query.sql.model.SQLQuery.Transformer;
 import org.nuxeo.ecm.core.schema.DocumentType;
 import org.nuxeo.ecm.core.schema.FacetNames;
@@ -149,6 +152,16 @@ public abstract class AbstractSession implements CoreSession, OperationHandler,
 
     private Long maxResults;
 
+    /**
+     * Number of children fetched at once from the repository when they still
+     * have to be checked one by one.
+     *
+     * @since 5.7
+     */
+    public static final int CHILDREN_PAGE_SIZE = 200;
+
+    private transient Boolean childrenQueryable;
+
     public static class QueryAndFetchExecuteContextException extends ClientRuntimeException {
 
 
@@ -464,10 +477,8 @@ public abstract class AbstractSession implements CoreSession, OperationHandler,
 
     protected final boolean hasPermission(Document doc, String permission)
             throws DocumentException {
-        // TODO: optimize this - usually ACP is already available when calling
-        // this method.
-        // -> cache ACP at securitymanager level or try to reuse the ACP when
-        // it is known
+        // the security manager may cache the inherited ACLs and the
+        // decisions, see CachingSecurityManager
         return getSecurityService().checkPermission(doc, getPrincipal(),
                 permission);
         // return doc.getSession().getSecurityManager().checkPermission(doc,
@@ -1047,20 +1058,7 @@ public abstract class AbstractSession implements CoreSession, OperationHandler,
             }
             Document doc = resolveReference(parent);
             checkPermission(doc, READ_CHILDREN);
-            Iterator<Document> children = doc.getChildren();
-            DocumentModelList docs = new DocumentModelListImpl();
-            while (children.hasNext()) {
-                Document child = children.next();
-                if (hasPermission(child, perm)) {
-                    if (child.getType() != null
-                            && (type == null || type.equals(child.getType().getName()))) {
-                        DocumentModel childModel = readModel(child);
-                        if (filter == null || filter.accept(childModel)) {
-                            docs.add(childModel);
-                        }
-                    }
-                }
-            }
+            DocumentModelList docs = iterateChildren(doc, type, perm, filter);
             if (sorter != null) {
                 Collections.sort(docs, sorter);
             }
@@ -1072,19 +1070,244 @@ public abstract class AbstractSession implements CoreSession, OperationHandler,
     }
 
     @Override
-    public List<DocumentRef> getChildrenRefs(DocumentRef parentRef, String perm)
+    public DocumentModelList getChildren(DocumentRef parent, String type,
+            String perm, Filter filter, String orderBy, long limit, long offset)
+            throws ClientException {
+        try {
+            if (perm == null) {
+                perm = READ;
+            }
+            Document doc = resolveReference(parent);
+            checkPermission(doc, READ_CHILDREN);
+            if (isChildrenQueryable(perm)) {
+                return queryChildren(doc, type, perm, filter, orderBy, limit,
+                        offset);
+            }
+            if (orderBy != null) {
+                throw new ClientException("Cannot order children by "
+                        + orderBy + " in repository " + getRepositoryName());
+            }
+            DocumentModelList docs = iterateChildren(doc, type, perm, filter);
+            int size = docs.size();
+            int from = (int) Math.min(Math.max(offset, 0), size);
+            int to = limit <= 0 ? size : (int) Math.min(from + limit, size);
+            return new DocumentModelListImpl(docs.subList(from, to));
+        } catch (DocumentException e) {
+            throw new ClientException("Failed to get children for "
+                    + parent.toString(), e);
+        }
+    }
+
+    /**
+     * Gets the children of a document by loading and checking them one by
+     * one.
+     */
+    protected DocumentModelList iterateChildren(Document doc, String type,
+            String perm, Filter filter) throws DocumentException,
+            ClientException {
+        Iterator<Document> children = doc.getChildren();
+        DocumentModelList docs = new DocumentModelListImpl();
+        while (children.hasNext()) {
+            Document child = children.next();
+            if (hasPermission(child, perm)) {
+                if (child.getType() != null
+                        && (type == null || type.equals(child.getType().getName()))) {
+                    DocumentModel childModel = readModel(child);
+                    if (filter == null || filter.accept(childModel)) {
+                        docs.add(childModel);
+                    }
+                }
+            }
+        }
+        return docs;
+    }
+
+    /**
+     * Checks if the children of a document can be fetched by a query for the
+     * given permission.
+     * <p>
+     * The repository must be able to filter the query results on security,
+     * which it does using the principals having a {@link SecurityConstants#BROWSE}
+     * permission. This is a superset of the documents having the given
+     * permission if it is one of the permissions implying BROWSE, the
+     * remaining checks being done on the results.
+     *
+     * @since 5.7
+     */
+    protected boolean isChildrenQueryable(String perm)
+            throws DocumentException {
+        if (childrenQueryable == null) {
+            childrenQueryable = Boolean.valueOf(getSession().createQuery(
+                    "SELECT * FROM Document", NXQL.NXQL) instanceof FilterableQuery);
+        }
+        if (!childrenQueryable.booleanValue()) {
+            return false;
+        }
+        String[] permissions = getSecurityService().getPermissionsToCheck(
+                BROWSE);
+        return Arrays.asList(permissions).contains(perm);
+    }
+
+    /**
+     * Gets the NXQL query returning the children of a document.
+     *
+     * @param select the selected columns, {@code "*"} for documents
+     * @param doc the parent document
+     * @param type the wanted type, or {@code null} for all types
+     * @param orderBy the ORDER BY clause, or {@code null} for the order of the
+     *            children in the parent
+     * @since 5.7
+     */
+    protected String getChildrenQuery(String select, Document doc,
+            String type, String orderBy) throws DocumentException {
+        StringBuilder buf = new StringBuilder("SELECT ");
+        buf.append(select);
+        buf.append(" FROM ");
+        // not just Document, some types (Relation) don't extend it
+        boolean first = true;
+        for (DocumentType docType : Framework.getLocalService(
+                SchemaManager.class).getDocumentTypes()) {
+            if (docType.getSuperType() != null) {
+                continue;
+            }
+            if (!first) {
+                buf.append(", ");
+            }
+            first = false;
+            buf.append(docType.getName());
+        }
+        buf.append(" WHERE ");
+        buf.append(NXQL.ECM_PARENTID);
+        buf.append(" = '");
+        buf.append(doc.getUUID());
+        buf.append('\'');
+        if (type != null) {
+            buf.append(" AND ");
+            buf.append(NXQL.ECM_PRIMARYTYPE);
+            buf.append(" = '");
+            buf.append(type.replace("'", "\\'"));
+            buf.append('\'');
+        }
+        buf.append(" ORDER BY ");
+        if (orderBy == null || orderBy.trim().length() == 0) {
+            buf.append(NXQL.ECM_POS);
+        } else {
+            buf.append(orderBy);
+        }
+        // the id makes the order total, so that pages are stable
+        if (orderBy == null || !orderBy.trim().endsWith(NXQL.ECM_UUID)) {
+            buf.append(", ");
+            buf.append(NXQL.ECM_UUID);
+        }
+        return buf.toString();
+    }
+
+    /**
+     * Gets the children of a document using a query, filtered on security by
+     * the repository.
+     *
+     * @since 5.7
+     */
+    protected DocumentModelList queryChildren(Document doc, String type,
+            String perm, Filter filter, String orderBy, long limit, long offset)
+            throws DocumentException, ClientException {
+        // the query must see the changes not yet saved, this is documented on
+        // the paged getChildren, the only caller
+        getSession().save();
+        String query = getChildrenQuery("*", doc, type, orderBy);
+        if (offset < 0) {
+            offset = 0;
+        }
+        if (BROWSE.equals(perm)) {
+            // the query does all the work
+            return query(query, filter, limit, offset, false);
+        }
+        DocumentModelsChunk chunk = queryChildrenChunk(query, perm, filter, 0,
+                offset, limit);
+        DocumentModelList docs = new DocumentModelListImpl(chunk.getSize());
+        for (int i = 0; i < chunk.getSize(); i++) {
+            docs.add(chunk.getItem(i));
+        }
+        return docs;
+    }
+
+    /**
+     * Gets a chunk of the children returned by a query, checking them for a
+     * permission that the query couldn't check.
+     * <p>
+     * The query results are fetched page by page, and the fetching stops as
+     * soon as the chunk is full.
+     *
+     * @param query the children query
+     * @param perm the permission to check
+     * @param filter the filter, or {@code null}
+     * @param start the index in the query results where to start
+     * @param skip the number of accepted children to skip
+     * @param max the maximum number of children, or 0 for all
+     * @return the chunk, whose last index is the index in the query results
+     *         where the next chunk starts
+     * @since 5.7
+     */
+    protected DocumentModelsChunk queryChildrenChunk(String query,
+            String perm, Filter filter, int start, long skip, long max)
             throws ClientException {
-        if (perm != null) {
-            // XXX TODO
-            throw new ClientException("perm != null not implemented");
+        Filter queryFilter = filter instanceof FacetFilter ? filter : null;
+        boolean postFilterFilter = filter != null && queryFilter == null;
+        boolean postFilterPermission = !BROWSE.equals(perm);
+        DocumentModelList docs = new DocumentModelListImpl();
+        int index = start;
+        long n = 0;
+        boolean hasMore = false;
+        scan: while (true) {
+            DocumentModelList page = query(query, queryFilter,
+                    CHILDREN_PAGE_SIZE, index, false);
+            for (DocumentModel model : page) {
+                if ((postFilterPermission && !hasPermission(model.getRef(),
+                        perm))
+                        || (postFilterFilter && !filter.accept(model))) {
+                    index++;
+                    continue;
+                }
+                if (max != 0 && n >= skip + max) {
+                    // the next chunk starts with this one
+                    hasMore = true;
+                    break scan;
+                }
+                if (n >= skip) {
+                    docs.add(model);
+                }
+                n++;
+                index++;
+            }
+            if (page.size() < CHILDREN_PAGE_SIZE) {
+                break;
+            }
         }
+        return new DocumentModelsChunk(docs, index, hasMore,
+                DocumentModelIterator.UNKNOWN_SIZE);
+    }
+
+    @Override
+    public List<DocumentRef> getChildrenRefs(DocumentRef parentRef, String perm)
+            throws ClientException {
         try {
             Document parent = resolveReference(parentRef);
             checkPermission(parent, READ_CHILDREN);
-            List<String> ids = parent.getChildrenIds();
-            List<DocumentRef> refs = new ArrayList<DocumentRef>(ids.size());
-            for (String id : ids) {
-                refs.add(new IdRef(id));
+            if (perm == null) {
+                List<String> ids = parent.getChildrenIds();
+                List<DocumentRef> refs = new ArrayList<DocumentRef>(
+                        ids.size());
+                for (String id : ids) {
+                    refs.add(new IdRef(id));
+                }
+                return refs;
+            }
+            List<DocumentRef> refs = new ArrayList<DocumentRef>();
+            for (String id : parent.getChildrenIds()) {
+                IdRef ref = new IdRef(id);
+                if (hasPermission(ref, perm)) {
+                    refs.add(ref);
+                }
             }
             return refs;
         } catch (DocumentException e) {
@@ -1476,7 +1699,6 @@ public abstract class AbstractSession implements CoreSession, OperationHandler,
             Filter filter, long limit, long offset, long countUpTo)
             throws ClientException {
         SecurityService securityService = getSecurityService();
-        Principal principal = getPrincipal();
         try {
             Query compiledQuery = getSession().createQuery(query, queryType);
             QueryResult results;
@@ -1487,27 +1709,16 @@ public abstract class AbstractSession implements CoreSession, OperationHandler,
             String permission = BROWSE;
             if (compiledQuery instanceof FilterableQuery) {
                 postFilterPermission = false;
-                String repoName = getRepositoryName();
-                postFilterPolicies = !securityService.arePoliciesExpressibleInQuery(repoName);
+                postFilterPolicies = isPostFilterPolicies();
                 postFilterFilter = filter != null
                         && !(filter instanceof FacetFilter);
                 postFilter = postFilterPolicies || postFilterFilter;
-                String[] principals;
-                if (isAdministrator()) {
-                    principals = null; // means: no security check needed
-                } else {
-                    principals = SecurityService.getPrincipalsToCheck(principal);
-                }
-                String[] permissions = securityService.getPermissionsToCheck(permission);
-                QueryFilter queryFilter = new QueryFilter(principal,
-                        principals, permissions,
-                        filter instanceof FacetFilter ? (FacetFilter) filter
-                                : null,
-                        securityService.getPoliciesQueryTransformers(repoName),
-                        postFilter ? 0 : limit, postFilter ? 0 : offset);
+                QueryFilter queryFilter = getQueryFilter(permission, filter,
+                        postFilter ? 0 : limit, postFilter ? 0 : offset, null);
                 if (postFilter) {
+                    // counted by the post-filter
                     results = ((FilterableQuery) compiledQuery).execute(
-                            queryFilter, -1);
+                            queryFilter, 0);
                 } else {
                     results = ((FilterableQuery) compiledQuery).execute(
                             queryFilter, countUpTo);
@@ -1520,54 +1731,226 @@ public abstract class AbstractSession implements CoreSession, OperationHandler,
                 results = compiledQuery.execute();
             }
 
-            DocumentModelList dms = results.getDocumentModels();
-
             if (!postFilter) {
                 // the backend has done all the needed filtering
-                return dms;
-            }
-
-            // post-filter the results "by hand", the backend couldn't do it
-            long start = limit == 0 || offset < 0 ? 0 : offset;
-            long stop = start + (limit == 0 ? dms.size() : limit);
-            int n = 0;
-            DocumentModelListImpl docs = new DocumentModelListImpl();
-            for (DocumentModel model : dms) {
-                if (postFilterPermission || postFilterPolicies) {
-                    if (!hasPermission(model.getRef(), permission)) {
-                        continue;
-                    }
-                }
-                if (postFilterFilter) {
-                    if (!filter.accept(model)) {
-                        continue;
-                    }
-                }
-                if (n < start) {
-                    n++;
-                    continue;
-                }
-                if (n >= stop) {
-                    if (countUpTo == 0) {
-                        // can break early
-                        break;
-                    }
-                    n++;
-                    continue;
-                }
+                return results.getDocumentModels();
+            }
+            return postFilter(results, permission, postFilterPermission
+                    || postFilterPolicies, postFilterFilter ? filter : null,
+                    limit, offset, countUpTo);
+        } catch (Exception e) {
+            throw new ClientException("Failed to execute query: "
+                    + tryToExtractMeaningfulErrMsg(e), e);
+        }
+    }
+
+    /**
+     * Filters query results "by hand" when the backend couldn't do it.
+     * <p>
+     * The documents are iterated in the order of the results, and the
+     * iteration stops as soon as the requested page is complete and the total
+     * size, if requested, is known or known to be more than {@code countUpTo}.
+     *
+     * @param results the unfiltered query results
+     * @param permission the permission to check
+     * @param checkPermission whether to check the permission
+     * @param filter the filter, or {@code null}
+     * @since 5.7
+     */
+    protected DocumentModelList postFilter(QueryResult results,
+            String permission, boolean checkPermission, Filter filter,
+            long limit, long offset, long countUpTo) throws ClientException,
+            DocumentException {
+        long start = limit == 0 || offset < 0 ? 0 : offset;
+        long stop = limit == 0 ? Long.MAX_VALUE : start + limit;
+        long n = 0;
+        DocumentModelListImpl docs = new DocumentModelListImpl();
+        Iterator<?> it = results.getDocuments(0);
+        while (it.hasNext()) {
+            if (n >= stop
+                    && (countUpTo == 0 || (countUpTo > 0 && n > countUpTo))) {
+                // can break early
+                break;
+            }
+            Document doc = (Document) it.next();
+            if (checkPermission && !hasPermission(doc, permission)) {
+                continue;
+            }
+            boolean inPage = n >= start && n < stop;
+            if (filter == null && !inPage) {
+                // only counted, no need for a document model
                 n++;
+                continue;
+            }
+            DocumentModel model = readModel(doc);
+            if (filter != null && !filter.accept(model)) {
+                continue;
+            }
+            if (inPage) {
                 docs.add(model);
             }
-            if (countUpTo != 0) {
-                docs.setTotalSize(n);
+            n++;
+        }
+        if (countUpTo != 0) {
+            docs.setTotalSize(countUpTo > 0 && n > countUpTo ? -1 : n);
+        }
+        return docs;
+    }
+
+    /**
+     * Gets the filter with which a repository able to filter queries checks
+     * the given permission for the current principal.
+     *
+     * @param permission the permission to check
+     * @param filter the filter, done by the query only if it is a
+     *            {@link FacetFilter}
+     * @param limit the limit, or 0 if the results are post-filtered
+     * @param offset the offset, or 0 if the results are post-filtered
+     * @param cursor the keyset cursor, or {@code null}
+     * @since 5.7
+     */
+    protected QueryFilter getQueryFilter(String permission, Filter filter,
+            long limit, long offset, KeysetCursor cursor) {
+        SecurityService securityService = getSecurityService();
+        Principal principal = getPrincipal();
+        String[] principals;
+        if (isAdministrator()) {
+            principals = null; // means: no security check needed
+        } else {
+            principals = SecurityService.getPrincipalsToCheck(principal);
+        }
+        String[] permissions = securityService.getPermissionsToCheck(permission);
+        return new QueryFilter(principal, principals, permissions,
+                filter instanceof FacetFilter ? (FacetFilter) filter : null,
+                securityService.getPoliciesQueryTransformers(getRepositoryName()),
+                limit, offset, cursor);
+    }
+
+    /**
+     * Checks if the results of a query filtered by {@link #getQueryFilter}
+     * must still be checked for the security policies that can't be
+     * expressed in a query.
+     *
+     * @since 5.7
+     */
+    protected boolean isPostFilterPolicies() {
+        return !getSecurityService().arePoliciesExpressibleInQuery(
+                getRepositoryName());
+    }
+
+    @Override
+    public DocumentModelList query(String query, Filter filter, long limit,
+            KeysetCursor cursor) throws ClientException {
+        if (limit <= 0) {
+            throw new ClientException("Keyset pagination requires a limit");
+        }
+        try {
+            Query compiledQuery = getSession().createQuery(query, NXQL.NXQL);
+            if (!(compiledQuery instanceof FilterableQuery)) {
+                throw new ClientException(
+                        "Keyset pagination is not supported by repository "
+                                + getRepositoryName());
+            }
+            String permission = BROWSE;
+            boolean postFilterPolicies = isPostFilterPolicies();
+            boolean postFilterFilter = filter != null
+                    && !(filter instanceof FacetFilter);
+            boolean postFilter = postFilterPolicies || postFilterFilter;
+            QueryFilter queryFilter = getQueryFilter(permission, filter,
+                    postFilter ? 0 : limit, 0, cursor);
+            QueryResult results = ((FilterableQuery) compiledQuery).execute(
+                    queryFilter, 0);
+            DocumentModelList page;
+            if (postFilter) {
+                // documents loaded lazily, stopping once the page is full
+                page = postFilter(results, permission, postFilterPolicies,
+                        postFilterFilter ? filter : null, limit, 0, 0);
+            } else {
+                page = results.getDocumentModels();
+            }
+            DocumentModelListImpl docs = new DocumentModelListImpl(page);
+            if (docs.size() >= limit) {
+                // only a full page has a next one, parsed only then
+                docs.setNextCursor(getKeysetCursor(docs.get(docs.size() - 1),
+                        getKeysetOrderBy(query)));
             }
             return docs;
+        } catch (ClientException e) {
+            throw e;
         } catch (Exception e) {
             throw new ClientException("Failed to execute query: "
                     + tryToExtractMeaningfulErrMsg(e), e);
         }
     }
 
+    /**
+     * Gets the ORDER BY clause of a query used with a keyset cursor, without
+     * the final document id that the cursor holds separately.
+     *
+     * @since 5.7
+     */
+    protected List<OrderByExpr> getKeysetOrderBy(String query)
+            throws ClientException {
+        SQLQuery sqlQuery = SQLQueryParser.parse(query);
+        List<OrderByExpr> orderBys = new ArrayList<OrderByExpr>();
+        if (sqlQuery.orderBy != null) {
+            orderBys.addAll(sqlQuery.orderBy.elements);
+        }
+        int last = orderBys.size() - 1;
+        if (last >= 0
+                && NXQL.ECM_UUID.equals(orderBys.get(last).reference.name)) {
+            orderBys.remove(last);
+        }
+        for (OrderByExpr orderBy : orderBys) {
+            if (NXQL.ECM_PATH.equals(orderBy.reference.name)) {
+                throw new ClientException("Cannot use " + NXQL.ECM_PATH
+                        + " with keyset pagination");
+            }
+        }
+        return orderBys;
+    }
+
+    /**
+     * Gets the keyset cursor following a document, from its ORDER BY values.
+     *
+     * @since 5.7
+     */
+    protected KeysetCursor getKeysetCursor(DocumentModel doc,
+            List<OrderByExpr> orderBys) throws ClientException {
+        List<Serializable> values = new ArrayList<Serializable>(
+                orderBys.size());
+        for (OrderByExpr orderBy : orderBys) {
+            String name = orderBy.reference.name;
+            Serializable value;
+            if (NXQL.ECM_UUID.equals(name)) {
+                value = doc.getId();
+            } else if (NXQL.ECM_NAME.equals(name)) {
+                value = doc.getName();
+            } else if (NXQL.ECM_PRIMARYTYPE.equals(name)) {
+                value = doc.getType();
+            } else if (NXQL.ECM_PARENTID.equals(name)) {
+                DocumentRef parentRef = doc.getParentRef();
+                value = parentRef == null ? null
+                        : (Serializable) parentRef.reference();
+            } else if (NXQL.ECM_LIFECYCLESTATE.equals(name)) {
+                value = doc.getCurrentLifeCycleState();
+            } else if (NXQL.ECM_VERSIONLABEL.equals(name)) {
+                value = doc.getVersionLabel();
+            } else if (name.startsWith(NXQL.ECM_PREFIX)) {
+                throw new ClientException("Cannot use " + name
+                        + " with keyset pagination");
+            } else {
+                value = doc.getPropertyValue(name);
+            }
+            if (value == null) {
+                throw new ClientException("Cannot use null value of " + name
+                        + " for keyset pagination, document: " + doc.getId());
+            }
+            values.add(value);
+        }
+        return new KeysetCursor(values, doc.getId());
+    }
+
     @Override
     public IterableQueryResult queryAndFetch(String query, String queryType,
             Object... params) throws ClientException {
@@ -0,0 +1,46 @@
+/*
+ * Copyright (c) 2006-2012 Nuxeo SA (http://nuxeo.com/) and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Florent Guillaume
+ */
+
+package org.nuxeo.ecm.core.security;
+
+import org.nuxeo.ecm.core.api.security.ACP;
+import org.nuxeo.ecm.core.api.security.Access;
+import org.nuxeo.ecm.core.model.Document;
+
+/**
+ * A {@link SecurityManager} that caches the access decisions computed from
+ * merged ACPs, so that documents sharing the same merged ACP (typically the
+ * children of a folder, when they have no ACL of their own) are checked only
+ * once for a given user.
+ *
+ * @since 5.7
+ */
+public interface CachingSecurityManager extends SecurityManager {
+
+    /**
+     * Gets the access of the given principals for the given permissions on a
+     * document.
+     * <p>
+     * This returns the same as {@code acp.getAccess(principals, permissions)}
+     * but may use a cached decision.
+     *
+     * @param doc the document
+     * @param acp the merged ACP of the document, as returned by
+     *            {@link #getMergedACP}
+     * @param principals the principals to check
+     * @param permissions the permissions to check
+     * @return the access, never {@code null}
+     */
+    Access getAccess(Document doc, ACP acp, String[] principals,
+            String[] permissions) throws SecurityException;
+
+}
@@ -167,7 +167,12 @@ public class SecurityService extends DefaultComponent {
         if (acp == null) {
             return false; // no ACP on that doc - by default deny
         }
-        access = acp.getAccess(additionalPrincipals, resolvedPermissions);
+        if (securityManager instanceof CachingSecurityManager) {
+            access = ((CachingSecurityManager) securityManager).getAccess(doc,
+                    acp, additionalPrincipals, resolvedPermissions);
+        } else {
+            access = acp.getAccess(additionalPrincipals, resolvedPermissions);
+        }
 
         return access.toBoolean();
     }